@@ -24,6 +24,8 @@ export const RECEIPT_STYLE_KEYS = [
   'titlesBoldOnly',
   /** When true, POS text receipt prints products before customer + delivery sections. */
   'customerAfterProducts',
+  /** POS logo binarization: auto | threshold | bayer | floyd-steinberg | atkinson */
+  'logoDither',
 ];
 
 /** Default values — numeric/font fields should stay aligned with MainActivity.java defaults where applicable */
@@ -47,6 +49,8 @@ export const DEFAULT_RECEIPT_STYLE = Object.freeze({
   titlesBoldOnly: false,
   /** When true: «تفاصيل المنتجات» أولاً ثم «معلومات العميل» و«تفاصيل التوصيل». */
   customerAfterProducts: false,
+  /** auto = Java picks per image (threshold for flat logos, Atkinson for shaded ones). */
+  logoDither: 'auto',
 });
 
 /** Min/max for numeric fields (clamped in Java too) — used for sliders and validation */
@@ -93,6 +97,15 @@ export const FONT_OPTIONS = Object.freeze([
   { value: "'Cairo', 'Tahoma', sans-serif", label: 'Cairo' },
 ]);
 
+/** POS logo binarization modes (RasterEncoder.java) */
+export const LOGO_DITHER_OPTIONS = Object.freeze([
+  { value: 'auto', label: 'تلقائي (Auto)' },
+  { value: 'threshold', label: 'حد ثابت (Threshold) — شعار بلونين' },
+  { value: 'bayer', label: 'نقاط منتظمة (Bayer)' },
+  { value: 'floyd-steinberg', label: 'تدرج ناعم (Floyd–Steinberg)' },
+  { value: 'atkinson', label: 'تدرج فاتح (Atkinson) — شعار مظلل' },
+]);
+
 /** Build style object with defaults; safe for Firestore and for JSON to Java */
 export function getDefaultReceiptStyle() {
   return { ...DEFAULT_RECEIPT_STYLE };
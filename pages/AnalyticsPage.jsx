@@ -39,6 +39,34 @@ function getUserRegistrationDate(user) {
   return Number.isNaN(d.getTime()) ? null : d;
 }
 
+/** Reports longer than this are streamed to the native printer in chunks (when the app supports it) */
+const REPORT_STREAM_MIN_LINES = 120;
+const REPORT_STREAM_CHUNK_LINES = 40;
+
+/**
+ * Print a report through the native printer. Long reports go through beginDocument / appendLines /
+ * endDocument so the app renders and prints them while they're being sent; otherwise printText.
+ * Resolves to the bridge's result string ("success" or "error: ...").
+ */
+async function printReportNative(reportText) {
+  const printer = window.PosPrinter;
+  const lines = reportText.split('\n');
+  const canStream = typeof printer.beginDocument === 'function';
+  if (!canStream || lines.length < REPORT_STREAM_MIN_LINES) {
+    return printer.printText(reportText);
+  }
+  const begun = await printer.beginDocument('');
+  if (!begun || !begun.includes('success')) return begun;
+  for (let i = 0; i < lines.length; i += REPORT_STREAM_CHUNK_LINES) {
+    const result = await printer.appendLines(lines.slice(i, i + REPORT_STREAM_CHUNK_LINES).join('\n'));
+    if (!result || !result.includes('success')) {
+      await printer.endDocument();
+      return result;
+    }
+  }
+  return printer.endDocument();
+}
+
 const AnalyticsPage = () => {
   const [orders, setOrders] = useState([]);
   const [users, setUsers] = useState([]);
@@ -816,7 +844,7 @@ const AnalyticsPage = () => {
     }
     try {
       const { reportText } = getCustomRangeReportText(range.startDate, range.endDate);
-      const result = await window.PosPrinter.printText(reportText);
+      const result = await printReportNative(reportText);
       if (result && typeof result === 'string' && result.includes('success')) {
         toast.success('✅ تمت طباعة ملخص الفترة المحددة بنجاح', {
           duration: 2000,
@@ -1540,7 +1568,7 @@ const AnalyticsPage = () => {
                   console.log('📄 Report text length:', reportText.length);
                   console.log('📄 Report text preview (first 200 chars):', reportText.substring(0, 200));
                   
-                  const result = await window.PosPrinter.printText(reportText);
+                  const result = await printReportNative(reportText);
                   console.log('🖨️ Print result:', result, 'Type:', typeof result);
                   
                   if (result && typeof result === 'string' && result.includes('success')) {
@@ -1892,7 +1920,7 @@ const AnalyticsPage = () => {
                   console.log('📄 Report text length:', reportText.length);
                   console.log('📄 Report text preview (first 200 chars):', reportText.substring(0, 200));
                   
-                  const result = await window.PosPrinter.printText(reportText);
+                  const result = await printReportNative(reportText);
                   console.log('🖨️ Print result:', result, 'Type:', typeof result);
                   
                   if (result && typeof result === 'string' && result.includes('success')) {
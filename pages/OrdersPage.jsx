@@ -572,7 +572,32 @@ const OrderCard = React.memo(({ order, orderTimers, startTimerForOrder, activeBu
     window.PosPrinter &&
     typeof window.PosPrinter.printText === 'function';
 
-  const handlePrint = async (order) => {
+  // Newer app builds render receipts ahead of time and take the order ID on printText
+  const canUsePrepareReceipt = () =>
+    canUseNativePrinter() && typeof window.PosPrinter.prepareReceipt === 'function';
+
+  const printNative = (order, receiptText, receiptStyleJson) =>
+    canUsePrepareReceipt()
+      ? window.PosPrinter.printText(receiptText, receiptStyleJson || '', String(order.id))
+      : window.PosPrinter.printText(receiptText, receiptStyleJson || '');
+
+  // Reprint of an accepted (possibly edited) order: the app prints only what changed since the
+  // last ticket, the full receipt when it has none, and nothing ("unchanged") when nothing changed.
+  const printNativeUpdate = (order, receiptText, receiptStyleJson) => {
+    if (!canUseNativePrinter() || typeof window.PosPrinter.printOrderUpdate !== 'function') {
+      return printNative(order, receiptText, receiptStyleJson);
+    }
+    const result = window.PosPrinter.printOrderUpdate(String(order.id), receiptText, receiptStyleJson || '');
+    if (result !== 'unchanged') return result;
+    // Same ticket as last time: the user asked for a reprint (from the app's raster cache when it has it)
+    if (typeof window.PosPrinter.reprint === 'function') {
+      const reprinted = window.PosPrinter.reprint(String(order.id));
+      if (reprinted !== 'error: not cached') return reprinted;
+    }
+    return printNative(order, receiptText, receiptStyleJson);
+  };
+
+  const handlePrint = async (order, { asUpdate = false } = {}) => {
     console.log('🖨️ Print requested for order:', order.id);
     
     const receiptText = buildReceiptText(order, receiptStyle);
@@ -582,7 +607,9 @@ const OrderCard = React.memo(({ order, orderTimers, startTimerForOrder, activeBu
     if (canUseNativePrinter()) {
       try {
         console.log('✅ Using native POS printer (H10)');
-        const result = await window.PosPrinter.printText(receiptText, receiptStyleJson || '');
+        const result = asUpdate
+          ? await printNativeUpdate(order, receiptText, receiptStyleJson)
+          : await printNative(order, receiptText, receiptStyleJson);
         console.log('Print result:', result);
         
         if (result && result.includes('success')) {
@@ -596,6 +623,13 @@ const OrderCard = React.memo(({ order, orderTimers, startTimerForOrder, activeBu
             },
           });
           return;
+        } else if (result && result.includes('queue busy')) {
+          // Printer queue nearly full: nothing was queued, the order can be printed again
+          toast.error('⏳ الطابعة مشغولة، أعد المحاولة بعد قليل', {
+            duration: 3000,
+            position: 'top-center',
+          });
+          return;
         } else if (result && result.includes('error')) {
           console.error('Native print error:', result);
           toast.error('❌ خطأ في الطباعة: ' + result, {
@@ -661,7 +695,7 @@ const OrderCard = React.memo(({ order, orderTimers, startTimerForOrder, activeBu
       console.log('🖨️ Silent print for order:', orderData.id);
       const receiptText = buildReceiptText(orderData, receiptStyle);
       const receiptStyleJson = receiptStyle ? JSON.stringify(receiptStyle) : null;
-      const result = await window.PosPrinter.printText(receiptText, receiptStyleJson || '');
+      const result = await printNative(orderData, receiptText, receiptStyleJson);
       
       if (result && result.includes('success')) {
         console.log('✅ Silent print successful');
@@ -946,6 +980,20 @@ const OrderCard = React.memo(({ order, orderTimers, startTimerForOrder, activeBu
     return lines.join('\n');
   };
 
+  // Pre-render the receipt natively while the order waits, so accepting/printing it only sends bytes.
+  // Re-sent on every order/style update; the app re-renders only when the receipt text changed.
+  useEffect(() => {
+    if (!canUsePrepareReceipt()) return;
+    if (order.status !== 'pending' && order.status !== 'confirmed') return;
+    try {
+      const receiptText = buildReceiptText(order, receiptStyle);
+      const receiptStyleJson = receiptStyle ? JSON.stringify(receiptStyle) : '';
+      window.PosPrinter.prepareReceipt(String(order.id), receiptText, receiptStyleJson);
+    } catch (err) {
+      console.warn('prepareReceipt failed:', err);
+    }
+  }, [order, receiptStyle]);
+
   // Accept order and set prep time
   const handleAcceptOrder = () => {
     setShowPrepTime(true);
@@ -1260,7 +1308,7 @@ const OrderCard = React.memo(({ order, orderTimers, startTimerForOrder, activeBu
           <span className="order-id">#{getReadableOrderNumber(order)}</span>
         </div>
         <div className="print-row">
-          <button className="printingBtn" onClick={() => handlePrint(order)}>🖨️</button>
+          <button className="printingBtn" onClick={() => handlePrint(order, { asUpdate: order.status !== 'pending' && order.status !== 'confirmed' })}>🖨️</button>
         </div>
       </div>
 
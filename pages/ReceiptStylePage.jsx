@@ -10,6 +10,7 @@ import {
   mergeWithDefaults,
   RECEIPT_STYLE_CONTROLS,
   FONT_OPTIONS,
+  LOGO_DITHER_OPTIONS,
 } from '../constants/receiptStyleSchema';
 import brandConfig from '../constants/brandConfig';
 import './styles.css';
@@ -340,6 +341,22 @@ const ReceiptStylePage = () => {
             </select>
           </div>
 
+          <div style={{ marginBottom: 18 }}>
+            <label style={{ display: 'block', marginBottom: 6, fontSize: 13, fontWeight: 600, color: '#495057' }}>طباعة الشعار (POS)</label>
+            <select
+              value={style.logoDither || 'auto'}
+              onChange={(e) => updateStyle('logoDither', e.target.value)}
+              style={{ width: '100%', padding: '8px 12px', borderRadius: 8, border: '1px solid #dee2e6', fontSize: 14 }}
+            >
+              {LOGO_DITHER_OPTIONS.map((opt) => (
+                <option key={opt.value} value={opt.value}>{opt.label}</option>
+              ))}
+            </select>
+            <p style={{ margin: '4px 0 0 0', fontSize: 12, color: '#6c757d' }}>
+              الشعار المظلل يطبع أوضح مع Atkinson أو Floyd–Steinberg؛ الشعار بلونين أسرع مع Threshold.
+            </p>
+          </div>
+
           <div style={{ marginTop: 24, paddingTop: 20, borderTop: '2px solid #dee2e6' }}>
             <h3 style={{ margin: '0 0 16px', fontSize: 16, fontWeight: 700, color: '#212529' }}>📝 نص التذييل (Footer Text)</h3>
             <p style={{ marginBottom: 16, fontSize: 12, color: '#6c757d' }}>
@@ -0,0 +1,245 @@
+package com.luqma.pos;
+
+import com.caysn.autoreplyprint.AutoReplyPrint;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.WString;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+
+/**
+ * JNA direct mapping (Native.register, static native methods) of the hot AutoReplyPrint calls.
+ *
+ * AutoReplyPrint.INSTANCE is an interface proxy: every call goes through InvocationHandler,
+ * reflection and per-call argument conversion. A direct-mapped method is bound once to its native
+ * symbol and called like a JNI method, which matters when a receipt is dozens of small commands
+ * (feeds, lines, raster segments, flow-control writes and counter polls).
+ *
+ * Registration happens on first use; if it fails (library or symbol missing) {@link #calls}
+ * hands out the proxy instead, so printing never depends on it.
+ */
+final class AutoReplyDirect {
+
+    private static volatile Boolean available;
+
+    private AutoReplyDirect() {}
+
+    /** The natives; registered against the SDK's library when the class is initialized */
+    private static final class Lib {
+        static {
+            Native.register(Lib.class, AutoReplyPrint.GetLibraryPath_Helper.GetLibraryPath());
+        }
+
+        static void init() {}
+
+        static native boolean CP_Pos_PrintRasterImageFromPixels(Pointer handle, byte[] img_data, int img_datalen,
+                                                                int img_width, int img_height, int img_stride,
+                                                                int img_format, int binaryzation_method,
+                                                                int compress_method);
+
+        static native boolean CP_Pos_PrintRasterImageFromPixels(Pointer handle, Pointer img_data, int img_datalen,
+                                                                int img_width, int img_height, int img_stride,
+                                                                int img_format, int binaryzation_method,
+                                                                int compress_method);
+
+        static native int CP_Port_Write(Pointer handle, byte[] buffer, int count, int timeout);
+
+        static native boolean CP_Pos_FeedLine(Pointer handle, int numLines);
+
+        static native boolean CP_Pos_FeedDot(Pointer handle, int numDots);
+
+        static native boolean CP_Pos_PrintHorizontalLine(Pointer handle, int nLineStartPosition, int nLineEndPosition);
+
+        static native boolean CP_Pos_PrintHorizontalLineSpecifyThickness(Pointer handle, int nLineStartPosition,
+                                                                         int nLineEndPosition, int nLineThickness);
+
+        static native boolean CP_Pos_SetAlignment(Pointer handle, int nAlignment);
+
+        static native boolean CP_Pos_PrintTextInUTF8(Pointer handle, WString str);
+
+        static native int CP_Pos_QueryRTStatus(Pointer handle, int timeout);
+
+        static native boolean CP_Printer_GetPrinterReceivedInfo(Pointer handle, IntByReference printer_received_byte_count,
+                                                                LongByReference timestamp_ms);
+    }
+
+    /** Whether the direct binding registered (tried once) */
+    static boolean isAvailable() {
+        Boolean result = available;
+        if (result == null) {
+            synchronized (AutoReplyDirect.class) {
+                result = available;
+                if (result == null) {
+                    try {
+                        Lib.init();
+                        result = Boolean.TRUE;
+                    } catch (Throwable t) {
+                        android.util.Log.w("POS", "⚠️ Direct-mapped printer calls unavailable: " + t);
+                        result = Boolean.FALSE;
+                    }
+                    available = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param direct prefer the direct binding
+     * @return direct-mapped calls when wanted and available, else the proxy's
+     */
+    static PrinterCalls calls(AutoReplyPrint printer, boolean direct) {
+        return direct && isAvailable() ? DIRECT : proxy(printer);
+    }
+
+    static final PrinterCalls DIRECT = new PrinterCalls() {
+        @Override
+        public String binding() {
+            return "direct";
+        }
+
+        @Override
+        public boolean CP_Pos_PrintRasterImageFromPixels(Pointer handle, byte[] img_data, int img_datalen, int img_width,
+                                                         int img_height, int img_stride, int img_format,
+                                                         int binaryzation_method, int compress_method) {
+            return Lib.CP_Pos_PrintRasterImageFromPixels(handle, img_data, img_datalen, img_width, img_height,
+                    img_stride, img_format, binaryzation_method, compress_method);
+        }
+
+        @Override
+        public boolean CP_Pos_PrintRasterImageFromPixels(Pointer handle, Pointer img_data, int img_datalen,
+                                                         int img_width, int img_height, int img_stride,
+                                                         int img_format, int binaryzation_method,
+                                                         int compress_method) {
+            return Lib.CP_Pos_PrintRasterImageFromPixels(handle, img_data, img_datalen, img_width, img_height,
+                    img_stride, img_format, binaryzation_method, compress_method);
+        }
+
+        @Override
+        public int CP_Port_Write(Pointer handle, byte[] buffer, int count, int timeout) {
+            return Lib.CP_Port_Write(handle, buffer, count, timeout);
+        }
+
+        @Override
+        public boolean CP_Pos_FeedLine(Pointer handle, int numLines) {
+            return Lib.CP_Pos_FeedLine(handle, numLines);
+        }
+
+        @Override
+        public boolean CP_Pos_FeedDot(Pointer handle, int numDots) {
+            return Lib.CP_Pos_FeedDot(handle, numDots);
+        }
+
+        @Override
+        public boolean CP_Pos_PrintHorizontalLine(Pointer handle, int nLineStartPosition, int nLineEndPosition) {
+            return Lib.CP_Pos_PrintHorizontalLine(handle, nLineStartPosition, nLineEndPosition);
+        }
+
+        @Override
+        public boolean CP_Pos_PrintHorizontalLineSpecifyThickness(Pointer handle, int nLineStartPosition,
+                                                                  int nLineEndPosition, int nLineThickness) {
+            return Lib.CP_Pos_PrintHorizontalLineSpecifyThickness(handle, nLineStartPosition, nLineEndPosition,
+                    nLineThickness);
+        }
+
+        @Override
+        public boolean CP_Pos_SetAlignment(Pointer handle, int nAlignment) {
+            return Lib.CP_Pos_SetAlignment(handle, nAlignment);
+        }
+
+        @Override
+        public boolean CP_Pos_PrintTextInUTF8(Pointer handle, WString str) {
+            return Lib.CP_Pos_PrintTextInUTF8(handle, str);
+        }
+
+        @Override
+        public int CP_Pos_QueryRTStatus(Pointer handle, int timeout) {
+            return Lib.CP_Pos_QueryRTStatus(handle, timeout);
+        }
+
+        @Override
+        public boolean CP_Printer_GetPrinterReceivedInfo(Pointer handle, IntByReference printer_received_byte_count,
+                                                         LongByReference timestamp_ms) {
+            return Lib.CP_Printer_GetPrinterReceivedInfo(handle, printer_received_byte_count, timestamp_ms);
+        }
+    };
+
+    /** The same calls through the AutoReplyPrint interface proxy */
+    static PrinterCalls proxy(final AutoReplyPrint printer) {
+        return new PrinterCalls() {
+            @Override
+            public String binding() {
+                return "proxy";
+            }
+
+            @Override
+            public boolean CP_Pos_PrintRasterImageFromPixels(Pointer handle, byte[] img_data, int img_datalen,
+                                                             int img_width, int img_height, int img_stride,
+                                                             int img_format, int binaryzation_method,
+                                                             int compress_method) {
+                return printer.CP_Pos_PrintRasterImageFromPixels(handle, img_data, img_datalen, img_width, img_height,
+                        img_stride, img_format, binaryzation_method, compress_method);
+            }
+
+            @Override
+            public boolean CP_Pos_PrintRasterImageFromPixels(Pointer handle, Pointer img_data, int img_datalen,
+                                                             int img_width, int img_height, int img_stride,
+                                                             int img_format, int binaryzation_method,
+                                                             int compress_method) {
+                // The interface only takes arrays
+                byte[] pixels = new byte[img_datalen];
+                img_data.read(0, pixels, 0, img_datalen);
+                return CP_Pos_PrintRasterImageFromPixels(handle, pixels, img_datalen, img_width, img_height,
+                        img_stride, img_format, binaryzation_method, compress_method);
+            }
+
+            @Override
+            public int CP_Port_Write(Pointer handle, byte[] buffer, int count, int timeout) {
+                return printer.CP_Port_Write(handle, buffer, count, timeout);
+            }
+
+            @Override
+            public boolean CP_Pos_FeedLine(Pointer handle, int numLines) {
+                return printer.CP_Pos_FeedLine(handle, numLines);
+            }
+
+            @Override
+            public boolean CP_Pos_FeedDot(Pointer handle, int numDots) {
+                return printer.CP_Pos_FeedDot(handle, numDots);
+            }
+
+            @Override
+            public boolean CP_Pos_PrintHorizontalLine(Pointer handle, int nLineStartPosition, int nLineEndPosition) {
+                return printer.CP_Pos_PrintHorizontalLine(handle, nLineStartPosition, nLineEndPosition);
+            }
+
+            @Override
+            public boolean CP_Pos_PrintHorizontalLineSpecifyThickness(Pointer handle, int nLineStartPosition,
+                                                                      int nLineEndPosition, int nLineThickness) {
+                return printer.CP_Pos_PrintHorizontalLineSpecifyThickness(handle, nLineStartPosition,
+                        nLineEndPosition, nLineThickness);
+            }
+
+            @Override
+            public boolean CP_Pos_SetAlignment(Pointer handle, int nAlignment) {
+                return printer.CP_Pos_SetAlignment(handle, nAlignment);
+            }
+
+            @Override
+            public boolean CP_Pos_PrintTextInUTF8(Pointer handle, WString str) {
+                return printer.CP_Pos_PrintTextInUTF8(handle, str);
+            }
+
+            @Override
+            public int CP_Pos_QueryRTStatus(Pointer handle, int timeout) {
+                return printer.CP_Pos_QueryRTStatus(handle, timeout);
+            }
+
+            @Override
+            public boolean CP_Printer_GetPrinterReceivedInfo(Pointer handle, IntByReference printer_received_byte_count,
+                                                             LongByReference timestamp_ms) {
+                return printer.CP_Printer_GetPrinterReceivedInfo(handle, printer_received_byte_count, timestamp_ms);
+            }
+        };
+    }
+}
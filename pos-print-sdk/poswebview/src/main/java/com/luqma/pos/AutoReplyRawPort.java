@@ -0,0 +1,63 @@
+package com.luqma.pos;
+
+import com.caysn.autoreplyprint.AutoReplyPrint;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+
+/**
+ * RawPort on an AutoReplyPrint handle: CP_Port_Write for data, CP_Printer_AddOnPrinterReceivedEvent /
+ * CP_Printer_GetPrinterReceivedInfo for the printer's received-byte counter (writes and counter
+ * polls through {@link PrinterCalls}, the callback through the proxy).
+ * The counter is only reported when the port was opened with autoreplymode = 1.
+ */
+final class AutoReplyRawPort implements RawPort {
+
+    private final AutoReplyPrint printer;
+    private final PrinterCalls calls;
+    private final Pointer handle;
+    private volatile ReceivedListener listener;
+
+    // Kept as a field: JNA callbacks must stay strongly reachable while registered
+    private final AutoReplyPrint.CP_OnPrinterReceivedEvent_Callback receivedCallback =
+            new AutoReplyPrint.CP_OnPrinterReceivedEvent_Callback() {
+                @Override
+                public void CP_OnPrinterReceivedEvent(Pointer h, int printerReceivedByteCount, Pointer privateData) {
+                    // The callback is registered library-wide; only this port's handle counts
+                    if (Pointer.nativeValue(h) != Pointer.nativeValue(handle)) return;
+                    ReceivedListener l = listener;
+                    if (l != null) l.onPrinterReceived(printerReceivedByteCount);
+                }
+            };
+
+    AutoReplyRawPort(AutoReplyPrint printer, PrinterCalls calls, Pointer handle) {
+        this.printer = printer;
+        this.calls = calls;
+        this.handle = handle;
+        printer.CP_Printer_AddOnPrinterReceivedEvent(receivedCallback, null);
+    }
+
+    @Override
+    public int write(byte[] buffer, int count, int timeoutMs) {
+        return calls.CP_Port_Write(handle, buffer, count, timeoutMs);
+    }
+
+    @Override
+    public int printerReceivedCount() {
+        IntByReference count = new IntByReference();
+        LongByReference timestamp = new LongByReference();
+        if (!calls.CP_Printer_GetPrinterReceivedInfo(handle, count, timestamp)) return -1;
+        return timestamp.getValue() == 0 ? -1 : count.getValue(); // no report yet
+    }
+
+    @Override
+    public void setReceivedListener(ReceivedListener listener) {
+        this.listener = listener;
+    }
+
+    /** Unregister the library-wide callback (port closed / handle replaced) */
+    void close() {
+        listener = null;
+        printer.CP_Printer_RemoveOnPrinterReceivedEvent(receivedCallback);
+    }
+}
@@ -0,0 +1,361 @@
+package com.luqma.pos;
+
+import com.caysn.autoreplyprint.AutoReplyPrint;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * AutoReplyPrint over Bluetooth SPP (the InnerPrinter connection opened in MainActivity).
+ *
+ * Two transfer modes: native (CP_Pos_PrintRasterImageFromPixels per dense segment, blank runs as
+ * CP_Pos_FeedDot, with vector rules on, rules as CP_Pos_PrintHorizontalLine, and QR codes / barcodes
+ * as the printer's code commands – see {@link PrintPlan}; print speed / density per segment from its
+ * ink coverage – see {@link InkProfiles}) and chunked (ESC/POS written through CP_Port_Write by a {@link FlowControlledWriter}, paced by the
+ * printer's received-byte count – needs the port opened with autoreplymode = 1).
+ * Every native call runs through a {@link NativeCallSupervisor} with a deadline scaled to the job,
+ * so a half-dead link fails the attempt as a timeout instead of hanging the print queue.
+ * The per-command calls go through {@link PrinterCalls} (direct-mapped natives when they register;
+ * raster segments are then passed from a {@link NativeBufferPool} block instead of as arrays).
+ */
+final class BluetoothPrintBackend implements PrintBackend {
+
+    /** Rows per GS v 0 band in chunked mode (printer starts on a band before the job has arrived) */
+    private static final int BAND_ROWS = 128;
+    static final long FEED_DEADLINE_MS = 3000;
+    /** Raster deadline: fixed part plus the job at 4 KB/s (the head prints ~8-10 KB/s of raster) */
+    private static final long RASTER_DEADLINE_BASE_MS = 3000;
+    private static final int RASTER_DEADLINE_BYTES_PER_MS = 4;
+
+    /** QR codes / barcodes: printed from the raster rows */
+    static final int CODES_RASTER = 0;
+    /** CP_Pos_PrintQRCodeUseEpsonCmd (GS ( k, module size as drawn) and CP_Pos_PrintBarcode */
+    static final int CODES_EPSON = 1;
+    /** CP_Pos_PrintQRCode (printer's default module size) and CP_Pos_PrintBarcode */
+    static final int CODES_LEGACY = 2;
+    static final String[] CODES_NAMES = { "raster", "epson", "legacy" };
+
+    private final AutoReplyPrint printer;
+    /** Hot per-command calls: direct-mapped when available, else through the proxy */
+    private volatile PrinterCalls calls;
+    /** Native blocks raster segments are copied into for the direct binding */
+    private final NativeBufferPool bufferPool = new NativeBufferPool();
+    private final NativeCallSupervisor nativeCalls;
+    private volatile Pointer handle;
+
+    /** 0 = native transfer */
+    private volatile int chunkBytes;
+    /** Native transfer: rules as line commands instead of raster rows */
+    private volatile boolean vectorRules = true;
+    /** CODES_*: how QR codes / barcodes are sent */
+    private volatile int codeCommands = CODES_EPSON;
+    /** Speed / density per segment coverage; null = leave the printer's own setting */
+    private volatile InkProfiles inkProfiles;
+    // What the printer was last told (written by the print thread; -1 = unknown, e.g. after a reopen)
+    private volatile int appliedSpeed = -1;
+    private volatile int appliedDensity = -1;
+    private volatile int windowBytes = FlowControlledWriter.DEFAULT_WINDOW_BYTES;
+    /** Guarded by this; the monitor is never held across a native call (a stuck call must not block setHandle) */
+    private AutoReplyRawPort rawPort;
+
+    BluetoothPrintBackend(AutoReplyPrint printer, Pointer handle, NativeCallSupervisor nativeCalls) {
+        this.printer = printer;
+        this.handle = handle;
+        this.nativeCalls = nativeCalls;
+        this.calls = AutoReplyDirect.calls(printer, true);
+    }
+
+    /** Called when MainActivity (re)opens or loses the port (null = unavailable) */
+    void setHandle(Pointer handle) {
+        AutoReplyRawPort old;
+        synchronized (this) {
+            this.handle = handle;
+            old = rawPort;
+            rawPort = null;
+        }
+        appliedSpeed = -1;
+        appliedDensity = -1;
+        if (old != null) old.close();
+    }
+
+    static long rasterDeadlineMs(int bytes) {
+        return RASTER_DEADLINE_BASE_MS + bytes / RASTER_DEADLINE_BYTES_PER_MS;
+    }
+
+    /**
+     * @param chunkBytes CP_Port_Write size, 0 = native transfer
+     * @param windowBytes max bytes ahead of the printer's received count
+     */
+    void setChunkedTransfer(int chunkBytes, int windowBytes) {
+        this.chunkBytes = Math.max(0, chunkBytes);
+        this.windowBytes = windowBytes > 0 ? windowBytes : FlowControlledWriter.DEFAULT_WINDOW_BYTES;
+    }
+
+    boolean isChunked() {
+        return chunkBytes > 0;
+    }
+
+    void setVectorRules(boolean enabled) {
+        vectorRules = enabled;
+    }
+
+    boolean isVectorRules() {
+        return vectorRules;
+    }
+
+    /** @return CODES_* for a mode name ("raster", "epson", "legacy"), or -1 */
+    static int parseCodeCommands(String name) {
+        for (int i = 0; i < CODES_NAMES.length; i++) {
+            if (CODES_NAMES[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    void setCodeCommands(int mode) {
+        codeCommands = mode >= 0 && mode < CODES_NAMES.length ? mode : CODES_EPSON;
+    }
+
+    int getCodeCommands() {
+        return codeCommands;
+    }
+
+    /** Hot calls through the direct-mapped binding (default, when it registered) or the proxy */
+    void setDirectCalls(boolean direct) {
+        AutoReplyRawPort old;
+        synchronized (this) {
+            calls = AutoReplyDirect.calls(printer, direct);
+            old = rawPort;
+            rawPort = null;
+        }
+        if (old != null) old.close();
+    }
+
+    /** "direct" or "proxy" */
+    String callBinding() {
+        return calls.binding();
+    }
+
+    /** @param profiles speed / density table with this printer's calibration, null = off */
+    void setInkProfiles(InkProfiles profiles) {
+        inkProfiles = profiles;
+        appliedSpeed = -1;
+        appliedDensity = -1;
+    }
+
+    InkProfiles getInkProfiles() {
+        return inkProfiles;
+    }
+
+    @Override
+    public String name() {
+        return "bluetooth";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        Pointer h = handle;
+        return printer != null && h != null && Pointer.nativeValue(h) != 0;
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    /**
+     * @throws NativeCallSupervisor.NativeTimeoutException when a native call missed its deadline
+     */
+    @Override
+    public boolean print(final RasterEncoder.Raster raster, final int feedLines) throws Exception {
+        final Pointer h = handle;
+        if (printer == null || h == null || Pointer.nativeValue(h) == 0) {
+            throw new PrintBackend.NotSentException("port not open");
+        }
+
+        if (chunkBytes > 0) {
+            // Flow control has its own stall timeout; the deadline catches a CP_Port_Write that never returns
+            return nativeCalls.call("chunked_write", 2 * rasterDeadlineMs(raster.data.length),
+                    () -> printChunked(h, raster, feedLines));
+        }
+
+        final PrintPlan plan = PrintPlan.of(raster, vectorRules, true, codeCommands != CODES_RASTER);
+        boolean success;
+        if (!plan.isRasterOnly() || inkProfiles != null) {
+            success = nativeCalls.call("print_plan", rasterDeadlineMs(raster.data.length), () -> printPlan(h, raster, plan));
+            PrintEventLog.log(PrintEventLog.DEBUG, PrintEventLog.PRINT_PLAN, plan.ops.size(), plan.rasterRows,
+                    plan.rasterWireBytes - plan.wireBytes);
+        } else {
+            success = nativeCalls.call("print_raster", rasterDeadlineMs(raster.data.length), () -> {
+                calls.CP_Pos_SetAlignment(h, 0);
+                return printRows(h, raster, 0, raster.height);
+            });
+        }
+        if (success) {
+            nativeCalls.call("feed_line", FEED_DEADLINE_MS, () -> calls.CP_Pos_FeedLine(h, feedLines));
+        }
+        return success;
+    }
+
+    /**
+     * Print a label batch in the printer's label mode: per distinct label one page (the label's
+     * raster at 0,0) printed with its copy count. Label mode is switched off again afterwards.
+     * @throws NativeCallSupervisor.NativeTimeoutException when a native call missed its deadline
+     */
+    boolean printLabels(final LabelBatch batch) throws Exception {
+        final Pointer h = handle;
+        if (printer == null || h == null || Pointer.nativeValue(h) == 0) return false;
+        return nativeCalls.call("print_labels", rasterDeadlineMs(batch.bytes()) + FEED_DEADLINE_MS, () -> {
+            if (!printer.CP_Label_EnableLabelMode(h)) return false;
+            try {
+                for (LabelBatch.Label label : batch.labels) {
+                    if (!printLabel(h, batch, label)) return false;
+                }
+                return true;
+            } finally {
+                printer.CP_Label_DisableLabelMode(h);
+            }
+        });
+    }
+
+    private boolean printLabel(Pointer h, LabelBatch batch, LabelBatch.Label label) {
+        RasterEncoder.Raster raster = label.raster;
+        boolean ok = printer.CP_Label_PageBegin(h, 0, 0, batch.width, batch.height, AutoReplyPrint.CP_Label_Rotation_0)
+                && printer.CP_Label_DrawImageFromPixels(h, 0, 0, raster.data, raster.data.length, raster.width,
+                        raster.height, raster.stride, AutoReplyPrint.CP_ImagePixelsFormat_MONO,
+                        AutoReplyPrint.CP_ImageBinarizationMethod_Thresholding);
+        // Composed once, repeated by the printer (copies <= LabelBatch.MAX_LABELS)
+        return ok && printer.CP_Label_PagePrint(h, label.copies);
+    }
+
+    /**
+     * Raster segments, line commands, feeds and codes in order; stops at the first command the
+     * printer refuses (a refused code command is retried as the code's raster rows)
+     */
+    private boolean printPlan(Pointer h, RasterEncoder.Raster raster, PrintPlan plan) {
+        calls.CP_Pos_SetAlignment(h, 0);
+        InkProfiles profiles = inkProfiles;
+        for (PrintPlan.Op op : plan.ops) {
+            if (profiles != null && (op.type == PrintPlan.OP_RASTER || op.type == PrintPlan.OP_CODE)) {
+                applyInk(h, profiles, profiles.select(InkProfiles.peakCoverage(raster, op.rowStart, op.rowEnd)));
+            }
+            boolean ok;
+            if (op.type == PrintPlan.OP_FEED) {
+                ok = true;
+                for (int left = op.rows(); left > 0 && ok; left -= PrintPlan.MAX_FEED_DOTS) {
+                    ok = calls.CP_Pos_FeedDot(h, Math.min(left, PrintPlan.MAX_FEED_DOTS));
+                }
+            } else if (op.type == PrintPlan.OP_LINE) {
+                // Positions in dots from the left margin, end inclusive
+                ok = op.rows() == 1
+                        ? calls.CP_Pos_PrintHorizontalLine(h, op.x0, op.x1 - 1)
+                        : calls.CP_Pos_PrintHorizontalLineSpecifyThickness(h, op.x0, op.x1 - 1, op.rows());
+            } else if (op.type == PrintPlan.OP_CODE) {
+                ok = printCode(h, op.code);
+                calls.CP_Pos_SetAlignment(h, AutoReplyPrint.CP_Pos_Alignment_Left);
+                if (!ok) {
+                    android.util.Log.w("POS", "⚠️ Printer refused the " + CODES_NAMES[codeCommands] + " code command, printing it as raster");
+                    ok = printRows(h, raster, op.rowStart, op.rowEnd);
+                }
+            } else {
+                ok = printRows(h, raster, op.rowStart, op.rowEnd);
+            }
+            if (!ok) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Send speed / density for profile i when the printer isn't on them already (print thread only,
+     * no lock: a stuck call here is abandoned by the watchdog)
+     */
+    private void applyInk(Pointer h, InkProfiles profiles, int i) {
+        int speed = profiles.speed(i);
+        int density = profiles.density(i);
+        if (speed != appliedSpeed) {
+            appliedSpeed = printer.CP_Pos_SetPrintSpeed(h, speed) ? speed : -1;
+        }
+        if (density != appliedDensity) {
+            appliedDensity = printer.CP_Pos_SetPrintDensity(h, density) ? density : -1;
+        }
+    }
+
+    /** Centered QR code (error correction M, as drawn) or Code 128 barcode without readable text */
+    private boolean printCode(Pointer h, ReceiptCode code) {
+        printer.CP_Pos_SetAlignment(h, AutoReplyPrint.CP_Pos_Alignment_HCenter);
+        if (code.type == ReceiptCode.TYPE_QR) {
+            return codeCommands == CODES_LEGACY
+                    ? printer.CP_Pos_PrintQRCode(h, 0, AutoReplyPrint.CP_QRCodeECC_M, code.data)
+                    : printer.CP_Pos_PrintQRCodeUseEpsonCmd(h, code.module, AutoReplyPrint.CP_QRCodeECC_M, code.data);
+        }
+        // The data is printed below the bars as part of the raster
+        return printer.CP_Pos_SetBarcodeUnitWidth(h, code.module)
+                && printer.CP_Pos_SetBarcodeHeight(h, code.rowEnd - code.rowStart)
+                && printer.CP_Pos_SetBarcodeReadableTextPosition(h, AutoReplyPrint.CP_Pos_BarcodeTextPrintPosition_None)
+                && printer.CP_Pos_PrintBarcode(h, AutoReplyPrint.CP_Pos_BarcodeType_CODE128, code.data);
+    }
+
+    /**
+     * Rows [rowStart, rowEnd) of the raster. Direct binding: copied once into a pooled native block
+     * (released when the call has returned, so an abandoned call never sees it reused); proxy: as an
+     * array, the raster's own when it is the whole raster
+     */
+    private boolean printRows(Pointer h, RasterEncoder.Raster raster, int rowStart, int rowEnd) {
+        PrinterCalls c = calls;
+        int rows = rowEnd - rowStart;
+        int length = rows * raster.stride;
+        if (c == AutoReplyDirect.DIRECT) {
+            Memory block = bufferPool.acquire(length);
+            try {
+                block.write(0, raster.data, rowStart * raster.stride, length);
+                return c.CP_Pos_PrintRasterImageFromPixels(
+                    h,
+                    block,
+                    length,
+                    raster.width,
+                    rows,
+                    raster.stride,
+                    AutoReplyPrint.CP_ImagePixelsFormat_MONO,
+                    AutoReplyPrint.CP_ImageBinarizationMethod_Thresholding,
+                    AutoReplyPrint.CP_ImageCompressionMethod_None
+                );
+            } finally {
+                bufferPool.release(block);
+            }
+        }
+        byte[] data = length == raster.data.length ? raster.data : PrintPlan.rows(raster, rowStart, rowEnd);
+        return c.CP_Pos_PrintRasterImageFromPixels(
+            h,
+            data,
+            data.length,
+            raster.width,
+            rows,
+            raster.stride,
+            AutoReplyPrint.CP_ImagePixelsFormat_MONO,
+            AutoReplyPrint.CP_ImageBinarizationMethod_Thresholding,
+            AutoReplyPrint.CP_ImageCompressionMethod_None
+        );
+    }
+
+    NativeBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /** The raw port for h (not held while writing: a stuck write must not block setHandle) */
+    private synchronized AutoReplyRawPort rawPortFor(Pointer h) {
+        if (h != handle) return null; // replaced meanwhile
+        if (rawPort == null) rawPort = new AutoReplyRawPort(printer, calls, h);
+        return rawPort;
+    }
+
+    private boolean printChunked(Pointer h, RasterEncoder.Raster raster, int feedLines) {
+        AutoReplyRawPort port = rawPortFor(h);
+        if (port == null) return false;
+        // Raw port: only the Epson code commands have a byte form here
+        byte[] job = EscPosEncoder.encodeJob(raster, BAND_ROWS, feedLines, codeCommands == CODES_EPSON);
+        FlowControlledWriter writer = new FlowControlledWriter(port, chunkBytes, windowBytes,
+                FlowControlledWriter.DEFAULT_STALL_TIMEOUT_MS);
+        boolean success = writer.write(job, job.length);
+        PrintEventLog.log(success ? PrintEventLog.INFO : PrintEventLog.WARN, PrintEventLog.BT_CHUNKED,
+                job.length, writer.getChunks(), writer.getWaitMs());
+        return success;
+    }
+}
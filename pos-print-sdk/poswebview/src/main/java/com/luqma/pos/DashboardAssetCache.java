@@ -0,0 +1,477 @@
+package com.luqma.pos;
+
+import android.content.Context;
+import android.net.Uri;
+import android.webkit.MimeTypeMap;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local disk cache for the dashboard's static assets, served from WebViewClient.shouldInterceptRequest.
+ *
+ * - Hashed build output (/assets/index-Ab12Cd34.js, fonts.gstatic.com files) never changes: served
+ *   straight from disk, downloaded once.
+ * - Unversioned static files (sounds, logo, manifest, Google Fonts CSS): served from disk, revalidated
+ *   in the background (ETag / Last-Modified).
+ * - The HTML shell is served from disk and revalidated in the background (never waits on flaky Wi-Fi);
+ *   when its content changes (new deployment) the bundles it references are prefetched and the new
+ *   deployment is picked up on the next load.
+ * - Everything else (Firestore, Cloud Functions, any non-GET or Range request) passes through untouched.
+ */
+final class DashboardAssetCache {
+
+    private static final String DIR_NAME = "dashboard-assets";
+    private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+    /** Entries not served for this long are dropped on startup (old deployments' bundles) */
+    private static final long MAX_IDLE_MS = 14L * 24 * 60 * 60 * 1000;
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 20000;
+
+    private static final int POLICY_PASS = 0;
+    private static final int POLICY_IMMUTABLE = 1;
+    private static final int POLICY_REVALIDATE = 2;
+    private static final int POLICY_SHELL = 3;
+
+    /** Vite output name: name-<8+ char hash>.ext */
+    private static final Pattern HASHED_NAME = Pattern.compile(".*[-.][A-Za-z0-9_]{8,}\\.[a-z0-9]+$");
+    private static final Pattern SHELL_ASSET = Pattern.compile("(?:src|href)=\"(/assets/[^\"]+)\"");
+    private static final Set<String> STATIC_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "js", "mjs", "css", "woff", "woff2", "ttf", "otf", "png", "jpg", "jpeg", "gif", "webp",
+            "svg", "ico", "mp3", "wav", "ogg", "json", "webmanifest"));
+    /** Request headers forwarded on our own fetches (Google Fonts CSS depends on User-Agent) */
+    private static final String[] FORWARD_HEADERS = { "User-Agent", "Accept", "Accept-Language" };
+
+    private final File dir;
+    private final String origin;
+    private final String host;
+    private final ExecutorService background = Executors.newSingleThreadExecutor();
+    private final Set<String> inFlight = Collections.synchronizedSet(new HashSet<String>());
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong offlineShell = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    DashboardAssetCache(Context context, String dashboardUrl) {
+        dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            android.util.Log.w("POS", "⚠️ Asset cache dir not created: " + dir);
+        }
+        Uri uri = Uri.parse(dashboardUrl);
+        host = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.US) : "";
+        origin = uri.getScheme() + "://" + uri.getHost();
+        background.execute(this::prune);
+    }
+
+    /**
+     * Called on the WebView's IO thread. Returns null to let the WebView load the request itself.
+     */
+    WebResourceResponse intercept(WebResourceRequest request) {
+        try {
+            if (!"GET".equalsIgnoreCase(request.getMethod())) return null;
+            Map<String, String> headers = request.getRequestHeaders();
+            if (headers != null && (headers.containsKey("Range") || headers.containsKey("range"))) return null;
+
+            Uri uri = request.getUrl();
+            int policy = policyFor(uri, request.isForMainFrame());
+            if (policy == POLICY_PASS) return null;
+
+            String url = policy == POLICY_SHELL ? origin + "/" : uri.toString();
+            String key = keyFor(url);
+
+            if (policy == POLICY_SHELL) {
+                return serveShell(url, key, headers);
+            }
+
+            File data = new File(dir, key);
+            if (data.isFile()) {
+                hits.incrementAndGet();
+                if (policy == POLICY_REVALIDATE) revalidateLater(url, key, headers);
+                return respond(key, data);
+            }
+
+            // Not cached yet: download on this (IO) thread, then serve from disk
+            if (fetch(url, key, headers, CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS) && data.isFile()) {
+                misses.incrementAndGet();
+                return respond(key, data);
+            }
+            return null;
+        } catch (Exception e) {
+            android.util.Log.w("POS", "⚠️ Asset cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Which caching rule applies to a URL (POLICY_PASS for everything that must go to the network) */
+    private int policyFor(Uri uri, boolean mainFrame) {
+        String scheme = uri.getScheme();
+        if (!"https".equalsIgnoreCase(scheme) && !"http".equalsIgnoreCase(scheme)) return POLICY_PASS;
+        String h = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.US) : "";
+        String path = uri.getPath() != null ? uri.getPath() : "/";
+
+        if (h.equals("fonts.gstatic.com")) return POLICY_IMMUTABLE;
+        if (h.equals("fonts.googleapis.com") && path.startsWith("/css")) return POLICY_REVALIDATE;
+        if (!h.equals(host)) return POLICY_PASS; // Firestore, Functions, Storage, analytics...
+
+        String ext = extension(path);
+        if (ext.isEmpty()) {
+            // SPA route: every path returns the same index.html
+            return mainFrame ? POLICY_SHELL : POLICY_PASS;
+        }
+        if (!STATIC_EXTENSIONS.contains(ext) || uri.getQuery() != null) return POLICY_PASS;
+        if (path.startsWith("/assets/") && HASHED_NAME.matcher(path).matches()) return POLICY_IMMUTABLE;
+        return POLICY_REVALIDATE;
+    }
+
+    /**
+     * Stale-while-revalidate for the HTML shell: the cached copy is served at once and refreshed in
+     * the background, so a slow network never delays startup. Only the very first load (nothing
+     * cached yet) waits for the download.
+     */
+    private WebResourceResponse serveShell(String url, String key, Map<String, String> headers) throws IOException {
+        File data = new File(dir, key);
+        if (data.isFile()) {
+            hits.incrementAndGet();
+            revalidateShellLater(url, key, headers);
+            return respond(key, data);
+        }
+
+        if (!fetch(url, key, headers, CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS) || !data.isFile()) return null;
+        misses.incrementAndGet();
+        prefetchShellAssets(data, headers);
+        return respond(key, data);
+    }
+
+    /** Refresh the cached shell; a changed shell (new deployment) gets its bundles prefetched */
+    private void revalidateShellLater(final String url, final String key, final Map<String, String> headers) {
+        if (!inFlight.add(key)) return;
+        background.execute(() -> {
+            try {
+                File data = new File(dir, key);
+                String before = fileHash(data);
+                if (!fetch(url, key, headers, CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS)) {
+                    offlineShell.incrementAndGet();
+                    android.util.Log.i("POS", "📦 Dashboard shell served from cache (network slow/offline)");
+                    return;
+                }
+                revalidated.incrementAndGet();
+                if (data.isFile() && !before.equals(fileHash(data))) {
+                    android.util.Log.i("POS", "🆕 Dashboard deployment changed, prefetching bundles");
+                    prefetchShellAssets(data, headers);
+                }
+            } catch (IOException e) {
+                android.util.Log.w("POS", "⚠️ Asset cache: shell revalidation failed: " + e.getMessage());
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+    }
+
+    /** Download the hashed bundles referenced by the shell in the background (next cold start hits disk) */
+    private void prefetchShellAssets(File shell, final Map<String, String> headers) {
+        final String html;
+        try {
+            html = readText(shell);
+        } catch (IOException e) {
+            return;
+        }
+        background.execute(() -> {
+            Matcher m = SHELL_ASSET.matcher(html);
+            while (m.find()) {
+                String assetUrl = origin + m.group(1);
+                String assetKey = keyFor(assetUrl);
+                if (!new File(dir, assetKey).isFile()) {
+                    fetch(assetUrl, assetKey, headers, CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS);
+                }
+            }
+        });
+    }
+
+    private void revalidateLater(final String url, final String key, final Map<String, String> headers) {
+        if (!inFlight.add(key)) return;
+        background.execute(() -> {
+            try {
+                if (fetch(url, key, headers, CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS)) revalidated.incrementAndGet();
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Conditional GET into the cache (temp file + rename, so a reader never sees a partial file).
+     * @return true when the server answered (200 stored, or 304 = cached copy still valid)
+     */
+    private boolean fetch(String url, String key, Map<String, String> requestHeaders, int connectTimeout, int readTimeout) {
+        HttpURLConnection conn = null;
+        File data = new File(dir, key);
+        File meta = new File(dir, key + ".meta");
+        File tmp = new File(dir, key + ".tmp" + Thread.currentThread().getId());
+        try {
+            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setInstanceFollowRedirects(true);
+            if (requestHeaders != null) {
+                for (String name : FORWARD_HEADERS) {
+                    String value = requestHeaders.get(name);
+                    if (value != null) conn.setRequestProperty(name, value);
+                }
+            }
+            String[] cachedMeta = data.isFile() ? readMeta(meta) : null;
+            if (cachedMeta != null) {
+                if (!cachedMeta[1].isEmpty()) conn.setRequestProperty("If-None-Match", cachedMeta[1]);
+                if (!cachedMeta[2].isEmpty()) conn.setRequestProperty("If-Modified-Since", cachedMeta[2]);
+            }
+
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cachedMeta != null) {
+                return true;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                android.util.Log.w("POS", "⚠️ Asset cache HTTP " + code + " for " + url);
+                return false;
+            }
+
+            InputStream in = conn.getInputStream();
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                byte[] buffer = new byte[16 * 1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+            } finally {
+                out.close();
+                in.close();
+            }
+            writeMeta(meta, conn.getContentType(), conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+            if (!tmp.renameTo(data)) {
+                android.util.Log.w("POS", "⚠️ Asset cache: rename failed for " + key);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            android.util.Log.i("POS", "ℹ️ Asset fetch failed (" + e.getMessage() + "): " + url);
+            return false;
+        } finally {
+            if (conn != null) conn.disconnect();
+            if (tmp.exists() && !tmp.delete()) tmp.deleteOnExit();
+        }
+    }
+
+    private WebResourceResponse respond(String key, File data) throws IOException {
+        String[] meta = readMeta(new File(dir, key + ".meta"));
+        String contentType = meta != null && !meta[0].isEmpty() ? meta[0] : guessMime(key);
+        String mime = contentType;
+        String encoding = null;
+        int semi = contentType.indexOf(';');
+        if (semi >= 0) {
+            mime = contentType.substring(0, semi).trim();
+            int cs = contentType.toLowerCase(Locale.US).indexOf("charset=", semi);
+            if (cs >= 0) encoding = contentType.substring(cs + 8).trim();
+        }
+        if (encoding == null && (mime.startsWith("text/") || mime.contains("javascript") || mime.contains("json"))) {
+            encoding = "utf-8";
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Access-Control-Allow-Origin", "*"); // module scripts / fonts load with CORS
+        headers.put("Cache-Control", "no-cache"); // we are the cache; keep WebView's HTTP cache out of it
+
+        // Touch for LRU pruning
+        data.setLastModified(System.currentTimeMillis());
+        bytesServed.addAndGet(data.length());
+        return new WebResourceResponse(mime, encoding, 200, "OK", headers, new FileInputStream(data));
+    }
+
+    /** MIME from the key's extension when the server sent no Content-Type */
+    private static String guessMime(String key) {
+        String ext = extension(key);
+        if (ext.equals("js") || ext.equals("mjs")) return "text/javascript";
+        if (ext.isEmpty()) return "text/html";
+        String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(ext);
+        return mime != null ? mime : "application/octet-stream";
+    }
+
+    /**
+     * Drop entries idle for MAX_IDLE_MS, then the least recently served until under MAX_CACHE_BYTES
+     */
+    private void prune() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        long now = System.currentTimeMillis();
+        long total = 0;
+        int removed = 0;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(".meta")) continue;
+            if (name.contains(".tmp") || now - f.lastModified() > MAX_IDLE_MS) {
+                removeEntry(f);
+                removed++;
+            } else {
+                total += f.length();
+            }
+        }
+        if (total > MAX_CACHE_BYTES) {
+            files = dir.listFiles();
+            if (files != null) {
+                Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+                for (File f : files) {
+                    if (total <= MAX_CACHE_BYTES) break;
+                    if (f.getName().endsWith(".meta")) continue;
+                    total -= f.length();
+                    removeEntry(f);
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) android.util.Log.i("POS", "🧹 Asset cache pruned " + removed + " entries");
+    }
+
+    private void removeEntry(File data) {
+        File meta = new File(dir, data.getName() + ".meta");
+        data.delete();
+        meta.delete();
+    }
+
+    /** Delete every cached asset (next load goes to the network) */
+    void clear() {
+        background.execute(() -> {
+            File[] files = dir.listFiles();
+            if (files == null) return;
+            for (File f : files) f.delete();
+            android.util.Log.i("POS", "🧹 Asset cache cleared");
+        });
+    }
+
+    /** @return JSON with hit/miss counters and disk usage */
+    String statsJson() {
+        File[] files = dir.listFiles();
+        long bytes = 0;
+        int entries = 0;
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(".meta")) continue;
+                bytes += f.length();
+                entries++;
+            }
+        }
+        return "{\"hits\":" + hits.get() +
+                ",\"misses\":" + misses.get() +
+                ",\"offline_shell\":" + offlineShell.get() +
+                ",\"revalidated\":" + revalidated.get() +
+                ",\"bytes_served\":" + bytesServed.get() +
+                ",\"entries\":" + entries +
+                ",\"disk_bytes\":" + bytes + "}";
+    }
+
+    private static String extension(String path) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        return dot > slash ? path.substring(dot + 1).toLowerCase(Locale.US) : "";
+    }
+
+    /** SHA-1 of the URL (safe file name), keeping the extension for MIME fallback */
+    private static String keyFor(String url) {
+        String path = Uri.parse(url).getPath();
+        String ext = extension(path != null ? path : "");
+        return sha1(url.getBytes()) + (ext.isEmpty() ? "" : "." + ext);
+    }
+
+    private static String fileHash(File file) throws IOException {
+        MessageDigest digest = newSha1();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) digest.update(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        return hex(digest.digest());
+    }
+
+    private static String sha1(byte[] bytes) {
+        return hex(newSha1().digest(bytes));
+    }
+
+    private static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static String readText(File file) throws IOException {
+        StringBuilder sb = new StringBuilder((int) Math.min(file.length(), 1 << 20));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) != -1) sb.append(buffer, 0, n);
+        } finally {
+            reader.close();
+        }
+        return sb.toString();
+    }
+
+    /** Meta file: content type, ETag, Last-Modified – one per line */
+    private static void writeMeta(File meta, String contentType, String etag, String lastModified) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(meta), "UTF-8");
+        try {
+            writer.write((contentType != null ? contentType : "") + "\n" +
+                    (etag != null ? etag : "") + "\n" +
+                    (lastModified != null ? lastModified : "") + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String[] readMeta(File meta) {
+        if (!meta.isFile()) return null;
+        try {
+            String[] parts = readText(meta).split("\n", -1);
+            String[] out = { "", "", "" };
+            for (int i = 0; i < out.length && i < parts.length; i++) out[i] = parts[i].trim();
+            return out;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
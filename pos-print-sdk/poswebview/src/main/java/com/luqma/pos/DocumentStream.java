@@ -0,0 +1,235 @@
+package com.luqma.pos;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long document (end-of-day / shift report) printed while the dashboard is still sending it:
+ * beginDocument, then appendLines per chunk, then endDocument.
+ *
+ * Lines are buffered and rendered in segments of SEGMENT_LINES on the caller's thread
+ * ({@link ReceiptRenderer#renderSegment}), so neither the bridge string nor the bitmap grows with
+ * the report. Segments go through a small bounded queue to one print-queue task that sends them in
+ * order, all to the backend picked for the first one ({@link PrintRouter#pinned}); no other job is
+ * printed in the middle of the document. appendLines blocks while the queue is full (the printer
+ * paces the dashboard). A failed segment fails the document and the rest is dropped; if the
+ * dashboard stops sending for IDLE_TIMEOUT_MS the document is ended as it is.
+ */
+final class DocumentStream {
+
+    static final int SEGMENT_LINES = 48;
+    private static final int MAX_PENDING_SEGMENTS = 3;
+    static final long IDLE_TIMEOUT_MS = 15000;
+    /** appendLines gives up when the printer hasn't taken a segment for this long */
+    private static final long APPEND_WAIT_MS = 30000;
+    private static final int FEED_LINES = 5;
+
+    private static final class Segment {
+        final RasterEncoder.Raster raster;
+        final boolean last;
+
+        Segment(RasterEncoder.Raster raster, boolean last) {
+            this.raster = raster;
+            this.last = last;
+        }
+    }
+
+    private final ReceiptRenderer renderer;
+    private final ReceiptStyle style;
+    private final PrintQueue.Printer printer;
+    private final List<ReceiptLine> buffer = new ArrayList<>();
+    private final BlockingQueue<Segment> segments = new ArrayBlockingQueue<>(MAX_PENDING_SEGMENTS);
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // Caller side (bridge thread)
+    private boolean started;
+    private boolean ended;
+    private boolean hasFooter;
+    private int lineCount;
+    private int segmentCount;
+    private volatile long lastActivity = SystemClock.elapsedRealtime();
+
+    // Printer side
+    private volatile int result = PrintQueue.RESULT_OK;
+    private volatile int printedSegments;
+    private volatile int printedBytes;
+
+    DocumentStream(ReceiptRenderer renderer, ReceiptStyle style, PrintQueue.Printer printer) {
+        this.renderer = renderer;
+        this.style = style;
+        this.printer = printer;
+    }
+
+    /**
+     * Add lines ("\n"-separated, whole lines). Renders and queues every full segment.
+     * @return PrintQueue.RESULT_OK, or the failure that ended the document
+     */
+    synchronized int append(String text, PrintQueue queue) {
+        if (ended) return PrintQueue.RESULT_FAILED;
+        lastActivity = SystemClock.elapsedRealtime();
+        if (text != null && !text.isEmpty()) {
+            hasFooter |= ReceiptLine.isFooterText(text);
+            buffer.addAll(ReceiptLine.fromText(text.split("\n", -1), style));
+        }
+        while (result == PrintQueue.RESULT_OK) {
+            int cut = cutIndex();
+            if (cut < 0) break;
+            List<ReceiptLine> lines = new ArrayList<>(buffer.subList(0, cut));
+            buffer.subList(0, cut).clear();
+            int r = enqueue(lines, false, queue);
+            if (r != PrintQueue.RESULT_OK) return r;
+        }
+        return result;
+    }
+
+    /**
+     * Render the rest and wait until every segment was sent.
+     * @return PrintQueue.RESULT_OK, RESULT_FAILED, RESULT_TIMEOUT or RESULT_BUSY
+     */
+    int finish(PrintQueue queue, long timeoutMs) {
+        synchronized (this) {
+            if (!ended) {
+                int r = result == PrintQueue.RESULT_OK
+                        ? enqueue(new ArrayList<>(buffer), true, queue)
+                        : result;
+                buffer.clear();
+                ended = true;
+                if (!started) return r; // nothing was handed to the printer
+            }
+        }
+        try {
+            if (!done.await(timeoutMs, TimeUnit.MILLISECONDS)) return PrintQueue.RESULT_TIMEOUT;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PrintQueue.RESULT_FAILED;
+        }
+        return result;
+    }
+
+    /** Stop after the segment being printed; nothing else of this document is sent */
+    synchronized void abort() {
+        ended = true;
+        if (result == PrintQueue.RESULT_OK) result = PrintQueue.RESULT_FAILED;
+        segments.clear();
+        if (!started) done.countDown();
+    }
+
+    int getPrintedSegments() {
+        return printedSegments;
+    }
+
+    int getPrintedBytes() {
+        return printedBytes;
+    }
+
+    /** Some appended chunk carried the footer ("Thank you" / "شكراً") */
+    synchronized boolean hasFooter() {
+        return hasFooter;
+    }
+
+    synchronized boolean isEnded() {
+        return ended;
+    }
+
+    long idleMs() {
+        return SystemClock.elapsedRealtime() - lastActivity;
+    }
+
+    /** @return JSON: {"lines","segments","printed_segments","printed_bytes","pending","ended","result"} */
+    synchronized String toJson() {
+        return "{\"lines\":" + lineCount
+                + ",\"segments\":" + segmentCount
+                + ",\"printed_segments\":" + printedSegments
+                + ",\"printed_bytes\":" + printedBytes
+                + ",\"pending\":" + segments.size()
+                + ",\"ended\":" + ended
+                + ",\"result\":" + result + "}";
+    }
+
+    /**
+     * Where to end the next segment: at SEGMENT_LINES, moved past lines that draw above their
+     * baseline (total box, logo) so a cut never clips them. -1 = wait for more lines.
+     */
+    private int cutIndex() {
+        if (buffer.size() <= SEGMENT_LINES) return -1;
+        int cut = SEGMENT_LINES;
+        while (cut < buffer.size()) {
+            int kind = buffer.get(cut).kind;
+            if (kind != ReceiptLine.KIND_TOTAL && kind != ReceiptLine.KIND_LOGO) return cut;
+            cut++;
+        }
+        return -1;
+    }
+
+    /** Caller holds this */
+    private int enqueue(List<ReceiptLine> lines, boolean last, PrintQueue queue) {
+        Segment segment = new Segment(renderer.renderSegment(lines, segmentCount == 0, last, style), last);
+        lineCount += lines.size();
+        segmentCount++;
+        if (!started) {
+            // First segment: start the printing task (refused when the print queue is busy)
+            segments.offer(segment);
+            if (!queue.execute(this::printSegments)) {
+                segments.clear();
+                ended = true;
+                result = PrintQueue.RESULT_BUSY;
+                done.countDown();
+                return result;
+            }
+            started = true;
+            return PrintQueue.RESULT_OK;
+        }
+        try {
+            if (!segments.offer(segment, APPEND_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                result = PrintQueue.RESULT_TIMEOUT;
+                ended = true;
+                segments.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = PrintQueue.RESULT_FAILED;
+            ended = true;
+        }
+        return result;
+    }
+
+    /** Print-queue task: send segments in order until the last one (or failure / idle timeout) */
+    private void printSegments() {
+        try {
+            while (true) {
+                Segment segment = segments.poll(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (segment == null) {
+                    if (isEnded()) {
+                        // Nothing more will come: finish() timed out or the document was aborted
+                        return;
+                    }
+                    if (idleMs() < IDLE_TIMEOUT_MS) continue;
+                    android.util.Log.w("POS", "⚠️ Document stream idle for " + IDLE_TIMEOUT_MS + "ms, ending it");
+                    abort();
+                    return;
+                }
+                if (result != PrintQueue.RESULT_OK) return;
+                int outcome = printer.print(segment.raster, segment.last ? FEED_LINES : 0);
+                if (outcome != PrintMetrics.OUTCOME_OK) {
+                    result = outcome == PrintMetrics.OUTCOME_TIMEOUT ? PrintQueue.RESULT_TIMEOUT : PrintQueue.RESULT_FAILED;
+                    segments.clear();
+                    return;
+                }
+                printedSegments++;
+                printedBytes += segment.raster.data.length;
+                if (segment.last) return;
+            }
+        } catch (Exception e) {
+            android.util.Log.e("POS", "❌ Document stream error: " + e.getMessage());
+            result = PrintQueue.RESULT_FAILED;
+        } finally {
+            done.countDown();
+        }
+    }
+}
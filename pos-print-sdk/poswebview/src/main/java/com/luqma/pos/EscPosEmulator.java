@@ -0,0 +1,639 @@
+package com.luqma.pos;
+
+import com.google.zxing.common.BitMatrix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Stand-in ESC/POS printer on a TCP port, so the print path can be attached with CP_Port_OpenTcp
+ * and measured without an H10: in-process from {@link PrintBenchmarks#emulator}, or standalone on
+ * a build box ({@link #main}) with the app pointed at it.
+ *
+ * It parses what the app and the SDK send – GS v 0 raster, ESC J / ESC d / LF feeds, text,
+ * GS ( k QR codes, GS k barcodes, GS V cuts – and rebuilds each page (cut to cut) as a 1-bit image,
+ * written as PBM with a text transcript when an output directory is set. DLE EOT and GS r status
+ * queries are answered from the simulated state.
+ *
+ * The receive buffer is modelled: bufferBytes drained at printBytesPerSecond; while it is full the
+ * emulator stops reading, so the sender's writes block as on a real link. {@link #setPaperOut}
+ * stops the draining (the buffer fills) and is reported in the status bytes; {@link #setBufferFull}
+ * holds reading outright. Status queries are only seen once their bytes are read. The SDK's
+ * autoreply received-byte reports are printer-specific and not emulated (open with autoreplymode 0).
+ *
+ * Text is drawn as one TEXT_CELL box per character (there are no fonts here). Commands it doesn't
+ * know are skipped by their usual length and counted as unknown.
+ *
+ * No Android classes on this path (the standalone run is a plain JVM): problems go to the
+ * {@link Logger} passed in – logcat in the app, stderr standalone.
+ */
+final class EscPosEmulator implements Closeable {
+
+    static final int DEFAULT_PORT = 9100;
+    static final int DEFAULT_BUFFER_BYTES = 8 * 1024;
+    static final int DEFAULT_PRINT_BYTES_PER_SECOND = 28 * 1024;
+    /** ESC 2 line spacing (dots) */
+    static final int DEFAULT_LINE_SPACING = 30;
+    /** Dots per character of drawn text */
+    static final int TEXT_CELL_WIDTH = 12;
+    static final int TEXT_CELL_HEIGHT = 24;
+    /** GS h / GS w defaults */
+    static final int DEFAULT_BARCODE_HEIGHT = 162;
+    static final int DEFAULT_BARCODE_MODULE = 3;
+
+    /** A finished page (cut to cut) */
+    /** Where the emulator reports problems (socket errors, pages it can't write, codes it can't decode) */
+    interface Logger {
+        void warn(String message);
+    }
+
+    static final class Page {
+        final int width;
+        final int height;
+        /** Packed rows, MSB = leftmost dot, width / 8 bytes per row */
+        final byte[] data;
+        final List<String> text;
+
+        Page(int width, int height, byte[] data, List<String> text) {
+            this.width = width;
+            this.height = height;
+            this.data = data;
+            this.text = text;
+        }
+
+        boolean isBlack(int x, int y) {
+            return (data[y * (width / 8) + x / 8] & (0x80 >> (x & 7))) != 0;
+        }
+
+        /** Binary PBM (P4) */
+        void writePbm(OutputStream out) throws IOException {
+            out.write(("P4\n" + width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(data, 0, height * (width / 8));
+        }
+    }
+
+    private final ServerSocket server;
+    private final int width;
+    private final int stride;
+    private final int bufferBytes;
+    private final int printBytesPerSecond;
+    private final File outputDir;
+    private final Logger logger;
+    private final Thread acceptThread;
+    private volatile Socket client;
+    private volatile boolean closed;
+    private volatile boolean paperOut;
+    private volatile boolean holdReading;
+
+    // Receive buffer model (reader thread)
+    private double buffered;
+    private long drainedAtNanos;
+
+    // Page being printed and parser state (guarded by this)
+    private byte[] page;
+    private int y;
+    private int alignment;
+    private int lineSpacing = DEFAULT_LINE_SPACING;
+    private final ByteArrayOutputStream textLine = new ByteArrayOutputStream(64);
+    private final List<String> transcript = new ArrayList<>();
+    private byte[] qrData;
+    private int qrModule = 3;
+    private int barcodeHeight = DEFAULT_BARCODE_HEIGHT;
+    private int barcodeModule = DEFAULT_BARCODE_MODULE;
+    private final List<Page> pages = new ArrayList<>();
+
+    // Counters (guarded by this)
+    private long bytes;
+    private int commands;
+    private int unknown;
+    private int rasterRows;
+    private int feedDots;
+    private int textLines;
+    private int codes;
+    private int statusQueries;
+    private int stalls;
+    private int maxBuffered;
+    private long firstByteNanos;
+    private long lastByteNanos;
+    private long printedNanos;
+
+    /**
+     * Listen on 127.0.0.1 (or every interface when standalone)
+     * @param port TCP port, 0 = any free one ({@link #getPort})
+     * @param width paper width in dots (multiple of 8)
+     * @param outputDir where pages are written as page-N.pbm / page-N.txt, or null
+     */
+    EscPosEmulator(int port, boolean loopbackOnly, int width, int bufferBytes, int printBytesPerSecond, File outputDir,
+                   Logger logger) throws IOException {
+        this.server = loopbackOnly
+                ? new ServerSocket(port, 1, InetAddress.getByName("127.0.0.1"))
+                : new ServerSocket(port, 1);
+        this.width = width;
+        this.stride = width / 8;
+        this.bufferBytes = bufferBytes;
+        this.printBytesPerSecond = printBytesPerSecond;
+        this.outputDir = outputDir;
+        this.logger = logger;
+        this.page = new byte[stride * 1024];
+        this.acceptThread = new Thread(this::acceptLoop, "escpos-emulator");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /** Paper out: printing stops (the buffer fills) and status reports paper end */
+    void setPaperOut(boolean paperOut) {
+        this.paperOut = paperOut;
+    }
+
+    /** Stop reading as if the receive buffer were full */
+    void setBufferFull(boolean full) {
+        this.holdReading = full;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try (Socket socket = server.accept()) {
+                client = socket;
+                socket.setTcpNoDelay(true);
+                serve(socket.getInputStream(), socket.getOutputStream());
+            } catch (IOException e) {
+                if (!closed) logger.warn("escpos-emulator: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                client = null;
+            }
+        }
+    }
+
+    /** Read while the simulated buffer has room; parse as bytes arrive */
+    private void serve(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        byte[] chunk = new byte[4096];
+        byte[] pending = new byte[8192];
+        int pendingLength = 0;
+        buffered = 0;
+        drainedAtNanos = System.nanoTime();
+        boolean stalled = false;
+        while (!closed) {
+            drain();
+            int free = bufferBytes - (int) Math.ceil(buffered);
+            if (holdReading || free <= 0) {
+                if (!stalled) {
+                    stalled = true;
+                    synchronized (this) {
+                        stalls++;
+                    }
+                }
+                Thread.sleep(1);
+                continue;
+            }
+            stalled = false;
+            int n = in.read(chunk, 0, Math.min(chunk.length, free));
+            if (n < 0) return;
+            long now = System.nanoTime();
+            drain();
+            buffered += n;
+            if (pendingLength + n > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + n));
+            }
+            System.arraycopy(chunk, 0, pending, pendingLength, n);
+            pendingLength += n;
+            synchronized (this) {
+                if (bytes == 0) firstByteNanos = now;
+                bytes += n;
+                lastByteNanos = now;
+                printedNanos = now + (long) (buffered * 1e9 / printBytesPerSecond);
+                if (buffered > maxBuffered) maxBuffered = (int) buffered;
+                int used = parse(pending, pendingLength, out);
+                pendingLength -= used;
+                System.arraycopy(pending, used, pending, 0, pendingLength);
+            }
+        }
+    }
+
+    /** Buffered bytes printed since the last call (none while out of paper) */
+    private void drain() {
+        long now = System.nanoTime();
+        if (!paperOut) buffered = Math.max(0, buffered - (now - drainedAtNanos) / 1e9 * printBytesPerSecond);
+        drainedAtNanos = now;
+    }
+
+    /** @return bytes consumed (a trailing incomplete command stays) */
+    private int parse(byte[] b, int end, OutputStream out) throws IOException {
+        int i = 0;
+        while (i < end) {
+            int used = command(b, i, end, out);
+            if (used == 0) break;
+            i += used;
+        }
+        return i;
+    }
+
+    /** One command or text byte at b[i]; @return its length, 0 when incomplete */
+    private int command(byte[] b, int i, int end, OutputStream out) throws IOException {
+        int avail = end - i;
+        int c = b[i] & 0xff;
+        if (c == 0x0A) {
+            commands++;
+            newLine();
+            return 1;
+        }
+        if (c == 0x10) { // DLE EOT n
+            if (avail < 3) return 0;
+            commands++;
+            if (b[i + 1] == 0x04) {
+                statusQueries++;
+                out.write(status(b[i + 2]));
+                out.flush();
+            } else {
+                unknown++;
+            }
+            return 3;
+        }
+        if (c == 0x1B) return esc(b, i, avail);
+        if (c == 0x1D) return gs(b, i, avail, out);
+        if (c == 0x1C) { // FS & / FS . (Chinese mode on / off), others n
+            if (avail < 2) return 0;
+            commands++;
+            return b[i + 1] == '&' || b[i + 1] == '.' ? 2 : Math.min(3, avail);
+        }
+        if (c >= 0x20) {
+            textLine.write(c);
+            return 1;
+        }
+        return 1; // CR and other control bytes
+    }
+
+    private int esc(byte[] b, int i, int avail) {
+        if (avail < 2) return 0;
+        int op = b[i + 1];
+        if (op == '@') {
+            commands++;
+            alignment = 0;
+            lineSpacing = DEFAULT_LINE_SPACING;
+            return 2;
+        }
+        if (op == '2') {
+            commands++;
+            lineSpacing = DEFAULT_LINE_SPACING;
+            return 2;
+        }
+        if (op == 'p') { // drawer pulse
+            if (avail < 5) return 0;
+            commands++;
+            return 5;
+        }
+        if (avail < 3) return 0;
+        int n = b[i + 2] & 0xff;
+        commands++;
+        switch (op) {
+            case 'a':
+                alignment = Math.min(2, n % 48);
+                break;
+            case '3':
+                lineSpacing = n;
+                break;
+            case 'J':
+                feed(n);
+                break;
+            case 'd':
+                flushText();
+                feed(n * lineSpacing);
+                break;
+            case '!': case '-': case 'E': case 'G': case 'M': case 'R': case 't': case '{': case 'V':
+                break;
+            default:
+                unknown++;
+                break;
+        }
+        return 3;
+    }
+
+    private int gs(byte[] b, int i, int avail, OutputStream out) throws IOException {
+        if (avail < 2) return 0;
+        int op = b[i + 1];
+        if (op == 'v') { // GS v 0 m xL xH yL yH d...
+            if (avail < 8) return 0;
+            int xBytes = (b[i + 4] & 0xff) | (b[i + 5] & 0xff) << 8;
+            int rows = (b[i + 6] & 0xff) | (b[i + 7] & 0xff) << 8;
+            int length = 8 + xBytes * rows;
+            if (avail < length) return 0;
+            commands++;
+            raster(b, i + 8, xBytes, rows);
+            return length;
+        }
+        if (op == '(') { // GS ( k pL pH cn fn ...
+            if (avail < 5) return 0;
+            int length = 5 + ((b[i + 3] & 0xff) | (b[i + 4] & 0xff) << 8);
+            if (avail < length) return 0;
+            commands++;
+            if (b[i + 2] == 'k' && length >= 7 && b[i + 5] == 0x31) qr(b, i, length);
+            else unknown++;
+            return length;
+        }
+        if (op == 'k') { // GS k m n d... (m >= 65), GS k m d... NUL (m <= 6)
+            if (avail < 3) return 0;
+            int m = b[i + 2] & 0xff;
+            int length;
+            int start;
+            if (m >= 65) {
+                if (avail < 4) return 0;
+                start = i + 4;
+                length = 4 + (b[i + 3] & 0xff);
+            } else {
+                start = i + 3;
+                int nul = start;
+                while (nul < i + avail && b[nul] != 0) nul++;
+                if (nul == i + avail) return 0;
+                length = nul + 1 - i;
+            }
+            if (avail < length) return 0;
+            commands++;
+            if (m == 73) barcode(b, start, i + length);
+            else unknown++;
+            return length;
+        }
+        if (op == 'V') { // GS V m, GS V m n (m 65 / 66)
+            if (avail < 3) return 0;
+            int m = b[i + 2] & 0xff;
+            int length = m == 65 || m == 66 ? 4 : 3;
+            if (avail < length) return 0;
+            commands++;
+            cut();
+            return length;
+        }
+        if (op == 'L' || op == 'W') { // left margin, print area width
+            if (avail < 4) return 0;
+            commands++;
+            return 4;
+        }
+        if (avail < 3) return 0;
+        int n = b[i + 2] & 0xff;
+        commands++;
+        switch (op) {
+            case 'h':
+                barcodeHeight = Math.max(1, n);
+                break;
+            case 'w':
+                barcodeModule = Math.max(1, n);
+                break;
+            case 'r': // paper sensor status
+                statusQueries++;
+                out.write(paperOut ? 0x0C : 0x00);
+                out.flush();
+                break;
+            case '!': case 'B': case 'H': case 'f': case 'a':
+                break;
+            default:
+                unknown++;
+                break;
+        }
+        return 3;
+    }
+
+    /** DLE EOT n reply: fixed bits 0x12, offline / paper end as AutoReplyPrint.CP_RTSTATUS_Helper reads them */
+    private int status(int n) {
+        switch (n) {
+            case 1:
+                return 0x12 | (paperOut ? 0x08 : 0);
+            case 2:
+                return 0x12 | (paperOut ? 0x20 : 0);
+            case 4:
+                return 0x12 | (paperOut ? 0x60 : 0);
+            default:
+                return 0x12;
+        }
+    }
+
+    private void raster(byte[] b, int offset, int xBytes, int rows) {
+        flushText();
+        int copy = Math.min(xBytes, stride);
+        int x = xBytes >= stride ? 0 : alignment == 1 ? (stride - xBytes) / 2 : alignment == 2 ? stride - xBytes : 0;
+        ensureRows(y + rows);
+        for (int row = 0; row < rows; row++) {
+            int src = offset + row * xBytes;
+            int dst = (y + row) * stride + x;
+            for (int k = 0; k < copy; k++) page[dst + k] |= b[src + k];
+        }
+        y += rows;
+        rasterRows += rows;
+    }
+
+    private void feed(int dots) {
+        ensureRows(y + dots);
+        y += dots;
+        feedDots += dots;
+    }
+
+    /** LF: the pending text as one line of boxes, then one line spacing */
+    private void newLine() {
+        flushText();
+        feed(lineSpacing);
+    }
+
+    private void flushText() {
+        if (textLine.size() == 0) return;
+        String text = new String(textLine.toByteArray(), StandardCharsets.UTF_8);
+        textLine.reset();
+        transcript.add(text);
+        textLines++;
+        int chars = Math.min(text.codePointCount(0, text.length()), width / TEXT_CELL_WIDTH);
+        int x0 = position(chars * TEXT_CELL_WIDTH);
+        ensureRows(y + TEXT_CELL_HEIGHT);
+        for (int k = 0; k < chars; k++) {
+            int left = x0 + k * TEXT_CELL_WIDTH;
+            fill(left + 1, y + 2, left + TEXT_CELL_WIDTH - 1, y + 3);
+            fill(left + 1, y + TEXT_CELL_HEIGHT - 3, left + TEXT_CELL_WIDTH - 1, y + TEXT_CELL_HEIGHT - 2);
+            fill(left + 1, y + 2, left + 2, y + TEXT_CELL_HEIGHT - 2);
+            fill(left + TEXT_CELL_WIDTH - 2, y + 2, left + TEXT_CELL_WIDTH - 1, y + TEXT_CELL_HEIGHT - 2);
+        }
+        if (lineSpacing < TEXT_CELL_HEIGHT) feed(TEXT_CELL_HEIGHT - lineSpacing);
+    }
+
+    /** GS ( k cn = 49: 67 module size, 80 store, 81 print (error correction as stored by the app: M) */
+    private void qr(byte[] b, int i, int length) {
+        int fn = b[i + 6] & 0xff;
+        if (fn == 0x43 && length >= 8) {
+            qrModule = Math.max(1, b[i + 7] & 0xff);
+        } else if (fn == 0x50 && length >= 8) {
+            qrData = Arrays.copyOfRange(b, i + 8, i + length);
+        } else if (fn == 0x51 && qrData != null) {
+            BitMatrix matrix = encode(ReceiptCode.TYPE_QR, new String(qrData, StandardCharsets.UTF_8));
+            if (matrix != null) drawModules(matrix, qrModule, qrModule);
+            codes++;
+        }
+    }
+
+    /** Code 128 as the app sends it ("{B" + data, "{" escaped as "{{") */
+    private void barcode(byte[] b, int start, int end) {
+        String data = new String(b, start, end - start, StandardCharsets.US_ASCII);
+        if (data.startsWith("{B")) data = data.substring(2);
+        BitMatrix matrix = encode(ReceiptCode.TYPE_BARCODE, data.replace("{{", "{"));
+        if (matrix != null) drawModules(matrix, barcodeModule, barcodeHeight);
+        codes++;
+    }
+
+    private BitMatrix encode(int type, String data) {
+        try {
+            return ReceiptCode.encodeOrThrow(type, data);
+        } catch (Exception e) {
+            logger.warn("escpos-emulator: can't decode " + (type == ReceiptCode.TYPE_QR ? "QR" : "barcode") + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Matrix at the current alignment, moduleWidth dots per module, moduleHeight dots per matrix row */
+    private void drawModules(BitMatrix matrix, int moduleWidth, int moduleHeight) {
+        flushText();
+        int x0 = position(matrix.getWidth() * moduleWidth);
+        int height = matrix.getHeight() * moduleHeight;
+        ensureRows(y + height);
+        for (int my = 0; my < matrix.getHeight(); my++) {
+            for (int mx = 0; mx < matrix.getWidth(); mx++) {
+                if (matrix.get(mx, my)) {
+                    fill(x0 + mx * moduleWidth, y + my * moduleHeight,
+                            x0 + (mx + 1) * moduleWidth, y + (my + 1) * moduleHeight);
+                }
+            }
+        }
+        y += height;
+    }
+
+    /** Left edge of something w dots wide at the current alignment */
+    private int position(int w) {
+        if (w >= width) return 0;
+        return alignment == 1 ? (width - w) / 2 : alignment == 2 ? width - w : 0;
+    }
+
+    /** Black dots [x0, x1) x [y0, y1), clipped to the paper */
+    private void fill(int x0, int y0, int x1, int y1) {
+        for (int yy = y0; yy < y1; yy++) {
+            for (int x = Math.max(0, x0); x < Math.min(width, x1); x++) {
+                page[yy * stride + x / 8] |= (byte) (0x80 >> (x & 7));
+            }
+        }
+    }
+
+    private void ensureRows(int rows) {
+        if (rows * stride > page.length) page = Arrays.copyOf(page, Math.max(page.length * 2, rows * stride));
+    }
+
+    /** GS V: the page so far becomes a finished page */
+    private void cut() {
+        flushText();
+        Page done = new Page(width, y, Arrays.copyOf(page, y * stride), new ArrayList<>(transcript));
+        pages.add(done);
+        Arrays.fill(page, 0, Math.min(page.length, y * stride), (byte) 0);
+        y = 0;
+        transcript.clear();
+        notifyAll();
+        if (outputDir != null) save(done, pages.size());
+    }
+
+    private void save(Page done, int number) {
+        File pbm = new File(outputDir, "page-" + number + ".pbm");
+        File txt = new File(outputDir, "page-" + number + ".txt");
+        try (OutputStream image = new FileOutputStream(pbm); OutputStream text = new FileOutputStream(txt)) {
+            done.writePbm(image);
+            for (String line : done.text) text.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("escpos-emulator: can't write " + pbm + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Wait until count pages have been cut
+     * @return the pages so far (fewer than count on timeout)
+     */
+    synchronized List<Page> awaitPages(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long left;
+        while (pages.size() < count && (left = deadline - System.currentTimeMillis()) > 0) {
+            wait(left);
+        }
+        return new ArrayList<>(pages);
+    }
+
+    /** Counters and pages back to zero (the simulated buffer is kept) */
+    synchronized void reset() {
+        bytes = 0;
+        commands = unknown = rasterRows = feedDots = textLines = codes = statusQueries = stalls = maxBuffered = 0;
+        firstByteNanos = lastByteNanos = printedNanos = 0;
+        pages.clear();
+    }
+
+    /**
+     * @return JSON: {"bytes","commands","unknown","raster_rows","feed_dots","text_lines","codes",
+     *         "status_queries","stalls","max_buffered","receive_ms","print_ms","pages"}
+     *         (receive_ms first to last byte, print_ms first byte to the buffer printed out)
+     */
+    synchronized String toJson() {
+        return "{\"bytes\":" + bytes
+                + ",\"commands\":" + commands
+                + ",\"unknown\":" + unknown
+                + ",\"raster_rows\":" + rasterRows
+                + ",\"feed_dots\":" + feedDots
+                + ",\"text_lines\":" + textLines
+                + ",\"codes\":" + codes
+                + ",\"status_queries\":" + statusQueries
+                + ",\"stalls\":" + stalls
+                + ",\"max_buffered\":" + maxBuffered
+                + ",\"receive_ms\":" + String.format(Locale.US, "%.2f", (lastByteNanos - firstByteNanos) / 1e6)
+                + ",\"print_ms\":" + String.format(Locale.US, "%.2f", (printedNanos - firstByteNanos) / 1e6)
+                + ",\"pages\":" + pages.size() + "}";
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+        Socket s = client;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+        acceptThread.interrupt();
+    }
+
+    /**
+     * Standalone: java com.luqma.pos.EscPosEmulator [port] [outputDir] [bufferBytes] [printBytesPerSecond] [paper-out]
+     * Prints the counters after every page.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        File dir = args.length > 1 ? new File(args[1]) : null;
+        int buffer = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BUFFER_BYTES;
+        int speed = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PRINT_BYTES_PER_SECOND;
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("can't create " + dir);
+        EscPosEmulator emulator = new EscPosEmulator(port, false, ReceiptRenderer.PAPER_WIDTH, buffer, speed, dir,
+                System.err::println);
+        emulator.setPaperOut(args.length > 4 && "paper-out".equals(args[4]));
+        System.out.println("ESC/POS emulator on port " + emulator.getPort());
+        for (int seen = 0; ; seen++) {
+            emulator.awaitPages(seen + 1, Long.MAX_VALUE / 2);
+            System.out.println(emulator.toJson());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.luqma.pos;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ESC/POS byte commands for transports that take raw printer data (SENRAISE binder, CP_Port_Write).
+ * The AutoReplyPrint CP_Pos_* calls generate the same commands inside the native library.
+ */
+final class EscPosEncoder {
+
+    /** ESC @ – reset printer state */
+    static final byte[] INIT = { 0x1B, 0x40 };
+
+    /** GS v 0 header: 1D 76 30 m xL xH yL yH */
+    static final int RASTER_HEADER_BYTES = 8;
+
+    private EscPosEncoder() {}
+
+    /** ESC d n – print and feed n lines */
+    static byte[] feedLines(int lines) {
+        return new byte[] { 0x1B, 0x64, (byte) Math.max(0, Math.min(255, lines)) };
+    }
+
+    /** ESC J n – print and feed n dots */
+    static byte[] feedDots(int dots) {
+        return new byte[] { 0x1B, 0x4A, (byte) Math.max(0, Math.min(PrintPlan.MAX_FEED_DOTS, dots)) };
+    }
+
+    /** ESC a n – 0 left, 1 center */
+    static byte[] alignment(int align) {
+        return new byte[] { 0x1B, 0x61, (byte) align };
+    }
+
+    /**
+     * Centered QR code: GS ( k model 2, module size, error correction M, store data, print
+     */
+    static byte[] qrCode(String data, int module) {
+        byte[] text = data.getBytes(StandardCharsets.UTF_8);
+        int store = text.length + 3;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(text.length + 40);
+        out.write(alignment(1), 0, 3);
+        out.write(new byte[] { 0x1D, 0x28, 0x6B, 0x04, 0x00, 0x31, 0x41, 0x32, 0x00 }, 0, 9);
+        out.write(new byte[] { 0x1D, 0x28, 0x6B, 0x03, 0x00, 0x31, 0x43, (byte) Math.max(1, Math.min(16, module)) }, 0, 8);
+        out.write(new byte[] { 0x1D, 0x28, 0x6B, 0x03, 0x00, 0x31, 0x45, 0x31 }, 0, 8);
+        out.write(new byte[] { 0x1D, 0x28, 0x6B, (byte) (store & 0xff), (byte) ((store >> 8) & 0xff), 0x31, 0x50, 0x30 }, 0, 8);
+        out.write(text, 0, text.length);
+        out.write(new byte[] { 0x1D, 0x28, 0x6B, 0x03, 0x00, 0x31, 0x51, 0x30 }, 0, 8);
+        out.write(alignment(0), 0, 3);
+        return out.toByteArray();
+    }
+
+    /**
+     * Centered Code 128 (code set B) without readable text: GS h, GS w, GS H 0, GS k 73
+     * @return null when the data is too long for one GS k command
+     */
+    static byte[] code128(String data, int module, int height) {
+        StringBuilder content = new StringBuilder(data.length() + 2).append("{B");
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            content.append(c);
+            if (c == '{') content.append('{'); // "{{" = a literal '{'
+        }
+        byte[] text = content.toString().getBytes(StandardCharsets.US_ASCII);
+        if (text.length > 255) return null;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(text.length + 20);
+        out.write(alignment(1), 0, 3);
+        out.write(new byte[] { 0x1D, 0x68, (byte) Math.max(1, Math.min(255, height)) }, 0, 3);
+        out.write(new byte[] { 0x1D, 0x77, (byte) Math.max(2, Math.min(6, module)) }, 0, 3);
+        out.write(new byte[] { 0x1D, 0x48, 0x00 }, 0, 3);
+        out.write(new byte[] { 0x1D, 0x6B, 73, (byte) text.length }, 0, 4);
+        out.write(text, 0, text.length);
+        out.write(alignment(0), 0, 3);
+        return out.toByteArray();
+    }
+
+    /** Command bytes for a code, or null when it has to be printed from the raster */
+    static byte[] code(ReceiptCode code) {
+        return code.type == ReceiptCode.TYPE_QR
+                ? qrCode(code.data, code.module)
+                : code128(code.data, code.module, code.rowEnd - code.rowStart);
+    }
+
+    /** Size of one GS v 0 band of {@code rows} rows */
+    static int rasterBandSize(RasterEncoder.Raster raster, int rows) {
+        return RASTER_HEADER_BYTES + raster.stride * rows;
+    }
+
+    /**
+     * Write rows [rowStart, rowStart + rows) of the raster as one GS v 0 band into out at offset.
+     * The packed raster layout (MSB = leftmost, bit set = black) is exactly the GS v 0 data layout.
+     * @return bytes written
+     */
+    static int writeRasterBand(RasterEncoder.Raster raster, int rowStart, int rows, byte[] out, int offset) {
+        int o = offset;
+        out[o++] = 0x1D;
+        out[o++] = 0x76;
+        out[o++] = 0x30;
+        out[o++] = 0x00; // normal density
+        out[o++] = (byte) (raster.stride & 0xff);
+        out[o++] = (byte) ((raster.stride >> 8) & 0xff);
+        out[o++] = (byte) (rows & 0xff);
+        out[o++] = (byte) ((rows >> 8) & 0xff);
+        int len = raster.stride * rows;
+        System.arraycopy(raster.data, rowStart * raster.stride, out, o, len);
+        return RASTER_HEADER_BYTES + len;
+    }
+
+    /**
+     * Whole job as one byte stream: INIT, the raster's dense segments in bands of at most
+     * maxBandRows with blank runs as ESC J feeds ({@link PrintPlan}), final feed
+     */
+    static byte[] encodeJob(RasterEncoder.Raster raster, int maxBandRows, int feedLines) {
+        return encodeJob(raster, maxBandRows, feedLines, false);
+    }
+
+    /** @param codes send QR codes / barcodes as GS ( k / GS k instead of their raster rows */
+    static byte[] encodeJob(RasterEncoder.Raster raster, int maxBandRows, int feedLines, boolean codes) {
+        PrintPlan plan = PrintPlan.of(raster, false, true, codes);
+        byte[] feed = feedLines(feedLines);
+        byte[][] codeBytes = new byte[plan.ops.size()][];
+        int size = INIT.length + feed.length;
+        for (int i = 0; i < plan.ops.size(); i++) {
+            PrintPlan.Op op = plan.ops.get(i);
+            if (op.type == PrintPlan.OP_CODE) codeBytes[i] = code(op.code);
+            size += op.type == PrintPlan.OP_FEED
+                    ? PrintPlan.feedCommands(op.rows()) * PrintPlan.FEED_COMMAND_BYTES
+                    : codeBytes[i] != null
+                    ? codeBytes[i].length
+                    : (op.rows() + maxBandRows - 1) / maxBandRows * RASTER_HEADER_BYTES + op.rows() * raster.stride;
+        }
+        byte[] out = new byte[size];
+        int o = 0;
+        System.arraycopy(INIT, 0, out, o, INIT.length);
+        o += INIT.length;
+        for (int i = 0; i < plan.ops.size(); i++) {
+            PrintPlan.Op op = plan.ops.get(i);
+            if (codeBytes[i] != null) {
+                System.arraycopy(codeBytes[i], 0, out, o, codeBytes[i].length);
+                o += codeBytes[i].length;
+                continue;
+            }
+            if (op.type == PrintPlan.OP_FEED) {
+                for (int left = op.rows(); left > 0; left -= PrintPlan.MAX_FEED_DOTS) {
+                    byte[] dots = feedDots(Math.min(left, PrintPlan.MAX_FEED_DOTS));
+                    System.arraycopy(dots, 0, out, o, dots.length);
+                    o += dots.length;
+                }
+                continue;
+            }
+            for (int row = op.rowStart; row < op.rowEnd; row += maxBandRows) {
+                o += writeRasterBand(raster, row, Math.min(maxBandRows, op.rowEnd - row), out, o);
+            }
+        }
+        System.arraycopy(feed, 0, out, o, feed.length);
+        return out;
+    }
+}
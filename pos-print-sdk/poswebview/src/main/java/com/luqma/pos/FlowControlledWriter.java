@@ -0,0 +1,168 @@
+package com.luqma.pos;
+
+/**
+ * Writes a job to a {@link RawPort} in fixed-size chunks with a sliding window: a chunk is only
+ * written when (bytes sent - bytes the printer reported as received) + chunk <= window, so the
+ * data in flight never gets ahead of the printer's buffer by more than the window.
+ *
+ * Progress comes from the printer's received-byte counter (event callback, polled as a fallback).
+ * If the counter stops moving while the window is full for stallTimeoutMs, the write fails instead
+ * of blocking forever (printer off, paper out, port opened without autoreply).
+ *
+ * The counter is never read while holding lock: the SDK may hold a lock of its own while it calls
+ * onPrinterReceived (which takes lock), so polling under lock could deadlock the two threads.
+ */
+final class FlowControlledWriter implements RawPort.ReceivedListener {
+
+    static final int DEFAULT_CHUNK_BYTES = 512;
+    static final int DEFAULT_WINDOW_BYTES = 4096;
+    static final long DEFAULT_STALL_TIMEOUT_MS = 3000;
+    private static final int WRITE_TIMEOUT_MS = 5000;
+    private static final long POLL_MS = 20;
+
+    private final RawPort port;
+    private final int chunkBytes;
+    private final int windowBytes;
+    private final long stallTimeoutMs;
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private boolean haveBaseline;
+    private int baseline;
+    private long sent;
+    private long acked;
+
+    // Stats of the last write()
+    private int chunks;
+    private int waits;
+    private long waitMs;
+    private long maxInFlight;
+
+    FlowControlledWriter(RawPort port, int chunkBytes, int windowBytes, long stallTimeoutMs) {
+        this.port = port;
+        this.chunkBytes = Math.max(16, chunkBytes);
+        this.windowBytes = Math.max(this.chunkBytes, windowBytes);
+        this.stallTimeoutMs = stallTimeoutMs;
+    }
+
+    /**
+     * Write data[0, length) chunk by chunk, waiting for the window.
+     * @return true when every byte was written
+     */
+    boolean write(byte[] data, int length) {
+        chunks = 0;
+        waits = 0;
+        waitMs = 0;
+        maxInFlight = 0;
+        int start = port.printerReceivedCount();
+        synchronized (lock) {
+            haveBaseline = start >= 0;
+            baseline = start;
+            sent = 0;
+            acked = 0;
+        }
+        port.setReceivedListener(this);
+        byte[] chunk = new byte[chunkBytes];
+        try {
+            int offset = 0;
+            while (offset < length) {
+                int n = Math.min(chunkBytes, length - offset);
+                if (!awaitWindow(n)) {
+                    android.util.Log.e("POS", "❌ Printer stopped acknowledging data (" + offset + "/" + length + " B written)");
+                    return false;
+                }
+                System.arraycopy(data, offset, chunk, 0, n);
+                int written = port.write(chunk, n, WRITE_TIMEOUT_MS);
+                if (written <= 0) {
+                    android.util.Log.e("POS", "❌ CP_Port_Write failed at " + offset + "/" + length + " B");
+                    return false;
+                }
+                offset += written;
+                chunks++;
+                synchronized (lock) {
+                    sent += written;
+                    maxInFlight = Math.max(maxInFlight, sent - acked);
+                }
+            }
+            return true;
+        } finally {
+            port.setReceivedListener(null);
+        }
+    }
+
+    /** Block until n more bytes fit in the window; false when the printer made no progress for stallTimeoutMs */
+    private boolean awaitWindow(int n) {
+        long lastAcked;
+        synchronized (lock) {
+            if (sent + n - acked <= windowBytes) return true;
+            lastAcked = acked;
+        }
+        waits++;
+        long start = System.currentTimeMillis();
+        long lastProgress = start;
+        try {
+            while (true) {
+                synchronized (lock) {
+                    lock.wait(POLL_MS);
+                    if (sent + n - acked <= windowBytes) return true;
+                }
+                // Poll as well (outside lock): the event isn't guaranteed for every counter change
+                int count = port.printerReceivedCount();
+                long progress;
+                synchronized (lock) {
+                    if (count >= 0) update(count);
+                    if (sent + n - acked <= windowBytes) return true;
+                    progress = acked;
+                }
+                long now = System.currentTimeMillis();
+                if (progress != lastAcked) {
+                    lastAcked = progress;
+                    lastProgress = now;
+                } else if (now - lastProgress > stallTimeoutMs) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waitMs += System.currentTimeMillis() - start;
+        }
+    }
+
+    @Override
+    public void onPrinterReceived(int printerReceivedByteCount) {
+        synchronized (lock) {
+            update(printerReceivedByteCount);
+            lock.notifyAll();
+        }
+    }
+
+    /** Caller holds lock */
+    private void update(int count) {
+        if (!haveBaseline) {
+            // No counter before the job: assume what we've sent so far has arrived
+            baseline = count - (int) sent;
+            haveBaseline = true;
+        }
+        long received = (count - baseline) & 0xffffffffL; // int counter may wrap
+        if (received > acked && received <= sent) acked = received;
+        else if (received > sent) acked = sent;
+    }
+
+    int getChunks() {
+        return chunks;
+    }
+
+    int getWaits() {
+        return waits;
+    }
+
+    long getWaitMs() {
+        return waitMs;
+    }
+
+    long getMaxInFlight() {
+        return maxInFlight;
+    }
+}
@@ -0,0 +1,514 @@
+package com.luqma.pos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass streaming HTML → receipt line model converter (used by printHtml).
+ *
+ * Walks the markup once, character by character, and maps a small tag set straight into
+ * {@link ReceiptLine}s — no regex passes and no stripped copy of the document:
+ *   <b>/<strong>/<th>      bold (other text uses normal weight when titlesBoldOnly)
+ *   <h1>..<h6>             section header paint
+ *   <br>, block tags       line break (<br> on an empty line = empty gap)
+ *   <hr>                   thick rule (thin when class/style says "dashed")
+ *   <table><tr><td>        one line per row; last cell drawn from the left edge (item … price)
+ *   <img>                  the receipt logo, drawn in place
+ *   <center>, .footer      centered (footer uses footerFont)
+ * plus the classes used by ReceiptPreview.html / ReceiptStylePage (.sep, .sep-dashed, .empty,
+ * .header-line, .total-box, .footer), so the web preview can be printed as-is.
+ * Text lines go through the same smart formatting as printText (separators, total box, headers).
+ */
+final class HtmlReceiptParser {
+
+    private static final int TAG_OTHER = 0;
+    private static final int TAG_B = 1;
+    private static final int TAG_BR = 2;
+    private static final int TAG_HR = 3;
+    private static final int TAG_H = 4;
+    private static final int TAG_TABLE = 5;
+    private static final int TAG_TR = 6;
+    private static final int TAG_TD = 7;
+    private static final int TAG_TH = 8;
+    private static final int TAG_IMG = 9;
+    private static final int TAG_BLOCK = 10;   // div, p, li, ul, ol, section, header, footer, body
+    private static final int TAG_CENTER = 11;
+    private static final int TAG_SKIP = 12;    // script, style, head, title – content ignored
+    private static final int TAG_VOID = 13;    // meta, link, input, wbr – never closed
+
+    private static final int F_BOLD = 1;
+    private static final int F_HEADER = 2;
+    private static final int F_TOTAL = 4;
+    private static final int F_FOOTER = 8;
+    private static final int F_CENTER = 16;
+
+    private static final int MAX_DEPTH = 64;
+
+    private final String html;
+    private final int len;
+    private final boolean titlesBoldOnly;
+    private final List<ReceiptLine> out = new ArrayList<>();
+
+    private final StringBuilder line = new StringBuilder(64);
+    private int lineFlags;
+    private boolean lineHasBold;
+
+    private final int[] tagStack = new int[MAX_DEPTH];
+    private final int[] flagStack = new int[MAX_DEPTH];
+    private int depth;
+
+    private int rowDepth;
+    private int cellCount;
+    private int lastCellStart;
+    private boolean logoSeen;
+
+    // Attribute range of the tag being processed, and the last attribute value found
+    private int attrStart, attrEnd, valStart, valEnd;
+
+    private HtmlReceiptParser(String html, ReceiptStyle style) {
+        this.html = html;
+        this.len = html.length();
+        this.titlesBoldOnly = style.titlesBoldOnly;
+    }
+
+    /**
+     * Convert HTML to the receipt line model in one pass.
+     */
+    static List<ReceiptLine> parse(String html, ReceiptStyle style) {
+        if (html == null || html.isEmpty()) return new ArrayList<>();
+        HtmlReceiptParser parser = new HtmlReceiptParser(html, style);
+        parser.run();
+        return parser.out;
+    }
+
+    /** True when the document placed the logo itself (then no extra header is drawn). */
+    static boolean hasLogo(List<ReceiptLine> lines) {
+        for (ReceiptLine l : lines) {
+            if (l.kind == ReceiptLine.KIND_LOGO) return true;
+        }
+        return false;
+    }
+
+    private void run() {
+        int pos = 0;
+        while (pos < len) {
+            char c = html.charAt(pos);
+            if (c == '<') {
+                pos = readTag(pos);
+            } else if (c == '&') {
+                pos = readEntity(pos);
+            } else {
+                appendChar(c);
+                pos++;
+            }
+        }
+        flush(false);
+    }
+
+    // ---------------------------------------------------------------- tags
+
+    private int readTag(int lt) {
+        int p = lt + 1;
+        if (p >= len) {
+            appendChar('<');
+            return p;
+        }
+
+        // <!-- comment -->, <!DOCTYPE ...>, <?xml ...?>
+        if (html.startsWith("!--", p)) {
+            int end = html.indexOf("-->", p + 3);
+            return end < 0 ? len : end + 3;
+        }
+        if (html.charAt(p) == '!' || html.charAt(p) == '?') {
+            int end = html.indexOf('>', p);
+            return end < 0 ? len : end + 1;
+        }
+
+        boolean closing = html.charAt(p) == '/';
+        if (closing) p++;
+
+        int nameStart = p;
+        while (p < len && Character.isLetterOrDigit(html.charAt(p))) p++;
+        int nameEnd = p;
+        if (nameEnd == nameStart) {
+            // Not a tag ("a < b") – keep the character
+            appendChar('<');
+            return lt + 1;
+        }
+
+        // Attributes up to '>' (quoted values may contain '>')
+        attrStart = p;
+        char quote = 0;
+        while (p < len) {
+            char c = html.charAt(p);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                break;
+            }
+            p++;
+        }
+        attrEnd = p;
+        boolean selfClosing = attrEnd > attrStart && html.charAt(attrEnd - 1) == '/';
+        int next = Math.min(len, p + 1);
+
+        int tag = tagCode(nameStart, nameEnd);
+        if (closing) {
+            closeTag(tag);
+            return next;
+        }
+        if (tag == TAG_SKIP) {
+            // Skip content up to the matching close tag
+            int close = indexOfIgnoreCase("</" + html.substring(nameStart, nameEnd), next);
+            if (close < 0) return len;
+            int gt = html.indexOf('>', close);
+            return gt < 0 ? len : gt + 1;
+        }
+        openTag(tag, selfClosing);
+        return next;
+    }
+
+    private void openTag(int tag, boolean selfClosing) {
+        switch (tag) {
+            case TAG_BR:
+                flush(true);
+                return;
+            case TAG_HR:
+                flush(false);
+                out.add(hasClass("dashed") || styleHas("dashed") ? ReceiptLine.RULE_THIN : ReceiptLine.RULE_THICK);
+                return;
+            case TAG_IMG:
+                flush(false);
+                if (!logoSeen) {
+                    logoSeen = true;
+                    out.add(ReceiptLine.LOGO);
+                }
+                return;
+            case TAG_VOID:
+                return;
+            case TAG_TR:
+                flush(false);
+                rowDepth++;
+                cellCount = 0;
+                break;
+            case TAG_TD:
+            case TAG_TH:
+                if (line.length() > 0 && line.charAt(line.length() - 1) != ' ') line.append(' ');
+                lastCellStart = line.length();
+                cellCount++;
+                break;
+            case TAG_BLOCK:
+            case TAG_CENTER:
+            case TAG_H:
+            case TAG_TABLE:
+                flush(false);
+                break;
+            default:
+                break;
+        }
+
+        int flags = depth > 0 ? flagStack[depth - 1] : 0;
+        if (tag == TAG_B || tag == TAG_TH) flags |= F_BOLD;
+        if (tag == TAG_H) flags |= F_HEADER | F_BOLD;
+        if (tag == TAG_CENTER) flags |= F_CENTER;
+        if (attrEnd > attrStart) {
+            // Classes from ReceiptPreview.html / ReceiptStylePage
+            if (hasClass("sep")) out.add(ReceiptLine.RULE_THICK);
+            else if (hasClass("sep-dashed")) out.add(ReceiptLine.RULE_THIN);
+            else if (hasClass("empty")) out.add(ReceiptLine.BLANK);
+            if (hasClass("header-line")) flags |= F_HEADER | F_BOLD;
+            if (hasClass("total-box")) flags |= F_TOTAL;
+            if (hasClass("footer")) flags |= F_FOOTER | F_CENTER;
+            if (styleValueIs("text-align", "center")) flags |= F_CENTER;
+            if (styleValueIs("font-weight", "bold") || styleValueIs("font-weight", "6")
+                    || styleValueIs("font-weight", "7") || styleValueIs("font-weight", "8")
+                    || styleValueIs("font-weight", "9")) {
+                flags |= F_BOLD;
+            }
+        }
+
+        if (selfClosing) return;
+        if (depth < MAX_DEPTH) {
+            tagStack[depth] = tag;
+            flagStack[depth] = flags;
+            depth++;
+        }
+    }
+
+    private void closeTag(int tag) {
+        // Pop up to (and including) the matching open tag; ignore stray close tags
+        int match = -1;
+        for (int i = depth - 1; i >= 0; i--) {
+            if (tagStack[i] == tag) {
+                match = i;
+                break;
+            }
+        }
+        if (match < 0) return;
+
+        switch (tag) {
+            case TAG_TR:
+                if (rowDepth > 0) rowDepth--;
+                flush(false);
+                cellCount = 0;
+                break;
+            case TAG_BLOCK:
+            case TAG_CENTER:
+            case TAG_H:
+            case TAG_TABLE:
+                flush(false);
+                break;
+            default:
+                break;
+        }
+        depth = match;
+    }
+
+    private int tagCode(int s, int e) {
+        int n = e - s;
+        if (n == 1) {
+            char c = Character.toLowerCase(html.charAt(s));
+            if (c == 'b') return TAG_B;
+            if (c == 'p') return TAG_BLOCK;
+            return TAG_OTHER;
+        }
+        if (n == 2) {
+            char c0 = Character.toLowerCase(html.charAt(s));
+            char c1 = Character.toLowerCase(html.charAt(s + 1));
+            if (c0 == 'h' && c1 >= '1' && c1 <= '6') return TAG_H;
+            if (c0 == 'b' && c1 == 'r') return TAG_BR;
+            if (c0 == 'h' && c1 == 'r') return TAG_HR;
+            if (c0 == 't' && c1 == 'r') return TAG_TR;
+            if (c0 == 't' && c1 == 'd') return TAG_TD;
+            if (c0 == 't' && c1 == 'h') return TAG_TH;
+            if ((c0 == 'l' && c1 == 'i') || (c0 == 'u' && c1 == 'l') || (c0 == 'o' && c1 == 'l')) return TAG_BLOCK;
+            return TAG_OTHER;
+        }
+        if (nameIs(s, n, "img")) return TAG_IMG;
+        if (nameIs(s, n, "div") || nameIs(s, n, "section") || nameIs(s, n, "header")
+                || nameIs(s, n, "footer") || nameIs(s, n, "body") || nameIs(s, n, "pre")) return TAG_BLOCK;
+        if (nameIs(s, n, "strong")) return TAG_B;
+        if (nameIs(s, n, "table")) return TAG_TABLE;
+        if (nameIs(s, n, "center")) return TAG_CENTER;
+        if (nameIs(s, n, "script") || nameIs(s, n, "style") || nameIs(s, n, "head")
+                || nameIs(s, n, "title")) return TAG_SKIP;
+        if (nameIs(s, n, "meta") || nameIs(s, n, "link") || nameIs(s, n, "input")
+                || nameIs(s, n, "wbr")) return TAG_VOID;
+        return TAG_OTHER;
+    }
+
+    private boolean nameIs(int s, int n, String name) {
+        return n == name.length() && html.regionMatches(true, s, name, 0, n);
+    }
+
+    // ---------------------------------------------------------------- attributes
+
+    /** Finds attribute {@code name} in the current tag; sets valStart/valEnd. */
+    private boolean findAttr(String name) {
+        int n = name.length();
+        for (int p = attrStart; p + n <= attrEnd; p++) {
+            if (!html.regionMatches(true, p, name, 0, n)) continue;
+            if (p > attrStart && !Character.isWhitespace(html.charAt(p - 1))) continue;
+            int q = p + n;
+            while (q < attrEnd && Character.isWhitespace(html.charAt(q))) q++;
+            if (q >= attrEnd || html.charAt(q) != '=') continue;
+            q++;
+            while (q < attrEnd && Character.isWhitespace(html.charAt(q))) q++;
+            if (q >= attrEnd) return false;
+            char quote = html.charAt(q);
+            if (quote == '"' || quote == '\'') {
+                int end = html.indexOf(quote, q + 1);
+                valStart = q + 1;
+                valEnd = end < 0 || end > attrEnd ? attrEnd : end;
+            } else {
+                int end = q;
+                while (end < attrEnd && !Character.isWhitespace(html.charAt(end)) && html.charAt(end) != '/') end++;
+                valStart = q;
+                valEnd = end;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Whole-token match inside class="..." (so "sep" does not match "sep-dashed"). */
+    private boolean hasClass(String cls) {
+        if (!findAttr("class")) return false;
+        int n = cls.length();
+        int p = valStart;
+        while (p < valEnd) {
+            while (p < valEnd && Character.isWhitespace(html.charAt(p))) p++;
+            int tokenStart = p;
+            while (p < valEnd && !Character.isWhitespace(html.charAt(p))) p++;
+            if (p - tokenStart == n && html.regionMatches(true, tokenStart, cls, 0, n)) return true;
+        }
+        return false;
+    }
+
+    private boolean styleHas(String needle) {
+        if (!findAttr("style")) return false;
+        int n = needle.length();
+        for (int p = valStart; p + n <= valEnd; p++) {
+            if (html.regionMatches(true, p, needle, 0, n)) return true;
+        }
+        return false;
+    }
+
+    /** style="prop: value..." — value compared as a prefix ("font-weight: 700" matches "7"). */
+    private boolean styleValueIs(String prop, String value) {
+        if (!findAttr("style")) return false;
+        int n = prop.length();
+        for (int p = valStart; p + n <= valEnd; p++) {
+            if (!html.regionMatches(true, p, prop, 0, n)) continue;
+            int q = p + n;
+            while (q < valEnd && Character.isWhitespace(html.charAt(q))) q++;
+            if (q >= valEnd || html.charAt(q) != ':') continue;
+            q++;
+            while (q < valEnd && Character.isWhitespace(html.charAt(q))) q++;
+            if (q + value.length() <= valEnd && html.regionMatches(true, q, value, 0, value.length())) return true;
+        }
+        return false;
+    }
+
+    private int indexOfIgnoreCase(String needle, int from) {
+        int n = needle.length();
+        for (int p = from; p + n <= len; p++) {
+            if (html.regionMatches(true, p, needle, 0, n)) return p;
+        }
+        return -1;
+    }
+
+    // ---------------------------------------------------------------- text
+
+    private int readEntity(int amp) {
+        int semi = -1;
+        for (int p = amp + 1; p < len && p <= amp + 10; p++) {
+            char c = html.charAt(p);
+            if (c == ';') {
+                semi = p;
+                break;
+            }
+            if (!Character.isLetterOrDigit(c) && c != '#') break;
+        }
+        if (semi < 0) {
+            appendChar('&');
+            return amp + 1;
+        }
+
+        int s = amp + 1;
+        int n = semi - s;
+        int cp = -1;
+        if (n > 1 && html.charAt(s) == '#') {
+            try {
+                boolean hex = html.charAt(s + 1) == 'x' || html.charAt(s + 1) == 'X';
+                cp = hex ? Integer.parseInt(html.substring(s + 2, semi), 16)
+                         : Integer.parseInt(html.substring(s + 1, semi));
+            } catch (NumberFormatException e) {
+                cp = -1;
+            }
+        } else if (nameIs(s, n, "nbsp")) cp = ' ';
+        else if (nameIs(s, n, "amp")) cp = '&';
+        else if (nameIs(s, n, "lt")) cp = '<';
+        else if (nameIs(s, n, "gt")) cp = '>';
+        else if (nameIs(s, n, "quot")) cp = '"';
+        else if (nameIs(s, n, "apos")) cp = '\'';
+        else if (nameIs(s, n, "times")) cp = '×';
+        else if (nameIs(s, n, "bull")) cp = '•';
+        else if (nameIs(s, n, "middot")) cp = '·';
+        else if (nameIs(s, n, "ndash")) cp = '–';
+        else if (nameIs(s, n, "mdash")) cp = '—';
+        else if (nameIs(s, n, "shekel")) cp = '₪';
+        else if (nameIs(s, n, "rlm")) cp = '\u200F';
+        else if (nameIs(s, n, "lrm")) cp = '\u200E';
+
+        if (cp < 0 || !Character.isValidCodePoint(cp)) {
+            appendChar('&');
+            return amp + 1;
+        }
+        if (Character.isBmpCodePoint(cp)) {
+            appendChar((char) cp);
+        } else {
+            line.appendCodePoint(cp);
+            markText();
+        }
+        return semi + 1;
+    }
+
+    private void appendChar(char c) {
+        if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f') {
+            // Collapse whitespace like the browser does
+            if (line.length() > 0 && line.charAt(line.length() - 1) != ' ') line.append(' ');
+            return;
+        }
+        line.append(c);
+        markText();
+    }
+
+    private void markText() {
+        int flags = depth > 0 ? flagStack[depth - 1] : 0;
+        lineFlags |= flags;
+        if ((flags & F_BOLD) != 0) lineHasBold = true;
+    }
+
+    /**
+     * Emit the pending line. Inside a table row, cells accumulate until </tr>.
+     * @param blankIfEmpty true for <br> (an empty line becomes an empty gap)
+     */
+    private void flush(boolean blankIfEmpty) {
+        if (rowDepth > 0 && !blankIfEmpty && cellCount > 0 && depthHasOpenRow()) return;
+
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ') end--;
+        if (end == 0) {
+            if (blankIfEmpty) out.add(ReceiptLine.BLANK);
+            resetLine();
+            return;
+        }
+
+        String text;
+        String endText = null;
+        if (cellCount >= 2 && lastCellStart > 0 && lastCellStart < end) {
+            text = line.substring(0, lastCellStart).trim();
+            endText = line.substring(lastCellStart, end).trim();
+        } else {
+            text = line.substring(0, end);
+        }
+
+        boolean normalWeight = titlesBoldOnly && !lineHasBold;
+        if ((lineFlags & F_TOTAL) != 0) {
+            out.add(new ReceiptLine(ReceiptLine.KIND_TOTAL, text, null, ReceiptLine.WEIGHT_BOLD, ReceiptLine.ALIGN_CENTER));
+        } else {
+            ReceiptLine base = ReceiptLine.classify(text, normalWeight);
+            if (base.kind != ReceiptLine.KIND_TEXT || (endText == null && lineFlags == 0)) {
+                out.add(base);
+            } else {
+                int weight = base.weight;
+                if ((lineFlags & F_HEADER) != 0) weight = ReceiptLine.WEIGHT_HEADER;
+                else if ((lineFlags & F_FOOTER) != 0) weight = ReceiptLine.WEIGHT_FOOTER;
+                int align = (lineFlags & F_CENTER) != 0 ? ReceiptLine.ALIGN_CENTER : ReceiptLine.ALIGN_RIGHT;
+                out.add(new ReceiptLine(ReceiptLine.KIND_TEXT, text, endText, weight, align));
+            }
+        }
+        resetLine();
+    }
+
+    /** Block tags inside a cell (<td><div>..</div></td>) must not split the row. */
+    private boolean depthHasOpenRow() {
+        for (int i = depth - 1; i >= 0; i--) {
+            if (tagStack[i] == TAG_TR) return true;
+        }
+        return false;
+    }
+
+    private void resetLine() {
+        line.setLength(0);
+        lineFlags = 0;
+        lineHasBold = false;
+        if (rowDepth == 0) {
+            cellCount = 0;
+            lastCellStart = 0;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.luqma.pos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Print speed / density chosen per raster segment from its ink coverage: sparse text prints fast
+ * at low density, a dithered logo or the filled total box slower and darker (a thermal head at
+ * full speed can't heat large black areas enough).
+ *
+ * The table is "maxCoverage:speed:density,..." in ascending coverage (percent of dots black in
+ * the darkest BAND_ROWS rows of the segment); the first row whose maxCoverage covers the segment
+ * wins, the last row covers everything above. Per-printer calibration shifts every density and
+ * scales every speed (heads and paper differ between terminals).
+ */
+final class InkProfiles {
+
+    /** Suggested starting point, not yet measured on the hardware: only used when the dashboard opts in */
+    static final String DEFAULT_TABLE = "8:150:6,16:110:8,28:80:10,100:60:12";
+    /** Coverage is measured over bands of this many rows (about one text line) */
+    static final int BAND_ROWS = 32;
+    /** CP_Pos_SetPrintSpeed (mm/s) / CP_Pos_SetPrintDensity ranges */
+    static final int MIN_SPEED = 20;
+    static final int MAX_SPEED = 250;
+    static final int MIN_DENSITY = 0;
+    static final int MAX_DENSITY = 15;
+
+    static final class Profile {
+        final int maxCoverage;
+        final int speed;
+        final int density;
+
+        Profile(int maxCoverage, int speed, int density) {
+            this.maxCoverage = maxCoverage;
+            this.speed = speed;
+            this.density = density;
+        }
+    }
+
+    private final List<Profile> profiles;
+    /** Calibration: added to every density, percent applied to every speed */
+    final int densityOffset;
+    final int speedPercent;
+    private final int[] segments;
+
+    private InkProfiles(List<Profile> profiles, int densityOffset, int speedPercent) {
+        this.profiles = Collections.unmodifiableList(profiles);
+        this.densityOffset = densityOffset;
+        this.speedPercent = speedPercent;
+        this.segments = new int[profiles.size()];
+    }
+
+    /**
+     * @param table "maxCoverage:speed:density,..." (null or empty = DEFAULT_TABLE)
+     * @param densityOffset calibration added to each density
+     * @param speedPercent calibration applied to each speed (100 = as in the table)
+     * @throws IllegalArgumentException on a malformed table
+     */
+    static InkProfiles parse(String table, int densityOffset, int speedPercent) {
+        if (table == null || table.trim().isEmpty()) table = DEFAULT_TABLE;
+        List<Profile> profiles = new ArrayList<>();
+        int lastCoverage = -1;
+        for (String entry : table.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 3) throw new IllegalArgumentException("bad ink profile \"" + entry.trim() + "\"");
+            int coverage;
+            int speed;
+            int density;
+            try {
+                coverage = Integer.parseInt(parts[0].trim());
+                speed = Integer.parseInt(parts[1].trim());
+                density = Integer.parseInt(parts[2].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad ink profile \"" + entry.trim() + "\"");
+            }
+            if (coverage <= lastCoverage) throw new IllegalArgumentException("ink profiles must be in ascending coverage");
+            profiles.add(new Profile(coverage, speed, density));
+            lastCoverage = coverage;
+        }
+        if (profiles.isEmpty()) throw new IllegalArgumentException("no ink profiles");
+        return new InkProfiles(profiles, densityOffset, speedPercent > 0 ? speedPercent : 100);
+    }
+
+    /** Index of the profile for a segment of the given coverage (percent) */
+    int select(int coverage) {
+        int index = profiles.size() - 1;
+        for (int i = 0; i < profiles.size(); i++) {
+            if (coverage <= profiles.get(i).maxCoverage) {
+                index = i;
+                break;
+            }
+        }
+        synchronized (this) {
+            segments[index]++;
+        }
+        return index;
+    }
+
+    /** Calibrated speed of profile i */
+    int speed(int i) {
+        return Math.max(MIN_SPEED, Math.min(MAX_SPEED, profiles.get(i).speed * speedPercent / 100));
+    }
+
+    /** Calibrated density of profile i */
+    int density(int i) {
+        return Math.max(MIN_DENSITY, Math.min(MAX_DENSITY, profiles.get(i).density + densityOffset));
+    }
+
+    /**
+     * Coverage of rows [rowStart, rowEnd): percent of black dots in its darkest band of BAND_ROWS
+     * rows, so a logo under a few text lines isn't averaged away
+     */
+    static int peakCoverage(RasterEncoder.Raster raster, int rowStart, int rowEnd) {
+        int peak = 0;
+        for (int y = rowStart; y < rowEnd; y += BAND_ROWS) {
+            int end = Math.min(rowEnd, y + BAND_ROWS);
+            int percent = (int) (100L * raster.inkDots(y, end) / ((long) (end - y) * raster.width));
+            if (percent > peak) peak = percent;
+        }
+        return peak;
+    }
+
+    /** Table in the form parse takes */
+    String table() {
+        StringBuilder sb = new StringBuilder(profiles.size() * 12);
+        for (Profile p : profiles) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(p.maxCoverage).append(':').append(p.speed).append(':').append(p.density);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return JSON: {"enabled":true,"table","density_offset","speed_percent",
+     *         "profiles":[{"max_coverage","speed","density","segments"}]} (speed / density calibrated)
+     */
+    synchronized String toJson() {
+        StringBuilder sb = new StringBuilder(96 + profiles.size() * 72);
+        sb.append("{\"enabled\":true,\"table\":\"").append(table()).append('"')
+          .append(",\"density_offset\":").append(densityOffset)
+          .append(",\"speed_percent\":").append(speedPercent)
+          .append(",\"profiles\":[");
+        for (int i = 0; i < profiles.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"max_coverage\":").append(profiles.get(i).maxCoverage)
+              .append(",\"speed\":").append(speed(i))
+              .append(",\"density\":").append(density(i))
+              .append(",\"segments\":").append(segments[i]).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+}
@@ -0,0 +1,97 @@
+package com.luqma.pos;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packaging / kitchen labels printed in the printer's label mode (printLabels): one label per item
+ * or bag, separated by form feeds ("\f") in the text the dashboard sends.
+ *
+ * Identical labels are merged, so each distinct label is rendered and sent once as a label page
+ * and the printer repeats it (CP_Label_PagePrint copies): ten identical bag stickers cost one
+ * transfer, not ten. Labels print in the order their first copy appears.
+ */
+final class LabelBatch {
+
+    static final char SEPARATOR = '\f';
+    /** 203 dpi heads */
+    static final int DOTS_PER_MM = 8;
+    static final int DEFAULT_WIDTH_MM = 48;
+    static final int DEFAULT_HEIGHT_MM = 30;
+    static final int MAX_LABELS = 200;
+
+    static final class Label {
+        final String text;
+        int copies;
+        RasterEncoder.Raster raster;
+
+        Label(String text) {
+            this.text = text;
+        }
+    }
+
+    final List<Label> labels;
+    /** Label size in dots */
+    final int width;
+    final int height;
+    /** Labels asked for, copies included */
+    final int total;
+
+    private LabelBatch(List<Label> labels, int width, int height, int total) {
+        this.labels = labels;
+        this.width = width;
+        this.height = height;
+        this.total = total;
+    }
+
+    /**
+     * Split the text into labels and merge identical ones (compared trimmed)
+     * @param widthMm label width (at most the printable width), 0 = DEFAULT_WIDTH_MM
+     * @param heightMm label height, 0 = DEFAULT_HEIGHT_MM
+     * @throws IllegalArgumentException when there is no label or more than MAX_LABELS
+     */
+    static LabelBatch parse(String text, int widthMm, int heightMm) {
+        Map<String, Label> distinct = new LinkedHashMap<>();
+        int total = 0;
+        if (text != null) {
+            int start = 0;
+            while (start <= text.length()) {
+                int end = text.indexOf(SEPARATOR, start);
+                if (end < 0) end = text.length();
+                String label = text.substring(start, end).trim();
+                start = end + 1;
+                if (label.isEmpty()) continue;
+                Label entry = distinct.get(label);
+                if (entry == null) {
+                    entry = new Label(label);
+                    distinct.put(label, entry);
+                }
+                entry.copies++;
+                total++;
+            }
+        }
+        if (total == 0) throw new IllegalArgumentException("no labels");
+        if (total > MAX_LABELS) throw new IllegalArgumentException("too many labels (" + total + " > " + MAX_LABELS + ")");
+        int width = Math.min(ReceiptRenderer.PAPER_WIDTH, (widthMm > 0 ? widthMm : DEFAULT_WIDTH_MM) * DOTS_PER_MM);
+        int height = (heightMm > 0 ? heightMm : DEFAULT_HEIGHT_MM) * DOTS_PER_MM;
+        return new LabelBatch(new ArrayList<>(distinct.values()), width, height, total);
+    }
+
+    /** Render each distinct label once */
+    void render(ReceiptRenderer renderer, ReceiptStyle style) {
+        for (Label label : labels) {
+            label.raster = renderer.renderLabel(ReceiptLine.fromText(label.text.split("\n"), style), width, height, style);
+        }
+    }
+
+    /** Raster bytes sent for the batch (each distinct label once) */
+    int bytes() {
+        int bytes = 0;
+        for (Label label : labels) {
+            if (label.raster != null) bytes += label.raster.data.length;
+        }
+        return bytes;
+    }
+}
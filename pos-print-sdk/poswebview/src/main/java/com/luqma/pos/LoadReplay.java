@@ -0,0 +1,319 @@
+package com.luqma.pos;
+
+import android.os.Debug;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Order-stream replay: a burst of printText calls (customer and kitchen copies), recorded or
+ * synthetic, rendered and queued the way printText does it, through a PrintRouter / PrintQueue of
+ * its own to a fake printer that only takes time (ms per KB plus a per-job overhead, optionally
+ * failing some jobs). The real printers are never touched.
+ *
+ * Arrivals are compressed by the speed-up while the fake printer runs in real time, so replaying a
+ * ten-minute rush at 10x shows whether the queue keeps up. Calls are made from bridgeThreads
+ * threads (the WebView calls the bridge on one). Latency is submit-to-printed from the call's
+ * scheduled time, so waiting for the bridge thread counts; it is taken over printed calls only, the
+ * others are counted by result. A sampler thread records every SAMPLE_MS both the print queue
+ * depth and the calls due but not printed yet (with one bridge thread the backlog waits there, not
+ * in the queue).
+ */
+final class LoadReplay {
+
+    /** Between calls of a recording; each call is "offsetMs\tstyleJson\ttext" */
+    static final char RECORD_SEPARATOR = '\u001E';
+    static final int DEFAULT_SPEEDUP = 10;
+    /** Fake printer: about 28 KB/s plus feed and cut per job */
+    static final double DEFAULT_MS_PER_KB = 36;
+    static final long DEFAULT_JOB_OVERHEAD_MS = 150;
+    static final int MAX_BRIDGE_THREADS = 8;
+    static final long SAMPLE_MS = 50;
+    /** Depth samples reported (deepest per bucket) */
+    static final int MAX_DEPTH_POINTS = 120;
+    /** Kitchen copies: larger body text */
+    static final String KITCHEN_STYLE = "{\"bodyFont\":26,\"lineHeight\":36}";
+
+    static final class Call {
+        final long atMs;
+        final String styleJson;
+        final String text;
+
+        Call(long atMs, String styleJson, String text) {
+            this.atMs = atMs;
+            this.styleJson = styleJson;
+            this.text = text;
+        }
+    }
+
+    /** The fake printer */
+    private static final class ReplayBackend implements PrintBackend {
+        private final double msPerKb;
+        private final long jobOverheadMs;
+        private final int failurePercent;
+        private final Random random = new Random(7);
+
+        ReplayBackend(double msPerKb, long jobOverheadMs, int failurePercent) {
+            this.msPerKb = msPerKb;
+            this.jobOverheadMs = jobOverheadMs;
+            this.failurePercent = failurePercent;
+        }
+
+        @Override
+        public String name() {
+            return "replay";
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public boolean isInteractive() {
+            return false;
+        }
+
+        @Override
+        public boolean print(RasterEncoder.Raster raster, int feedLines) throws Exception {
+            Thread.sleep(jobOverheadMs + (long) (raster.data.length / 1024.0 * msPerKb));
+            synchronized (random) {
+                return random.nextInt(100) >= failurePercent;
+            }
+        }
+    }
+
+    private final ReceiptPrecache.Renderer renderer;
+    private final int speedup;
+    private final int bridgeThreads;
+    private final double msPerKb;
+    private final long jobOverheadMs;
+    private final int failurePercent;
+
+    /**
+     * @param speedup arrivals compressed by this factor (1 = real time)
+     * @param bridgeThreads threads making the calls (1 = as the WebView does)
+     * @param failurePercent jobs the fake printer refuses (percent)
+     */
+    LoadReplay(ReceiptPrecache.Renderer renderer, int speedup, int bridgeThreads, double msPerKb,
+               long jobOverheadMs, int failurePercent) {
+        this.renderer = renderer;
+        this.speedup = Math.max(1, speedup);
+        this.bridgeThreads = Math.max(1, Math.min(MAX_BRIDGE_THREADS, bridgeThreads));
+        this.msPerKb = msPerKb;
+        this.jobOverheadMs = jobOverheadMs;
+        this.failurePercent = Math.max(0, Math.min(100, failurePercent));
+    }
+
+    /**
+     * Recorded stream: calls separated by RECORD_SEPARATOR, each "offsetMs\tstyleJson\ttext"
+     * (offset from the first call, in real time)
+     * @throws IllegalArgumentException on a malformed call or an empty recording
+     */
+    static List<Call> parse(String recording) {
+        List<Call> calls = new ArrayList<>();
+        if (recording != null) {
+            int start = 0;
+            while (start < recording.length()) {
+                int end = recording.indexOf(RECORD_SEPARATOR, start);
+                if (end < 0) end = recording.length();
+                String entry = recording.substring(start, end);
+                start = end + 1;
+                if (entry.trim().isEmpty()) continue;
+                String[] parts = entry.split("\t", 3);
+                if (parts.length != 3) throw new IllegalArgumentException("bad call #" + (calls.size() + 1));
+                try {
+                    calls.add(new Call(Long.parseLong(parts[0].trim()), parts[1], parts[2]));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("bad offset in call #" + (calls.size() + 1));
+                }
+            }
+        }
+        if (calls.isEmpty()) throw new IllegalArgumentException("empty recording");
+        Collections.sort(calls, (a, b) -> Long.compare(a.atMs, b.atMs));
+        return calls;
+    }
+
+    /**
+     * Synthetic rush: orders arriving over minutes (exponential gaps from a fixed seed, so runs
+     * compare), each printed as a customer copy and copies - 1 kitchen copies at the same moment.
+     * Orders are the sample order with their own number and 1-4 extra items.
+     */
+    static List<Call> synthetic(int orders, int minutes, int copies) {
+        Random random = new Random(42);
+        double meanGapMs = minutes * 60000.0 / Math.max(1, orders);
+        List<Call> calls = new ArrayList<>(orders * copies);
+        double at = 0;
+        for (int i = 0; i < orders; i++) {
+            StringBuilder text = new StringBuilder(PrintBenchmarks.SAMPLE_ORDER_TEXT.replace("#100042", "#" + (200001 + i)));
+            int items = text.indexOf("\n===");
+            StringBuilder extra = new StringBuilder();
+            for (int k = 0, n = 1 + random.nextInt(4); k < n; k++) {
+                extra.append('\n').append(4 + k).append(". وجبة إضافية ").append(k + 1)
+                     .append("\n   الكمية: 1 × ₪").append(20 + 5 * k).append(".00\n");
+            }
+            text.insert(items, extra);
+            for (int c = 0; c < Math.max(1, copies); c++) {
+                calls.add(new Call((long) at, c == 0 ? "" : KITCHEN_STYLE, text.toString()));
+            }
+            at += -Math.log(1 - random.nextDouble()) * meanGapMs;
+        }
+        return calls;
+    }
+
+    /**
+     * Replay the calls and wait for the last one
+     * @return JSON: {"calls","speedup","bridge_threads","fake_printer":{ms_per_kb,job_overhead_ms,failure_percent},
+     *         "wall_ms","latency_ms":{p50,p95,p99,max} (printed calls),"render_ms":{p50,p95},"results":{ok,failed,busy,timeout,error},
+     *         "queue":{...PrintQueue},"queue_depth":[[t_ms,queue,pending]],"max_pending","java_heap_max_kb","native_heap_max_kb"}
+     */
+    String run(List<Call> calls) throws InterruptedException {
+        PrintMetrics metrics = new PrintMetrics();
+        final PrintRouter router = new PrintRouter(metrics, PrintRouter.DEFAULT_JOB_TIMEOUT_MS);
+        router.register(new ReplayBackend(msPerKb, jobOverheadMs, failurePercent), msPerKb);
+        final PrintQueue queue = new PrintQueue(router::print, PrintQueue.DEFAULT_CAPACITY);
+        ExecutorService bridge = Executors.newFixedThreadPool(bridgeThreads, r -> {
+            Thread t = new Thread(r, "replay-bridge");
+            t.setDaemon(true);
+            return t;
+        });
+
+        final int n = calls.size();
+        // Submit-to-printed per call, -1 when it didn't print
+        final long[] latency = new long[n];
+        Arrays.fill(latency, -1);
+        final long[] render = new long[n];
+        // ok, failed, busy, timeout, error
+        final AtomicInteger[] results = { new AtomicInteger(), new AtomicInteger(), new AtomicInteger(),
+                new AtomicInteger(), new AtomicInteger() };
+        final long start = SystemClock.elapsedRealtime();
+        final long firstAt = calls.get(0).atMs;
+        final AtomicInteger pending = new AtomicInteger();
+        // t_ms, queue depth, pending calls (sampler thread only until it has stopped)
+        final List<long[]> depth = new ArrayList<>();
+        // Java heap, native heap high-water marks
+        final long[] peaks = new long[2];
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replay-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(() -> sample(queue, pending, start, depth, peaks),
+                0, SAMPLE_MS, TimeUnit.MILLISECONDS);
+        try {
+            for (int i = 0; i < n; i++) {
+                final int index = i;
+                final Call call = calls.get(i);
+                final long due = start + (call.atMs - firstAt) / speedup;
+                // Scheduled on its own: waiting for a free bridge thread is part of the latency
+                long wait = due - SystemClock.elapsedRealtime();
+                if (wait > 0) Thread.sleep(wait);
+                pending.incrementAndGet();
+                bridge.execute(() -> {
+                    int result;
+                    try {
+                        long renderStart = SystemClock.elapsedRealtime();
+                        RasterEncoder.Raster raster = renderer.render(call.text, call.styleJson);
+                        render[index] = SystemClock.elapsedRealtime() - renderStart;
+                        int outcome = queue.print(raster, 5);
+                        result = outcome == PrintQueue.RESULT_OK ? 0
+                                : outcome == PrintQueue.RESULT_BUSY ? 2
+                                : outcome == PrintQueue.RESULT_TIMEOUT ? 3 : 1;
+                    } catch (Exception e) {
+                        result = 4;
+                    }
+                    if (result == 0) latency[index] = SystemClock.elapsedRealtime() - due;
+                    results[result].incrementAndGet();
+                    pending.decrementAndGet();
+                });
+            }
+            bridge.shutdown();
+            bridge.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            sampler.shutdownNow();
+            sampler.awaitTermination(1, TimeUnit.SECONDS);
+            bridge.shutdownNow();
+            queue.shutdown();
+            router.unregister("replay");
+        }
+        long wallMs = SystemClock.elapsedRealtime() - start;
+
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\"calls\":").append(n)
+            .append(",\"speedup\":").append(speedup)
+            .append(",\"bridge_threads\":").append(bridgeThreads)
+            .append(",\"fake_printer\":{\"ms_per_kb\":").append(PrintBenchmarks.fmt(msPerKb))
+            .append(",\"job_overhead_ms\":").append(jobOverheadMs)
+            .append(",\"failure_percent\":").append(failurePercent).append('}')
+            .append(",\"wall_ms\":").append(wallMs);
+        long[] printed = new long[n];
+        int count = 0;
+        for (long ms : latency) {
+            if (ms >= 0) printed[count++] = ms;
+        }
+        printed = Arrays.copyOf(printed, count);
+        Arrays.sort(printed);
+        Arrays.sort(render);
+        json.append(",\"latency_ms\":{\"p50\":").append(percentile(printed, 50))
+            .append(",\"p95\":").append(percentile(printed, 95))
+            .append(",\"p99\":").append(percentile(printed, 99))
+            .append(",\"max\":").append(percentile(printed, 100)).append('}')
+            .append(",\"render_ms\":{\"p50\":").append(percentile(render, 50))
+            .append(",\"p95\":").append(percentile(render, 95)).append('}')
+            .append(",\"results\":{\"ok\":").append(results[0].get())
+            .append(",\"failed\":").append(results[1].get())
+            .append(",\"busy\":").append(results[2].get())
+            .append(",\"timeout\":").append(results[3].get())
+            .append(",\"error\":").append(results[4].get()).append('}')
+            .append(",\"queue\":").append(queue.toJson())
+            .append(",\"queue_depth\":");
+        appendDepth(json, depth);
+        long maxPending = 0;
+        for (long[] sample : depth) maxPending = Math.max(maxPending, sample[2]);
+        json.append(",\"max_pending\":").append(maxPending);
+        json.append(",\"java_heap_max_kb\":").append(peaks[0] / 1024)
+            .append(",\"native_heap_max_kb\":").append(peaks[1] / 1024).append('}');
+        return json.toString();
+    }
+
+    /** Queue depth and pending calls now, and the heap high-water marks */
+    private static void sample(PrintQueue queue, AtomicInteger pending, long start, List<long[]> depth, long[] peaks) {
+        depth.add(new long[] { SystemClock.elapsedRealtime() - start, queue.depth(), pending.get() });
+        Runtime runtime = Runtime.getRuntime();
+        peaks[0] = Math.max(peaks[0], runtime.totalMemory() - runtime.freeMemory());
+        peaks[1] = Math.max(peaks[1], Debug.getNativeHeapAllocatedSize());
+    }
+
+    /** Nearest-rank percentile of sorted values */
+    static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /** [[t_ms,queue,pending],...] with at most MAX_DEPTH_POINTS points, the most pending sample of each bucket */
+    private static void appendDepth(StringBuilder json, List<long[]> samples) {
+        json.append('[');
+        int buckets = Math.min(MAX_DEPTH_POINTS, samples.size());
+        for (int b = 0; b < buckets; b++) {
+            int from = b * samples.size() / buckets;
+            int to = (b + 1) * samples.size() / buckets;
+            long[] deepest = samples.get(from);
+            for (int i = from + 1; i < to; i++) {
+                if (samples.get(i)[2] > deepest[2]) deepest = samples.get(i);
+            }
+            if (b > 0) json.append(',');
+            json.append('[').append(deepest[0]).append(',').append(deepest[1]).append(',').append(deepest[2]).append(']');
+        }
+        json.append(']');
+    }
+}
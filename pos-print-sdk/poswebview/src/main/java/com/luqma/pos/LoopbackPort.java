@@ -0,0 +1,151 @@
+package com.luqma.pos;
+
+/**
+ * Simulated Bluetooth SPP printer for measuring chunk sizes without hardware.
+ *
+ * Model: each write costs a fixed per-call overhead and lands in the link queue (RFCOMM / OS
+ * buffers, bounded – a full queue blocks the write, like the native call does). The link moves
+ * bytes into the printer's buffer at the link rate while the buffer has room; the print head drains
+ * the buffer at the print rate. The received-byte counter is what reached the printer's buffer,
+ * reported through the listener like CP_Printer_AddOnPrinterReceivedEvent.
+ * Simulated time runs {@code timeScale} times faster than real time.
+ */
+final class LoopbackPort implements RawPort {
+
+    private static final long TICK_MS = 2;
+
+    private final double linkBytesPerMs;
+    private final double writeOverheadMs;
+    private final int linkQueueBytes;
+    private final int printerBufferBytes;
+    private final double printBytesPerMs;
+    private final double timeScale;
+
+    private volatile RawPort.ReceivedListener listener;
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    // Guarded by this
+    private double queued;      // in the link, not yet at the printer
+    private double buffered;    // in the printer's buffer, not yet printed
+    private long received;      // bytes that reached the printer
+    private long written;
+    private double maxQueued;
+    private long lastTickNanos;
+
+    LoopbackPort(int linkBytesPerSec, double writeOverheadMs, int linkQueueBytes,
+                 int printerBufferBytes, int printBytesPerSec, double timeScale) {
+        this.linkBytesPerMs = linkBytesPerSec / 1000.0;
+        this.writeOverheadMs = writeOverheadMs;
+        this.linkQueueBytes = linkQueueBytes;
+        this.printerBufferBytes = printerBufferBytes;
+        this.printBytesPerMs = printBytesPerSec / 1000.0;
+        this.timeScale = Math.max(1.0, timeScale);
+        this.lastTickNanos = System.nanoTime();
+        ticker = new Thread(this::run, "loopback-port");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @Override
+    public int write(byte[] buffer, int count, int timeoutMs) {
+        sleepSimulated(writeOverheadMs);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (queued + count > linkQueueBytes) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0 || !running) return -1;
+                try {
+                    wait(Math.min(left, TICK_MS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+            queued += count;
+            written += count;
+            maxQueued = Math.max(maxQueued, queued);
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int printerReceivedCount() {
+        return (int) received;
+    }
+
+    @Override
+    public void setReceivedListener(RawPort.ReceivedListener listener) {
+        this.listener = listener;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long count;
+            boolean changed;
+            synchronized (this) {
+                long now = System.nanoTime();
+                double dt = (now - lastTickNanos) / 1e6 * timeScale; // simulated ms
+                lastTickNanos = now;
+
+                buffered = Math.max(0, buffered - printBytesPerMs * dt);
+                double move = Math.min(Math.min(linkBytesPerMs * dt, queued), printerBufferBytes - buffered);
+                changed = move >= 1;
+                if (changed) {
+                    long whole = (long) move;
+                    queued -= whole;
+                    buffered += whole;
+                    received += whole;
+                }
+                count = received;
+                notifyAll();
+            }
+            // Outside our lock: the listener takes the writer's lock
+            RawPort.ReceivedListener l = listener;
+            if (changed && l != null) l.onPrinterReceived((int) count);
+        }
+    }
+
+    /** Block until the printer has received {@code total} bytes (or timeout) */
+    synchronized boolean awaitReceived(long total, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (received < total) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(Math.min(left, TICK_MS));
+        }
+        return true;
+    }
+
+    synchronized long getMaxQueued() {
+        return (long) maxQueued;
+    }
+
+    synchronized long getWritten() {
+        return written;
+    }
+
+    double getTimeScale() {
+        return timeScale;
+    }
+
+    void close() {
+        running = false;
+        ticker.interrupt();
+    }
+
+    private void sleepSimulated(double ms) {
+        long nanos = (long) (ms * 1e6 / timeScale);
+        if (nanos <= 0) return;
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
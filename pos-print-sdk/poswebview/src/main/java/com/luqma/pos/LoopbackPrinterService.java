@@ -0,0 +1,67 @@
+package com.luqma.pos;
+
+import android.os.Binder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.TransactionTooLargeException;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Local stand-in for the SENRAISE PrinterService: accepts the raw-data transaction in-process and
+ * keeps the received bytes, so SenraisePrintBackend can be exercised on any device (or without a
+ * printer). Transactions larger than {@code maxTransactionBytes} are rejected the way the real
+ * binder driver rejects an oversized parcel.
+ */
+final class LoopbackPrinterService extends Binder {
+
+    private final String descriptor;
+    private final int rawTransaction;
+    private final int maxTransactionBytes;
+
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private int transactions;
+    private int rejected;
+
+    LoopbackPrinterService(String descriptor, int rawTransaction, int maxTransactionBytes) {
+        this.descriptor = descriptor;
+        this.rawTransaction = rawTransaction;
+        this.maxTransactionBytes = maxTransactionBytes;
+    }
+
+    @Override
+    protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        if (code != rawTransaction) {
+            return super.onTransact(code, data, reply, flags);
+        }
+        data.enforceInterface(descriptor);
+        byte[] payload = data.createByteArray();
+        if (payload == null) {
+            throw new RemoteException("empty payload");
+        }
+        if (payload.length > maxTransactionBytes) {
+            rejected++;
+            throw new TransactionTooLargeException();
+        }
+        synchronized (received) {
+            received.write(payload, 0, payload.length);
+        }
+        transactions++;
+        if (reply != null) reply.writeNoException();
+        return true;
+    }
+
+    byte[] receivedBytes() {
+        synchronized (received) {
+            return received.toByteArray();
+        }
+    }
+
+    int getTransactions() {
+        return transactions;
+    }
+
+    int getRejected() {
+        return rejected;
+    }
+}
@@ -5,8 +5,8 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -24,6 +24,8 @@ import android.print.PrintJob;
 import android.print.PrintJobInfo;
 import android.webkit.JavascriptInterface;
 import android.webkit.WebChromeClient;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
@@ -36,6 +38,11 @@ import com.caysn.autoreplyprint.AutoReplyPrint;
 import com.sun.jna.Pointer;
 import com.sun.jna.WString;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * POS Terminal WebView App
  * For H10 Wireless Data Terminal (Android 14)
@@ -44,9 +51,27 @@ import com.sun.jna.WString;
 public class MainActivity extends AppCompatActivity {
 
     private WebView webView;
-    private AutoReplyPrint printer;
-    private Pointer printerHandle;
+    private volatile AutoReplyPrint printer;
+    private volatile Pointer printerHandle;
+    /** Bluetooth address of the connected printer (key of its ink calibration) */
+    private volatile String printerAddress;
     private IBinder senraisePrinterService;
+    private volatile BluetoothPrintBackend bluetoothBackend;
+    private ReceiptRenderer receiptRenderer;
+    private ReceiptPrecache receiptPrecache;
+    // Last printed receipt per order, for printOrderUpdate's changes ticket
+    private final OrderTicketHistory orderTickets = new OrderTicketHistory();
+    // Compressed rasters of printed receipts, for reprint(orderId)
+    private ReprintCache reprintCache;
+    private DashboardAssetCache assetCache;
+    private final StartupTimeline timeline = new StartupTimeline();
+    private final PrintMetrics printMetrics = new PrintMetrics();
+    private final PrintRouter printRouter = new PrintRouter(printMetrics, PrintRouter.DEFAULT_JOB_TIMEOUT_MS);
+    // Blocking AutoReplyPrint calls run here with deadlines; a stuck call triggers reopenBluetoothPrinter
+    private final NativeCallSupervisor nativeCalls = new NativeCallSupervisor("printer-native");
+    private final AtomicBoolean reopening = new AtomicBoolean();
+    // Every print runs on the queue's consumer thread, one at a time
+    private final PrintQueue printQueue = new PrintQueue(printRouter::print, PrintQueue.DEFAULT_CAPACITY);
     // Load admin URL from resources (configured per client)
     private String getAdminUrl() {
         return getString(R.string.admin_dashboard_url);
@@ -62,13 +87,52 @@ public class MainActivity extends AppCompatActivity {
     
     private static final int BLUETOOTH_PERMISSION_REQUEST_CODE = 100;
     
+    private static final String PREFS_NAME = "pos_printer";
+    private static final String PREF_WARMUP_RENDER = "warmup_render";
+    private static final String PREF_LAST_RECEIPT_STYLE = "last_receipt_style";
+    private static final String PREF_SENRAISE_DESCRIPTOR = "senraise_descriptor";
+    private static final String PREF_SENRAISE_RAW_CODE = "senraise_raw_code";
+    private static final String PREF_BT_CHUNK_BYTES = "bt_chunk_bytes";
+    private static final String PREF_BT_WINDOW_BYTES = "bt_window_bytes";
+    private static final String PREF_BT_VECTOR_RULES = "bt_vector_rules";
+    private static final String PREF_BT_CODE_COMMANDS = "bt_code_commands";
+    private static final String PREF_BT_DIRECT_CALLS = "bt_direct_calls";
+    private static final String PREF_INK_TABLE = "ink_table";
+    /** + printer address: "densityOffset:speedPercent" */
+    private static final String PREF_INK_CALIBRATION = "ink_calibration_";
+    /** Load replay result kept as the performance baseline */
+    private static final String PREF_LOAD_BASELINE = "load_baseline";
+    /** Route to the system print dialog when the silent printers fail (off by default) */
+    private static final String PREF_PRINTMANAGER_FALLBACK = "printmanager_fallback";
+    
+    // Latency guesses (ms per KB of raster) until each backend has printed once.
+    // SENRAISE's vendor interface is a guess: it ranks behind Bluetooth until it has printed
+    private static final double PRIOR_MS_PER_KB_SENRAISE = 60;
+    private static final double PRIOR_MS_PER_KB_BLUETOOTH = 40;
+    private static final double PRIOR_MS_PER_KB_PRINTMANAGER = 1000;
+    
+    /** Deadline for CP_Port_OpenBtSpp (normally 1-3s) */
+    private static final long OPEN_DEADLINE_MS = 10000;
+    /** endDocument waits this long for the remaining segments to be sent */
+    private static final long DOCUMENT_FINISH_TIMEOUT_MS = 120000;
+    
     @SuppressLint("SetJavaScriptEnabled")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        timeline.mark("activity_create");
         setContentView(R.layout.activity_main);
+        timeline.mark("content_view");
 
         webView = findViewById(R.id.webview);
+        receiptRenderer = new ReceiptRenderer(this);
+        nativeCalls.setStuckListener(this::reopenBluetoothPrinter);
+        receiptPrecache = new ReceiptPrecache((text, styleJson) -> renderTextReceipt(text, ReceiptStyle.parse(styleJson)));
+        reprintCache = new ReprintCache(this);
+        // Last resort when the silent transports fail (opens the system print dialog), opt-in
+        if (getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getBoolean(PREF_PRINTMANAGER_FALLBACK, false)) {
+            printRouter.register(new PrintManagerBackend(this), PRIOR_MS_PER_KB_PRINTMANAGER);
+        }
         
         // Enable remote debugging (Chrome chrome://inspect) when debugging build
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
@@ -77,9 +141,11 @@ public class MainActivity extends AppCompatActivity {
         
         // Try to bind to SENRAISE's proprietary printer service
         bindToSenraisePrinter();
+        timeline.mark("senraise_bind_requested");
         
         // Also try AutoReplyPrint as backup
         requestBluetoothPermissions();
+        timeline.mark("permissions_checked");
         
         // Configure WebView
         WebSettings webSettings = webView.getSettings();
@@ -97,31 +163,54 @@ public class MainActivity extends AppCompatActivity {
         webSettings.setBuiltInZoomControls(true);
         webSettings.setDisplayZoomControls(false);
         
+        // Serve the dashboard's static assets (hashed bundles, fonts, sounds) from a local disk cache
+        assetCache = new DashboardAssetCache(this, getAdminUrl());
+        
         // Add JavaScript interface for printing
         webView.addJavascriptInterface(new PosPrinterBridge(this), "PosPrinter");
         
         // Set WebView clients
         webView.setWebViewClient(new WebViewClient() {
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+                // Static assets from disk; Firestore/API requests return null and go to the network
+                WebResourceResponse cached = assetCache.intercept(request);
+                return cached != null ? cached : super.shouldInterceptRequest(view, request);
+            }
+            
+            @Override
+            public void onPageStarted(WebView view, String url, android.graphics.Bitmap favicon) {
+                super.onPageStarted(view, url, favicon);
+                timeline.markOnce("page_started");
+            }
+            
             @Override
             public void onPageFinished(WebView view, String url) {
                 super.onPageFinished(view, url);
+                boolean firstLoad = !timeline.has("page_finished");
+                timeline.markOnce("page_finished");
                 // Inject helper functions
                 injectPrintHelpers();
+                if (firstLoad) startWarmupRender();
             }
         });
         
         webView.setWebChromeClient(new WebChromeClient());
+        timeline.mark("webview_configured");
         
         // Load admin dashboard from config
         String adminUrl = getAdminUrl();
         android.util.Log.i("POS", "🌐 Loading dashboard: " + adminUrl);
         webView.loadUrl(adminUrl);
+        timeline.mark("page_load_requested");
     }
 
     private ServiceConnection printerConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             senraisePrinterService = service;
+            useSenraiseBackend(service);
+            timeline.markOnce("senraise_connected");
             android.util.Log.i("POS", "✅ Connected to SENRAISE PrinterService!");
             Toast.makeText(MainActivity.this, "✅ طابعة SENRAISE متصلة", Toast.LENGTH_SHORT).show();
         }
@@ -129,10 +218,33 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void onServiceDisconnected(ComponentName name) {
             senraisePrinterService = null;
+            printRouter.unregister("senraise");
             android.util.Log.w("POS", "⚠️ Disconnected from SENRAISE PrinterService");
         }
     };
     
+    /** (Re)create the SENRAISE backend for the bound service and route jobs to it */
+    private void useSenraiseBackend(IBinder service) {
+        printRouter.register(createSenraiseBackend(service), PRIOR_MS_PER_KB_SENRAISE);
+    }
+    
+    /**
+     * Raw-data backend on the SENRAISE binder (descriptor / transaction code configurable per firmware).
+     * Routed to only when the interface was set by the dashboard or the service reports the descriptor
+     */
+    private SenraisePrintBackend createSenraiseBackend(IBinder service) {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        String descriptor = prefs.getString(PREF_SENRAISE_DESCRIPTOR, SenraisePrintBackend.DEFAULT_DESCRIPTOR);
+        boolean verified = prefs.contains(PREF_SENRAISE_DESCRIPTOR)
+                || SenraisePrintBackend.interfaceMatches(service, descriptor);
+        if (!verified) {
+            android.util.Log.w("POS", "⚠️ SENRAISE interface not confirmed (" + descriptor + "), not routing jobs to it; set it with setSenraiseInterface");
+        }
+        return new SenraisePrintBackend(service, descriptor,
+                prefs.getInt(PREF_SENRAISE_RAW_CODE, SenraisePrintBackend.DEFAULT_RAW_TRANSACTION),
+                SenraisePrintBackend.DEFAULT_MAX_TRANSACTION_BYTES, verified);
+    }
+    
     private void bindToSenraisePrinter() {
         try {
             Intent intent = new Intent();
@@ -167,6 +279,7 @@ public class MainActivity extends AppCompatActivity {
             
             if (needsRequest) {
                 android.util.Log.i("POS", "📱 Requesting Bluetooth permissions...");
+                timeline.mark("permissions_requested");
                 ActivityCompat.requestPermissions(this, permissions, BLUETOOTH_PERMISSION_REQUEST_CODE);
             } else {
                 android.util.Log.i("POS", "✅ Bluetooth permissions already granted");
@@ -194,6 +307,7 @@ public class MainActivity extends AppCompatActivity {
             
             if (allGranted) {
                 android.util.Log.i("POS", "✅ Bluetooth permissions granted!");
+                timeline.mark("permissions_granted");
                 Toast.makeText(this, "✅ تم منح أذونات البلوتوث", Toast.LENGTH_SHORT).show();
                 initializePrinter();
             } else {
@@ -204,451 +318,268 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void initializePrinter() {
+        // Off the UI thread: opening the SPP port can block for seconds (or hang on a half-dead link)
+        Thread init = new Thread(() -> {
+            timeline.mark("printer_init_start");
+            try {
+                connectPrinter();
+            } finally {
+                boolean connected = isBluetoothPrinterReady();
+                if (connected) {
+                    SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+                    bluetoothBackend = new BluetoothPrintBackend(printer, printerHandle, nativeCalls);
+                    bluetoothBackend.setChunkedTransfer(prefs.getInt(PREF_BT_CHUNK_BYTES, 0),
+                            prefs.getInt(PREF_BT_WINDOW_BYTES, FlowControlledWriter.DEFAULT_WINDOW_BYTES));
+                    bluetoothBackend.setVectorRules(prefs.getBoolean(PREF_BT_VECTOR_RULES, true));
+                    bluetoothBackend.setCodeCommands(BluetoothPrintBackend.parseCodeCommands(
+                            prefs.getString(PREF_BT_CODE_COMMANDS, "epson")));
+                    bluetoothBackend.setInkProfiles(loadInkProfiles(prefs.getString(PREF_INK_TABLE, "off")));
+                    if (!prefs.getBoolean(PREF_BT_DIRECT_CALLS, true)) bluetoothBackend.setDirectCalls(false);
+                    printRouter.register(bluetoothBackend, PRIOR_MS_PER_KB_BLUETOOTH);
+                }
+                timeline.mark(connected ? "printer_init_done" : "printer_init_failed");
+            }
+        }, "printer-init");
+        init.start();
+    }
+
+    private void connectPrinter() {
         try {
             printer = AutoReplyPrint.INSTANCE;
-            android.util.Log.i("POS", "🔍 Searching for InnerPrinter via Bluetooth...");
-            
-            // H10 uses internal Bluetooth printer named "InnerPrinter"
-            // Try to connect via Bluetooth SPP (Serial Port Profile)
-            
-            // First, try to find "InnerPrinter" Bluetooth device
-            android.bluetooth.BluetoothAdapter btAdapter = android.bluetooth.BluetoothAdapter.getDefaultAdapter();
-            if (btAdapter != null && btAdapter.isEnabled()) {
-                android.util.Log.i("POS", "📶 Bluetooth is enabled, searching for paired devices...");
-                
-                try {
-                    java.util.Set<android.bluetooth.BluetoothDevice> pairedDevices = btAdapter.getBondedDevices();
-                    for (android.bluetooth.BluetoothDevice device : pairedDevices) {
-                        String deviceName = device.getName();
-                        String deviceAddress = device.getAddress();
-                        android.util.Log.i("POS", "Found paired device: " + deviceName + " (" + deviceAddress + ")");
-                        
-                        if (deviceName != null && (deviceName.contains("InnerPrinter") || deviceName.contains("Printer") || deviceName.contains("H10"))) {
-                            android.util.Log.i("POS", "🎯 Found printer device: " + deviceName + " - attempting connection...");
-                            
-                            // Try to connect via AutoReplyPrint Bluetooth SPP
-                            printerHandle = printer.CP_Port_OpenBtSpp(deviceAddress, 0);
-                            
-                            if (printerHandle != null && Pointer.nativeValue(printerHandle) != 0) {
-                                android.util.Log.i("POS", "✅ Successfully connected to " + deviceName);
-                                Toast.makeText(this, "✅ الطابعة متصلة: " + deviceName, Toast.LENGTH_SHORT).show();
-                                return;
-                            } else {
-                                android.util.Log.w("POS", "⚠️ Failed to connect to " + deviceName);
-                            }
-                        }
-                    }
-                } catch (SecurityException e) {
-                    android.util.Log.e("POS", "❌ Bluetooth permission denied: " + e.getMessage());
-                }
-            } else {
-                android.util.Log.w("POS", "⚠️ Bluetooth is disabled or not available");
+            String deviceName = openInnerPrinterPort();
+            if (deviceName != null) {
+                runOnUiThread(() ->
+                    Toast.makeText(this, "✅ الطابعة متصلة: " + deviceName, Toast.LENGTH_SHORT).show()
+                );
+                return;
             }
             
             // If Bluetooth failed, log detailed error
             android.util.Log.e("POS", "❌ Could not connect to InnerPrinter");
-            Toast.makeText(this, "⚠️ لم يتم العثور على الطابعة الداخلية", Toast.LENGTH_LONG).show();
+            runOnUiThread(() ->
+                Toast.makeText(this, "⚠️ لم يتم العثور على الطابعة الداخلية", Toast.LENGTH_LONG).show()
+            );
             
         } catch (Exception e) {
             e.printStackTrace();
             android.util.Log.e("POS", "❌ Printer init error: " + e.getMessage());
-            Toast.makeText(this, "❌ خطأ: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            runOnUiThread(() ->
+                Toast.makeText(this, "❌ خطأ: " + e.getMessage(), Toast.LENGTH_LONG).show()
+            );
         }
     }
 
-    private void injectPrintHelpers() {
-        String js = "javascript:(function() {" +
-                "  console.log('✅ PosPrinter bridge loaded');" +
-                "  if (window.PosPrinter) {" +
-                "    console.log('✅ PosPrinter.printText available');" +
-                "    console.log('✅ PosPrinter.printHtml available');" +
-                "    console.log('✅ Device: H10 Wireless Data Terminal');" +
-                "  }" +
-                "})()";
-        webView.evaluateJavascript(js, null);
-    }
-
-    /**
-     * Helper method to create beautiful receipt bitmap with logo and Arabic RTL support
-     * Uses Android's text rendering (which supports Arabic) then converts to image
-     */
-    /**
-     * Helper class to hold receipt style values
-     */
-    private static class ReceiptStyle {
-        int bodyFont = 22;
-        int lineHeight = 32;
-        int padding = 15;
-        int headerFont = 25;
-        int totalFont = 26;
-        int footerFont = 20;
-        int sepMargin = 15;
-        int emptyGap = 12;
-        int logoMaxWidth = 150;
-        int logoSpacingAfter = 25;
-        String fontFamily = null;
-        /** When true, only section headers and item titles are bold; body lines use normal weight (prefix \u200B in text). */
-        boolean titlesBoldOnly = false;
-    }
-
-    /** Zero-width space: when titlesBoldOnly is true, lines starting with this are drawn with normal weight. */
-    private static final String NORMAL_WEIGHT_PREFIX = "\u200B";
-    
     /**
-     * Parse receiptStyle JSON and extract all style values
+     * Open the SPP port to the first paired printer-looking device, each attempt bounded by
+     * OPEN_DEADLINE_MS. Sets printerHandle.
+     * @return the connected device's name, or null
      */
-    private ReceiptStyle parseReceiptStyle(String receiptStyleJson) {
-        ReceiptStyle style = new ReceiptStyle();
+    private String openInnerPrinterPort() {
+        android.util.Log.i("POS", "🔍 Searching for InnerPrinter via Bluetooth...");
+        
+        // H10 uses internal Bluetooth printer named "InnerPrinter"
+        // Try to connect via Bluetooth SPP (Serial Port Profile)
         
-        if (receiptStyleJson == null || receiptStyleJson.trim().isEmpty() || receiptStyleJson.equals("null")) {
-            return style; // Return defaults
+        // First, try to find "InnerPrinter" Bluetooth device
+        android.bluetooth.BluetoothAdapter btAdapter = android.bluetooth.BluetoothAdapter.getDefaultAdapter();
+        if (btAdapter == null || !btAdapter.isEnabled()) {
+            android.util.Log.w("POS", "⚠️ Bluetooth is disabled or not available");
+            return null;
         }
+        android.util.Log.i("POS", "📶 Bluetooth is enabled, searching for paired devices...");
         
         try {
-            // Parse numeric values using simple string matching (avoiding JSON library dependency)
-            style.bodyFont = parseIntFromJson(receiptStyleJson, "bodyFont", 22);
-            style.lineHeight = parseIntFromJson(receiptStyleJson, "lineHeight", 32);
-            style.padding = parseIntFromJson(receiptStyleJson, "padding", 15);
-            style.headerFont = parseIntFromJson(receiptStyleJson, "headerFont", 25);
-            style.totalFont = parseIntFromJson(receiptStyleJson, "totalFont", 26);
-            style.footerFont = parseIntFromJson(receiptStyleJson, "footerFont", 20);
-            style.sepMargin = parseIntFromJson(receiptStyleJson, "sepMargin", 15);
-            style.emptyGap = parseIntFromJson(receiptStyleJson, "emptyGap", 12);
-            style.logoMaxWidth = parseIntFromJson(receiptStyleJson, "logoMaxWidth", 150);
-            style.logoSpacingAfter = parseIntFromJson(receiptStyleJson, "logoSpacingAfter", 25);
-            
-            // Parse fontFamily string
-            int fontFamilyIndex = receiptStyleJson.indexOf("\"fontFamily\"");
-            if (fontFamilyIndex >= 0) {
-                int colonIndex = receiptStyleJson.indexOf(":", fontFamilyIndex);
-                int startQuote = receiptStyleJson.indexOf("\"", colonIndex) + 1;
-                int endQuote = receiptStyleJson.indexOf("\"", startQuote);
-                if (startQuote > 0 && endQuote > startQuote) {
-                    style.fontFamily = receiptStyleJson.substring(startQuote, endQuote);
+            java.util.Set<android.bluetooth.BluetoothDevice> pairedDevices = btAdapter.getBondedDevices();
+            for (android.bluetooth.BluetoothDevice device : pairedDevices) {
+                String deviceName = device.getName();
+                final String deviceAddress = device.getAddress();
+                android.util.Log.i("POS", "Found paired device: " + deviceName + " (" + deviceAddress + ")");
+                
+                if (deviceName != null && (deviceName.contains("InnerPrinter") || deviceName.contains("Printer") || deviceName.contains("H10"))) {
+                    android.util.Log.i("POS", "🎯 Found printer device: " + deviceName + " - attempting connection...");
+                    
+                    // Try to connect via AutoReplyPrint Bluetooth SPP
+                    // (autoreply on for chunked transfer: it needs the printer's received-byte reports)
+                    final int autoReplyMode = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getInt(PREF_BT_CHUNK_BYTES, 0) > 0 ? 1 : 0;
+                    Pointer handle;
+                    try {
+                        handle = nativeCalls.call("open_bt_spp", OPEN_DEADLINE_MS,
+                                () -> printer.CP_Port_OpenBtSpp(deviceAddress, autoReplyMode));
+                    } catch (NativeCallSupervisor.NativeTimeoutException e) {
+                        android.util.Log.w("POS", "⚠️ " + e.getMessage() + " (" + deviceName + ")");
+                        continue;
+                    }
+                    
+                    if (handle != null && Pointer.nativeValue(handle) != 0) {
+                        printerHandle = handle;
+                        printerAddress = deviceAddress;
+                        android.util.Log.i("POS", "✅ Successfully connected to " + deviceName);
+                        return deviceName;
+                    } else {
+                        android.util.Log.w("POS", "⚠️ Failed to connect to " + deviceName);
+                    }
                 }
             }
-            style.titlesBoldOnly = parseBooleanFromJson(receiptStyleJson, "titlesBoldOnly", false);
-
-            android.util.Log.i("POS", "✅ Parsed receiptStyle: bodyFont=" + style.bodyFont + 
-                ", lineHeight=" + style.lineHeight + ", padding=" + style.padding);
+        } catch (SecurityException e) {
+            android.util.Log.e("POS", "❌ Bluetooth permission denied: " + e.getMessage());
         } catch (Exception e) {
-            android.util.Log.w("POS", "⚠️ Failed to parse receiptStyle: " + e.getMessage());
+            android.util.Log.e("POS", "❌ Bluetooth open error: " + e.getMessage());
         }
-        
-        return style;
+        return null;
     }
-    
+
     /**
-     * Extract integer value from JSON string
+     * Speed / density table with the connected printer's calibration
+     * @param table stored table ("" = default, "off" = leave the printer's own setting)
+     * @return null when off or the table doesn't parse
      */
-    private int parseIntFromJson(String json, String key, int defaultValue) {
+    /** @param table "off" / "" (the default until measured on the hardware), "default" or a table */
+    private InkProfiles loadInkProfiles(String table) {
+        if (table == null || table.isEmpty() || "off".equals(table)) return null;
+        if ("default".equals(table)) table = InkProfiles.DEFAULT_TABLE;
+        String calibration = getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
+                .getString(PREF_INK_CALIBRATION + printerAddress, "0:100");
         try {
-            String searchKey = "\"" + key + "\"";
-            int keyIndex = json.indexOf(searchKey);
-            if (keyIndex >= 0) {
-                int colonIndex = json.indexOf(":", keyIndex);
-                int valueStart = colonIndex + 1;
-                // Skip whitespace
-                while (valueStart < json.length() && Character.isWhitespace(json.charAt(valueStart))) {
-                    valueStart++;
-                }
-                // Find end of number (comma, }, or whitespace)
-                int valueEnd = valueStart;
-                while (valueEnd < json.length() && 
-                       (Character.isDigit(json.charAt(valueEnd)) || json.charAt(valueEnd) == '-')) {
-                    valueEnd++;
-                }
-                if (valueEnd > valueStart) {
-                    String valueStr = json.substring(valueStart, valueEnd).trim();
-                    return Integer.parseInt(valueStr);
-                }
-            }
+            String[] parts = calibration.split(":");
+            return InkProfiles.parse(table, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
         } catch (Exception e) {
-            // Return default on any error
+            android.util.Log.w("POS", "⚠️ Ink profiles ignored: " + e.getMessage());
+            return null;
         }
-        return defaultValue;
     }
 
-    private boolean parseBooleanFromJson(String json, String key, boolean defaultValue) {
-        if (json == null) return defaultValue;
-        String searchKey = "\"" + key + "\"";
-        int keyIndex = json.indexOf(searchKey);
-        if (keyIndex >= 0) {
-            int colonIndex = json.indexOf(":", keyIndex);
-            int valueStart = colonIndex + 1;
-            while (valueStart < json.length() && Character.isWhitespace(json.charAt(valueStart))) valueStart++;
-            if (valueStart < json.length()) {
-                if (json.substring(valueStart).startsWith("true")) return true;
-                if (json.substring(valueStart).startsWith("false")) return false;
-            }
-        }
-        return defaultValue;
-    }
-    
-    private Bitmap createTextBitmap(String[] lines, boolean includeHeader, ReceiptStyle style) {
-        int width = 384; // 58mm paper = 384 pixels
-        int lineHeight = style.lineHeight;
-        int padding = style.padding;
-        int headerSpace = includeHeader ? 80 : 20; // Upper bound for logo/brand (actual height trimmed after draw)
-        
-        // Upper-bound height (per-line uses lineHeight; real layout uses less for empty lines / separators — we crop after draw)
-        int numLines = lines != null ? lines.length : 0;
-        int height = Math.max(100, (numLines * lineHeight) + headerSpace + 24);
-        
-        android.util.Log.i("POS", "🖼️ Creating beautiful RTL receipt: " + width + "x" + height);
-        
-        // Create bitmap
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        
-        // White background
-        canvas.drawColor(Color.WHITE);
+    /**
+     * Watchdog: a native call on the Bluetooth handle missed its deadline. Take the backend out of
+     * routing, close the stuck handle without waiting on it, and reopen the port in the background.
+     */
+    private void reopenBluetoothPrinter(String operation) {
+        if ("open_bt_spp".equals(operation)) return; // the open itself: reopening won't help
+        final BluetoothPrintBackend bt = bluetoothBackend;
+        if (bt == null || !reopening.compareAndSet(false, true)) return;
         
-        int currentY = 20;
+        final Pointer stuck = printerHandle;
+        printerHandle = null;
+        bt.setHandle(null); // unavailable: jobs route elsewhere meanwhile
+        android.util.Log.w("POS", "🔁 Reopening Bluetooth printer after stuck " + operation);
         
-        // ============ HEADER WITH LOGO ============
-        if (includeHeader) {
-            // Try to load logo from resources
+        new Thread(() -> {
             try {
-                int logoResId = getResources().getIdentifier("receipt_logo", "drawable", getPackageName());
-                if (logoResId != 0) {
-                    android.util.Log.i("POS", "📷 Loading logo from resources");
-                    Bitmap logoBitmap = BitmapFactory.decodeResource(getResources(), logoResId);
-                    
-                    if (logoBitmap != null) {
-                        // Scale logo to fit (use logoMaxWidth from style)
-                        int maxLogoWidth = style.logoMaxWidth;
-                        float scale = Math.min(1.0f, (float)maxLogoWidth / logoBitmap.getWidth());
-                        int scaledWidth = (int)(logoBitmap.getWidth() * scale);
-                        int scaledHeight = (int)(logoBitmap.getHeight() * scale);
-                        
-                        Matrix matrix = new Matrix();
-                        matrix.postScale(scale, scale);
-                        Bitmap scaledLogo = Bitmap.createBitmap(logoBitmap, 0, 0, 
-                            logoBitmap.getWidth(), logoBitmap.getHeight(), matrix, true);
-                        
-                        // Draw logo centered
-                        int logoX = (width - scaledWidth) / 2;
-                        canvas.drawBitmap(scaledLogo, logoX, currentY, null);
-                        currentY += scaledHeight + style.logoSpacingAfter; // Use logoSpacingAfter from style
-                        
-                        android.util.Log.i("POS", "✅ Logo drawn: " + scaledWidth + "x" + scaledHeight);
-                    }
+                if (stuck != null) {
+                    // Closing a wedged port can block as well: its own thread, not awaited
+                    Thread close = new Thread(() -> {
+                        try {
+                            printer.CP_Port_Close(stuck);
+                        } catch (Exception e) {
+                            android.util.Log.w("POS", "⚠️ Closing stuck port: " + e.getMessage());
+                        }
+                    }, "printer-close");
+                    close.setDaemon(true);
+                    close.start();
+                }
+                String deviceName = openInnerPrinterPort();
+                if (deviceName != null) {
+                    bt.setHandle(printerHandle);
+                    android.util.Log.i("POS", "✅ Bluetooth printer reopened: " + deviceName);
                 } else {
-                    android.util.Log.i("POS", "ℹ️ No logo found, using text header");
+                    android.util.Log.e("POS", "❌ Bluetooth printer reopen failed");
                 }
-            } catch (Exception e) {
-                android.util.Log.w("POS", "⚠️ Logo load failed: " + e.getMessage());
-            }
-            
-            // If no logo, show brand name
-            if (currentY < 50) {
-                // Brand name in English (large, centered)
-                Paint headerPaint = new Paint();
-                headerPaint.setColor(Color.BLACK);
-                headerPaint.setTextSize(46); // brand name (English)
-                headerPaint.setAntiAlias(true);
-                headerPaint.setTypeface(Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD));
-                headerPaint.setTextAlign(Paint.Align.CENTER);
-                headerPaint.setFakeBoldText(true);
-                
-                String brandName = getBrandName().toUpperCase();
-                canvas.drawText(brandName, width / 2, currentY + 30, headerPaint);
-                
-                // Brand name in Arabic (centered, below English)
-                Paint arabicHeaderPaint = new Paint();
-                arabicHeaderPaint.setColor(Color.BLACK);
-                arabicHeaderPaint.setTextSize(38); // brand name (Arabic)
-                arabicHeaderPaint.setAntiAlias(true);
-                arabicHeaderPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
-                arabicHeaderPaint.setTextAlign(Paint.Align.CENTER);
-                
-                String brandNameAr = getBrandNameAr();
-                canvas.drawText(brandNameAr, width / 2, currentY + 60, arabicHeaderPaint);
-                
-                currentY += 75;
+            } finally {
+                reopening.set(false);
             }
-            
-            // Spacing after logo / text header (no horizontal rule — order lines follow directly)
-            currentY += 18;
-        }
-        
-        // ============ BODY TEXT (RTL with selected font) ============
-        // Map CSS font-family to Android Typeface
-        Typeface selectedFont = Typeface.SANS_SERIF; // Default fallback
+        }, "printer-reopen").start();
+    }
+
+    /**
+     * Render (but don't print) a sample receipt in the background once the dashboard has loaded:
+     * loads the font and the dithered logo and warms the render code, so the first real order
+     * prints as fast as later ones. Uses the style of the last printed receipt when known.
+     */
+    private void startWarmupRender() {
+        final SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        if (!prefs.getBoolean(PREF_WARMUP_RENDER, true)) return;
         
-        String fontFamily = style.fontFamily;
-        if (fontFamily != null && !fontFamily.isEmpty()) {
-            // Parse font-family string (may contain multiple fonts like "'Cairo', 'Tahoma', sans-serif")
-            String fontFamilyLower = fontFamily.toLowerCase();
-            
-            if (fontFamilyLower.contains("cairo")) {
-                // Try to load Cairo font from assets
-                try {
-                    Typeface customFont = Typeface.createFromAsset(getAssets(), "fonts/Cairo-Bold.ttf");
-                    selectedFont = customFont;
-                    android.util.Log.i("POS", "✅ Using Cairo font from assets");
-                } catch (Exception e) {
-                    android.util.Log.i("POS", "ℹ️ Cairo font not found in assets, using sans-serif");
-                    selectedFont = Typeface.SANS_SERIF;
-                }
-            } else if (fontFamilyLower.contains("arial")) {
-                selectedFont = Typeface.create("Arial", Typeface.BOLD);
-                android.util.Log.i("POS", "✅ Using Arial font");
-            } else if (fontFamilyLower.contains("tahoma")) {
-                selectedFont = Typeface.create("Tahoma", Typeface.BOLD);
-                android.util.Log.i("POS", "✅ Using Tahoma font");
-            } else if (fontFamilyLower.contains("system-ui") || fontFamilyLower.contains("system")) {
-                selectedFont = Typeface.DEFAULT;
-                android.util.Log.i("POS", "✅ Using system default font");
-            } else {
-                // Default to sans-serif
-                selectedFont = Typeface.SANS_SERIF;
-                android.util.Log.i("POS", "ℹ️ Using default sans-serif font");
-            }
-        } else {
-            // No fontFamily specified, try Cairo as default (backward compatibility)
+        Thread warmup = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            timeline.mark("warmup_start");
             try {
-                Typeface customFont = Typeface.createFromAsset(getAssets(), "fonts/Cairo-Bold.ttf");
-                selectedFont = customFont;
-                android.util.Log.i("POS", "✅ Using Cairo font from assets (default)");
+                ReceiptStyle style = ReceiptStyle.parse(prefs.getString(PREF_LAST_RECEIPT_STYLE, ""));
+                List<ReceiptLine> lines = ReceiptLine.fromText(PrintBenchmarks.SAMPLE_ORDER_TEXT.split("\n"), style);
+                RasterEncoder.Raster raster = receiptRenderer.renderRaster(lines, true, style);
+                android.util.Log.i("POS", "🔥 Warm-up render: " + raster.width + "x" + raster.height);
+                timeline.mark("warmup_done");
             } catch (Exception e) {
-                android.util.Log.i("POS", "ℹ️ Cairo font not found, using sans-serif");
-                selectedFont = Typeface.SANS_SERIF;
-            }
-        }
-        
-        Typeface cairoFont = selectedFont; // Keep variable name for compatibility
-        
-        // Setup paint for regular text - use bodyFont from style
-        Paint textPaint = new Paint();
-        textPaint.setColor(Color.BLACK);
-        textPaint.setTextSize(style.bodyFont); // Use bodyFont from style
-        textPaint.setAntiAlias(true);
-        textPaint.setTypeface(Typeface.create(cairoFont, Typeface.BOLD));
-        textPaint.setFakeBoldText(true); // Extra bold for darker ink
-        textPaint.setTextAlign(Paint.Align.RIGHT); // RTL
-
-        // When titlesBoldOnly: body lines are prefixed with \u200B and drawn with normal weight
-        Paint textPaintNormal = new Paint();
-        textPaintNormal.setColor(Color.BLACK);
-        textPaintNormal.setTextSize(style.bodyFont);
-        textPaintNormal.setAntiAlias(true);
-        textPaintNormal.setTypeface(Typeface.create(cairoFont, Typeface.NORMAL));
-        textPaintNormal.setTextAlign(Paint.Align.RIGHT);
-        
-        // Paint for section headers - use headerFont from style
-        Paint headerTextPaint = new Paint();
-        headerTextPaint.setColor(Color.BLACK);
-        headerTextPaint.setTextSize(style.headerFont); // Use headerFont from style
-        headerTextPaint.setAntiAlias(true);
-        headerTextPaint.setTypeface(Typeface.create(cairoFont, Typeface.BOLD));
-        headerTextPaint.setFakeBoldText(true);
-        headerTextPaint.setTextAlign(Paint.Align.RIGHT);
-        
-        // Draw lines with smart formatting
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i];
-            if (line == null) continue;
-
-            // When titlesBoldOnly, lines starting with \u200B are drawn with normal weight
-            boolean useNormalWeight = style.titlesBoldOnly && line.startsWith(NORMAL_WEIGHT_PREFIX);
-            String displayLine = useNormalWeight ? line.substring(NORMAL_WEIGHT_PREFIX.length()) : line;
-            
-            // Skip empty lines at start
-            if (displayLine.trim().isEmpty()) {
-                currentY += style.emptyGap; // Use emptyGap from style
-                continue;
-            }
-            
-            // Detect separator lines (====, ---, - - -)
-            // Only treat lines that are PURE separators (no text content) as separator lines
-            String trimmedLine = displayLine.trim();
-            if (trimmedLine.startsWith("===")) {
-                // Check if it's a pure separator (only contains =, -, or spaces)
-                String withoutEquals = trimmedLine.replace("=", "").replace("-", "").replace(" ", "");
-                if (withoutEquals.isEmpty()) {
-                    // Thick solid line
-                    Paint separatorPaint = new Paint();
-                    separatorPaint.setColor(Color.BLACK);
-                    separatorPaint.setStrokeWidth(2);
-                    canvas.drawLine(padding, currentY + 5, width - padding, currentY + 5, separatorPaint);
-                    currentY += style.sepMargin; // Use sepMargin from style
-                    continue;
-                }
-            } else if (trimmedLine.startsWith("---") || trimmedLine.startsWith("- - -")) {
-                // Check if it's a pure separator (only contains dashes, spaces, or dots)
-                // If it contains actual text (like "--- معلومات العميل ---"), render as text
-                String withoutSeparators = trimmedLine.replace("-", "").replace(" ", "").replace(".", "");
-                if (withoutSeparators.isEmpty()) {
-                    // Thin dashed line - pure separator
-                    Paint separatorPaint = new Paint();
-                    separatorPaint.setColor(Color.GRAY);
-                    separatorPaint.setStrokeWidth(1);
-                    canvas.drawLine(padding, currentY + 5, width - padding, currentY + 5, separatorPaint);
-                    currentY += style.sepMargin; // Use sepMargin from style
-                    continue;
-                }
-                // If it contains text (like "--- معلومات العميل ---"), fall through to render as text
-            }
-            
-            // **SPECIAL: Draw border around total amount** (check displayLine so \u200B prefix doesn't break detection)
-            if (displayLine.contains("المبلغ الإجمالي") || displayLine.contains("Total Amount")) {
-                // Draw filled background
-                Paint bgPaint = new Paint();
-                bgPaint.setColor(Color.rgb(245, 245, 245)); // Light gray background
-                bgPaint.setStyle(Paint.Style.FILL);
-                canvas.drawRect(padding, currentY - 32, width - padding, currentY + 18, bgPaint);
-                
-                // Draw border around total
-                Paint borderPaint = new Paint();
-                borderPaint.setColor(Color.BLACK);
-                borderPaint.setStyle(Paint.Style.STROKE);
-                borderPaint.setStrokeWidth(3);
-                canvas.drawRect(padding, currentY - 32, width - padding, currentY + 18, borderPaint);
-                
-                // Draw text in center (not right-aligned for total)
-                Paint totalPaint = new Paint();
-                totalPaint.setColor(Color.BLACK);
-                totalPaint.setTextSize(style.totalFont); // Use totalFont from style
-                totalPaint.setAntiAlias(true);
-                totalPaint.setTypeface(Typeface.create(cairoFont, Typeface.BOLD));
-                totalPaint.setFakeBoldText(true);
-                totalPaint.setTextAlign(Paint.Align.CENTER);
-                
-                canvas.drawText(displayLine, width / 2, currentY, totalPaint);
-                currentY += style.lineHeight + 10; // Use lineHeight from style
-                continue;
+                android.util.Log.w("POS", "⚠️ Warm-up render failed: " + e.getMessage());
+                timeline.mark("warmup_failed");
             }
-            
-            // Use header paint for section titles (contains "معلومات" or "تفاصيل"); when titlesBoldOnly use normal paint for body
-            Paint activePaint;
-            if (useNormalWeight) {
-                activePaint = textPaintNormal;
-            } else if (displayLine.contains("معلومات") || displayLine.contains("تفاصيل") || displayLine.contains("رقم")) {
-                activePaint = headerTextPaint;
-            } else {
-                activePaint = textPaint;
-            }
-            
-            // Draw text from right edge (RTL)
-            canvas.drawText(displayLine, width - padding, currentY, activePaint);
-            currentY += lineHeight;
+        }, "receipt-warmup");
+        warmup.start();
+    }
+
+    /** Remember the dashboard's receipt style so the next startup warms up with the same font/logo */
+    private void rememberReceiptStyle(String receiptStyleJson) {
+        if (receiptStyleJson == null || receiptStyleJson.isEmpty()) return;
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        if (!receiptStyleJson.equals(prefs.getString(PREF_LAST_RECEIPT_STYLE, ""))) {
+            prefs.edit().putString(PREF_LAST_RECEIPT_STYLE, receiptStyleJson).apply();
         }
+    }
+
+    private void injectPrintHelpers() {
+        String js = "javascript:(function() {" +
+                "  console.log('✅ PosPrinter bridge loaded');" +
+                "  if (window.PosPrinter) {" +
+                "    console.log('✅ PosPrinter.printText available');" +
+                "    console.log('✅ PosPrinter.printHtml available (html, receiptStyleJson)');" +
+                "    console.log('✅ Device: H10 Wireless Data Terminal');" +
+                "  }" +
+                "})()";
+        webView.evaluateJavascript(js, null);
+    }
+
+    private boolean isBluetoothPrinterReady() {
+        return printer != null && printerHandle != null && Pointer.nativeValue(printerHandle) != 0;
+    }
+
+    /**
+     * Some routed backend can take a job: SENRAISE binder (interface confirmed), AutoReplyPrint
+     * (BT SPP), or the PrintManager dialog when enabled
+     */
+    private boolean isPrinterReady() {
+        return printRouter.hasAvailableBackend();
+    }
+
+    /**
+     * Render a text receipt (logo header, footer from strings.xml when the text has none)
+     * to the 1-bit raster. Used by printText and the pre-render cache.
+     */
+    private RasterEncoder.Raster renderTextReceipt(String text, ReceiptStyle receiptStyle) {
+        // Check if footer is already in the text (added by JavaScript from receiptStyle)
+        // Footer typically contains "Thank you" or "شكراً"
+        boolean hasFooter = ReceiptLine.isFooterText(text);
         
-        android.util.Log.i("POS", "🖼️ Beautiful RTL receipt created!");
-        
-        // Trim excess white: layout uses emptyGap / sepMargin for many lines, not full lineHeight
-        int bottomPad = Math.max(12, style.lineHeight / 2 + 4);
-        int cropHeight = Math.min(height, Math.max(1, currentY + bottomPad));
-        if (cropHeight < height) {
-            Bitmap trimmed = Bitmap.createBitmap(bitmap, 0, 0, width, cropHeight);
-            bitmap.recycle();
-            bitmap = trimmed;
-            android.util.Log.i("POS", "🖼️ Trimmed receipt bitmap height " + height + " → " + cropHeight);
+        // Build clean receipt - add footer only if not already present
+        String fullText = text;
+        if (!hasFooter) {
+            // Fallback: add footer from strings.xml if JavaScript didn't add it
+            fullText = text + 
+                    "\n\n" +
+                    getString(R.string.receipt_thank_you_en) + " " + getBrandName() + "\n" +
+                    getString(R.string.receipt_thank_you_ar) + " " + getString(R.string.brand_name_ar_short);
         }
         
-        return bitmap;
+        // Render receipt with header/logo straight to the 1-bit raster
+        String[] lines = fullText.split("\n");
+        return receiptRenderer.renderRaster(ReceiptLine.fromText(lines, receiptStyle), true, receiptStyle);
+    }
+
+    /**
+     * Print a receipt raster and feed paper through the fastest healthy transport
+     * (SENRAISE binder, Bluetooth SPP, PrintManager), failing over on error or timeout.
+     * Jobs are serialized through the print queue; a nearly full queue refuses the job.
+     * @return PrintQueue.RESULT_OK, RESULT_FAILED, RESULT_TIMEOUT, RESULT_DIALOG or RESULT_BUSY
+     */
+    private int printRasterJob(RasterEncoder.Raster raster, int feedLines) {
+        return printQueue.print(raster, feedLines);
     }
 
     /**
@@ -657,6 +588,9 @@ public class MainActivity extends AppCompatActivity {
      */
     public class PosPrinterBridge {
         Context context;
+        private volatile DocumentStream documentStream;
+        private volatile boolean replayRunning;
+        private volatile String replayResult;
 
         PosPrinterBridge(Context c) {
             context = c;
@@ -681,68 +615,42 @@ public class MainActivity extends AppCompatActivity {
          */
         @JavascriptInterface
         public String printText(String text, String receiptStyleJson) {
+            return printText(text, receiptStyleJson, null);
+        }
+
+        /**
+         * Print an order's receipt, using the raster from prepareReceipt when the content matches
+         * @param text Receipt text content
+         * @param receiptStyleJson Optional JSON string with receipt style
+         * @param orderId Order the receipt was prepared for (null/empty = match by content only)
+         * @return "success", "dialog" (sent to the system print dialog, not recorded as printed) or error message
+         */
+        @JavascriptInterface
+        public String printText(String text, String receiptStyleJson, String orderId) {
             // Handle backward compatibility: if receiptStyleJson is null or empty, treat as no style
             if (receiptStyleJson == null) {
                 receiptStyleJson = "";
             }
             try {
-                if (printer == null || printerHandle == null || Pointer.nativeValue(printerHandle) == 0) {
+                if (!isPrinterReady()) {
                     return "error: printer not initialized";
                 }
                 
-                android.util.Log.i("POS", "📝 Printing order SILENTLY...");
-                
-                // Parse receiptStyle JSON to get all style values
-                ReceiptStyle receiptStyle = parseReceiptStyle(receiptStyleJson);
-                
-                // Build full receipt with Windows-1256 for Arabic
-                android.util.Log.i("POS", "🖼️ Printing beautiful order receipt with logo & Arabic");
+                timeline.markOnce("first_print_request");
+                rememberReceiptStyle(receiptStyleJson);
                 
-                // Check if footer is already in the text (added by JavaScript from receiptStyle)
-                // Footer typically contains "Thank you" or "شكراً"
-                boolean hasFooter = text.contains("Thank you") || text.contains("شكراً") || 
-                                   text.contains("شكرا") || text.trim().endsWith("App");
-                
-                // Build clean receipt - add footer only if not already present
-                String fullText = text;
-                if (!hasFooter) {
-                    // Fallback: add footer from strings.xml if JavaScript didn't add it
-                    fullText = text + 
-                            "\n\n" +
-                            getString(R.string.receipt_thank_you_en) + " " + getBrandName() + "\n" +
-                            getString(R.string.receipt_thank_you_ar) + " " + getString(R.string.brand_name_ar_short);
+                // Rendered when the order arrived? Then this goes straight to the transport
+                RasterEncoder.Raster receiptRaster = receiptPrecache.take(orderId, text, receiptStyleJson);
+                if (receiptRaster == null) {
+                    receiptRaster = renderTextReceipt(text, ReceiptStyle.parse(receiptStyleJson));
                 }
                 
-                android.util.Log.i("POS", "📝 Receipt length: " + fullText.length() + " chars");
-                
-                // Create beautiful bitmap with header/logo
-                String[] lines = fullText.split("\n");
-                Bitmap receiptBitmap = createTextBitmap(lines, true, receiptStyle);
-                
-                android.util.Log.i("POS", "🖼️ Beautiful receipt bitmap: " + receiptBitmap.getWidth() + "x" + receiptBitmap.getHeight());
-                
-                // Print bitmap
-                printer.CP_Pos_SetAlignment(printerHandle, 0);
-                boolean success = AutoReplyPrint.CP_Pos_PrintRasterImageFromData_Helper.PrintRasterImageFromBitmap(
-                    printerHandle,
-                    receiptBitmap.getWidth(),
-                    receiptBitmap.getHeight(),
-                    receiptBitmap,
-                    0,
-                    0
-                );
-                
-                android.util.Log.i("POS", "🖼️ Beautiful receipt printed: " + success);
-                
-                if (success) {
-                    printer.CP_Pos_FeedLine(printerHandle, 5); // More feed lines
-                    runOnUiThread(() -> 
-                        Toast.makeText(context, "✅ تمت الطباعة بنجاح", Toast.LENGTH_SHORT).show()
-                    );
-                    return "success";
-                } else {
-                    return "error: print command failed";
+                String result = printReceiptRaster(receiptRaster);
+                if ("success".equals(result)) {
+                    orderTickets.record(orderId, text);
+                    reprintCache.put(orderId, receiptRaster);
                 }
+                return result;
                 
             } catch (Exception e) {
                 android.util.Log.e("POS", "❌ Print error: " + e.getMessage());
@@ -751,123 +659,897 @@ public class MainActivity extends AppCompatActivity {
         }
 
         /**
-         * Print HTML content (simplified - converts to text)
-         * @param html HTML content
-         * @return "success" or error message
+         * Render an order's receipt in the background so a later printText for it skips rendering.
+         * Call again when the order changes; the cached receipt is dropped on print or after 10 minutes.
+         * @param orderId Order ID
+         * @param text Receipt text content (same as will be passed to printText)
+         * @param receiptStyleJson Optional JSON string with receipt style
+         * @return "queued", "cached" (same content already rendered) or error message
          */
         @JavascriptInterface
-        public String printHtml(String html) {
-            // Strip HTML tags and print as text
-            String text = html.replaceAll("<[^>]*>", "").replaceAll("&nbsp;", " ");
-            return printText(text);
+        public String prepareReceipt(String orderId, String text, String receiptStyleJson) {
+            if (orderId == null || orderId.isEmpty() || text == null) {
+                return "error: orderId and text are required";
+            }
+            try {
+                return receiptPrecache.prepare(orderId, text, receiptStyleJson != null ? receiptStyleJson : "");
+            } catch (Exception e) {
+                return "error: " + e.getMessage();
+            }
         }
 
         /**
-         * Get printer status
-         * @return JSON string with printer info
+         * Print an edited order for the kitchen: only the lines that changed since this order was
+         * last printed (added, removed, modified, each under its item). Prints the full receipt when
+         * the order wasn't printed before or most of it changed.
+         * @param orderId Order ID (as passed to printText)
+         * @param text Receipt text content of the edited order
+         * @param receiptStyleJson Optional JSON string with receipt style
+         * @return "success", "unchanged" (nothing printed) or error message
          */
         @JavascriptInterface
-        public String getPrinterStatus() {
-            if (printer == null || printerHandle == null || Pointer.nativeValue(printerHandle) == 0) {
-                return "{\"status\":\"error\",\"message\":\"printer not initialized\"}";
+        public String printOrderUpdate(String orderId, String text, String receiptStyleJson) {
+            if (orderId == null || orderId.isEmpty() || text == null) {
+                return "error: orderId and text are required";
+            }
+            if (receiptStyleJson == null) {
+                receiptStyleJson = "";
             }
             try {
-                // Simple status check - if handle exists, assume ready
-                boolean ready = Pointer.nativeValue(printerHandle) != 0;
-                return "{\"status\":\"" + (ready ? "ready" : "error") + "\",\"device\":\"H10\"}";
+                List<OrderTicketHistory.Change> changes = orderTickets.diff(orderId, text);
+                if (changes == null) {
+                    orderTickets.countFull();
+                    return printText(text, receiptStyleJson, orderId);
+                }
+                if (changes.isEmpty()) {
+                    orderTickets.countUnchanged();
+                    return "unchanged";
+                }
+                if (!isPrinterReady()) {
+                    return "error: printer not initialized";
+                }
+                rememberReceiptStyle(receiptStyleJson);
+                ReceiptStyle style = ReceiptStyle.parse(receiptStyleJson);
+                String ticket = OrderTicketHistory.ticketText(text, changes);
+                RasterEncoder.Raster ticketRaster = receiptRenderer.renderRaster(
+                        ReceiptLine.fromText(ticket.split("\n"), style), false, style);
+                PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.ORDER_UPDATE, changes.size());
+
+                String result = printReceiptRaster(ticketRaster);
+                if ("success".equals(result)) {
+                    orderTickets.record(orderId, text);
+                    orderTickets.countDelta();
+                    // The cached receipt is the version before the edit
+                    reprintCache.remove(orderId);
+                }
+                return result;
             } catch (Exception e) {
-                return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
+                android.util.Log.e("POS", "❌ Order update print error: " + e.getMessage());
+                return "error: " + e.getMessage();
             }
         }
 
         /**
-         * Test print - prints a test receipt
-         * @return "success" or error message
+         * Print an order's receipt again from the raster kept when it was printed (no rendering).
+         * @param orderId Order ID (as passed to printText)
+         * @return "success", "error: not cached" (print it with printText instead) or error message
          */
         @JavascriptInterface
-        public String testPrint() {
+        public String reprint(String orderId) {
             try {
-                if (printer == null || printerHandle == null || Pointer.nativeValue(printerHandle) == 0) {
+                if (!isPrinterReady()) {
                     return "error: printer not initialized";
                 }
-                
-                android.util.Log.i("POS", "🧪 Test print with beautiful formatting");
-                
-                // Clean test receipt (header/logo added by createTextBitmap)
-                String testText = "اختبار الطباعة - Test Print\n" +
-                        "---\n" +
-                        "الجهاز: H10 Terminal\n" +
-                        "التطبيق: " + getString(R.string.app_name) + "\n" +
-                        "الحالة: متصل بنجاح\n" +
-                        "\n" +
-                        "--- اختبار النصوص ---\n" +
-                        "إنجليزي: ABCDEFGH 1234\n" +
-                        "عربي: طباعة اختبار\n" +
-                        "عبري: בדיקה הדפסה\n" +
-                        "رموز: !@#$%^&*()\n" +
-                        "\n" +
-                        "التاريخ: " + new java.text.SimpleDateFormat("dd/MM/yyyy").format(new java.util.Date()) + "\n" +
-                        "الوقت: " + new java.text.SimpleDateFormat("HH:mm:ss").format(new java.util.Date()) + "\n" +
-                        "\n" +
-                        "---\n" +
-                        "الطباعة تعمل بشكل ممتاز!\n" +
-                        "✓ النص واضح وسهل القراءة\n" +
-                        "✓ العربية مقروءة تماماً";
-                
-                android.util.Log.i("POS", "🖼️ Printing beautiful receipt with logo & Arabic...");
-                
-                // Split into lines
-                String[] lines = testText.split("\n");
-                android.util.Log.i("POS", "🖼️ Split into " + lines.length + " lines");
-                
-                // Create beautiful bitmap with header/logo (Android renders Arabic correctly!)
-                ReceiptStyle defaultStyle = new ReceiptStyle(); // Use defaults for test print
-                Bitmap textBitmap = createTextBitmap(lines, true, defaultStyle);
-                
-                android.util.Log.i("POS", "🖼️ Bitmap size: " + textBitmap.getWidth() + "x" + textBitmap.getHeight());
-                
-                // Print bitmap using helper method (handles conversion internally)
-                printer.CP_Pos_SetAlignment(printerHandle, 0);
-                boolean success = AutoReplyPrint.CP_Pos_PrintRasterImageFromData_Helper.PrintRasterImageFromBitmap(
-                    printerHandle,
-                    textBitmap.getWidth(),
-                    textBitmap.getHeight(),
-                    textBitmap,
-                    0,  // binaryzation: 0=auto threshold
-                    0   // compress: 0=none
-                );
-                
-                android.util.Log.i("POS", "🖼️ Beautiful receipt printed: " + success);
-                
-                if (success) {
-                    printer.CP_Pos_FeedLine(printerHandle, 4);
-                    runOnUiThread(() -> 
-                        Toast.makeText(context, "✅ تمت الطباعة", Toast.LENGTH_SHORT).show()
-                    );
-                    return "success";
-                } else {
-                    return "error: print failed";
+                RasterEncoder.Raster receiptRaster = reprintCache.get(orderId);
+                if (receiptRaster == null) {
+                    return "error: not cached";
                 }
-                
+                return printReceiptRaster(receiptRaster);
             } catch (Exception e) {
-                android.util.Log.e("POS", "❌ Error: " + e.getMessage());
+                android.util.Log.e("POS", "❌ Reprint error: " + e.getMessage());
                 return "error: " + e.getMessage();
             }
         }
-    }
-
-    @Override
-    public void onBackPressed() {
-        if (webView.canGoBack()) {
-            webView.goBack();
-        } else {
-            super.onBackPressed();
-        }
-    }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
+        /**
+         * Print labels (packaging / kitchen stickers) in the Bluetooth printer's label mode.
+         * Identical labels are sent once and printed as copies by the printer.
+         * @param labels label texts separated by "\f" (lines "\n"-separated, same markup as printText)
+         * @param widthMm label width in mm (0 = 48, at most the printable width)
+         * @param heightMm label height in mm (0 = 30)
+         * @param receiptStyleJson Optional JSON string with receipt style
+         * @return "success" or error message
+         */
+        @JavascriptInterface
+        public String printLabels(String labels, int widthMm, int heightMm, String receiptStyleJson) {
+            final BluetoothPrintBackend bt = bluetoothBackend;
+            if (bt == null || !bt.isAvailable()) {
+                return "error: label printing needs the Bluetooth printer";
+            }
+            try {
+                final LabelBatch batch = LabelBatch.parse(labels, widthMm, heightMm);
+                batch.render(receiptRenderer, ReceiptStyle.parse(receiptStyleJson));
+
+                // On the print consumer like any job, so it never lands in the middle of a receipt
+                final int[] result = { PrintQueue.RESULT_FAILED };
+                final CountDownLatch done = new CountDownLatch(1);
+                boolean queued = printQueue.execute(() -> {
+                    try {
+                        result[0] = bt.printLabels(batch) ? PrintQueue.RESULT_OK : PrintQueue.RESULT_FAILED;
+                    } catch (NativeCallSupervisor.NativeTimeoutException e) {
+                        result[0] = PrintQueue.RESULT_TIMEOUT;
+                    } catch (Exception e) {
+                        android.util.Log.e("POS", "❌ Label print error: " + e.getMessage());
+                    } finally {
+                        done.countDown();
+                    }
+                });
+                if (!queued) return "error: queue busy";
+                if (!done.await(PrintRouter.DEFAULT_JOB_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                        || result[0] == PrintQueue.RESULT_TIMEOUT) {
+                    return "error: print timed out";
+                }
+                if (result[0] != PrintQueue.RESULT_OK) return "error: print command failed";
+                PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.LABELS_DONE, batch.total, batch.labels.size(), batch.bytes());
+                return "success";
+            } catch (Exception e) {
+                android.util.Log.e("POS", "❌ Label error: " + e.getMessage());
+                return "error: " + e.getMessage();
+            }
+        }
+
+        /**
+         * @return JSON with reprint cache counters (memory / disk entries and bytes, hits, misses)
+         */
+        @JavascriptInterface
+        public String getReprintCacheStats() {
+            return reprintCache.toJson();
+        }
+
+        /**
+         * @return JSON with the Bluetooth raster buffer pool counters (hits, misses, oversize
+         *         segments, bytes pooled, free blocks per size class), or {} when not connected
+         */
+        @JavascriptInterface
+        public String getNativeBufferStats() {
+            BluetoothPrintBackend bt = bluetoothBackend;
+            return bt != null ? bt.getBufferPool().toJson() : "{}";
+        }
+
+        /**
+         * @return JSON with order update counters (orders remembered, full / delta prints, unchanged)
+         */
+        @JavascriptInterface
+        public String getOrderUpdateStats() {
+            return orderTickets.toJson();
+        }
+
+        /**
+         * @return JSON with the line wrap caches (measured widths, wrapped lines, hits / misses)
+         */
+        @JavascriptInterface
+        public String getWrapStats() {
+            return receiptRenderer.wrapStatsJson();
+        }
+
+        /**
+         * @return JSON with pre-render cache counters (entries, hits, misses, evictions)
+         */
+        @JavascriptInterface
+        public String getReceiptCacheStats() {
+            return receiptPrecache.toJson();
+        }
+
+        /**
+         * Send a rendered receipt raster to the printer and feed paper
+         * @return "success", "dialog" or error message
+         */
+        private String printReceiptRaster(RasterEncoder.Raster receiptRaster) {
+            timeline.markOnce("first_print_rendered");
+            
+            // Print raster + more feed lines
+            int result = printRasterJob(receiptRaster, 5);
+            if (result == PrintQueue.RESULT_BUSY) {
+                return "error: queue busy";
+            }
+            if (result == PrintQueue.RESULT_TIMEOUT) {
+                timeline.markOnce("first_print_sent");
+                return "error: print timed out";
+            }
+            if (result == PrintQueue.RESULT_DIALOG) {
+                return "dialog";
+            }
+            boolean success = result == PrintQueue.RESULT_OK;
+            timeline.markOnce("first_print_sent");
+            
+            if (success) {
+                runOnUiThread(() -> 
+                    Toast.makeText(context, "✅ تمت الطباعة بنجاح", Toast.LENGTH_SHORT).show()
+                );
+                return "success";
+            } else {
+                return "error: print command failed";
+            }
+        }
+
+        /**
+         * Start a streamed document (long report): the dashboard sends it in chunks with appendLines
+         * and finishes with endDocument. Printing starts with the first full segment.
+         * @param receiptStyleJson Optional JSON string with receipt style
+         * @return "success" or error message ("error: document already open")
+         */
+        @JavascriptInterface
+        public String beginDocument(String receiptStyleJson) {
+            if (!isPrinterReady()) {
+                return "error: printer not initialized";
+            }
+            synchronized (this) {
+                DocumentStream open = documentStream;
+                if (open != null && !open.isEnded()) {
+                    if (open.idleMs() < DocumentStream.IDLE_TIMEOUT_MS) {
+                        return "error: document already open";
+                    }
+                    open.abort(); // abandoned by a reloaded page
+                }
+                rememberReceiptStyle(receiptStyleJson != null ? receiptStyleJson : "");
+                documentStream = new DocumentStream(receiptRenderer, ReceiptStyle.parse(receiptStyleJson), printRouter.pinned());
+                return "success";
+            }
+        }
+
+        /**
+         * Append lines to the open document ("\n"-separated, whole lines). Blocks while the printer
+         * is behind by more than a few segments.
+         * @return "success" or error message (the document is dropped on error)
+         */
+        @JavascriptInterface
+        public String appendLines(String text) {
+            DocumentStream document = documentStream;
+            if (document == null || document.isEnded()) {
+                return "error: no open document";
+            }
+            try {
+                return documentResult(document.append(text, printQueue));
+            } catch (Exception e) {
+                document.abort();
+                android.util.Log.e("POS", "❌ Document append error: " + e.getMessage());
+                return "error: " + e.getMessage();
+            }
+        }
+
+        /**
+         * Print the rest of the open document and wait until all of it was sent
+         * @return "success" or error message
+         */
+        @JavascriptInterface
+        public String endDocument() {
+            DocumentStream document;
+            synchronized (this) {
+                document = documentStream;
+                documentStream = null;
+            }
+            if (document == null) {
+                return "error: no open document";
+            }
+            try {
+                // Same footer fallback as printText
+                if (!document.isEnded() && !document.hasFooter()) {
+                    document.append("\n\n" +
+                            getString(R.string.receipt_thank_you_en) + " " + getBrandName() + "\n" +
+                            getString(R.string.receipt_thank_you_ar) + " " + getString(R.string.brand_name_ar_short),
+                            printQueue);
+                }
+                int result = document.finish(printQueue, DOCUMENT_FINISH_TIMEOUT_MS);
+                PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.DOCUMENT_DONE,
+                        document.getPrintedSegments(), document.getPrintedBytes(), result);
+                return documentResult(result);
+            } catch (Exception e) {
+                android.util.Log.e("POS", "❌ Document end error: " + e.getMessage());
+                return "error: " + e.getMessage();
+            }
+        }
+
+        private String documentResult(int result) {
+            switch (result) {
+                case PrintQueue.RESULT_OK: return "success";
+                case PrintQueue.RESULT_BUSY: return "error: queue busy";
+                case PrintQueue.RESULT_TIMEOUT: return "error: print timed out";
+                case PrintQueue.RESULT_DIALOG: return "dialog";
+                default: return "error: print command failed";
+            }
+        }
+
+        /**
+         * Print HTML content - backward compatible overload
+         * @param html HTML content
+         * @return "success" or error message
+         */
+        @JavascriptInterface
+        public String printHtml(String html) {
+            return printHtml(html, "");
+        }
+
+        /**
+         * Print HTML content with receipt style (e.g. the dashboard's receipt preview markup as-is).
+         * Markup is mapped in one pass by HtmlReceiptParser: <b>, <hr>, <br>, <h*>, table rows,
+         * <img> (logo) and the preview classes (.sep, .total-box, .footer, ...)
+         * @param html HTML content
+         * @param receiptStyleJson Optional JSON string with receipt style
+         * @return "success" or error message
+         */
+        @JavascriptInterface
+        public String printHtml(String html, String receiptStyleJson) {
+            try {
+                if (!isPrinterReady()) {
+                    return "error: printer not initialized";
+                }
+                
+                timeline.markOnce("first_print_request");
+                
+                ReceiptStyle receiptStyle = ReceiptStyle.parse(receiptStyleJson);
+                rememberReceiptStyle(receiptStyleJson);
+                List<ReceiptLine> lines = HtmlReceiptParser.parse(html, receiptStyle);
+                
+                // Add footer from strings.xml only if the markup doesn't have one
+                boolean hasFooter = false;
+                for (ReceiptLine line : lines) {
+                    if (line.text != null && ReceiptLine.isFooterText(line.text)) {
+                        hasFooter = true;
+                        break;
+                    }
+                }
+                if (!hasFooter) {
+                    lines.addAll(ReceiptLine.fromText(new String[] {
+                            "",
+                            getString(R.string.receipt_thank_you_en) + " " + getBrandName(),
+                            getString(R.string.receipt_thank_you_ar) + " " + getString(R.string.brand_name_ar_short)
+                    }, receiptStyle));
+                }
+                
+                // Logo header only when the markup doesn't place the logo itself
+                RasterEncoder.Raster receiptRaster = receiptRenderer.renderRaster(lines, !HtmlReceiptParser.hasLogo(lines), receiptStyle);
+                
+                return printReceiptRaster(receiptRaster);
+                
+            } catch (Exception e) {
+                android.util.Log.e("POS", "❌ Print error: " + e.getMessage());
+                return "error: " + e.getMessage();
+            }
+        }
+
+        /**
+         * Get printer status
+         * @return JSON string with printer info
+         */
+        @JavascriptInterface
+        public String getPrinterStatus() {
+            if (!isPrinterReady()) {
+                return "{\"status\":\"error\",\"message\":\"printer not initialized\"}";
+            }
+            try {
+                // Simple status check - if handle/service exists, assume ready
+                String transport = printRouter.preferredBackend();
+                return "{\"status\":\"ready\",\"device\":\"H10\",\"transport\":\"" + transport + "\",\"queue_depth\":" + printQueue.depth()
+                        + ",\"native_timeouts\":" + nativeCalls.getTimeouts()
+                        + ",\"reopening\":" + reopening.get() + "}";
+            } catch (Exception e) {
+                return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
+            }
+        }
+
+        /**
+         * Benchmark dithering modes on this device (384-wide logo + full receipt)
+         * @return JSON with per-mode ms and megapixels/s
+         */
+        @JavascriptInterface
+        public String benchmarkDither() {
+            try {
+                return PrintBenchmarks.dither(receiptRenderer, 10);
+            } catch (Exception e) {
+                return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
+            }
+        }
+
+        /**
+         * Run the SENRAISE backend against an in-process stand-in service (no printer needed)
+         * and check the received raster byte for byte
+         * @return JSON {"ok","transactions","rejected","bytes","limit","ms","h"}
+         */
+        @JavascriptInterface
+        public String testSenraiseBackend() {
+            try {
+                return PrintBenchmarks.senraiseLoopback(receiptRenderer);
+            } catch (Exception e) {
+                return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
+            }
+        }
+
+        /**
+         * Set the SENRAISE service's interface descriptor and raw-data transaction code (vendor AIDL)
+         * @return "success" or error message
+         */
+        @JavascriptInterface
+        public String setSenraiseInterface(String descriptor, int rawTransactionCode) {
+            if (descriptor == null || descriptor.isEmpty() || rawTransactionCode < IBinder.FIRST_CALL_TRANSACTION) {
+                return "error: invalid descriptor or transaction code";
+            }
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                    .putString(PREF_SENRAISE_DESCRIPTOR, descriptor)
+                    .putInt(PREF_SENRAISE_RAW_CODE, rawTransactionCode)
+                    .apply();
+            IBinder service = senraisePrinterService;
+            if (service != null) {
+                // Another interface: its latency / failure estimates start over
+                printRouter.unregister("senraise");
+                useSenraiseBackend(service);
+            }
+            return "success";
+        }
+
+        /**
+         * Print queue state
+         * @return JSON {"depth","capacity","busy_threshold","max_depth","jobs","failed","timed_out","busy_rejections","max_wait_ms"}
+         */
+        @JavascriptInterface
+        public String getPrintQueueStats() {
+            return printQueue.toJson();
+        }
+
+        /**
+         * Recent print-path events (render, queue, route attempts, transport) from the in-memory event log
+         * @param max number of most recent events (up to 1024)
+         * @return JSON {"level","total","events":[{seq,t_ms,level,event,thread,...}]}
+         */
+        @JavascriptInterface
+        public String getPrintLog(int max) {
+            try {
+                return PrintEventLog.toJson(max);
+            } catch (Exception e) {
+                return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
+            }
+        }
+
+        /**
+         * Minimum level recorded in the print event log (default "info")
+         * @param level "debug", "info", "warn" or "error"
+         * @return "success" or error message
+         */
+        @JavascriptInterface
+        public String setPrintLogLevel(String level) {
+            int parsed = PrintEventLog.parseLevel(level);
+            if (parsed < 0) {
+                return "error: unknown log level " + level;
+            }
+            PrintEventLog.setLevel(parsed);
+            return "success";
+        }
+
+        /**
+         * Print metrics and transport routing state
+         * @return JSON {"metrics":{jobs,failed_jobs,fallbacks,backends,recent},"routing":[{name,healthy,ms_per_kb,success_rate,...}]}
+         */
+        @JavascriptInterface
+        public String getPrintMetrics() {
+            return printRouter.toJson();
+        }
+
+        /**
+         * Bluetooth transfer mode
+         * @param mode "native" (one CP_Pos_PrintRasterImageFromPixels call) or "chunked" (flow-controlled CP_Port_Write)
+         * @param chunkBytes bytes per CP_Port_Write (chunked; 0 = default 512)
+         * @param windowBytes max bytes ahead of the printer (chunked; 0 = default 4096)
+         * @return "success" or error message (autoreply mode changes apply when the port is reopened)
+         */
+        @JavascriptInterface
+        public String setBluetoothTransfer(String mode, int chunkBytes, int windowBytes) {
+            int chunk;
+            if ("native".equalsIgnoreCase(mode)) {
+                chunk = 0;
+            } else if ("chunked".equalsIgnoreCase(mode)) {
+                chunk = chunkBytes > 0 ? chunkBytes : FlowControlledWriter.DEFAULT_CHUNK_BYTES;
+            } else {
+                return "error: unknown transfer mode " + mode;
+            }
+            int window = windowBytes > 0 ? windowBytes : FlowControlledWriter.DEFAULT_WINDOW_BYTES;
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                    .putInt(PREF_BT_CHUNK_BYTES, chunk)
+                    .putInt(PREF_BT_WINDOW_BYTES, window)
+                    .apply();
+            BluetoothPrintBackend bt = bluetoothBackend;
+            if (bt != null) bt.setChunkedTransfer(chunk, window);
+            android.util.Log.i("POS", "📶 BT transfer: " + (chunk > 0 ? "chunked " + chunk + "/" + window : "native"));
+            return "success";
+        }
+
+        /**
+         * Send separators and box edges as printer line commands instead of raster rows (Bluetooth
+         * native transfer). On by default; turn off for a printer that draws them wrongly.
+         * @return "success"
+         */
+        @JavascriptInterface
+        public String setVectorPrimitives(boolean enabled) {
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putBoolean(PREF_BT_VECTOR_RULES, enabled).apply();
+            BluetoothPrintBackend bt = bluetoothBackend;
+            if (bt != null) bt.setVectorRules(enabled);
+            android.util.Log.i("POS", "📏 Vector rules: " + (enabled ? "on" : "off"));
+            return "success";
+        }
+
+        /**
+         * How [QR:…] / [BARCODE:…] lines reach the Bluetooth printer: "epson" (GS ( k QR at the
+         * drawn module size, the default), "legacy" (CP_Pos_PrintQRCode) or "raster" (the dots the
+         * renderer drew, for a printer without code commands)
+         * @return "success" or "error: unknown code mode ..."
+         */
+        @JavascriptInterface
+        public String setCodeCommands(String mode) {
+            int codes = BluetoothPrintBackend.parseCodeCommands(mode);
+            if (codes < 0) return "error: unknown code mode " + mode;
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                    .putString(PREF_BT_CODE_COMMANDS, BluetoothPrintBackend.CODES_NAMES[codes]).apply();
+            BluetoothPrintBackend bt = bluetoothBackend;
+            if (bt != null) bt.setCodeCommands(codes);
+            android.util.Log.i("POS", "🔳 Code commands: " + BluetoothPrintBackend.CODES_NAMES[codes]);
+            return "success";
+        }
+
+        /**
+         * Bluetooth native transfer: print speed / density per segment from its ink coverage.
+         * @param table "maxCoverage:speed:density,..." in ascending coverage (percent of black dots
+         *              in the segment's darkest band), "default" = the suggested (uncalibrated) table,
+         *              "off" or "" = never change them (the default)
+         * @return "success" or "error: ..." (bad table)
+         */
+        @JavascriptInterface
+        public String setInkProfiles(String table) {
+            String value = table != null ? table.trim() : "";
+            if (value.isEmpty()) value = "off";
+            if (!"off".equals(value) && !"default".equals(value)) {
+                try {
+                    InkProfiles.parse(value, 0, 100);
+                } catch (IllegalArgumentException e) {
+                    return "error: " + e.getMessage();
+                }
+            }
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putString(PREF_INK_TABLE, value).apply();
+            BluetoothPrintBackend bt = bluetoothBackend;
+            if (bt != null) bt.setInkProfiles(loadInkProfiles(value));
+            android.util.Log.i("POS", "🌡️ Ink profiles: " + value);
+            return "success";
+        }
+
+        /**
+         * Calibrate the ink profiles for the connected printer (kept per printer address)
+         * @param densityOffset added to every density (e.g. +2 for a pale head)
+         * @param speedPercent applied to every speed (100 = as in the table)
+         * @return "success" or error message
+         */
+        @JavascriptInterface
+        public String calibrateInk(int densityOffset, int speedPercent) {
+            String address = printerAddress;
+            if (address == null) return "error: no Bluetooth printer connected";
+            if (speedPercent <= 0) return "error: speedPercent must be positive";
+            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+            prefs.edit().putString(PREF_INK_CALIBRATION + address, densityOffset + ":" + speedPercent).apply();
+            BluetoothPrintBackend bt = bluetoothBackend;
+            if (bt != null) bt.setInkProfiles(loadInkProfiles(prefs.getString(PREF_INK_TABLE, "off")));
+            android.util.Log.i("POS", "🌡️ Ink calibration for " + address + ": density " + densityOffset
+                    + ", speed " + speedPercent + "%");
+            return "success";
+        }
+
+        /**
+         * @return JSON with the ink profiles in use (calibrated speed / density, segments printed
+         *         with each), or {"enabled":false}
+         */
+        @JavascriptInterface
+        public String getInkStats() {
+            BluetoothPrintBackend bt = bluetoothBackend;
+            InkProfiles profiles = bt != null ? bt.getInkProfiles() : null;
+            return profiles != null ? profiles.toJson() : "{\"enabled\":false}";
+        }
+
+        /**
+         * Bluetooth: hot printer calls (raster, feeds, lines, writes, counter polls) through the
+         * direct-mapped JNA binding (default) or the AutoReplyPrint interface proxy
+         * @return "success: direct" / "success: proxy" (proxy when the direct binding didn't register)
+         */
+        @JavascriptInterface
+        public String setDirectCalls(boolean enabled) {
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putBoolean(PREF_BT_DIRECT_CALLS, enabled).apply();
+            BluetoothPrintBackend bt = bluetoothBackend;
+            if (bt == null) return "success: " + (enabled && AutoReplyDirect.isAvailable() ? "direct" : "proxy");
+            bt.setDirectCalls(enabled);
+            android.util.Log.i("POS", "⚡ Printer calls: " + bt.callBinding());
+            return "success: " + bt.callBinding();
+        }
+
+        /**
+         * Per-call cost of the hot printer calls, interface proxy vs direct-mapped binding, on a
+         * CP_Port_OpenTcp handle to the in-process ESC/POS emulator (nothing reaches the printer)
+         * @param iterations calls per binding and call (0 = 2000)
+         * @return JSON {"direct_available","iterations","calls":[{"call","proxy_us","direct_us"}]}
+         */
+        @JavascriptInterface
+        public String benchmarkNativeCalls(int iterations) {
+            try {
+                return PrintBenchmarks.nativeCalls(AutoReplyPrint.INSTANCE, iterations);
+            } catch (Throwable t) {
+                return "{\"status\":\"error\",\"message\":\"" + t.getMessage() + "\"}";
+            }
+        }
+
+        /**
+         * Sample receipt printed through CP_Port_OpenTcp to an in-process ESC/POS emulator (raster
+         * only, then with line / code commands), the rebuilt page checked against the raster
+         * @return JSON {"port","paper_out_reported","runs":[{"mode","ok","ms","dots_differ","emulator"}]}
+         */
+        @JavascriptInterface
+        public String benchmarkEmulator() {
+            try {
+                return PrintBenchmarks.emulator(receiptRenderer, AutoReplyPrint.INSTANCE);
+            } catch (Throwable t) {
+                return "{\"status\":\"error\",\"message\":\"" + t.getMessage() + "\"}";
+            }
+        }
+
+        /**
+         * Replay a rush of printText calls against a fake printer (own queue, the real printers
+         * are not used) in the background; poll getLoadReplayResult for the report.
+         * @param recording calls separated by \u001E, each "offsetMs\tstyleJson\ttext"; empty = synthetic
+         * @param orders synthetic orders (0 = 40)
+         * @param minutes synthetic rush length (0 = 10)
+         * @param copies calls per synthetic order: customer + kitchen copies (0 = 2)
+         * @param speedup arrivals compressed by this factor (0 = 10)
+         * @param failurePercent jobs the fake printer refuses
+         * @return "started", "error: replay running" or "error: ..." for a bad recording
+         */
+        @JavascriptInterface
+        public String startLoadReplay(String recording, int orders, int minutes, int copies, int speedup,
+                                      int failurePercent) {
+            final List<LoadReplay.Call> calls;
+            try {
+                calls = recording != null && !recording.trim().isEmpty()
+                        ? LoadReplay.parse(recording)
+                        : LoadReplay.synthetic(orders > 0 ? orders : 40, minutes > 0 ? minutes : 10, copies > 0 ? copies : 2);
+            } catch (IllegalArgumentException e) {
+                return "error: " + e.getMessage();
+            }
+            synchronized (this) {
+                if (replayRunning) return "error: replay running";
+                replayRunning = true;
+            }
+            final LoadReplay replay = new LoadReplay((text, styleJson) -> renderTextReceipt(text, ReceiptStyle.parse(styleJson)),
+                    speedup > 0 ? speedup : LoadReplay.DEFAULT_SPEEDUP, 1, LoadReplay.DEFAULT_MS_PER_KB,
+                    LoadReplay.DEFAULT_JOB_OVERHEAD_MS, failurePercent);
+            new Thread(() -> {
+                try {
+                    replayResult = replay.run(calls);
+                    android.util.Log.i("POS", "⏱️ Load replay: " + replayResult);
+                } catch (Throwable t) {
+                    replayResult = "{\"status\":\"error\",\"message\":\"" + t.getMessage() + "\"}";
+                } finally {
+                    replayRunning = false;
+                }
+            }, "load-replay").start();
+            return "started";
+        }
+
+        /**
+         * @return JSON {"status":"running"} / {"status":"idle"}, or {"status":"done","result":{...},
+         *         "baseline":{...}|null} (latency_ms p50/p95/p99, queue_depth, heap high-water, results)
+         */
+        @JavascriptInterface
+        public String getLoadReplayResult() {
+            if (replayRunning) return "{\"status\":\"running\"}";
+            String result = replayResult;
+            if (result == null) return "{\"status\":\"idle\"}";
+            String baseline = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getString(PREF_LOAD_BASELINE, null);
+            return "{\"status\":\"done\",\"result\":" + result + ",\"baseline\":" + (baseline != null ? baseline : "null") + "}";
+        }
+
+        /**
+         * Keep the last load replay result as the baseline later runs are reported against
+         * @return "success" or "error: no replay result"
+         */
+        @JavascriptInterface
+        public String saveLoadBaseline() {
+            String result = replayResult;
+            if (replayRunning || result == null || !result.startsWith("{\"calls\"")) return "error: no replay result";
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putString(PREF_LOAD_BASELINE, result).apply();
+            return "success";
+        }
+
+        /**
+         * Flow-controlled transfer of a sample receipt to a simulated SPP printer, per chunk size
+         * @return JSON {"bytes","window","runs":[{chunk,flow_control,ok,ms,kb_s,writes,waits,max_in_flight,max_queued}]}
+         */
+        @JavascriptInterface
+        public String benchmarkChunkSizes() {
+            try {
+                return PrintBenchmarks.chunkSizes(receiptRenderer);
+            } catch (Exception e) {
+                return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
+            }
+        }
+
+        /**
+         * Startup / first-print timing checkpoints
+         * @return JSON {"checkpoints":[{"name","t_ms","delta_ms"}]} (t_ms since process start)
+         */
+        @JavascriptInterface
+        public String getStartupTimeline() {
+            return timeline.toJson();
+        }
+
+        /**
+         * Enable/disable the system print dialog as the last-resort backend (off by default).
+         * A job sent there returns "dialog", never "success"
+         * @return "success"
+         */
+        @JavascriptInterface
+        public String setPrintManagerFallback(boolean enabled) {
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putBoolean(PREF_PRINTMANAGER_FALLBACK, enabled).apply();
+            if (enabled) {
+                printRouter.register(new PrintManagerBackend(MainActivity.this), PRIOR_MS_PER_KB_PRINTMANAGER);
+            } else {
+                printRouter.unregister("printmanager");
+            }
+            android.util.Log.i("POS", "🖨️ PrintManager fallback " + (enabled ? "enabled" : "disabled"));
+            return "success";
+        }
+
+        /**
+         * Enable/disable the background warm-up render after the dashboard loads (takes effect next launch)
+         * @return "success"
+         */
+        @JavascriptInterface
+        public String setWarmupRender(boolean enabled) {
+            getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putBoolean(PREF_WARMUP_RENDER, enabled).apply();
+            android.util.Log.i("POS", "🔥 Warm-up render " + (enabled ? "enabled" : "disabled"));
+            return "success";
+        }
+
+        /**
+         * Dashboard asset cache counters
+         * @return JSON {"hits","misses","offline_shell","revalidated","bytes_served","entries","disk_bytes"}
+         */
+        @JavascriptInterface
+        public String getAssetCacheStats() {
+            return assetCache.statsJson();
+        }
+
+        /**
+         * Drop all cached dashboard assets (next load downloads them again)
+         * @return "success"
+         */
+        @JavascriptInterface
+        public String clearAssetCache() {
+            assetCache.clear();
+            return "success";
+        }
+
+        /**
+         * Select the receipt render target
+         * @param mode "a8" (ALPHA_8, 1 byte/pixel – default) or "argb" (ARGB_8888, original path)
+         * @return "success" or error message
+         */
+        @JavascriptInterface
+        public String setRenderMode(String mode) {
+            if ("a8".equalsIgnoreCase(mode) || "alpha8".equalsIgnoreCase(mode)) {
+                receiptRenderer.setAlpha8Mode(true);
+            } else if ("argb".equalsIgnoreCase(mode)) {
+                receiptRenderer.setAlpha8Mode(false);
+            } else {
+                return "error: unknown render mode " + mode;
+            }
+            receiptPrecache.clear();
+            android.util.Log.i("POS", "🖼️ Render mode: " + (receiptRenderer.isAlpha8Mode() ? "a8" : "argb"));
+            return "success";
+        }
+
+        /**
+         * Render the sample order in both modes and compare the printed dots
+         * @return JSON {"mode","identical","mismatched_pixels","a8_bytes","argb_bytes"}
+         */
+        @JavascriptInterface
+        public String verifyRenderModes() {
+            try {
+                return PrintBenchmarks.renderModes(receiptRenderer);
+            } catch (Exception e) {
+                return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
+            }
+        }
+
+        /**
+         * Test print - prints a test receipt
+         * @return "success" or error message
+         */
+        @JavascriptInterface
+        public String testPrint() {
+            try {
+                if (!isPrinterReady()) {
+                    return "error: printer not initialized";
+                }
+                
+                android.util.Log.i("POS", "🧪 Test print with beautiful formatting");
+                
+                // Clean test receipt (header/logo added by createTextBitmap)
+                String testText = "اختبار الطباعة - Test Print\n" +
+                        "---\n" +
+                        "الجهاز: H10 Terminal\n" +
+                        "التطبيق: " + getString(R.string.app_name) + "\n" +
+                        "الحالة: متصل بنجاح\n" +
+                        "\n" +
+                        "--- اختبار النصوص ---\n" +
+                        "إنجليزي: ABCDEFGH 1234\n" +
+                        "عربي: طباعة اختبار\n" +
+                        "عبري: בדיקה הדפסה\n" +
+                        "رموز: !@#$%^&*()\n" +
+                        "\n" +
+                        "التاريخ: " + new java.text.SimpleDateFormat("dd/MM/yyyy").format(new java.util.Date()) + "\n" +
+                        "الوقت: " + new java.text.SimpleDateFormat("HH:mm:ss").format(new java.util.Date()) + "\n" +
+                        "\n" +
+                        "---\n" +
+                        "الطباعة تعمل بشكل ممتاز!\n" +
+                        "✓ النص واضح وسهل القراءة\n" +
+                        "✓ العربية مقروءة تماماً";
+                
+                android.util.Log.i("POS", "🖼️ Printing beautiful receipt with logo & Arabic...");
+                
+                // Split into lines
+                String[] lines = testText.split("\n");
+                android.util.Log.i("POS", "🖼️ Split into " + lines.length + " lines");
+                
+                // Render with header/logo (Android renders Arabic correctly!) straight to 1-bit pixels
+                ReceiptStyle defaultStyle = new ReceiptStyle(); // Use defaults for test print
+                RasterEncoder.Raster textRaster = receiptRenderer.renderRaster(ReceiptLine.fromText(lines, defaultStyle), true, defaultStyle);
+                
+                android.util.Log.i("POS", "🖼️ Raster size: " + textRaster.width + "x" + textRaster.height);
+                
+                // Print raster
+                int result = printRasterJob(textRaster, 4);
+                if (result == PrintQueue.RESULT_BUSY) {
+                    return "error: queue busy";
+                }
+                if (result == PrintQueue.RESULT_TIMEOUT) {
+                    return "error: print timed out";
+                }
+                if (result == PrintQueue.RESULT_DIALOG) {
+                    return "dialog";
+                }
+                boolean success = result == PrintQueue.RESULT_OK;
+                
+                android.util.Log.i("POS", "🖼️ Beautiful receipt printed: " + success);
+                
+                if (success) {
+                    runOnUiThread(() -> 
+                        Toast.makeText(context, "✅ تمت الطباعة", Toast.LENGTH_SHORT).show()
+                    );
+                    return "success";
+                } else {
+                    return "error: print failed";
+                }
+                
+            } catch (Exception e) {
+                android.util.Log.e("POS", "❌ Error: " + e.getMessage());
+                return "error: " + e.getMessage();
+            }
+        }
+    }
+
+    @Override
+    public void onBackPressed() {
+        if (webView.canGoBack()) {
+            webView.goBack();
+        } else {
+            super.onBackPressed();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
         
         // Unbind from SENRAISE service
         try {
@@ -876,13 +1558,22 @@ public class MainActivity extends AppCompatActivity {
             // Ignore if not bound
         }
         
-        if (printer != null && printerHandle != null) {
-            try {
-                printer.CP_Port_Close(printerHandle);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+        // Close the port on the printer thread, after the jobs already queued. Not awaited: the
+        // queue (or a wedged close) must not hold up the UI thread
+        Thread close = new Thread(() -> {
+            printQueue.runOnPrinterThread(() -> {
+                if (printer != null && printerHandle != null) {
+                    try {
+                        printer.CP_Port_Close(printerHandle);
+                    } catch (Exception e) {
+                        android.util.Log.w("POS", "⚠️ Closing printer port: " + e.getMessage());
+                    }
+                }
+            });
+            printQueue.shutdown();
+        }, "printer-close");
+        close.setDaemon(true);
+        close.start();
         if (webView != null) {
             webView.destroy();
         }
@@ -0,0 +1,93 @@
+package com.luqma.pos;
+
+import com.sun.jna.Memory;
+
+import java.util.ArrayDeque;
+
+/**
+ * Reusable native memory blocks for raster segments handed to the direct-mapped
+ * CP_Pos_PrintRasterImageFromPixels.
+ *
+ * A byte[] argument makes JNA allocate native memory, copy the array in and free it again on
+ * every call; a segment copied straight from the packed raster into a pooled block costs one copy
+ * and no allocation. Blocks come in power-of-two size classes (MIN_BLOCK..MAX_BLOCK), a few kept
+ * free per class; a segment above MAX_BLOCK gets a one-off block.
+ */
+final class NativeBufferPool {
+
+    static final int MIN_BLOCK = 4 * 1024;
+    static final int MAX_BLOCK = 256 * 1024;
+    /** Free blocks kept per size class */
+    static final int MAX_FREE_PER_CLASS = 2;
+
+    private final ArrayDeque<Memory>[] free;
+    private int hits;
+    private int misses;
+    private int oversize;
+    private long pooledBytes;
+    private long maxPooledBytes;
+
+    NativeBufferPool() {
+        @SuppressWarnings("unchecked")
+        ArrayDeque<Memory>[] classes = (ArrayDeque<Memory>[]) new ArrayDeque<?>[sizeClass(MAX_BLOCK) + 1];
+        free = classes;
+        for (int i = 0; i < free.length; i++) free[i] = new ArrayDeque<>(MAX_FREE_PER_CLASS);
+    }
+
+    /** Size class of a request: 0 for up to MIN_BLOCK, +1 per doubling, -1 above MAX_BLOCK */
+    static int sizeClass(int bytes) {
+        if (bytes > MAX_BLOCK) return -1;
+        int size = MIN_BLOCK;
+        int index = 0;
+        while (size < bytes) {
+            size <<= 1;
+            index++;
+        }
+        return index;
+    }
+
+    /** A block of at least bytes bytes; hand it back with {@link #release} once the native call returned */
+    synchronized Memory acquire(int bytes) {
+        int index = sizeClass(bytes);
+        if (index < 0) {
+            oversize++;
+            return new Memory(bytes);
+        }
+        Memory block = free[index].pollFirst();
+        if (block != null) {
+            hits++;
+            pooledBytes -= block.size();
+            return block;
+        }
+        misses++;
+        return new Memory((long) MIN_BLOCK << index);
+    }
+
+    /** Keep the block for the next segment of its class (oversize blocks and surplus are left to the GC) */
+    synchronized void release(Memory block) {
+        if (block == null || block.size() > MAX_BLOCK) return;
+        int index = sizeClass((int) block.size());
+        if ((long) MIN_BLOCK << index != block.size() || free[index].size() >= MAX_FREE_PER_CLASS) return;
+        free[index].addFirst(block);
+        pooledBytes += block.size();
+        if (pooledBytes > maxPooledBytes) maxPooledBytes = pooledBytes;
+    }
+
+    /**
+     * @return JSON: {"hits","misses","oversize","pooled_bytes","max_pooled_bytes","free":[per class]}
+     */
+    synchronized String toJson() {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("{\"hits\":").append(hits)
+          .append(",\"misses\":").append(misses)
+          .append(",\"oversize\":").append(oversize)
+          .append(",\"pooled_bytes\":").append(pooledBytes)
+          .append(",\"max_pooled_bytes\":").append(maxPooledBytes)
+          .append(",\"free\":[");
+        for (int i = 0; i < free.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(free[i].size());
+        }
+        return sb.append("]}").toString();
+    }
+}
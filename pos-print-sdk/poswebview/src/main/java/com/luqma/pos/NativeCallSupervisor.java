@@ -0,0 +1,112 @@
+package com.luqma.pos;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking native printer calls (CP_Port_OpenBtSpp, CP_Pos_PrintRasterImageFromPixels,
+ * CP_Pos_FeedLine, ...) on a supervised thread with a per-operation deadline.
+ *
+ * A call that misses its deadline can't be killed: its thread is abandoned (left to return or hang
+ * on its own), the caller gets a {@link NativeTimeoutException}, and later calls go to a fresh
+ * thread instead of queuing behind the stuck one. The {@link StuckListener} is told about the
+ * timeout so the owner can close and reopen the port.
+ */
+final class NativeCallSupervisor {
+
+    /** A native call missed its deadline (reported as a timeout, not a print failure) */
+    static final class NativeTimeoutException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final String operation;
+        final long deadlineMs;
+
+        NativeTimeoutException(String operation, long deadlineMs) {
+            super(operation + " timed out after " + deadlineMs + "ms");
+            this.operation = operation;
+            this.deadlineMs = deadlineMs;
+        }
+    }
+
+    interface StuckListener {
+        void onNativeCallStuck(String operation);
+    }
+
+    private final String name;
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private ExecutorService executor;       // guarded by this
+    private volatile StuckListener listener;
+    private volatile int timeouts;
+    private volatile int abandonedThreads;
+
+    NativeCallSupervisor(String name) {
+        this.name = name;
+        this.executor = newExecutor();
+    }
+
+    void setStuckListener(StuckListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Run call on the supervised thread and wait at most deadlineMs.
+     * @throws NativeTimeoutException when the deadline passed (the call may still be running)
+     * @throws Exception whatever the call threw
+     */
+    <T> T call(String operation, long deadlineMs, Callable<T> call) throws Exception {
+        ExecutorService current;
+        synchronized (this) {
+            current = executor;
+        }
+        Future<T> future = current.submit(call);
+        try {
+            return future.get(deadlineMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            abandon(current);
+            timeouts++;
+            android.util.Log.e("POS", "⏰ Native " + operation + " stuck for " + deadlineMs + "ms, abandoning its thread");
+            StuckListener l = listener;
+            if (l != null) l.onNativeCallStuck(operation);
+            throw new NativeTimeoutException(operation, deadlineMs);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    int getTimeouts() {
+        return timeouts;
+    }
+
+    int getAbandonedThreads() {
+        return abandonedThreads;
+    }
+
+    /** Replace the executor whose thread is stuck (only once, however many callers timed out on it) */
+    private synchronized void abandon(ExecutorService stuck) {
+        if (executor != stuck) return;
+        stuck.shutdownNow();
+        executor = newExecutor();
+        abandonedThreads++;
+    }
+
+    private ExecutorService newExecutor() {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
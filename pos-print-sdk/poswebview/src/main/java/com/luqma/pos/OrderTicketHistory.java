@@ -0,0 +1,320 @@
+package com.luqma.pos;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Last printed receipt text per order, so an edited order can be sent to the kitchen as a short
+ * "changes" ticket (printOrderUpdate) instead of the whole receipt again.
+ *
+ * The diff is line based (LCS) over the content lines only: blank lines and separators are
+ * ignored, and the item numbering ("3. ") is not compared, so inserting an item doesn't mark every
+ * item after it as changed. A removed and an added line in the same place with the same label
+ * (the text before ':', or both item lines) are reported as modified. Each change carries the nearest unchanged top-level line above it (the item a
+ * quantity or extra belongs to) as context.
+ */
+final class OrderTicketHistory {
+
+    static final int MAX_ORDERS = 64;
+    /** A shift; older tickets are forgotten and the next update prints in full */
+    static final long MAX_AGE_MS = 12L * 60 * 60 * 1000;
+    /** Above this many changed lines per content line the full receipt is clearer (and not longer) */
+    private static final float MAX_DELTA_RATIO = 0.6f;
+    /** LCS table cells; larger receipts are printed in full */
+    private static final int MAX_DIFF_CELLS = 250000;
+
+    static final int CHANGE_ADDED = 0;
+    static final int CHANGE_REMOVED = 1;
+    static final int CHANGE_MODIFIED = 2;
+
+    private static final String TITLE = "*** تعديل على الطلب ***";
+    private static final String SEPARATOR = "- - - - - - - - - - - - - - - -";
+    private static final String WAS_PREFIX = "  كان: ";
+
+    /** One changed content line (oldText null when added, newText null when removed) */
+    static final class Change {
+        final int type;
+        final String oldText;
+        final String newText;
+        /** Unchanged line above it for context, or null */
+        final String context;
+
+        Change(int type, String oldText, String newText, String context) {
+            this.type = type;
+            this.oldText = oldText;
+            this.newText = newText;
+            this.context = context;
+        }
+    }
+
+    private static final class Entry {
+        final String text;
+        final long printedAt;
+
+        Entry(String text, long printedAt) {
+            this.text = text;
+            this.printedAt = printedAt;
+        }
+    }
+
+    // Guarded by this; access order, eldest = least recently printed or updated
+    private final LinkedHashMap<String, Entry> printed = new LinkedHashMap<String, Entry>(MAX_ORDERS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ORDERS;
+        }
+    };
+    private int fullPrints;
+    private int deltaPrints;
+    private int unchanged;
+
+    /** Remember what was printed for this order (after a successful print) */
+    synchronized void record(String orderId, String text) {
+        if (orderId == null || orderId.isEmpty() || text == null) return;
+        printed.put(orderId, new Entry(text, SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Changes from the last printed version of this order to text.
+     * @return the changes (empty = nothing changed), or null when the order has to be printed in
+     *         full (never printed, forgotten, or changed too much for a delta to help)
+     */
+    List<Change> diff(String orderId, String text) {
+        String previous;
+        synchronized (this) {
+            pruneAged();
+            Entry entry = orderId != null ? printed.get(orderId) : null;
+            previous = entry != null ? entry.text : null;
+        }
+        if (previous == null || text == null) return null;
+        List<String> oldLines = contentLines(previous);
+        List<String> newLines = contentLines(text);
+        if ((long) (oldLines.size() + 1) * (newLines.size() + 1) > MAX_DIFF_CELLS) return null;
+        List<Change> changes = diffLines(oldLines, newLines);
+        if (changes.size() > Math.max(1, newLines.size()) * MAX_DELTA_RATIO) return null;
+        return changes;
+    }
+
+    /**
+     * Receipt text for the kitchen: title, the order's first line (order number), then each change
+     * under its context line. Lines keep the normal-weight prefix (\u200B) of the line they came from.
+     */
+    static String ticketText(String text, List<Change> changes) {
+        StringBuilder ticket = new StringBuilder(256 + changes.size() * 48);
+        ticket.append(TITLE).append('\n');
+        String heading = firstContentLine(text);
+        if (heading != null) ticket.append(heading).append('\n');
+        ticket.append(SEPARATOR).append('\n');
+        String lastContext = null;
+        for (Change change : changes) {
+            if (change.context != null && !change.context.equals(lastContext)) {
+                ticket.append('\n').append(change.context).append('\n');
+                lastContext = change.context;
+            } else if (change.context == null && isTopLevel(change.newText != null ? change.newText : change.oldText)) {
+                // Changed item / field line: starts its own group
+                ticket.append('\n');
+                lastContext = null;
+            }
+            switch (change.type) {
+                case CHANGE_ADDED:
+                    ticket.append(marked("+ ", change.newText)).append('\n');
+                    break;
+                case CHANGE_REMOVED:
+                    ticket.append(marked("- ", change.oldText)).append('\n');
+                    break;
+                default:
+                    ticket.append(marked("* ", change.newText)).append('\n')
+                          .append(marked(WAS_PREFIX, change.oldText)).append('\n');
+                    break;
+            }
+        }
+        ticket.append(SEPARATOR);
+        return ticket.toString();
+    }
+
+    synchronized void countFull() {
+        fullPrints++;
+    }
+
+    synchronized void countDelta() {
+        deltaPrints++;
+    }
+
+    synchronized void countUnchanged() {
+        unchanged++;
+    }
+
+    /** @return JSON: {"orders","full_prints","delta_prints","unchanged"} */
+    synchronized String toJson() {
+        pruneAged();
+        return "{\"orders\":" + printed.size()
+                + ",\"full_prints\":" + fullPrints
+                + ",\"delta_prints\":" + deltaPrints
+                + ",\"unchanged\":" + unchanged + "}";
+    }
+
+    /** Caller holds this */
+    private void pruneAged() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Entry> it = printed.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().printedAt > MAX_AGE_MS) it.remove();
+        }
+    }
+
+    /**
+     * LCS over the compare keys, then one pass over the edit script collecting hunks (removed and
+     * added lines between two matches). Non-indented lines following an indented change start a new
+     * hunk, so a new item isn't listed under the item above it.
+     */
+    private static List<Change> diffLines(List<String> oldLines, List<String> newLines) {
+        int n = oldLines.size();
+        int m = newLines.size();
+        String[] oldKeys = new String[n];
+        String[] newKeys = new String[m];
+        for (int i = 0; i < n; i++) oldKeys[i] = compareKey(oldLines.get(i));
+        for (int j = 0; j < m; j++) newKeys[j] = compareKey(newLines.get(j));
+
+        // lcs[i][j] = LCS length of oldKeys[i..] and newKeys[j..]
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lcs[i][j] = oldKeys[i].equals(newKeys[j])
+                        ? lcs[i + 1][j + 1] + 1
+                        : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+
+        List<Change> changes = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> added = new ArrayList<>();
+        String context = null;  // last top-level line of the new text seen so far
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && oldKeys[i].equals(newKeys[j])) {
+                flushHunk(changes, removed, added, context);
+                if (isTopLevel(newLines.get(j))) context = newLines.get(j);
+                i++;
+                j++;
+            } else if (j < m && (i == n || lcs[i][j + 1] >= lcs[i + 1][j])) {
+                String line = newLines.get(j++);
+                if (isTopLevel(line) && !hasTopLevel(removed) && !hasTopLevel(added)) {
+                    flushHunk(changes, removed, added, context);
+                }
+                added.add(line);
+            } else {
+                String line = oldLines.get(i++);
+                if (isTopLevel(line) && !hasTopLevel(removed) && !hasTopLevel(added)) {
+                    flushHunk(changes, removed, added, context);
+                }
+                removed.add(line);
+            }
+        }
+        flushHunk(changes, removed, added, context);
+        return changes;
+    }
+
+    private static void flushHunk(List<Change> changes, List<String> removed, List<String> added, String context) {
+        if (removed.isEmpty() && added.isEmpty()) return;
+        // A hunk that starts at a top-level line explains itself
+        String first = !removed.isEmpty() ? removed.get(0) : added.get(0);
+        String hunkContext = isTopLevel(first) ? null : context;
+        // Pair in order: each added line with the next removed line carrying the same label
+        String[] pairedWith = new String[added.size()];
+        boolean[] paired = new boolean[removed.size()];
+        int from = 0;
+        for (int a = 0; a < added.size(); a++) {
+            String label = label(added.get(a));
+            for (int r = from; r < removed.size(); r++) {
+                if (label.equals(label(removed.get(r)))) {
+                    pairedWith[a] = removed.get(r);
+                    paired[r] = true;
+                    from = r + 1;
+                    break;
+                }
+            }
+        }
+        for (int r = 0; r < removed.size(); r++) {
+            if (!paired[r]) changes.add(new Change(CHANGE_REMOVED, removed.get(r), null, hunkContext));
+        }
+        for (int a = 0; a < added.size(); a++) {
+            changes.add(pairedWith[a] != null
+                    ? new Change(CHANGE_MODIFIED, pairedWith[a], added.get(a), hunkContext)
+                    : new Change(CHANGE_ADDED, null, added.get(a), hunkContext));
+        }
+        removed.clear();
+        added.clear();
+    }
+
+    /** Lines that print something: no blanks, no pure separators */
+    private static List<String> contentLines(String text) {
+        String[] lines = text.split("\n");
+        List<String> out = new ArrayList<>(lines.length);
+        for (String line : lines) {
+            int kind = ReceiptLine.classify(stripWeightPrefix(line), false).kind;
+            if (kind == ReceiptLine.KIND_BLANK || kind == ReceiptLine.KIND_RULE_THICK || kind == ReceiptLine.KIND_RULE_THIN) {
+                continue;
+            }
+            out.add(line);
+        }
+        return out;
+    }
+
+    private static String firstContentLine(String text) {
+        List<String> lines = contentLines(text);
+        return lines.isEmpty() ? null : lines.get(0);
+    }
+
+    /** Trimmed, without the weight prefix and the item number ("3. ") */
+    private static String compareKey(String line) {
+        String key = stripWeightPrefix(line).trim();
+        int k = 0;
+        while (k < key.length() && Character.isDigit(key.charAt(k))) k++;
+        if (k > 0 && k + 1 < key.length() && key.charAt(k) == '.' && key.charAt(k + 1) == ' ') {
+            key = key.substring(k + 2).trim();
+        }
+        return key;
+    }
+
+    /** What a line is about: "الكمية" for "الكمية: 2 × ₪8.00", "#" for any item line, else the line */
+    private static String label(String line) {
+        String key = stripWeightPrefix(line).trim();
+        if (key.length() > 1 && Character.isDigit(key.charAt(0)) && compareKey(line).length() < key.length()) {
+            return "#";
+        }
+        int colon = key.indexOf(':');
+        return colon > 0 ? key.substring(0, colon).trim() : key;
+    }
+
+    private static boolean hasTopLevel(List<String> lines) {
+        for (String line : lines) {
+            if (isTopLevel(line)) return true;
+        }
+        return false;
+    }
+
+    /** Not indented: item, section header or order field (indented lines are quantity, extras, notes) */
+    private static boolean isTopLevel(String line) {
+        String display = stripWeightPrefix(line);
+        return !display.isEmpty() && !Character.isWhitespace(display.charAt(0));
+    }
+
+    private static String marked(String marker, String line) {
+        if (line.startsWith(ReceiptLine.NORMAL_WEIGHT_PREFIX)) {
+            return ReceiptLine.NORMAL_WEIGHT_PREFIX + marker + line.substring(ReceiptLine.NORMAL_WEIGHT_PREFIX.length()).trim();
+        }
+        return marker + line.trim();
+    }
+
+    private static String stripWeightPrefix(String line) {
+        return line.startsWith(ReceiptLine.NORMAL_WEIGHT_PREFIX)
+                ? line.substring(ReceiptLine.NORMAL_WEIGHT_PREFIX.length())
+                : line;
+    }
+}
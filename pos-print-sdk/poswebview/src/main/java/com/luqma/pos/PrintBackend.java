@@ -0,0 +1,33 @@
+package com.luqma.pos;
+
+/**
+ * One way of getting a receipt raster onto paper (SENRAISE binder, AutoReplyPrint BT SPP,
+ * Android PrintManager). {@link PrintRouter} picks between them per job.
+ */
+interface PrintBackend {
+
+    /** Short id used in metrics and logs ("senraise", "bluetooth", "printmanager") */
+    String name();
+
+    /** Connected / bound and able to take a job right now */
+    boolean isAvailable();
+
+    /** Needs the user (system print dialog) – only used when no silent backend succeeded */
+    boolean isInteractive();
+
+    /**
+     * Print the raster and feed paper.
+     * @return true when the backend accepted the whole job
+     * @throws NotSentException when it refused the job before any of it reached the printer
+     */
+    boolean print(RasterEncoder.Raster raster, int feedLines) throws Exception;
+
+    /** Nothing of the job was sent, so another backend may print it without a duplicate */
+    final class NotSentException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        NotSentException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package com.luqma.pos;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import com.caysn.autoreplyprint.AutoReplyPrint;
+import com.sun.jna.Pointer;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * On-device benchmarks for the print pipeline (run from the dashboard's debug tools via the bridge,
+ * so the numbers are measured on the H10 itself). Results are returned as JSON.
+ */
+final class PrintBenchmarks {
+
+    /** Typical delivery order, used wherever a realistic receipt is needed without a real order */
+    static final String SAMPLE_ORDER_TEXT =
+            "طلب رقم #100042\n" +
+            "06.03.2025, 14:35:22\n" +
+            "---\n" +
+            "\n" +
+            "--- معلومات العميل ---\n" +
+            "الاسم: محمد أحمد\n" +
+            "الهاتف: 0501234567\n" +
+            "---\n" +
+            "--- تفاصيل التوصيل ---\n" +
+            "نوع الطلب: توصيل\n" +
+            "العنوان: شارع الجليل 12، الناصرة\n" +
+            "طريقة الدفع: نقداً (كاش)\n" +
+            "عدد المنتجات: 3\n" +
+            "---\n" +
+            "\n" +
+            "--- تفاصيل المنتجات ---\n" +
+            "\n" +
+            "1. برجر لحم كلاسيك (L)\n" +
+            "   الكمية: 2 × ₪55.00\n" +
+            "   إضافات:\n" +
+            "   • جبنة شيدر\n" +
+            "   • بصل مكرمل\n" +
+            "   ملاحظات: بدون مخلل\n" +
+            "\n" +
+            "2. سلطة الجزر\n" +
+            "   الكمية: 1 × ₪24.00\n" +
+            "\n" +
+            "3. بطاطا مقلية\n" +
+            "   الكمية: 1 × ₪18.00\n" +
+            "\n" +
+            "===\n" +
+            "المبلغ الإجمالي: ₪152.00\n" +
+            "===\n" +
+            "\n" +
+            "Thank you for using Luqma App\n" +
+            "شكراً لاستخدامكم تطبيق لقمة";
+
+    private PrintBenchmarks() {}
+
+    /**
+     * Per-mode dithering throughput on a 384-wide logo and on a full rendered receipt.
+     * @return JSON: {"logo":{w,h,gray_ms,modes:[{mode,ms,mpix_s}]},"receipt":{...}}
+     */
+    static String dither(ReceiptRenderer renderer, int iterations) {
+        iterations = Math.max(1, iterations);
+
+        // 384-wide logo (real drawable upscaled to paper width, or a synthetic shaded badge)
+        Bitmap logo = renderer.loadLogo(ReceiptRenderer.PAPER_WIDTH);
+        if (logo == null || logo.getWidth() < ReceiptRenderer.PAPER_WIDTH) {
+            Bitmap scaled = logo != null
+                    ? Bitmap.createScaledBitmap(logo, ReceiptRenderer.PAPER_WIDTH,
+                            logo.getHeight() * ReceiptRenderer.PAPER_WIDTH / logo.getWidth(), true)
+                    : syntheticLogo(ReceiptRenderer.PAPER_WIDTH, 200);
+            if (logo != null && scaled != logo) logo.recycle();
+            logo = scaled;
+        }
+
+        ReceiptStyle style = new ReceiptStyle();
+        List<ReceiptLine> lines = ReceiptLine.fromText(SAMPLE_ORDER_TEXT.split("\n"), style);
+        Bitmap receipt = renderer.render(lines, true, style);
+
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"iterations\":").append(iterations);
+        json.append(",\"logo\":");
+        ditherOne(logo, iterations, json);
+        json.append(",\"receipt\":");
+        ditherOne(receipt, iterations, json);
+        json.append('}');
+
+        logo.recycle();
+        receipt.recycle();
+
+        String result = json.toString();
+        android.util.Log.i("POS", "⏱️ Dither benchmark: " + result);
+        return result;
+    }
+
+    private static void ditherOne(Bitmap bitmap, int iterations, StringBuilder json) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+
+        long start = System.nanoTime();
+        byte[] gray = null;
+        for (int i = 0; i < iterations; i++) gray = RasterEncoder.toGray(bitmap);
+        double grayMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+        json.append("{\"w\":").append(w).append(",\"h\":").append(h)
+            .append(",\"auto\":\"").append(RasterEncoder.modeName(RasterEncoder.selectMode(gray, w, h))).append('"')
+            .append(",\"gray_ms\":").append(fmt(grayMs))
+            .append(",\"modes\":[");
+        for (int mode = 0; mode < RasterEncoder.MODE_NAMES.length; mode++) {
+            // One warm-up pass so JIT compilation is not billed to the first mode
+            RasterEncoder.dither(gray, w, h, mode, RasterEncoder.DEFAULT_THRESHOLD);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                RasterEncoder.dither(gray, w, h, mode, RasterEncoder.DEFAULT_THRESHOLD);
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / iterations;
+            double mpix = ms > 0 ? (w * (double) h) / (ms * 1000.0) : 0;
+            if (mode > 0) json.append(',');
+            json.append("{\"mode\":\"").append(RasterEncoder.MODE_NAMES[mode]).append('"')
+                .append(",\"ms\":").append(fmt(ms))
+                .append(",\"mpix_s\":").append(fmt(mpix)).append('}');
+        }
+        json.append("]}");
+    }
+
+    /**
+     * A8 vs ARGB render of the sample order: dot-for-dot comparison of the printed rasters,
+     * per-mode render time and the size of the bitmap each mode draws into.
+     * @return JSON: {"mode","identical","mismatched_pixels","w","h","a8":{ms,bitmap_bytes},"argb":{...}}
+     */
+    static String renderModes(ReceiptRenderer renderer) {
+        ReceiptStyle style = new ReceiptStyle();
+        List<ReceiptLine> lines = ReceiptLine.fromText(SAMPLE_ORDER_TEXT.split("\n"), style);
+        boolean current = renderer.isAlpha8Mode();
+
+        int mismatched = renderer.compareRenderModes(lines, true, style); // also warms up both paths
+        RasterEncoder.Raster raster = null;
+        double[] ms = new double[2];
+        for (int i = 0; i < 2; i++) {
+            long start = System.nanoTime();
+            raster = renderer.renderRaster(lines, true, style, i == 0);
+            ms[i] = (System.nanoTime() - start) / 1e6;
+        }
+        // Canvas size per mode: ALPHA_8 = 1 byte/pixel, ARGB_8888 = 4 bytes/pixel (+ crop copy + gray plane)
+        long pixels = (long) raster.width * raster.height;
+
+        String result = "{\"mode\":\"" + (current ? "a8" : "argb") + "\"" +
+                ",\"identical\":" + (mismatched == 0) +
+                ",\"mismatched_pixels\":" + mismatched +
+                ",\"w\":" + raster.width + ",\"h\":" + raster.height +
+                ",\"a8\":{\"ms\":" + fmt(ms[0]) + ",\"bitmap_bytes\":" + pixels + "}" +
+                ",\"argb\":{\"ms\":" + fmt(ms[1]) + ",\"bitmap_bytes\":" + (pixels * 4) + "}}";
+        android.util.Log.i("POS", "⏱️ Render modes: " + result);
+        return result;
+    }
+
+    /**
+     * SENRAISE backend against the in-process stand-in service: the sample receipt is sent with a
+     * 64 KB starting limit to a service that only takes 24 KB, so the shrink-and-resend path runs too.
+     * The received ESC/POS stream is decoded back to rows and compared with the raster.
+     * @return JSON: {"ok","transactions","rejected","bytes","limit","ms","h"}
+     */
+    static String senraiseLoopback(ReceiptRenderer renderer) throws Exception {
+        ReceiptStyle style = new ReceiptStyle();
+        List<ReceiptLine> lines = ReceiptLine.fromText(SAMPLE_ORDER_TEXT.split("\n"), style);
+        RasterEncoder.Raster raster = renderer.renderRaster(lines, true, style);
+
+        LoopbackPrinterService service = new LoopbackPrinterService(SenraisePrintBackend.DEFAULT_DESCRIPTOR,
+                SenraisePrintBackend.DEFAULT_RAW_TRANSACTION, 24 * 1024);
+        SenraisePrintBackend backend = new SenraisePrintBackend(service, SenraisePrintBackend.DEFAULT_DESCRIPTOR,
+                SenraisePrintBackend.DEFAULT_RAW_TRANSACTION, SenraisePrintBackend.DEFAULT_MAX_TRANSACTION_BYTES, true);
+
+        long start = System.nanoTime();
+        boolean sent = backend.printRaster(raster, 5);
+        double ms = (System.nanoTime() - start) / 1e6;
+
+        boolean ok = sent && rasterMatches(service.receivedBytes(), raster, 5);
+        String result = "{\"ok\":" + ok +
+                ",\"transactions\":" + service.getTransactions() +
+                ",\"rejected\":" + service.getRejected() +
+                ",\"bytes\":" + service.receivedBytes().length +
+                ",\"limit\":" + backend.getMaxTransactionBytes() +
+                ",\"ms\":" + fmt(ms) +
+                ",\"h\":" + raster.height + "}";
+        android.util.Log.i("POS", "🧪 SENRAISE loopback: " + result);
+        return result;
+    }
+
+    /** Decode INIT + GS v 0 bands + ESC d n and compare the rows with the raster */
+    private static boolean rasterMatches(byte[] stream, RasterEncoder.Raster raster, int feedLines) {
+        int o = 0;
+        if (stream.length < 2 || stream[0] != 0x1B || stream[1] != 0x40) return false;
+        o += 2;
+        int row = 0;
+        while (o + EscPosEncoder.RASTER_HEADER_BYTES <= stream.length && stream[o] == 0x1D && stream[o + 1] == 0x76) {
+            int stride = (stream[o + 4] & 0xff) | ((stream[o + 5] & 0xff) << 8);
+            int rows = (stream[o + 6] & 0xff) | ((stream[o + 7] & 0xff) << 8);
+            o += EscPosEncoder.RASTER_HEADER_BYTES;
+            if (stride != raster.stride || row + rows > raster.height || o + stride * rows > stream.length) return false;
+            for (int i = 0; i < stride * rows; i++) {
+                if (stream[o + i] != raster.data[row * stride + i]) return false;
+            }
+            o += stride * rows;
+            row += rows;
+        }
+        return row == raster.height && o + 3 == stream.length
+                && stream[o] == 0x1B && stream[o + 1] == 0x64 && stream[o + 2] == feedLines;
+    }
+
+    /** Chunk sizes compared by {@link #chunkSizes} */
+    private static final int[] CHUNK_SIZES = { 128, 256, 512, 1024, 2048, 4096 };
+
+    /**
+     * Flow-controlled transfer of the sample receipt (ESC/POS) to a simulated SPP printer for each
+     * chunk size, plus one run without a window. Simulated link: 20 KB/s, 6 ms per write call,
+     * 64 KB OS queue; printer: 8 KB buffer, 28 KB/s print speed; time runs 8x faster.
+     * Small chunks are bound by the per-write cost, chunks close to the window by stop-and-wait;
+     * without a window the whole job sits in the OS queue (max_queued).
+     * @return JSON: {"bytes","window","runs":[{chunk,ms,kb_s,writes,waits,max_in_flight,max_queued}]}
+     */
+    static String chunkSizes(ReceiptRenderer renderer) throws InterruptedException {
+        ReceiptStyle style = new ReceiptStyle();
+        List<ReceiptLine> lines = ReceiptLine.fromText(SAMPLE_ORDER_TEXT.split("\n"), style);
+        RasterEncoder.Raster raster = renderer.renderRaster(lines, true, style);
+        byte[] job = EscPosEncoder.encodeJob(raster, 128, 5);
+
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"bytes\":").append(job.length)
+            .append(",\"window\":").append(FlowControlledWriter.DEFAULT_WINDOW_BYTES)
+            .append(",\"runs\":[");
+        for (int i = 0; i <= CHUNK_SIZES.length; i++) {
+            boolean unbounded = i == CHUNK_SIZES.length;
+            int chunk = unbounded ? 4096 : CHUNK_SIZES[i];
+            int window = unbounded ? Integer.MAX_VALUE : FlowControlledWriter.DEFAULT_WINDOW_BYTES;
+            if (i > 0) json.append(',');
+            transferOne(job, chunk, window, unbounded, json);
+        }
+        json.append("]}");
+
+        String result = json.toString();
+        android.util.Log.i("POS", "⏱️ Chunk sizes: " + result);
+        return result;
+    }
+
+    private static void transferOne(byte[] job, int chunk, int window, boolean unbounded, StringBuilder json)
+            throws InterruptedException {
+        LoopbackPort port = new LoopbackPort(20 * 1024, 6.0, 64 * 1024, 8 * 1024, 28 * 1024, 8.0);
+        try {
+            FlowControlledWriter writer = new FlowControlledWriter(port, chunk, window,
+                    FlowControlledWriter.DEFAULT_STALL_TIMEOUT_MS);
+            long start = System.nanoTime();
+            boolean ok = writer.write(job, job.length) && port.awaitReceived(job.length, 60000);
+            double simMs = (System.nanoTime() - start) / 1e6 * port.getTimeScale();
+            json.append("{\"chunk\":").append(chunk)
+                .append(",\"flow_control\":").append(!unbounded)
+                .append(",\"ok\":").append(ok)
+                .append(",\"ms\":").append(fmt(simMs))
+                .append(",\"kb_s\":").append(fmt(simMs > 0 ? job.length / 1.024 / simMs : 0))
+                .append(",\"writes\":").append(writer.getChunks())
+                .append(",\"waits\":").append(writer.getWaits())
+                .append(",\"max_in_flight\":").append(writer.getMaxInFlight())
+                .append(",\"max_queued\":").append(port.getMaxQueued()).append('}');
+        } finally {
+            port.close();
+        }
+    }
+
+    /**
+     * Per-call cost of the hot printer calls through the AutoReplyPrint interface proxy vs the
+     * direct-mapped binding, against a real port: CP_Port_OpenTcp to an in-process
+     * {@link EscPosEmulator} that never fills (1 MB buffer, no print-speed limit), so each call
+     * goes through the library's command path and socket write. Each binding gets a warm-up pass
+     * first; the direct columns are -1 when the binding didn't register.
+     * @return JSON: {"direct_available","iterations","calls":[{"call","proxy_us","direct_us"}]}
+     */
+    static String nativeCalls(AutoReplyPrint printer, int iterations) throws Exception {
+        if (iterations <= 0) iterations = 2000;
+        boolean direct = AutoReplyDirect.isAvailable();
+        PrinterCalls[] bindings = { AutoReplyDirect.proxy(printer), direct ? AutoReplyDirect.DIRECT : null };
+        byte[] raster = new byte[48 / 8 * 24];
+        byte[] write = new byte[512];
+
+        try (EscPosEmulator emulator = new EscPosEmulator(0, true, ReceiptRenderer.PAPER_WIDTH,
+                1024 * 1024, Integer.MAX_VALUE, null, EMULATOR_LOG)) {
+            Pointer h = openEmulator(printer, emulator.getPort());
+            try {
+                StringBuilder json = new StringBuilder(512);
+                json.append("{\"direct_available\":").append(direct)
+                    .append(",\"iterations\":").append(iterations)
+                    .append(",\"calls\":[");
+                for (int call = 0; call < NATIVE_CALLS.length; call++) {
+                    double[] us = { -1, -1 };
+                    for (int b = 0; b < bindings.length; b++) {
+                        if (bindings[b] == null) continue;
+                        callMany(bindings[b], h, call, raster, write, iterations / 10 + 1);
+                        long start = System.nanoTime();
+                        callMany(bindings[b], h, call, raster, write, iterations);
+                        us[b] = (System.nanoTime() - start) / 1e3 / iterations;
+                        // Cut and drop the page the emulator rebuilt, so it doesn't grow across runs
+                        printer.CP_Pos_FullCutPaper(h);
+                        emulator.awaitPages(1, 5000);
+                        emulator.reset();
+                    }
+                    if (call > 0) json.append(',');
+                    json.append("{\"call\":\"").append(NATIVE_CALLS[call]).append('"')
+                        .append(",\"proxy_us\":").append(fmt(us[0]))
+                        .append(",\"direct_us\":").append(fmt(us[1])).append('}');
+                }
+                json.append("]}");
+
+                String result = json.toString();
+                android.util.Log.i("POS", "⏱️ Native calls: " + result);
+                return result;
+            } finally {
+                printer.CP_Port_Close(h);
+            }
+        }
+    }
+
+    /** Calls timed by {@link #nativeCalls} */
+    private static final String[] NATIVE_CALLS = {
+            "CP_Pos_SetAlignment", "CP_Pos_FeedDot", "CP_Pos_PrintRasterImageFromPixels(48x24)", "CP_Port_Write(512)"
+    };
+
+    private static void callMany(PrinterCalls calls, Pointer h, int call, byte[] raster, byte[] write, int n) {
+        for (int i = 0; i < n; i++) {
+            switch (call) {
+                case 0:
+                    calls.CP_Pos_SetAlignment(h, AutoReplyPrint.CP_Pos_Alignment_Left);
+                    break;
+                case 1:
+                    calls.CP_Pos_FeedDot(h, 1);
+                    break;
+                case 2:
+                    calls.CP_Pos_PrintRasterImageFromPixels(h, raster, raster.length, 48, 24, 48 / 8,
+                            AutoReplyPrint.CP_ImagePixelsFormat_MONO, AutoReplyPrint.CP_ImageBinarizationMethod_Thresholding,
+                            AutoReplyPrint.CP_ImageCompressionMethod_None);
+                    break;
+                default:
+                    calls.CP_Port_Write(h, write, write.length, 0);
+                    break;
+            }
+        }
+    }
+
+    /** The in-process emulator's problems go to logcat */
+    private static final EscPosEmulator.Logger EMULATOR_LOG = message -> android.util.Log.w("POS", "⚠️ " + message);
+
+    /** Supervisor for the emulator runs (not the app's: a stuck call here must not reopen Bluetooth) */
+    private static NativeCallSupervisor emulatorCalls;
+
+    /** CP_Port_OpenTcp to an in-process emulator on port, under the emulator supervisor */
+    private static Pointer openEmulator(final AutoReplyPrint printer, final int port) throws Exception {
+        synchronized (PrintBenchmarks.class) {
+            if (emulatorCalls == null) emulatorCalls = new NativeCallSupervisor("emulator-native");
+        }
+        Pointer h = emulatorCalls.call("open_tcp", 5000,
+                () -> printer.CP_Port_OpenTcp(null, "127.0.0.1", (short) port, 3000, 0));
+        if (h == null || Pointer.nativeValue(h) == 0) throw new IllegalStateException("CP_Port_OpenTcp failed");
+        return h;
+    }
+
+    /**
+     * The sample receipt through the AutoReplyPrint native transfer to an in-process
+     * {@link EscPosEmulator} attached with CP_Port_OpenTcp: once as raster rows only, once with
+     * line / code commands. Each run ends with a cut; the page the emulator rebuilt is compared
+     * with the raster dot by dot (dots_differ, rows beyond the raster ignored). A status query
+     * with the emulator out of paper must report it.
+     * Emulated printer: 8 KB buffer, 28 KB/s.
+     * @return JSON: {"port","paper_out_reported","runs":[{"mode","ok","ms","dots_differ","emulator":{...}}]}
+     */
+    static String emulator(ReceiptRenderer renderer, AutoReplyPrint printer) throws Exception {
+        ReceiptStyle style = new ReceiptStyle();
+        List<ReceiptLine> lines = ReceiptLine.fromText(SAMPLE_ORDER_TEXT.split("\n"), style);
+        RasterEncoder.Raster raster = renderer.renderRaster(lines, true, style);
+
+        try (EscPosEmulator emulator = new EscPosEmulator(0, true, ReceiptRenderer.PAPER_WIDTH,
+                EscPosEmulator.DEFAULT_BUFFER_BYTES, EscPosEmulator.DEFAULT_PRINT_BYTES_PER_SECOND, null, EMULATOR_LOG)) {
+            final int port = emulator.getPort();
+            Pointer h = openEmulator(printer, port);
+            try {
+                emulator.setPaperOut(true);
+                int status = printer.CP_Pos_QueryRTStatus(h, 1000);
+                emulator.setPaperOut(false);
+
+                StringBuilder json = new StringBuilder(1024);
+                json.append("{\"port\":").append(port)
+                    .append(",\"paper_out_reported\":").append(AutoReplyPrint.CP_RTSTATUS_Helper.CP_RTSTATUS_NOPAPER(status))
+                    .append(",\"runs\":[");
+                for (int run = 0; run < 2; run++) {
+                    boolean commands = run == 1;
+                    BluetoothPrintBackend backend = new BluetoothPrintBackend(printer, h, emulatorCalls);
+                    backend.setVectorRules(commands);
+                    backend.setCodeCommands(commands ? BluetoothPrintBackend.CODES_EPSON : BluetoothPrintBackend.CODES_RASTER);
+                    emulator.reset();
+                    long start = System.nanoTime();
+                    boolean ok = backend.print(raster, 0) && printer.CP_Pos_FullCutPaper(h);
+                    List<EscPosEmulator.Page> pages = emulator.awaitPages(1, 10000);
+                    double ms = (System.nanoTime() - start) / 1e6;
+                    if (run > 0) json.append(',');
+                    json.append("{\"mode\":\"").append(commands ? "commands" : "raster").append('"')
+                        .append(",\"ok\":").append(ok && !pages.isEmpty())
+                        .append(",\"ms\":").append(fmt(ms))
+                        .append(",\"dots_differ\":").append(pages.isEmpty() ? -1 : dotsDiffer(raster, pages.get(0)))
+                        .append(",\"emulator\":").append(emulator.toJson()).append('}');
+                }
+                json.append("]}");
+
+                String result = json.toString();
+                android.util.Log.i("POS", "⏱️ Emulator: " + result);
+                return result;
+            } finally {
+                printer.CP_Port_Close(h);
+            }
+        }
+    }
+
+    /** Dots where the printed page and the raster disagree (the page's missing rows count as white) */
+    private static int dotsDiffer(RasterEncoder.Raster raster, EscPosEmulator.Page page) {
+        int differ = 0;
+        for (int y = 0; y < raster.height; y++) {
+            for (int x = 0; x < raster.width; x++) {
+                boolean black = (raster.data[y * raster.stride + x / 8] & (0x80 >> (x & 7))) != 0;
+                boolean printed = y < page.height && x < page.width && page.isBlack(x, y);
+                if (black != printed) differ++;
+            }
+        }
+        return differ;
+    }
+
+    /** Shaded badge with gradients and text – worst case for thresholding */
+    private static Bitmap syntheticLogo(int w, int h) {
+        Bitmap bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        for (int x = 0; x < w; x++) {
+            int g = 255 * x / w;
+            paint.setColor(Color.rgb(g, g, g));
+            canvas.drawLine(x, 0, x, h / 2, paint);
+        }
+        paint.setColor(Color.rgb(90, 90, 90));
+        canvas.drawRect(w / 4, h / 2 + 10, w * 3 / 4, h - 10, paint);
+        paint.setColor(Color.BLACK);
+        paint.setTextSize(48);
+        paint.setTextAlign(Paint.Align.CENTER);
+        canvas.drawText("LOGO", w / 2, h * 3 / 4 + 16, paint);
+        return bitmap;
+    }
+
+    static String fmt(double v) {
+        return String.format(Locale.US, "%.2f", v);
+    }
+}
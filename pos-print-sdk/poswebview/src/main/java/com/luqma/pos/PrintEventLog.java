@@ -0,0 +1,197 @@
+package com.luqma.pos;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Structured event log for the print path: fixed-size binary records in a preallocated ring,
+ * so a receipt costs no string building or allocation for logging. Dumped as JSON on demand
+ * (getPrintLog) for post-mortems on terminals where logcat is gone.
+ *
+ * A record is RECORD_LONGS longs: time (elapsedRealtimeNanos), header (level | event | thread id)
+ * and three event-specific arguments. Writers claim a slot with one atomic increment and publish it
+ * by storing the record's sequence number last; a reader skips slots being overwritten.
+ * Events below the current level return before touching the ring.
+ */
+final class PrintEventLog {
+
+    static final int DEBUG = 0;
+    static final int INFO = 1;
+    static final int WARN = 2;
+    static final int ERROR = 3;
+    private static final String[] LEVEL_NAMES = {"debug", "info", "warn", "error"};
+
+    // Event IDs (index into EVENT_NAMES / EVENT_ARGS)
+    static final int RENDER_START = 0;      // lines, estimated height, alpha8 (1/0)
+    static final int RENDER_DONE = 1;       // height, bytes, ms
+    static final int FONT_LOADED = 2;       // font (FONT_*), from assets (1/0)
+    static final int LOGO_DITHERED = 3;     // mode, width, height
+    static final int PRECACHE_HIT = 4;      // height
+    static final int PRECACHE_MISS = 5;     // -
+    static final int QUEUE_SUBMIT = 6;      // depth, bytes
+    static final int QUEUE_BUSY = 7;        // depth, capacity
+    static final int JOB_START = 8;         // bytes, wait ms
+    static final int JOB_DONE = 9;          // ok (1/0), attempts, ms
+    static final int ATTEMPT = 10;          // backend (BACKEND_*), outcome (PrintMetrics.OUTCOME_*), ms
+    static final int FAILOVER = 11;         // backend, attempt index
+    static final int SENRAISE_SENT = 12;    // bytes, transactions
+    static final int SENRAISE_SHRINK = 13;  // rejected bytes, new limit
+    static final int BT_CHUNKED = 14;       // bytes, chunks, wait ms
+    static final int PRINT_ERROR = 15;      // backend, -
+    static final int PRINT_PLAN = 16;       // commands, raster rows, bytes saved
+    static final int STYLE_PARSED = 17;     // body font, line height, padding
+    static final int ORDER_UPDATE = 18;     // changed lines
+    static final int LABELS_DONE = 19;      // labels, distinct, bytes
+    static final int DOCUMENT_DONE = 20;    // segments, bytes, result (PrintQueue.RESULT_*)
+
+    private static final String[] EVENT_NAMES = {
+            "render_start", "render_done", "font_loaded", "logo_dithered", "precache_hit", "precache_miss",
+            "queue_submit", "queue_busy", "job_start", "job_done", "attempt", "failover",
+            "senraise_sent", "senraise_shrink", "bt_chunked", "print_error", "print_plan",
+            "style_parsed", "order_update", "labels_done", "document_done"
+    };
+    private static final String[][] EVENT_ARGS = {
+            {"lines", "est_height", "alpha8"}, {"height", "bytes", "ms"}, {"font", "from_assets"},
+            {"mode", "width", "height"}, {"height"}, {}, {"depth", "bytes"}, {"depth", "capacity"},
+            {"bytes", "wait_ms"}, {"ok", "attempts", "ms"}, {"backend", "outcome", "ms"}, {"backend", "attempt"},
+            {"bytes", "transactions"}, {"bytes", "limit"}, {"bytes", "chunks", "wait_ms"}, {"backend"},
+            {"commands", "raster_rows", "saved_bytes"}, {"body_font", "line_height", "padding"},
+            {"changed_lines"}, {"labels", "distinct", "bytes"}, {"segments", "bytes", "result"}
+    };
+
+    static final int BACKEND_OTHER = 0;
+    static final int BACKEND_SENRAISE = 1;
+    static final int BACKEND_BLUETOOTH = 2;
+    static final int BACKEND_PRINTMANAGER = 3;
+    private static final String[] BACKEND_NAMES = {"other", "senraise", "bluetooth", "printmanager"};
+
+    static final int FONT_SANS_SERIF = 0;
+    static final int FONT_CAIRO = 1;
+    static final int FONT_ARIAL = 2;
+    static final int FONT_TAHOMA = 3;
+    static final int FONT_SYSTEM = 4;
+    private static final String[] FONT_NAMES = {"sans-serif", "cairo", "arial", "tahoma", "system"};
+
+    static final int CAPACITY = 1024; // power of two
+    private static final int RECORD_LONGS = 5;
+
+    private static final long[] records = new long[CAPACITY * RECORD_LONGS];
+    /** Sequence + 1 of the record in each slot, 0 = empty or being written */
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong next = new AtomicLong();
+    private static volatile int level = INFO;
+
+    private PrintEventLog() {
+    }
+
+    static void setLevel(int minLevel) {
+        level = Math.max(DEBUG, Math.min(ERROR, minLevel));
+    }
+
+    static int getLevel() {
+        return level;
+    }
+
+    /** @return level for "debug"/"info"/"warn"/"error", or -1 */
+    static int parseLevel(String name) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    static boolean isEnabled(int eventLevel) {
+        return eventLevel >= level;
+    }
+
+    static void log(int eventLevel, int event, long a) {
+        log(eventLevel, event, a, 0, 0);
+    }
+
+    static void log(int eventLevel, int event, long a, long b) {
+        log(eventLevel, event, a, b, 0);
+    }
+
+    static void log(int eventLevel, int event, long a, long b, long c) {
+        if (eventLevel < level) return;
+        long seq = next.getAndIncrement();
+        int slot = (int) (seq & (CAPACITY - 1));
+        int base = slot * RECORD_LONGS;
+        published.set(slot, 0); // readers skip the slot while it's rewritten
+        records[base] = SystemClock.elapsedRealtimeNanos();
+        records[base + 1] = ((long) eventLevel << 56) | ((long) event << 40) | (Thread.currentThread().getId() & 0xffffffffffL);
+        records[base + 2] = a;
+        records[base + 3] = b;
+        records[base + 4] = c;
+        published.lazySet(slot, seq + 1);
+    }
+
+    static int backendId(String name) {
+        for (int i = 1; i < BACKEND_NAMES.length; i++) {
+            if (BACKEND_NAMES[i].equals(name)) return i;
+        }
+        return BACKEND_OTHER;
+    }
+
+    /** Drop all records */
+    static void clear() {
+        for (int i = 0; i < CAPACITY; i++) published.set(i, 0);
+    }
+
+    /**
+     * Most recent events, oldest first
+     * @return JSON: {"level","total","events":[{"seq","t_ms","level","event","thread",...args}]}
+     * (t_ms = elapsedRealtime ms; backend / outcome / font / mode args are named)
+     */
+    static String toJson(int max) {
+        long end = next.get();
+        int count = (int) Math.min(Math.min(end, CAPACITY), Math.max(1, max));
+        StringBuilder json = new StringBuilder(64 + count * 96);
+        json.append("{\"level\":\"").append(LEVEL_NAMES[level]).append('"')
+            .append(",\"total\":").append(end)
+            .append(",\"events\":[");
+        boolean first = true;
+        long[] record = new long[RECORD_LONGS];
+        for (long seq = end - count; seq < end; seq++) {
+            int slot = (int) (seq & (CAPACITY - 1));
+            if (published.get(slot) != seq + 1) continue;
+            System.arraycopy(records, slot * RECORD_LONGS, record, 0, RECORD_LONGS);
+            if (published.get(slot) != seq + 1) continue; // overwritten while copying
+            int eventLevel = (int) (record[1] >>> 56);
+            int event = (int) ((record[1] >>> 40) & 0xffff);
+            if (event >= EVENT_NAMES.length || eventLevel >= LEVEL_NAMES.length) continue;
+            if (!first) json.append(',');
+            first = false;
+            json.append("{\"seq\":").append(seq)
+                .append(",\"t_ms\":").append(record[0] / 1000000)
+                .append(",\"level\":\"").append(LEVEL_NAMES[eventLevel]).append('"')
+                .append(",\"event\":\"").append(EVENT_NAMES[event]).append('"')
+                .append(",\"thread\":").append(record[1] & 0xffffffffffL);
+            String[] args = EVENT_ARGS[event];
+            for (int i = 0; i < args.length; i++) {
+                json.append(",\"").append(args[i]).append("\":");
+                appendArg(json, args[i], record[2 + i]);
+            }
+            json.append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static void appendArg(StringBuilder json, String name, long value) {
+        String label = null;
+        if ("backend".equals(name) && value >= 0 && value < BACKEND_NAMES.length) {
+            label = BACKEND_NAMES[(int) value];
+        } else if ("outcome".equals(name)) {
+            label = PrintMetrics.outcomeName((int) value);
+        } else if ("font".equals(name) && value >= 0 && value < FONT_NAMES.length) {
+            label = FONT_NAMES[(int) value];
+        } else if ("mode".equals(name)) {
+            label = RasterEncoder.modeName((int) value);
+        }
+        if (label != null) json.append('"').append(label).append('"');
+        else json.append(value);
+    }
+}
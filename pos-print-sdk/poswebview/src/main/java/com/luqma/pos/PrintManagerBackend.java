@@ -0,0 +1,135 @@
+package com.luqma.pos;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.pdf.PdfDocument;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.print.PrintDocumentInfo;
+import android.print.PrintManager;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Android PrintManager (any installed print service) as the last-resort backend, registered only
+ * when the dashboard enables it (setPrintManagerFallback).
+ * The raster is written as a one-page PDF (receipt width = 58 mm). PrintManager always shows
+ * the system print dialog, so this backend is interactive and only used when the silent ones fail;
+ * true means the job was handed to the print framework, which the router reports as
+ * OUTCOME_DIALOG – the user may still cancel it, so it never counts as printed.
+ */
+final class PrintManagerBackend implements PrintBackend {
+
+    /** 58 mm in PostScript points (1/72 inch) */
+    private static final int PAGE_WIDTH_PT = 164;
+    private static final long SUBMIT_TIMEOUT_MS = 5000;
+
+    private final Activity activity;
+
+    PrintManagerBackend(Activity activity) {
+        this.activity = activity;
+    }
+
+    @Override
+    public String name() {
+        return "printmanager";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !activity.isFinishing() && activity.getSystemService(Context.PRINT_SERVICE) != null;
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return true;
+    }
+
+    @Override
+    public boolean print(final RasterEncoder.Raster raster, int feedLines) throws Exception {
+        final PrintManager printManager = (PrintManager) activity.getSystemService(Context.PRINT_SERVICE);
+        if (printManager == null) return false;
+
+        // PrintManager.print must be called on the UI thread; wait until it is submitted
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final boolean[] ok = { false };
+        activity.runOnUiThread(() -> {
+            try {
+                PrintAttributes attributes = new PrintAttributes.Builder()
+                        .setColorMode(PrintAttributes.COLOR_MODE_MONOCHROME)
+                        .setMinMargins(PrintAttributes.Margins.NO_MARGINS)
+                        .build();
+                ok[0] = printManager.print("Receipt", new RasterDocumentAdapter(raster), attributes) != null;
+            } catch (Exception e) {
+                android.util.Log.e("POS", "❌ PrintManager error: " + e.getMessage());
+            } finally {
+                submitted.countDown();
+            }
+        });
+        if (!submitted.await(SUBMIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return false;
+        return ok[0];
+    }
+
+    /** One PDF page holding the receipt raster scaled to the paper width */
+    private static final class RasterDocumentAdapter extends PrintDocumentAdapter {
+        private final RasterEncoder.Raster raster;
+
+        RasterDocumentAdapter(RasterEncoder.Raster raster) {
+            this.raster = raster;
+        }
+
+        @Override
+        public void onLayout(PrintAttributes oldAttributes, PrintAttributes newAttributes,
+                             CancellationSignal cancellationSignal, LayoutResultCallback callback, Bundle extras) {
+            if (cancellationSignal.isCanceled()) {
+                callback.onLayoutCancelled();
+                return;
+            }
+            PrintDocumentInfo info = new PrintDocumentInfo.Builder("receipt.pdf")
+                    .setContentType(PrintDocumentInfo.CONTENT_TYPE_DOCUMENT)
+                    .setPageCount(1)
+                    .build();
+            callback.onLayoutFinished(info, true);
+        }
+
+        @Override
+        public void onWrite(PageRange[] pages, ParcelFileDescriptor destination,
+                            CancellationSignal cancellationSignal, WriteResultCallback callback) {
+            float scale = (float) PAGE_WIDTH_PT / raster.width;
+            int pageHeight = Math.max(1, Math.round(raster.height * scale));
+            PdfDocument document = new PdfDocument();
+            Bitmap bitmap = RasterEncoder.toBitmap(raster);
+            try {
+                PdfDocument.Page page = document.startPage(
+                        new PdfDocument.PageInfo.Builder(PAGE_WIDTH_PT, pageHeight, 1).create());
+                Canvas canvas = page.getCanvas();
+                canvas.drawColor(Color.WHITE);
+                canvas.scale(scale, scale);
+                canvas.drawBitmap(bitmap, 0, 0, null);
+                document.finishPage(page);
+                FileOutputStream out = new FileOutputStream(destination.getFileDescriptor());
+                try {
+                    document.writeTo(out);
+                } finally {
+                    out.close();
+                }
+                callback.onWriteFinished(new PageRange[] { PageRange.ALL_PAGES });
+            } catch (IOException e) {
+                callback.onWriteFailed(e.getMessage());
+            } finally {
+                document.close();
+                bitmap.recycle();
+            }
+        }
+    }
+}
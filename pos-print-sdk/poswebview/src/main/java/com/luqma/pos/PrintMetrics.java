@@ -0,0 +1,135 @@
+package com.luqma.pos;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Print job counters: per-backend selections / successes / failures / timeouts, fallbacks,
+ * and the last few jobs with the backends they went through. Exposed as JSON via the bridge.
+ */
+final class PrintMetrics {
+
+    static final int OUTCOME_OK = 0;
+    static final int OUTCOME_FAILED = 1;
+    static final int OUTCOME_TIMEOUT = 2;
+    static final int OUTCOME_ERROR = 3;
+    /** Handed to the system print dialog: nothing printed yet, the user decides */
+    static final int OUTCOME_DIALOG = 4;
+    /** Refused before anything was sent (backend stuck, not connected): safe to try another one */
+    static final int OUTCOME_REFUSED = 5;
+
+    private static final String[] OUTCOME_NAMES = { "ok", "failed", "timeout", "error", "dialog", "refused" };
+    private static final int RECENT_JOBS = 32;
+
+    private static final class Counters {
+        long selected;   // first choice for a job
+        long attempts;
+        long ok;
+        long failed;
+        long timeouts;
+        long errors;
+        long dialogs;
+        long refused;
+        long totalMs;    // over successful attempts
+    }
+
+    private final Map<String, Counters> backends = new LinkedHashMap<>();
+    private long jobs;
+    private long failedJobs;
+    /** Failed jobs where at least one attempt timed out (stuck transport rather than a refusal) */
+    private long timedOutJobs;
+    private long fallbacks;
+
+    // Ring of recent jobs
+    private final String[] recentRoute = new String[RECENT_JOBS];
+    private final long[] recentMs = new long[RECENT_JOBS];
+    private final int[] recentBytes = new int[RECENT_JOBS];
+    private final boolean[] recentOk = new boolean[RECENT_JOBS];
+    private int recentNext;
+    private int recentCount;
+
+    private Counters counters(String backend) {
+        Counters c = backends.get(backend);
+        if (c == null) {
+            c = new Counters();
+            backends.put(backend, c);
+        }
+        return c;
+    }
+
+    synchronized void recordSelection(String backend) {
+        counters(backend).selected++;
+    }
+
+    synchronized void recordAttempt(String backend, int outcome, long ms) {
+        Counters c = counters(backend);
+        c.attempts++;
+        switch (outcome) {
+            case OUTCOME_OK: c.ok++; c.totalMs += ms; break;
+            case OUTCOME_TIMEOUT: c.timeouts++; break;
+            case OUTCOME_ERROR: c.errors++; break;
+            case OUTCOME_DIALOG: c.dialogs++; break;
+            case OUTCOME_REFUSED: c.refused++; break;
+            default: c.failed++; break;
+        }
+    }
+
+    /**
+     * @param timedOut the job failed and at least one attempt timed out
+     * @param route backends tried in order with their outcome, e.g. "senraise:timeout>bluetooth:ok"
+     */
+    synchronized void recordJob(int bytes, boolean ok, boolean timedOut, boolean fellBack, String route, long ms) {
+        jobs++;
+        if (!ok) failedJobs++;
+        if (timedOut) timedOutJobs++;
+        if (fellBack) fallbacks++;
+        recentRoute[recentNext] = route;
+        recentMs[recentNext] = ms;
+        recentBytes[recentNext] = bytes;
+        recentOk[recentNext] = ok;
+        recentNext = (recentNext + 1) % RECENT_JOBS;
+        if (recentCount < RECENT_JOBS) recentCount++;
+    }
+
+    static String outcomeName(int outcome) {
+        return outcome >= 0 && outcome < OUTCOME_NAMES.length ? OUTCOME_NAMES[outcome] : "unknown";
+    }
+
+    /** @return JSON: {"jobs","failed_jobs","timed_out_jobs","fallbacks","backends":{name:{...}},"recent":[...]} (newest first) */
+    synchronized String toJson() {
+        StringBuilder json = new StringBuilder(256 + recentCount * 96);
+        json.append("{\"jobs\":").append(jobs)
+            .append(",\"failed_jobs\":").append(failedJobs)
+            .append(",\"timed_out_jobs\":").append(timedOutJobs)
+            .append(",\"fallbacks\":").append(fallbacks)
+            .append(",\"backends\":{");
+        boolean first = true;
+        for (Map.Entry<String, Counters> e : backends.entrySet()) {
+            Counters c = e.getValue();
+            if (!first) json.append(',');
+            first = false;
+            json.append('"').append(e.getKey()).append("\":{")
+                .append("\"selected\":").append(c.selected)
+                .append(",\"attempts\":").append(c.attempts)
+                .append(",\"ok\":").append(c.ok)
+                .append(",\"failed\":").append(c.failed)
+                .append(",\"timeouts\":").append(c.timeouts)
+                .append(",\"errors\":").append(c.errors)
+                .append(",\"dialogs\":").append(c.dialogs)
+                .append(",\"refused\":").append(c.refused)
+                .append(",\"avg_ms\":").append(c.ok > 0 ? c.totalMs / c.ok : 0)
+                .append('}');
+        }
+        json.append("},\"recent\":[");
+        for (int i = 0; i < recentCount; i++) {
+            int idx = (recentNext - 1 - i + RECENT_JOBS) % RECENT_JOBS;
+            if (i > 0) json.append(',');
+            json.append("{\"route\":\"").append(recentRoute[idx]).append('"')
+                .append(",\"ok\":").append(recentOk[idx])
+                .append(",\"ms\":").append(recentMs[idx])
+                .append(",\"bytes\":").append(recentBytes[idx]).append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,258 @@
+package com.luqma.pos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a packed raster is sent to the printer, split into dense raster segments around:
+ * - rules: rows that are a single solid horizontal run of dots (separators, the total box's top
+ *   and bottom edges), sent as CP_Pos_PrintHorizontalLine(SpecifyThickness) commands;
+ * - blank rows: runs of at least MIN_FEED_ROWS all-white rows (top margin, line leading, emptyGap,
+ *   sepMargin, logo spacing, bottom padding), sent as a paper feed of that many dots
+ *   (CP_Pos_FeedDot / ESC J n) instead of 48 zero bytes a row;
+ * - codes: the rows of a QR code / barcode the renderer drew ({@link ReceiptCode}), sent as the
+ *   printer's code command.
+ *
+ * Built from the packed rows themselves, so the plan puts down exactly the dots the raster had,
+ * whatever drew the receipt (text, HTML, stream segment). Backends that don't take commands print
+ * the raster as it is.
+ */
+final class PrintPlan {
+
+    static final int OP_RASTER = 0;
+    static final int OP_LINE = 1;
+    static final int OP_FEED = 2;
+    static final int OP_CODE = 3;
+
+    /** A line must cover at least this share of the paper to be worth splitting the raster for */
+    private static final int MIN_LINE_PERCENT = 40;
+    private static final int MAX_LINE_THICKNESS = 255;
+    /**
+     * Shortest blank run turned into a feed. Splitting costs a raster header and a feed command
+     * (~11 bytes) against 48 bytes per blank row; below this the extra segments aren't worth it.
+     */
+    static final int MIN_FEED_ROWS = 6;
+    /** Largest feed in one command (ESC J n) */
+    static final int MAX_FEED_DOTS = 255;
+    /** Wire cost model (bytes per command, excluding raster payload) */
+    static final int RASTER_COMMAND_BYTES = 8;
+    static final int LINE_COMMAND_BYTES = 8;
+    static final int FEED_COMMAND_BYTES = 3;
+    /** Code command bytes besides the data (alignment, size, store + print) */
+    static final int CODE_COMMAND_BYTES = 24;
+
+    /**
+     * One command: OP_RASTER prints rows [rowStart, rowEnd); OP_LINE prints dots [x0, x1) on
+     * rowEnd - rowStart rows (the thickness); OP_FEED feeds rowEnd - rowStart dots; OP_CODE prints
+     * code (which the raster has in rows [rowStart, rowEnd))
+     */
+    static final class Op {
+        final int type;
+        final int rowStart;
+        final int rowEnd;
+        final int x0;
+        final int x1;
+        final ReceiptCode code;
+
+        Op(int type, int rowStart, int rowEnd, int x0, int x1) {
+            this(type, rowStart, rowEnd, x0, x1, null);
+        }
+
+        Op(int type, int rowStart, int rowEnd, int x0, int x1, ReceiptCode code) {
+            this.type = type;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.x0 = x0;
+            this.x1 = x1;
+            this.code = code;
+        }
+
+        int rows() {
+            return rowEnd - rowStart;
+        }
+    }
+
+    final List<Op> ops;
+    final int lines;
+    final int feeds;
+    final int codes;
+    final int rasterRows;
+    final int feedRows;
+    /** Estimated bytes on the wire: plan vs. the whole raster in one command */
+    final int wireBytes;
+    final int rasterWireBytes;
+
+    private PrintPlan(List<Op> ops, int stride, int height) {
+        this.ops = Collections.unmodifiableList(ops);
+        int lineCount = 0;
+        int feedCount = 0;
+        int codeCount = 0;
+        int rows = 0;
+        int blank = 0;
+        int bytes = 0;
+        for (Op op : ops) {
+            if (op.type == OP_LINE) {
+                lineCount++;
+                bytes += LINE_COMMAND_BYTES;
+            } else if (op.type == OP_FEED) {
+                feedCount++;
+                blank += op.rows();
+                bytes += feedCommands(op.rows()) * FEED_COMMAND_BYTES;
+            } else if (op.type == OP_CODE) {
+                codeCount++;
+                bytes += CODE_COMMAND_BYTES + op.code.data.length();
+            } else {
+                rows += op.rows();
+                bytes += RASTER_COMMAND_BYTES + op.rows() * stride;
+            }
+        }
+        this.lines = lineCount;
+        this.feeds = feedCount;
+        this.codes = codeCount;
+        this.rasterRows = rows;
+        this.feedRows = blank;
+        this.wireBytes = bytes;
+        this.rasterWireBytes = RASTER_COMMAND_BYTES + height * stride;
+    }
+
+    /** True when the plan is just the raster (nothing to gain from splitting it) */
+    boolean isRasterOnly() {
+        return lines == 0 && feeds == 0 && codes == 0;
+    }
+
+    /** Number of feed commands (of at most MAX_FEED_DOTS) for a blank run */
+    static int feedCommands(int dots) {
+        return (dots + MAX_FEED_DOTS - 1) / MAX_FEED_DOTS;
+    }
+
+    /**
+     * Split the raster around its rule rows and blank runs
+     * @param lines turn rules into line commands (for transports that have them)
+     * @param feeds turn blank runs into feeds
+     */
+    static PrintPlan of(RasterEncoder.Raster raster, boolean lines, boolean feeds) {
+        return of(raster, lines, feeds, false);
+    }
+
+    /**
+     * @param codes turn the raster's QR codes / barcodes the printer can produce into code commands
+     */
+    static PrintPlan of(RasterEncoder.Raster raster, boolean lines, boolean feeds, boolean codes) {
+        List<Op> ops = new ArrayList<>();
+        int minDots = raster.width * MIN_LINE_PERCENT / 100;
+        int[] run = new int[2];
+        int rasterStart = 0;
+        int codeIndex = codes ? nextCode(raster, 0) : -1;
+        ReceiptCode code = codeIndex >= 0 ? raster.codes.get(codeIndex) : null;
+        int y = 0;
+        while (y < raster.height) {
+            // Runs below stop at the next code's first row
+            int limit = code != null ? code.rowStart : raster.height;
+            if (code != null && y >= code.rowStart) {
+                if (y > rasterStart) ops.add(new Op(OP_RASTER, rasterStart, y, 0, 0));
+                ops.add(new Op(OP_CODE, code.rowStart, code.rowEnd, code.x0, code.x1, code));
+                y = code.rowEnd;
+                rasterStart = y;
+                codeIndex = nextCode(raster, codeIndex + 1);
+                code = codeIndex >= 0 ? raster.codes.get(codeIndex) : null;
+                continue;
+            }
+            if (feeds && isBlank(raster, y)) {
+                int end = y + 1;
+                while (end < limit && isBlank(raster, end)) end++;
+                if (end - y >= MIN_FEED_ROWS) {
+                    if (y > rasterStart) ops.add(new Op(OP_RASTER, rasterStart, y, 0, 0));
+                    ops.add(new Op(OP_FEED, y, end, 0, 0));
+                    rasterStart = end;
+                }
+                y = end;
+                continue;
+            }
+            if (!lines || !singleRun(raster, y, run) || run[1] - run[0] < minDots) {
+                y++;
+                continue;
+            }
+            // Rows below with the same run make it thicker
+            int x0 = run[0];
+            int x1 = run[1];
+            int end = y + 1;
+            while (end < limit && end - y < MAX_LINE_THICKNESS
+                    && singleRun(raster, end, run) && run[0] == x0 && run[1] == x1) {
+                end++;
+            }
+            if (y > rasterStart) ops.add(new Op(OP_RASTER, rasterStart, y, 0, 0));
+            ops.add(new Op(OP_LINE, y, end, x0, x1));
+            rasterStart = end;
+            y = end;
+        }
+        if (raster.height > rasterStart) ops.add(new Op(OP_RASTER, rasterStart, raster.height, 0, 0));
+        return new PrintPlan(ops, raster.stride, raster.height);
+    }
+
+    /**
+     * Index of the first code from index from on that the printer can produce and that lies inside
+     * the raster, or -1
+     */
+    private static int nextCode(RasterEncoder.Raster raster, int from) {
+        for (int i = from; i < raster.codes.size(); i++) {
+            ReceiptCode code = raster.codes.get(i);
+            if (code.isNativeCapable() && code.rowStart >= 0 && code.rowEnd <= raster.height) return i;
+        }
+        return -1;
+    }
+
+    /** Rows [rowStart, rowEnd) of the raster as their own packed buffer */
+    static byte[] rows(RasterEncoder.Raster raster, int rowStart, int rowEnd) {
+        byte[] out = new byte[(rowEnd - rowStart) * raster.stride];
+        System.arraycopy(raster.data, rowStart * raster.stride, out, 0, out.length);
+        return out;
+    }
+
+    private static boolean isBlank(RasterEncoder.Raster raster, int y) {
+        byte[] data = raster.data;
+        int base = y * raster.stride;
+        for (int i = 0; i < raster.stride; i++) {
+            if (data[base + i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether row y is one contiguous run of black dots
+     * @param run receives [x0, x1) of the run
+     */
+    private static boolean singleRun(RasterEncoder.Raster raster, int y, int[] run) {
+        byte[] data = raster.data;
+        int base = y * raster.stride;
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < raster.stride; i++) {
+            if (data[base + i] != 0) {
+                if (first < 0) first = i;
+                last = i;
+            }
+        }
+        if (first < 0) return false;
+        // Bytes strictly inside the run must be solid
+        for (int i = first + 1; i < last; i++) {
+            if (data[base + i] != (byte) 0xff) return false;
+        }
+        int firstByte = data[base + first] & 0xff;
+        int lastByte = data[base + last] & 0xff;
+        // MSB = leftmost dot: the first byte must be 0..01..1, the last 1..10..0
+        int lead = Integer.numberOfLeadingZeros(firstByte) - 24;
+        int trail = Integer.numberOfTrailingZeros(lastByte);
+        if (first == last) {
+            int bits = firstByte;
+            int expected = (0xff >>> lead) & ~((1 << trail) - 1) & 0xff;
+            if (bits != expected) return false;
+        } else {
+            if (firstByte != (0xff >>> lead)) return false;
+            if (lastByte != ((0xff << trail) & 0xff)) return false;
+        }
+        run[0] = first * 8 + lead;
+        run[1] = Math.min(raster.width, last * 8 + 8 - trail);
+        return true;
+    }
+}
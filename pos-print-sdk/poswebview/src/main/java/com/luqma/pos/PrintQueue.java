@@ -0,0 +1,206 @@
+package com.luqma.pos;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single owner of the printer: every print job and every change to the printer handle goes through
+ * a {@link SubmissionRing} and runs, one at a time, on the "print-consumer" thread. Bridge calls
+ * (JavaBridge thread, warm-up, benchmarks) never touch the native handle concurrently.
+ *
+ * When the ring is nearly full the job is refused with RESULT_BUSY instead of blocking the caller;
+ * the dashboard shows "queue busy" and the order can be printed again.
+ */
+final class PrintQueue {
+
+    static final int RESULT_OK = 0;
+    static final int RESULT_FAILED = 1;
+    static final int RESULT_BUSY = 2;
+    /** Failed because the transport got stuck (a native call or the job missed its deadline) */
+    static final int RESULT_TIMEOUT = 3;
+    /** Went to the system print dialog (PrintManager fallback): not printed yet */
+    static final int RESULT_DIALOG = 4;
+
+    static final int DEFAULT_CAPACITY = 16;
+    /** Free slots kept back: submissions beyond capacity - headroom are refused as busy */
+    private static final int BUSY_HEADROOM = 4;
+    private static final long IDLE_PARK_NANOS = 50L * 1000 * 1000;
+
+    /** Does the actual print (PrintRouter in the app) */
+    interface Printer {
+        /** @return PrintMetrics.OUTCOME_* */
+        int print(RasterEncoder.Raster raster, int feedLines) throws Exception;
+    }
+
+    private static final class Job {
+        final RasterEncoder.Raster raster;   // null for a task
+        final int feedLines;
+        final Runnable task;
+        final long submittedAt = SystemClock.elapsedRealtime();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean ok;
+        volatile boolean timedOut;
+        volatile boolean dialog;
+
+        Job(RasterEncoder.Raster raster, int feedLines, Runnable task) {
+            this.raster = raster;
+            this.feedLines = feedLines;
+            this.task = task;
+        }
+    }
+
+    private final SubmissionRing<Job> ring;
+    private final int busyThreshold;
+    private final Printer printer;
+    private final Thread consumer;
+    private volatile boolean running = true;
+
+    // Written by the consumer only
+    private volatile int jobs;
+    private volatile int failed;
+    private volatile int timedOut;
+    private volatile long maxWaitMs;
+    // Updated by producers
+    private final AtomicInteger busyRejections = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    PrintQueue(Printer printer, int capacity) {
+        this.printer = printer;
+        this.ring = new SubmissionRing<>(capacity);
+        this.busyThreshold = Math.max(1, ring.capacity() - BUSY_HEADROOM);
+        consumer = new Thread(this::run, "print-consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Queue a job and wait for the printer to finish it.
+     * @return RESULT_OK, RESULT_FAILED, RESULT_TIMEOUT, RESULT_DIALOG, or RESULT_BUSY (not queued)
+     */
+    int print(RasterEncoder.Raster raster, int feedLines) {
+        Job job = new Job(raster, feedLines, null);
+        if (!submit(job)) return RESULT_BUSY;
+        awaitUninterruptibly(job);
+        if (job.ok) return RESULT_OK;
+        if (job.dialog) return RESULT_DIALOG;
+        return job.timedOut ? RESULT_TIMEOUT : RESULT_FAILED;
+    }
+
+    /**
+     * Run a task on the consumer thread between jobs (reconnect, close the port) and wait for it.
+     * Tasks are not refused when busy: they are what unsticks the queue.
+     */
+    void runOnPrinterThread(Runnable task) {
+        if (Thread.currentThread() == consumer) {
+            task.run();
+            return;
+        }
+        Job job = new Job(null, 0, task);
+        while (!ring.offer(job)) {
+            if (!running) return;
+            SystemClock.sleep(10);
+        }
+        LockSupport.unpark(consumer);
+        awaitUninterruptibly(job);
+    }
+
+    /**
+     * Queue a task for the consumer thread without waiting (a streamed document that prints its
+     * segments from there, so no other job lands in the middle of it).
+     * @return false when the queue is busy (not queued)
+     */
+    boolean execute(Runnable task) {
+        return submit(new Job(null, 0, task));
+    }
+
+    int depth() {
+        return ring.size();
+    }
+
+    /** Stop the consumer once the jobs already queued are done */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(consumer);
+    }
+
+    /** @return JSON: {"depth","capacity","busy_threshold","max_depth","jobs","failed","timed_out","busy_rejections","max_wait_ms"} */
+    String toJson() {
+        return "{\"depth\":" + ring.size()
+                + ",\"capacity\":" + ring.capacity()
+                + ",\"busy_threshold\":" + busyThreshold
+                + ",\"max_depth\":" + maxDepth.get()
+                + ",\"jobs\":" + jobs
+                + ",\"failed\":" + failed
+                + ",\"timed_out\":" + timedOut
+                + ",\"busy_rejections\":" + busyRejections.get()
+                + ",\"max_wait_ms\":" + maxWaitMs + "}";
+    }
+
+    private boolean submit(Job job) {
+        if (!running || ring.size() >= busyThreshold || !ring.offer(job)) {
+            busyRejections.incrementAndGet();
+            PrintEventLog.log(PrintEventLog.WARN, PrintEventLog.QUEUE_BUSY, ring.size(), ring.capacity());
+            return false;
+        }
+        int depth = ring.size();
+        PrintEventLog.log(PrintEventLog.DEBUG, PrintEventLog.QUEUE_SUBMIT, depth, job.raster != null ? job.raster.data.length : 0);
+        for (int max = maxDepth.get(); depth > max && !maxDepth.compareAndSet(max, depth); max = maxDepth.get()) {
+            // retry
+        }
+        LockSupport.unpark(consumer);
+        return true;
+    }
+
+    private void run() {
+        while (true) {
+            Job job = ring.poll();
+            if (job == null) {
+                if (!running) return;
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                if (job.task != null) {
+                    job.task.run();
+                    job.ok = true;
+                } else {
+                    long waited = SystemClock.elapsedRealtime() - job.submittedAt;
+                    if (waited > maxWaitMs) maxWaitMs = waited;
+                    PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.JOB_START, job.raster.data.length, waited);
+                    int outcome = printer.print(job.raster, job.feedLines);
+                    job.ok = outcome == PrintMetrics.OUTCOME_OK;
+                    job.timedOut = outcome == PrintMetrics.OUTCOME_TIMEOUT;
+                    job.dialog = outcome == PrintMetrics.OUTCOME_DIALOG;
+                    jobs++;
+                    if (!job.ok && !job.dialog) failed++;
+                    if (job.timedOut) timedOut++;
+                }
+            } catch (Throwable t) {
+                android.util.Log.e("POS", "❌ Print consumer error: " + t.getMessage());
+                job.ok = false;
+                if (job.task == null) {
+                    jobs++;
+                    failed++;
+                }
+            } finally {
+                job.done.countDown();
+            }
+        }
+    }
+
+    private static void awaitUninterruptibly(Job job) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                job.done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,307 @@
+package com.luqma.pos;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends each print job to the fastest healthy backend and fails over to the next one when it
+ * refused the job before sending any of it.
+ *
+ * Per backend it keeps a moving (EWMA) latency per KB of job data and a moving success rate.
+ * Order per job: healthy silent backends by latency, then unhealthy silent ones (cooling down after
+ * failures), then interactive ones (PrintManager dialog, only registered when enabled; a job
+ * handed to it ends as OUTCOME_DIALOG, never as printed). A backend that times out is skipped while
+ * its call is still stuck. SENRAISE and Bluetooth drive the same printer, so a job that failed, errored
+ * or timed out part-way is not sent again elsewhere: it may still come out of that printer, and the
+ * dashboard decides whether to reprint.
+ */
+final class PrintRouter {
+
+    private static final double LATENCY_ALPHA = 0.3;
+    private static final double SUCCESS_ALPHA = 0.2;
+    /** Below this moving success rate a backend counts as unhealthy */
+    private static final double HEALTHY_SUCCESS_RATE = 0.5;
+    private static final long COOLDOWN_BASE_MS = 5000;
+    private static final long COOLDOWN_MAX_MS = 60000;
+    static final long DEFAULT_JOB_TIMEOUT_MS = 20000;
+
+    private static final class Route {
+        final PrintBackend backend;
+        final ExecutorService executor;
+        final AtomicBoolean busy = new AtomicBoolean();
+        double msPerKb;          // moving latency estimate
+        boolean measured;        // msPerKb is from a successful job, not the prior
+        double successRate = 1.0;
+        int consecutiveFailures;
+        long unhealthyUntil;
+
+        Route(PrintBackend backend, double priorMsPerKb) {
+            this.backend = backend;
+            this.msPerKb = priorMsPerKb;
+            this.executor = Executors.newSingleThreadExecutor();
+        }
+
+        boolean healthy(long now) {
+            return successRate >= HEALTHY_SUCCESS_RATE && now >= unhealthyUntil;
+        }
+    }
+
+    private final Map<String, Route> routes = new LinkedHashMap<>();
+    private final PrintMetrics metrics;
+    private final long jobTimeoutMs;
+
+    PrintRouter(PrintMetrics metrics, long jobTimeoutMs) {
+        this.metrics = metrics;
+        this.jobTimeoutMs = jobTimeoutMs;
+    }
+
+    /**
+     * Add (or replace, keeping its estimates) a backend.
+     * @param priorMsPerKb latency guess until the first job has been measured
+     */
+    synchronized void register(PrintBackend backend, double priorMsPerKb) {
+        Route old = routes.get(backend.name());
+        Route route = new Route(backend, old != null ? old.msPerKb : priorMsPerKb);
+        if (old != null) {
+            route.measured = old.measured;
+            route.successRate = old.successRate;
+            route.consecutiveFailures = old.consecutiveFailures;
+            route.unhealthyUntil = old.unhealthyUntil;
+            old.executor.shutdown();
+        }
+        routes.put(backend.name(), route);
+    }
+
+    synchronized void unregister(String name) {
+        Route old = routes.remove(name);
+        if (old != null) old.executor.shutdown();
+    }
+
+    /** At least one backend can take a job */
+    synchronized boolean hasAvailableBackend() {
+        for (Route route : routes.values()) {
+            if (route.backend.isAvailable()) return true;
+        }
+        return false;
+    }
+
+    /** Name of the backend the next job would try first, or null */
+    String preferredBackend() {
+        List<Route> order = order(SystemClock.elapsedRealtime());
+        return order.isEmpty() ? null : order.get(0).backend.name();
+    }
+
+    /**
+     * Print through the best backend, failing over while backends refuse the job (OUTCOME_REFUSED).
+     * @return PrintMetrics.OUTCOME_OK when a backend accepted the job, OUTCOME_DIALOG when it went
+     * to the system print dialog, OUTCOME_TIMEOUT when the attempt timed out, else OUTCOME_FAILED
+     */
+    int print(final RasterEncoder.Raster raster, final int feedLines) {
+        return print(raster, feedLines, null);
+    }
+
+    /**
+     * Printer for one multi-part document (DocumentStream): the first part picks the best silent
+     * backend and every later part goes to that same one without failover, so the parts come out of
+     * one printer in order. A part that fails there, or finds the backend gone, fails the document.
+     */
+    PrintQueue.Printer pinned() {
+        return new PrintQueue.Printer() {
+            private String backend;
+
+            @Override
+            public int print(RasterEncoder.Raster raster, int feedLines) {
+                if (backend == null) {
+                    backend = preferredSilentBackend();
+                    if (backend == null) return PrintMetrics.OUTCOME_FAILED;
+                }
+                return PrintRouter.this.print(raster, feedLines, backend);
+            }
+        };
+    }
+
+    /** @param backend only this backend (no failover); null = best available, failing over on refusal */
+    private int print(final RasterEncoder.Raster raster, final int feedLines, String backend) {
+        long jobStart = SystemClock.elapsedRealtime();
+        List<Route> order = backend == null ? order(jobStart) : only(backend);
+        double kb = Math.max(1.0, raster.data.length / 1024.0);
+        StringBuilder trail = new StringBuilder();
+        int outcome = PrintMetrics.OUTCOME_REFUSED;
+        int attempts = 0;
+
+        for (int i = 0; i < order.size() && outcome == PrintMetrics.OUTCOME_REFUSED; i++) {
+            final Route route = order.get(i);
+            String name = route.backend.name();
+            int backendId = PrintEventLog.backendId(name);
+            if (i == 0) metrics.recordSelection(name);
+            else PrintEventLog.log(PrintEventLog.WARN, PrintEventLog.FAILOVER, backendId, i);
+
+            long start = SystemClock.elapsedRealtime();
+            outcome = attempt(route, raster, feedLines);
+            long ms = SystemClock.elapsedRealtime() - start;
+            metrics.recordAttempt(name, outcome, ms);
+            PrintEventLog.log(outcome == PrintMetrics.OUTCOME_OK ? PrintEventLog.INFO : PrintEventLog.WARN,
+                    PrintEventLog.ATTEMPT, backendId, outcome, ms);
+            if (outcome != PrintMetrics.OUTCOME_DIALOG) update(route, outcome, ms / kb, SystemClock.elapsedRealtime());
+
+            if (trail.length() > 0) trail.append('>');
+            trail.append(name).append(':').append(PrintMetrics.outcomeName(outcome));
+            attempts++;
+        }
+        boolean ok = outcome == PrintMetrics.OUTCOME_OK;
+        boolean timedOut = outcome == PrintMetrics.OUTCOME_TIMEOUT;
+
+        long total = SystemClock.elapsedRealtime() - jobStart;
+        String route = trail.length() > 0 ? trail.toString() : "none";
+        metrics.recordJob(raster.data.length, ok, timedOut, attempts > 1, route, total);
+        PrintEventLog.log(ok ? PrintEventLog.INFO : PrintEventLog.ERROR, PrintEventLog.JOB_DONE, ok ? 1 : 0, attempts, total);
+        if (ok || timedOut || outcome == PrintMetrics.OUTCOME_DIALOG) return outcome;
+        return PrintMetrics.OUTCOME_FAILED;
+    }
+
+    /**
+     * Run one backend call on its own thread, bounded by the job timeout (interactive: no timeout).
+     * A native call that missed its own deadline inside the backend also counts as a timeout.
+     */
+    private int attempt(final Route route, final RasterEncoder.Raster raster, final int feedLines) {
+        if (!route.busy.compareAndSet(false, true)) {
+            return PrintMetrics.OUTCOME_REFUSED; // previous call still stuck
+        }
+        Future<Boolean> future;
+        try {
+            future = route.executor.submit(() -> {
+                try {
+                    return route.backend.print(raster, feedLines);
+                } finally {
+                    route.busy.set(false);
+                }
+            });
+        } catch (Exception e) {
+            route.busy.set(false);
+            return PrintMetrics.OUTCOME_REFUSED;
+        }
+        try {
+            Boolean result = route.backend.isInteractive()
+                    ? future.get()
+                    : future.get(jobTimeoutMs, TimeUnit.MILLISECONDS);
+            if (!Boolean.TRUE.equals(result)) return PrintMetrics.OUTCOME_FAILED;
+            return route.backend.isInteractive() ? PrintMetrics.OUTCOME_DIALOG : PrintMetrics.OUTCOME_OK;
+        } catch (TimeoutException e) {
+            android.util.Log.e("POS", "⏰ " + route.backend.name() + " timed out after " + jobTimeoutMs + "ms");
+            return PrintMetrics.OUTCOME_TIMEOUT;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NativeCallSupervisor.NativeTimeoutException) {
+                return PrintMetrics.OUTCOME_TIMEOUT;
+            }
+            if (e.getCause() instanceof PrintBackend.NotSentException) {
+                android.util.Log.w("POS", "⚠️ " + route.backend.name() + " refused the job: " + e.getCause().getMessage());
+                return PrintMetrics.OUTCOME_REFUSED;
+            }
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            android.util.Log.e("POS", "❌ " + route.backend.name() + " error: " + cause.getMessage());
+            PrintEventLog.log(PrintEventLog.ERROR, PrintEventLog.PRINT_ERROR, PrintEventLog.backendId(route.backend.name()));
+            return PrintMetrics.OUTCOME_ERROR;
+        } catch (Exception e) {
+            android.util.Log.e("POS", "❌ " + route.backend.name() + " error: " + e.getMessage());
+            PrintEventLog.log(PrintEventLog.ERROR, PrintEventLog.PRINT_ERROR, PrintEventLog.backendId(route.backend.name()));
+            return PrintMetrics.OUTCOME_ERROR;
+        }
+    }
+
+    private synchronized void update(Route route, int outcome, double msPerKb, long now) {
+        if (outcome == PrintMetrics.OUTCOME_OK) {
+            // The first success replaces the prior outright (a guess shouldn't linger for several jobs)
+            route.msPerKb = route.measured ? route.msPerKb * (1 - LATENCY_ALPHA) + msPerKb * LATENCY_ALPHA : msPerKb;
+            route.measured = true;
+            route.successRate = route.successRate * (1 - SUCCESS_ALPHA) + SUCCESS_ALPHA;
+            route.consecutiveFailures = 0;
+            route.unhealthyUntil = 0;
+        } else {
+            route.successRate = route.successRate * (1 - SUCCESS_ALPHA);
+            route.consecutiveFailures++;
+            long cooldown = Math.min(COOLDOWN_MAX_MS, COOLDOWN_BASE_MS << Math.min(4, route.consecutiveFailures - 1));
+            route.unhealthyUntil = now + cooldown;
+            if (outcome == PrintMetrics.OUTCOME_TIMEOUT) {
+                // A timeout is also a latency sample: at least the timeout
+                route.msPerKb = Math.max(route.msPerKb, msPerKb);
+            }
+        }
+    }
+
+    private synchronized String preferredSilentBackend() {
+        for (Route route : order(SystemClock.elapsedRealtime())) {
+            if (!route.backend.isInteractive()) return route.backend.name();
+        }
+        return null;
+    }
+
+    /** The named backend when registered and available, else nothing */
+    private synchronized List<Route> only(String name) {
+        List<Route> list = new ArrayList<>(1);
+        Route route = routes.get(name);
+        if (route != null && route.backend.isAvailable()) list.add(route);
+        return list;
+    }
+
+    /** Available backends in try order */
+    private synchronized List<Route> order(final long now) {
+        List<Route> list = new ArrayList<>();
+        for (Route route : routes.values()) {
+            if (route.backend.isAvailable()) list.add(route);
+        }
+        Collections.sort(list, (a, b) -> {
+            if (a.backend.isInteractive() != b.backend.isInteractive()) return a.backend.isInteractive() ? 1 : -1;
+            boolean ha = a.healthy(now);
+            boolean hb = b.healthy(now);
+            if (ha != hb) return ha ? -1 : 1;
+            return Double.compare(a.msPerKb, b.msPerKb);
+        });
+        return list;
+    }
+
+    /** @return JSON: print metrics plus per-backend estimates ("routing") */
+    synchronized String toJson() {
+        long now = SystemClock.elapsedRealtime();
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"metrics\":").append(metrics.toJson()).append(",\"routing\":[");
+        boolean first = true;
+        for (Route route : order(now)) {
+            if (!first) json.append(',');
+            first = false;
+            appendRoute(json, route, now);
+        }
+        for (Route route : routes.values()) {
+            if (route.backend.isAvailable()) continue;
+            if (!first) json.append(',');
+            first = false;
+            appendRoute(json, route, now);
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static void appendRoute(StringBuilder json, Route route, long now) {
+        json.append("{\"name\":\"").append(route.backend.name()).append('"')
+            .append(",\"available\":").append(route.backend.isAvailable())
+            .append(",\"healthy\":").append(route.healthy(now))
+            .append(",\"interactive\":").append(route.backend.isInteractive())
+            .append(",\"ms_per_kb\":").append(String.format(Locale.US, "%.1f", route.msPerKb))
+            .append(",\"measured\":").append(route.measured)
+            .append(",\"success_rate\":").append(String.format(Locale.US, "%.2f", route.successRate))
+            .append(",\"cooldown_ms\":").append(Math.max(0, route.unhealthyUntil - now))
+            .append('}');
+    }
+}
@@ -0,0 +1,47 @@
+package com.luqma.pos;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.WString;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+
+/**
+ * The AutoReplyPrint calls made per command while a receipt is sent (raster, write, feed, line,
+ * text, status), with the SDK's names and signatures. Bound either to JNA direct-mapped natives
+ * ({@link AutoReplyDirect}) or to the AutoReplyPrint interface proxy; everything else (open, close,
+ * callbacks, label mode, codes) stays on AutoReplyPrint.
+ */
+interface PrinterCalls {
+
+    /** "direct" or "proxy" */
+    String binding();
+
+    boolean CP_Pos_PrintRasterImageFromPixels(Pointer handle, byte[] img_data, int img_datalen, int img_width,
+                                              int img_height, int img_stride, int img_format,
+                                              int binaryzation_method, int compress_method);
+
+    /** Same, pixels in native memory (a {@link NativeBufferPool} block) */
+    boolean CP_Pos_PrintRasterImageFromPixels(Pointer handle, Pointer img_data, int img_datalen, int img_width,
+                                              int img_height, int img_stride, int img_format,
+                                              int binaryzation_method, int compress_method);
+
+    int CP_Port_Write(Pointer handle, byte[] buffer, int count, int timeout);
+
+    boolean CP_Pos_FeedLine(Pointer handle, int numLines);
+
+    boolean CP_Pos_FeedDot(Pointer handle, int numDots);
+
+    boolean CP_Pos_PrintHorizontalLine(Pointer handle, int nLineStartPosition, int nLineEndPosition);
+
+    boolean CP_Pos_PrintHorizontalLineSpecifyThickness(Pointer handle, int nLineStartPosition, int nLineEndPosition,
+                                                       int nLineThickness);
+
+    boolean CP_Pos_SetAlignment(Pointer handle, int nAlignment);
+
+    boolean CP_Pos_PrintTextInUTF8(Pointer handle, WString str);
+
+    int CP_Pos_QueryRTStatus(Pointer handle, int timeout);
+
+    boolean CP_Printer_GetPrinterReceivedInfo(Pointer handle, IntByReference printer_received_byte_count,
+                                              LongByReference timestamp_ms);
+}
@@ -0,0 +1,312 @@
+package com.luqma.pos;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Converts receipt/logo bitmaps to the printer's 1-bit raster (CP_ImagePixelsFormat_MONO).
+ *
+ * Binarization is done here instead of by the native library, so each image can use the mode
+ * that suits it: plain threshold for anti-aliased text, ordered (Bayer) or error-diffusion
+ * (Floyd–Steinberg / Atkinson) for shaded logos. All stages work on primitive arrays
+ * (one int[] row buffer, one byte[] gray plane, packed byte[] output).
+ */
+final class RasterEncoder {
+
+    static final int MODE_AUTO = -1;
+    static final int MODE_THRESHOLD = 0;
+    static final int MODE_BAYER = 1;
+    static final int MODE_FLOYD_STEINBERG = 2;
+    static final int MODE_ATKINSON = 3;
+
+    static final String[] MODE_NAMES = { "threshold", "bayer", "floyd-steinberg", "atkinson" };
+
+    /** Gray level below which a pixel prints black (0 = black, 255 = white) */
+    static final int DEFAULT_THRESHOLD = 128;
+
+    /** Share of mid-tone pixels above which AUTO picks error diffusion instead of threshold */
+    private static final int AUTO_MIDTONE_PERCENT = 4;
+
+    private static final int[] BAYER_8X8 = {
+             0, 32,  8, 40,  2, 34, 10, 42,
+            48, 16, 56, 24, 50, 18, 58, 26,
+            12, 44,  4, 36, 14, 46,  6, 38,
+            60, 28, 52, 20, 62, 30, 54, 22,
+             3, 35, 11, 43,  1, 33,  9, 41,
+            51, 19, 59, 27, 49, 17, 57, 25,
+            15, 47,  7, 39, 13, 45,  5, 37,
+            63, 31, 55, 23, 61, 29, 53, 21
+    };
+
+    private RasterEncoder() {}
+
+    /**
+     * Packed 1-bit raster: rows of {@code stride} bytes, MSB = leftmost pixel, bit set = black dot
+     */
+    static final class Raster {
+        final int width;
+        final int height;
+        final int stride;
+        final byte[] data;
+        /** QR codes / barcodes drawn into the raster, top to bottom (empty for plain images) */
+        final List<ReceiptCode> codes;
+        /** Black dots per row, counted while packing (null: counted from data when asked) */
+        private final int[] rowInk;
+
+        Raster(int width, int height, int stride, byte[] data) {
+            this(width, height, stride, data, Collections.<ReceiptCode>emptyList(), null);
+        }
+
+        Raster(int width, int height, int stride, byte[] data, List<ReceiptCode> codes, int[] rowInk) {
+            this.width = width;
+            this.height = height;
+            this.stride = stride;
+            this.data = data;
+            this.codes = codes;
+            this.rowInk = rowInk;
+        }
+
+        /** The same dots, with the codes that were drawn into them */
+        Raster withCodes(List<ReceiptCode> codes) {
+            return codes == null || codes.isEmpty() ? this
+                    : new Raster(width, height, stride, data, Collections.unmodifiableList(codes), rowInk);
+        }
+
+        /** Black dots in rows [rowStart, rowEnd) */
+        int inkDots(int rowStart, int rowEnd) {
+            int dots = 0;
+            if (rowInk != null) {
+                for (int y = rowStart; y < rowEnd; y++) dots += rowInk[y];
+                return dots;
+            }
+            for (int i = rowStart * stride; i < rowEnd * stride; i++) dots += Integer.bitCount(data[i] & 0xff);
+            return dots;
+        }
+    }
+
+    /**
+     * Parse a mode name from receiptStyle ("auto", "threshold", "bayer", "floyd-steinberg", "atkinson")
+     */
+    static int parseMode(String name, int defaultMode) {
+        if (name == null || name.isEmpty()) return defaultMode;
+        String n = name.toLowerCase();
+        if (n.equals("auto")) return MODE_AUTO;
+        if (n.startsWith("threshold")) return MODE_THRESHOLD;
+        if (n.startsWith("bayer") || n.equals("ordered")) return MODE_BAYER;
+        if (n.startsWith("floyd") || n.equals("fs")) return MODE_FLOYD_STEINBERG;
+        if (n.startsWith("atkinson")) return MODE_ATKINSON;
+        return defaultMode;
+    }
+
+    static String modeName(int mode) {
+        return mode >= 0 && mode < MODE_NAMES.length ? MODE_NAMES[mode] : "auto";
+    }
+
+    /**
+     * Bitmap → packed 1-bit raster using the given mode (MODE_AUTO picks per image).
+     */
+    static Raster encode(Bitmap bitmap, int mode) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        byte[] gray = toGray(bitmap);
+        if (mode == MODE_AUTO) mode = selectMode(gray, w, h);
+        return dither(gray, w, h, mode, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Luminance plane (0 = black .. 255 = white), transparent pixels composited on white paper.
+     * Reads the bitmap one row at a time to avoid a full int[] copy of the image.
+     */
+    static byte[] toGray(Bitmap bitmap) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        byte[] gray = new byte[w * h];
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            bitmap.getPixels(row, 0, w, 0, y, w, 1);
+            int o = y * w;
+            for (int x = 0; x < w; x++) {
+                int c = row[x];
+                int a = c >>> 24;
+                int lum = (((c >> 16) & 0xff) * 299 + ((c >> 8) & 0xff) * 587 + (c & 0xff) * 114) / 1000;
+                gray[o + x] = (byte) (255 - (a * (255 - lum)) / 255);
+            }
+        }
+        return gray;
+    }
+
+    /**
+     * ALPHA_8 receipt → packed 1-bit raster (threshold), reading only the first {@code height} rows.
+     * Alpha is ink coverage over white paper, so gray = 255 - alpha and no gray plane is needed.
+     * Black dots are counted per row on the way (ink coverage for the print speed / density choice).
+     */
+    static Raster packAlpha8(Bitmap bitmap, int height, int threshold) {
+        int w = bitmap.getWidth();
+        int h = Math.min(height, bitmap.getHeight());
+        int stride = (w + 7) >> 3;
+        byte[] out = new byte[stride * h];
+        int[] rowInk = new int[h];
+        int inkAbove = 255 - threshold;
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            bitmap.getPixels(row, 0, w, 0, y, w, 1);
+            int o = y * stride;
+            int ink = 0;
+            for (int x = 0; x < w; x++) {
+                if ((row[x] >>> 24) > inkAbove) {
+                    out[o + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                    ink++;
+                }
+            }
+            rowInk[y] = ink;
+        }
+        return new Raster(w, h, stride, out, Collections.<ReceiptCode>emptyList(), rowInk);
+    }
+
+    /**
+     * Per-image mode selector: text (mostly pure black/white) → threshold,
+     * shaded artwork (many mid-tones) → Atkinson, which keeps logos light and crisp on thermal paper.
+     */
+    static int selectMode(byte[] gray, int w, int h) {
+        int total = w * h;
+        if (total == 0) return MODE_THRESHOLD;
+        // Sample every 3rd pixel – plenty for a histogram decision
+        int midtones = 0;
+        int sampled = 0;
+        for (int i = 0; i < total; i += 3) {
+            int g = gray[i] & 0xff;
+            if (g > 48 && g < 208) midtones++;
+            sampled++;
+        }
+        return midtones * 100 > sampled * AUTO_MIDTONE_PERCENT ? MODE_ATKINSON : MODE_THRESHOLD;
+    }
+
+    /**
+     * Binarize a gray plane and pack it to 1 bit per pixel.
+     */
+    static Raster dither(byte[] gray, int w, int h, int mode, int threshold) {
+        int stride = (w + 7) >> 3;
+        byte[] out = new byte[stride * h];
+        switch (mode) {
+            case MODE_BAYER:
+                bayer(gray, w, h, stride, out);
+                break;
+            case MODE_FLOYD_STEINBERG:
+                floydSteinberg(gray, w, h, stride, out, threshold);
+                break;
+            case MODE_ATKINSON:
+                atkinson(gray, w, h, stride, out, threshold);
+                break;
+            default:
+                threshold(gray, w, h, stride, out, threshold);
+                break;
+        }
+        return new Raster(w, h, stride, out);
+    }
+
+    private static void threshold(byte[] gray, int w, int h, int stride, byte[] out, int t) {
+        for (int y = 0; y < h; y++) {
+            int in = y * w;
+            int o = y * stride;
+            for (int x = 0; x < w; x++) {
+                if ((gray[in + x] & 0xff) < t) out[o + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+            }
+        }
+    }
+
+    private static void bayer(byte[] gray, int w, int h, int stride, byte[] out) {
+        for (int y = 0; y < h; y++) {
+            int in = y * w;
+            int o = y * stride;
+            int m = (y & 7) << 3;
+            for (int x = 0; x < w; x++) {
+                // Cell threshold spread over 2..254 so pure white never prints and pure black always does
+                int t = (BAYER_8X8[m + (x & 7)] << 2) + 2;
+                if ((gray[in + x] & 0xff) < t) out[o + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+            }
+        }
+    }
+
+    private static void floydSteinberg(byte[] gray, int w, int h, int stride, byte[] out, int t) {
+        // Error rows with one pixel of margin on each side; errors kept in 1/16 units
+        int[] cur = new int[w + 2];
+        int[] next = new int[w + 2];
+        for (int y = 0; y < h; y++) {
+            int in = y * w;
+            int o = y * stride;
+            for (int x = 0; x < w; x++) {
+                int v = (gray[in + x] & 0xff) + (cur[x + 1] >> 4);
+                int err;
+                if (v < t) {
+                    out[o + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                    err = v;
+                } else {
+                    err = v - 255;
+                }
+                cur[x + 2] += err * 7;
+                next[x] += err * 3;
+                next[x + 1] += err * 5;
+                next[x + 2] += err;
+            }
+            int[] tmp = cur;
+            cur = next;
+            next = tmp;
+            Arrays.fill(next, 0);
+        }
+    }
+
+    private static void atkinson(byte[] gray, int w, int h, int stride, byte[] out, int t) {
+        // Atkinson spreads 6/8 of the error (1/8 to six neighbours) – lighter, crisper logos.
+        // Rows with margins of 1 (x-1) and 2 (x+2); errors kept in 1/8 units
+        int[] r0 = new int[w + 3];
+        int[] r1 = new int[w + 3];
+        int[] r2 = new int[w + 3];
+        for (int y = 0; y < h; y++) {
+            int in = y * w;
+            int o = y * stride;
+            for (int x = 0; x < w; x++) {
+                int v = (gray[in + x] & 0xff) + (r0[x + 1] >> 3);
+                int err;
+                if (v < t) {
+                    out[o + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                    err = v;
+                } else {
+                    err = v - 255;
+                }
+                r0[x + 2] += err;
+                r0[x + 3] += err;
+                r1[x] += err;
+                r1[x + 1] += err;
+                r1[x + 2] += err;
+                r2[x + 1] += err;
+            }
+            int[] tmp = r0;
+            r0 = r1;
+            r1 = r2;
+            r2 = tmp;
+            Arrays.fill(r2, 0);
+        }
+    }
+
+    /**
+     * Raster → black/transparent ARGB bitmap (used to draw a pre-dithered logo into the receipt;
+     * transparent instead of white so it draws the same on the white ARGB and the ALPHA_8 canvas)
+     */
+    static Bitmap toBitmap(Raster raster) {
+        Bitmap bitmap = Bitmap.createBitmap(raster.width, raster.height, Bitmap.Config.ARGB_8888);
+        int[] row = new int[raster.width];
+        for (int y = 0; y < raster.height; y++) {
+            int o = y * raster.stride;
+            for (int x = 0; x < raster.width; x++) {
+                boolean black = (raster.data[o + (x >> 3)] & (0x80 >>> (x & 7))) != 0;
+                row[x] = black ? Color.BLACK : Color.TRANSPARENT;
+            }
+            bitmap.setPixels(row, 0, raster.width, 0, y, raster.width, 1);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,25 @@
+package com.luqma.pos;
+
+/**
+ * Byte-level printer port (CP_Port_Write plus the printer's received-byte counter), used by
+ * {@link FlowControlledWriter}. Implemented by the AutoReplyPrint handle and by {@link LoopbackPort}.
+ */
+interface RawPort {
+
+    /** Printer-side received-byte counter updates (cumulative, may wrap around int) */
+    interface ReceivedListener {
+        void onPrinterReceived(int printerReceivedByteCount);
+    }
+
+    /**
+     * Write the first {@code count} bytes of buffer (same contract as CP_Port_Write)
+     * @return bytes written, or -1 on failure
+     */
+    int write(byte[] buffer, int count, int timeoutMs);
+
+    /** Current received-byte counter, or -1 when the printer hasn't reported one */
+    int printerReceivedCount();
+
+    /** Listener for counter updates (null to remove) */
+    void setReceivedListener(ReceivedListener listener);
+}
@@ -0,0 +1,101 @@
+package com.luqma.pos;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.oned.Code128Writer;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A QR code or Code 128 barcode placed on a receipt raster ("[QR:…]" / "[BARCODE:…]" lines).
+ *
+ * The renderer always draws the code's modules into the raster at a whole number of dots per
+ * module, so any backend can print it as it is. It also records where it drew it (rows
+ * [rowStart, rowEnd), dots [x0, x1)); a transport that has the printer's own code commands
+ * (CP_Pos_PrintQRCode*, CP_Pos_PrintBarcode) sends the command instead of those rows
+ * ({@link PrintPlan#OP_CODE}).
+ */
+final class ReceiptCode {
+
+    static final int TYPE_QR = 0;
+    static final int TYPE_BARCODE = 1;
+
+    /** Largest QR drawn (dots); the module size is the largest that fits, up to QR_MAX_MODULE */
+    static final int QR_MAX_DOTS = 240;
+    static final int QR_MAX_MODULE = 8;
+    /** Bar height and widest bar module (dots) */
+    static final int BARCODE_HEIGHT = 80;
+    static final int BARCODE_MAX_MODULE = 3;
+    /** Printers take bar modules of 2..6 dots (GS w); a barcode only fitting at 1 stays raster */
+    static final int BARCODE_MIN_NATIVE_MODULE = 2;
+
+    final int type;
+    final String data;
+    /** Dots per module as drawn (and as asked of the printer) */
+    final int module;
+    final int rowStart;
+    final int rowEnd;
+    final int x0;
+    final int x1;
+
+    ReceiptCode(int type, String data, int module, int rowStart, int rowEnd, int x0, int x1) {
+        this.type = type;
+        this.data = data;
+        this.module = module;
+        this.rowStart = rowStart;
+        this.rowEnd = rowEnd;
+        this.x0 = x0;
+        this.x1 = x1;
+    }
+
+    /** Whether the printer's command can produce this code at the drawn size */
+    boolean isNativeCapable() {
+        return type == TYPE_QR || module >= BARCODE_MIN_NATIVE_MODULE;
+    }
+
+    /**
+     * Modules of the code, without quiet zone: a square matrix for QR (error correction M, UTF-8),
+     * one row of bars for Code 128
+     * @return null when the data can't be encoded (empty, too long, non-ASCII barcode)
+     */
+    static BitMatrix encode(int type, String data) {
+        try {
+            return encodeOrThrow(type, data);
+        } catch (WriterException | IllegalArgumentException e) {
+            android.util.Log.w("POS", "⚠️ Can't encode " + (type == TYPE_QR ? "QR" : "barcode") + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * {@link #encode} without logging (no Android classes: the standalone emulator uses it)
+     * @return null for empty data
+     * @throws IllegalArgumentException when the data can't be encoded (too long, non-ASCII barcode)
+     */
+    static BitMatrix encodeOrThrow(int type, String data) throws WriterException {
+        if (data == null || data.isEmpty()) return null;
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.MARGIN, 0);
+        if (type == TYPE_QR) {
+            hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M);
+            hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+            return new QRCodeWriter().encode(data, BarcodeFormat.QR_CODE, 0, 0, hints);
+        }
+        return new Code128Writer().encode(data, BarcodeFormat.CODE_128, 0, 0, hints);
+    }
+
+    /**
+     * Dots per module for a code of the given module count across maxWidth dots
+     * @return 0 when it doesn't fit even at one dot per module
+     */
+    static int moduleSize(int type, int modules, int maxWidth) {
+        int max = type == TYPE_QR ? Math.min(QR_MAX_DOTS, maxWidth) : maxWidth;
+        int module = Math.min(type == TYPE_QR ? QR_MAX_MODULE : BARCODE_MAX_MODULE, max / Math.max(1, modules));
+        return Math.max(0, module);
+    }
+}
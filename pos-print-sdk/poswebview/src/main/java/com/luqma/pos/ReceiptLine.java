@@ -0,0 +1,151 @@
+package com.luqma.pos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One line of the receipt renderer's line model.
+ * Built either from plain receipt text (printText) or straight from HTML (printHtml),
+ * then drawn by {@link ReceiptRenderer}.
+ */
+final class ReceiptLine {
+
+    static final int KIND_TEXT = 0;
+    static final int KIND_BLANK = 1;
+    /** "====" – thick solid separator */
+    static final int KIND_RULE_THICK = 2;
+    /** "----" – thin separator */
+    static final int KIND_RULE_THIN = 3;
+    /** "المبلغ الإجمالي" / "Total Amount" – boxed, centered */
+    static final int KIND_TOTAL = 4;
+    /** Logo (or brand name when no logo drawable) drawn in place */
+    static final int KIND_LOGO = 5;
+    /** "[QR:data]" – QR code of data, centered (text = data) */
+    static final int KIND_QR = 6;
+    /** "[BARCODE:data]" – Code 128 barcode of data with the data printed below (text = data) */
+    static final int KIND_BARCODE = 7;
+
+    static final int WEIGHT_BOLD = 0;
+    /** Normal weight: body lines when style.titlesBoldOnly is on */
+    static final int WEIGHT_NORMAL = 1;
+    /** Section header paint (headerFont) */
+    static final int WEIGHT_HEADER = 2;
+    /** Footer paint (footerFont) */
+    static final int WEIGHT_FOOTER = 3;
+
+    static final int ALIGN_RIGHT = 0;
+    static final int ALIGN_CENTER = 1;
+
+    static final String QR_MARKUP = "[QR:";
+    static final String BARCODE_MARKUP = "[BARCODE:";
+
+    /** Zero-width space: when titlesBoldOnly is true, lines starting with this are drawn with normal weight. */
+    static final String NORMAL_WEIGHT_PREFIX = "\u200B";
+
+    final int kind;
+    final String text;
+    /** Optional second column drawn from the left edge (table rows: item … price) */
+    final String endText;
+    final int weight;
+    final int align;
+
+    ReceiptLine(int kind, String text, String endText, int weight, int align) {
+        this.kind = kind;
+        this.text = text;
+        this.endText = endText;
+        this.weight = weight;
+        this.align = align;
+    }
+
+    static final ReceiptLine BLANK = new ReceiptLine(KIND_BLANK, null, null, WEIGHT_BOLD, ALIGN_RIGHT);
+    static final ReceiptLine RULE_THICK = new ReceiptLine(KIND_RULE_THICK, null, null, WEIGHT_BOLD, ALIGN_RIGHT);
+    static final ReceiptLine RULE_THIN = new ReceiptLine(KIND_RULE_THIN, null, null, WEIGHT_BOLD, ALIGN_RIGHT);
+    static final ReceiptLine LOGO = new ReceiptLine(KIND_LOGO, null, null, WEIGHT_BOLD, ALIGN_RIGHT);
+
+    /**
+     * Parse receipt text lines (as sent by the dashboard's buildReceiptText) into the line model.
+     */
+    static List<ReceiptLine> fromText(String[] lines, ReceiptStyle style) {
+        List<ReceiptLine> out = new ArrayList<>(lines != null ? lines.length : 0);
+        if (lines == null) return out;
+        for (String line : lines) {
+            if (line == null) continue;
+            // When titlesBoldOnly, lines starting with \u200B are drawn with normal weight
+            boolean normalWeight = style.titlesBoldOnly && line.startsWith(NORMAL_WEIGHT_PREFIX);
+            String displayLine = normalWeight ? line.substring(NORMAL_WEIGHT_PREFIX.length()) : line;
+            out.add(classify(displayLine, normalWeight));
+        }
+        return out;
+    }
+
+    /**
+     * Smart formatting for one display line: blank, pure separators, total box, section headers.
+     */
+    static ReceiptLine classify(String displayLine, boolean normalWeight) {
+        String trimmedLine = displayLine.trim();
+        if (trimmedLine.isEmpty()) {
+            return BLANK;
+        }
+
+        // [QR:…] / [BARCODE:…] on a line of its own
+        if (trimmedLine.endsWith("]")) {
+            String upper = trimmedLine.toUpperCase(Locale.ROOT);
+            if (upper.startsWith(QR_MARKUP)) {
+                return codeLine(KIND_QR, trimmedLine.substring(QR_MARKUP.length(), trimmedLine.length() - 1));
+            }
+            if (upper.startsWith(BARCODE_MARKUP)) {
+                return codeLine(KIND_BARCODE, trimmedLine.substring(BARCODE_MARKUP.length(), trimmedLine.length() - 1));
+            }
+        }
+
+        // Detect separator lines (====, ---, - - -)
+        // Only treat lines that are PURE separators (no text content) as separator lines
+        if (trimmedLine.startsWith("===")) {
+            // Check if it's a pure separator (only contains =, -, or spaces)
+            String withoutEquals = trimmedLine.replace("=", "").replace("-", "").replace(" ", "");
+            if (withoutEquals.isEmpty()) {
+                return RULE_THICK;
+            }
+        } else if (trimmedLine.startsWith("---") || trimmedLine.startsWith("- - -")) {
+            // If it contains text (like "--- معلومات العميل ---"), render as text
+            String withoutSeparators = trimmedLine.replace("-", "").replace(" ", "").replace(".", "");
+            if (withoutSeparators.isEmpty()) {
+                return RULE_THIN;
+            }
+        }
+
+        if (isTotalLine(displayLine)) {
+            return new ReceiptLine(KIND_TOTAL, displayLine, null, WEIGHT_BOLD, ALIGN_CENTER);
+        }
+
+        // Section titles (contains "معلومات" or "تفاصيل"); when titlesBoldOnly use normal paint for body
+        int weight;
+        if (normalWeight) {
+            weight = WEIGHT_NORMAL;
+        } else if (isHeaderLine(displayLine)) {
+            weight = WEIGHT_HEADER;
+        } else {
+            weight = WEIGHT_BOLD;
+        }
+        return new ReceiptLine(KIND_TEXT, displayLine, null, weight, ALIGN_RIGHT);
+    }
+
+    private static ReceiptLine codeLine(int kind, String data) {
+        return new ReceiptLine(kind, data.trim(), null, WEIGHT_BOLD, ALIGN_CENTER);
+    }
+
+    static boolean isTotalLine(String displayLine) {
+        return displayLine.contains("المبلغ الإجمالي") || displayLine.contains("Total Amount");
+    }
+
+    static boolean isHeaderLine(String displayLine) {
+        return displayLine.contains("معلومات") || displayLine.contains("تفاصيل") || displayLine.contains("رقم");
+    }
+
+    /** Footer typically contains "Thank you" or "شكراً" (added by JavaScript from receiptStyle) */
+    static boolean isFooterText(String text) {
+        return text.contains("Thank you") || text.contains("شكراً") ||
+               text.contains("شكرا") || text.trim().endsWith("App");
+    }
+}
@@ -0,0 +1,204 @@
+package com.luqma.pos;
+
+import android.os.SystemClock;
+
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receipts rendered ahead of time, when an order shows up on the dashboard, so the print
+ * itself only has to hit the transport.
+ *
+ * Entries are keyed by order ID and carry a hash of the receipt text + style: a print with
+ * different content (order edited, style changed) misses and renders fresh. An entry is dropped
+ * when it's printed, when the order is prepared again with new content, after MAX_AGE_MS, or
+ * as the least recently used once MAX_ENTRIES are held (a raster is ~50-100 KB).
+ */
+final class ReceiptPrecache {
+
+    /** Renders a receipt the same way the print call would */
+    interface Renderer {
+        RasterEncoder.Raster render(String text, String styleJson) throws Exception;
+    }
+
+    static final int MAX_ENTRIES = 16;
+    static final long MAX_AGE_MS = 10 * 60 * 1000;
+    /** How long a print waits for a render that's still in flight before rendering itself */
+    private static final long IN_FLIGHT_WAIT_MS = 5000;
+
+    private static final class Entry {
+        final String hash;
+        final FutureTask<RasterEncoder.Raster> task;
+        final long createdAt;
+
+        Entry(String hash, FutureTask<RasterEncoder.Raster> task, long createdAt) {
+            this.hash = hash;
+            this.task = task;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final Renderer renderer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "receipt-precache");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Guarded by this; access order, eldest = least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= MAX_ENTRIES) return false;
+            eldest.getValue().task.cancel(false);
+            evictedLru++;
+            return true;
+        }
+    };
+    private int prepared;
+    private int hits;
+    private int misses;
+    private int evictedChanged;
+    private int evictedAge;
+    private int evictedLru;
+
+    ReceiptPrecache(Renderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Render the receipt for an order in the background (no-op when the same content is cached)
+     * @return "cached" or "queued"
+     */
+    String prepare(String orderId, final String text, final String styleJson) {
+        String hash = contentHash(text, styleJson);
+        FutureTask<RasterEncoder.Raster> task;
+        synchronized (this) {
+            pruneAged();
+            Entry existing = entries.get(orderId);
+            if (existing != null) {
+                if (existing.hash.equals(hash)) return "cached";
+                existing.task.cancel(false);
+                evictedChanged++;
+            }
+            task = new FutureTask<>(() -> renderer.render(text, styleJson));
+            entries.put(orderId, new Entry(hash, task, SystemClock.elapsedRealtime()));
+            prepared++;
+        }
+        executor.execute(task);
+        return "queued";
+    }
+
+    /**
+     * Remove and return the pre-rendered receipt for this content. With an order ID only that
+     * order's entry is considered (and dropped even on a content mismatch); without one any entry
+     * with the same content matches.
+     * @return the raster, or null when the caller has to render
+     */
+    RasterEncoder.Raster take(String orderId, String text, String styleJson) {
+        String hash = contentHash(text, styleJson);
+        Entry entry = null;
+        synchronized (this) {
+            pruneAged();
+            if (orderId != null && !orderId.isEmpty()) {
+                Entry candidate = entries.remove(orderId);
+                if (candidate != null && candidate.hash.equals(hash)) {
+                    entry = candidate;
+                } else if (candidate != null) {
+                    candidate.task.cancel(false);
+                    evictedChanged++;
+                }
+            } else {
+                Iterator<Entry> it = entries.values().iterator();
+                while (it.hasNext()) {
+                    Entry candidate = it.next();
+                    if (candidate.hash.equals(hash)) {
+                        it.remove();
+                        entry = candidate;
+                        break;
+                    }
+                }
+            }
+            if (entry == null) {
+                misses++;
+                PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.PRECACHE_MISS, 0);
+                return null;
+            }
+        }
+        try {
+            // Usually done; if the render is still running, finishing it beats starting over
+            RasterEncoder.Raster raster = entry.task.get(IN_FLIGHT_WAIT_MS, TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                hits++;
+            }
+            PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.PRECACHE_HIT, raster.height);
+            return raster;
+        } catch (Exception e) {
+            android.util.Log.w("POS", "⚠️ Pre-rendered receipt unavailable: " + e.getMessage());
+            synchronized (this) {
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    /** Drop everything (render mode changed) */
+    synchronized void clear() {
+        for (Entry entry : entries.values()) entry.task.cancel(false);
+        entries.clear();
+    }
+
+    /**
+     * @return JSON: {"entries","prepared","hits","misses","evicted_changed","evicted_age","evicted_lru"}
+     */
+    synchronized String toJson() {
+        pruneAged();
+        return "{\"entries\":" + entries.size()
+                + ",\"prepared\":" + prepared
+                + ",\"hits\":" + hits
+                + ",\"misses\":" + misses
+                + ",\"evicted_changed\":" + evictedChanged
+                + ",\"evicted_age\":" + evictedAge
+                + ",\"evicted_lru\":" + evictedLru + "}";
+    }
+
+    /** Caller holds this */
+    private void pruneAged() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (now - entry.createdAt > MAX_AGE_MS) {
+                entry.task.cancel(false);
+                it.remove();
+                evictedAge++;
+            }
+        }
+    }
+
+    private static String contentHash(String text, String styleJson) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update((text != null ? text : "").getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update((styleJson != null ? styleJson : "").getBytes("UTF-8"));
+            byte[] bytes = digest.digest();
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
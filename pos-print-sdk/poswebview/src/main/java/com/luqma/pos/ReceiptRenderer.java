@@ -0,0 +1,689 @@
+package com.luqma.pos;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.DashPathEffect;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import com.google.zxing.common.BitMatrix;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the receipt bitmap with logo and Arabic RTL support.
+ * Uses Android's text rendering (which supports Arabic) then the bitmap is sent as a raster image.
+ */
+class ReceiptRenderer {
+
+    static final int PAPER_WIDTH = 384; // 58mm paper = 384 pixels
+    /** Y of the first header/line on a receipt */
+    private static final int TOP_MARGIN = 20;
+    /** Kept free at the line end when wrapping: fake bold draws slightly wider than measured */
+    private static final int WRAP_SLACK = 4;
+    /** Space between a table row's text and its second column */
+    private static final int END_COLUMN_GAP = 12;
+    /** White space kept below a QR code / barcode before the next line */
+    private static final int CODE_MARGIN = 16;
+
+    private final Context context;
+
+    /** Logo variants kept (styles in use: receipt, kitchen copy, a preview or two) */
+    private static final int MAX_LOGO_VARIANTS = 4;
+
+    // Logo scaled + dithered once per (logoMaxWidth, logoDither) – identical on every receipt.
+    // Never recycled: another thread may still be drawing an evicted one, the GC frees it after
+    private final Map<Long, Bitmap> logoCache = new LinkedHashMap<Long, Bitmap>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Bitmap> eldest) {
+            return size() > MAX_LOGO_VARIANTS;
+        }
+    };
+
+    private volatile boolean alpha8Mode = true;
+
+    // Typeface per fontFamily – createFromAsset parses the font file, so do it once (warm-up pre-loads it)
+    private final Map<String, Typeface> fontCache = new HashMap<>();
+
+    // Measured widths / wrapped pieces of recurring lines (item names, extras, titles)
+    private final TextWrapper wrapper = new TextWrapper();
+
+    ReceiptRenderer(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Render the receipt as an ARGB_8888 bitmap (white paper, black ink), trimmed to its content.
+     */
+    Bitmap render(List<ReceiptLine> lines, boolean includeHeader, ReceiptStyle style) {
+        return render(lines, includeHeader, style, null);
+    }
+
+    /** @param codes receives the QR codes / barcodes drawn (may be null) */
+    private Bitmap render(List<ReceiptLine> lines, boolean includeHeader, ReceiptStyle style, List<ReceiptCode> codes) {
+        lines = wrapLines(lines, style, PAPER_WIDTH);
+        int width = PAPER_WIDTH;
+        int height = estimateHeight(lines, includeHeader, style);
+        long start = System.nanoTime();
+        PrintEventLog.log(PrintEventLog.DEBUG, PrintEventLog.RENDER_START, lines.size(), height, 0);
+
+        // Create bitmap
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        // White background
+        canvas.drawColor(Color.WHITE);
+
+        int currentY = draw(canvas, lines, includeHeader, style, false, TOP_MARGIN, codes);
+
+        // Trim excess white: layout uses emptyGap / sepMargin for many lines, not full lineHeight
+        int cropHeight = cropHeight(height, currentY, style);
+        if (cropHeight < height) {
+            Bitmap trimmed = Bitmap.createBitmap(bitmap, 0, 0, width, cropHeight);
+            bitmap.recycle();
+            bitmap = trimmed;
+        }
+        PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.RENDER_DONE, bitmap.getHeight(),
+                (long) width * bitmap.getHeight() * 4, (System.nanoTime() - start) / 1000000);
+
+        return bitmap;
+    }
+
+    /**
+     * Render the receipt straight to the printer's 1-bit raster.
+     * In A8 mode the receipt is drawn into an ALPHA_8 bitmap (1 byte/pixel, alpha = ink) and packed
+     * row by row up to the content height – no ARGB_8888 canvas, no crop copy, no gray plane.
+     * ARGB mode keeps the original path (render() + threshold) for comparison.
+     */
+    RasterEncoder.Raster renderRaster(List<ReceiptLine> lines, boolean includeHeader, ReceiptStyle style) {
+        return renderRaster(lines, includeHeader, style, alpha8Mode);
+    }
+
+    /** @param alpha8 render mode for this call only (the renderer-wide setting is left alone) */
+    RasterEncoder.Raster renderRaster(List<ReceiptLine> lines, boolean includeHeader, ReceiptStyle style, boolean alpha8) {
+        List<ReceiptCode> codes = new ArrayList<>(0);
+        if (!alpha8) {
+            Bitmap bitmap = render(lines, includeHeader, style, codes);
+            RasterEncoder.Raster raster = RasterEncoder.encode(bitmap, RasterEncoder.MODE_THRESHOLD);
+            bitmap.recycle();
+            return raster.withCodes(codes);
+        }
+
+        lines = wrapLines(lines, style, PAPER_WIDTH);
+        int width = PAPER_WIDTH;
+        int height = estimateHeight(lines, includeHeader, style);
+        long start = System.nanoTime();
+        PrintEventLog.log(PrintEventLog.DEBUG, PrintEventLog.RENDER_START, lines.size(), height, 1);
+
+        // ALPHA_8 starts fully transparent = blank paper; black paint writes alpha 255 (ink)
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        int currentY = draw(canvas, lines, includeHeader, style, true, TOP_MARGIN, codes);
+
+        RasterEncoder.Raster raster = RasterEncoder.packAlpha8(bitmap, cropHeight(height, currentY, style),
+                RasterEncoder.DEFAULT_THRESHOLD).withCodes(codes);
+        bitmap.recycle();
+        PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.RENDER_DONE, raster.height, raster.data.length,
+                (System.nanoTime() - start) / 1000000);
+        return raster;
+    }
+
+    /**
+     * Render one segment of a streamed document (beginDocument / appendLines / endDocument).
+     * A continuation segment draws its first baseline segmentInset rows down, and every segment but
+     * the last is cut segmentInset rows above the next baseline, so the segments printed back to back
+     * line up like one raster. Always uses the ALPHA_8 target; the bitmap is bounded by the segment's
+     * line count, not the document's.
+     * @param first draw the logo header and the normal top margin
+     * @param last keep the normal bottom padding
+     */
+    RasterEncoder.Raster renderSegment(List<ReceiptLine> lines, boolean first, boolean last, ReceiptStyle style) {
+        lines = wrapLines(lines, style, PAPER_WIDTH);
+        int inset = segmentInset(style);
+        int width = PAPER_WIDTH;
+        int height = estimateHeight(lines, first, style);
+        long start = System.nanoTime();
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        List<ReceiptCode> codes = new ArrayList<>(0);
+        int currentY = draw(canvas, lines, first, style, true, first ? TOP_MARGIN : inset, codes);
+
+        int rows = last ? cropHeight(height, currentY, style) : Math.min(height, Math.max(1, currentY - inset));
+        RasterEncoder.Raster raster = RasterEncoder.packAlpha8(bitmap, rows, RasterEncoder.DEFAULT_THRESHOLD)
+                .withCodes(codes);
+        bitmap.recycle();
+        PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.RENDER_DONE, raster.height, raster.data.length,
+                (System.nanoTime() - start) / 1000000);
+        return raster;
+    }
+
+    /**
+     * Render one label (label printing mode): lines drawn at the label's width without the logo
+     * header, cut at the label's height.
+     * @return the label's raster, up to its last drawn row
+     */
+    RasterEncoder.Raster renderLabel(List<ReceiptLine> lines, int width, int height, ReceiptStyle style) {
+        lines = wrapLines(lines, style, width);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        int currentY = draw(canvas, lines, false, style, true, TOP_MARGIN, null);
+        if (currentY - style.lineHeight > height) {
+            android.util.Log.w("POS", "⚠️ Label content is taller than the label (" + height + " dots), cut");
+        }
+        RasterEncoder.Raster raster = RasterEncoder.packAlpha8(bitmap, cropHeight(height, currentY, style),
+                RasterEncoder.DEFAULT_THRESHOLD);
+        bitmap.recycle();
+        return raster;
+    }
+
+    /**
+     * Rows from the top of a text line to its baseline at a segment cut: the largest font's ascent,
+     * leaving the rest of the line height for descenders
+     */
+    private int segmentInset(ReceiptStyle style) {
+        Paint paint = new Paint();
+        paint.setTypeface(Typeface.create(selectFont(style.fontFamily), Typeface.BOLD));
+        paint.setTextSize(Math.max(style.bodyFont, style.headerFont));
+        int ascent = (int) Math.ceil(-paint.ascent());
+        int descent = (int) Math.ceil(paint.descent());
+        return Math.max(1, Math.min(ascent, style.lineHeight - descent));
+    }
+
+    /**
+     * Break text lines wider than the paper into several lines, measured with the paint each line
+     * is drawn with. Table rows keep their second column on the first line.
+     * @param width paper width in dots
+     * @return lines itself when every line fits
+     */
+    private List<ReceiptLine> wrapLines(List<ReceiptLine> lines, ReceiptStyle style, int width) {
+        if (lines == null || lines.isEmpty()) return lines;
+        Typeface font = selectFont(style.fontFamily);
+        Paint[] paints = new Paint[4];
+        float lineWidth = width - 2 * style.padding - WRAP_SLACK;
+        List<ReceiptLine> out = null;
+        for (int i = 0; i < lines.size(); i++) {
+            ReceiptLine line = lines.get(i);
+            List<String> pieces = null;
+            if (line.kind == ReceiptLine.KIND_TEXT && line.text != null && !line.text.isEmpty()) {
+                int weight = Math.max(0, Math.min(paints.length - 1, line.weight));
+                if (paints[weight] == null) paints[weight] = linePaint(weight, font, style);
+                String variant = weight + "/" + paints[weight].getTextSize() + "/" + style.fontFamily;
+                float available = lineWidth;
+                if (line.endText != null) {
+                    available -= wrapper.width(paints[weight], variant, line.endText) + END_COLUMN_GAP;
+                }
+                if (available >= lineWidth / 3) {
+                    pieces = wrapper.wrap(paints[weight], variant, line.text, available);
+                }
+            }
+            if (pieces == null || pieces.size() == 1) {
+                if (out != null) out.add(line);
+                continue;
+            }
+            if (out == null) {
+                out = new ArrayList<>(lines.size() + 8);
+                out.addAll(lines.subList(0, i));
+            }
+            for (int k = 0; k < pieces.size(); k++) {
+                out.add(new ReceiptLine(ReceiptLine.KIND_TEXT, pieces.get(k), k == 0 ? line.endText : null,
+                        line.weight, line.align));
+            }
+        }
+        return out != null ? out : lines;
+    }
+
+    /** Render mode for renderRaster: true = ALPHA_8 target (default), false = ARGB_8888 */
+    void setAlpha8Mode(boolean alpha8) {
+        alpha8Mode = alpha8;
+    }
+
+    boolean isAlpha8Mode() {
+        return alpha8Mode;
+    }
+
+    /**
+     * Check that the A8 path prints exactly what the ARGB path prints: both rasters packed at the
+     * print threshold and compared dot by dot.
+     * @return number of differing dots (0 = pixel-identical), or -1 when the sizes differ
+     */
+    int compareRenderModes(List<ReceiptLine> lines, boolean includeHeader, ReceiptStyle style) {
+        RasterEncoder.Raster argb = renderRaster(lines, includeHeader, style, false);
+        RasterEncoder.Raster a8 = renderRaster(lines, includeHeader, style, true);
+        if (argb.width != a8.width || argb.height != a8.height) return -1;
+        int diff = 0;
+        for (int i = 0; i < argb.data.length; i++) {
+            diff += Integer.bitCount((argb.data[i] ^ a8.data[i]) & 0xff);
+        }
+        return diff;
+    }
+
+    /** Upper-bound height (per-line uses lineHeight; real layout uses less for empty lines / separators — we crop after draw) */
+    private int estimateHeight(List<ReceiptLine> lines, boolean includeHeader, ReceiptStyle style) {
+        int headerSpace = includeHeader ? 80 : 20; // Upper bound for logo/brand (actual height trimmed after draw)
+        int numLines = lines != null ? lines.size() : 0;
+        int height = Math.max(100, (numLines * style.lineHeight) + headerSpace + 24);
+        for (int i = 0; i < numLines; i++) {
+            int kind = lines.get(i).kind;
+            if (kind == ReceiptLine.KIND_LOGO) height += 80;
+            else if (kind == ReceiptLine.KIND_QR) height += ReceiptCode.QR_MAX_DOTS + CODE_MARGIN;
+            else if (kind == ReceiptLine.KIND_BARCODE) height += ReceiptCode.BARCODE_HEIGHT + style.lineHeight + CODE_MARGIN;
+        }
+        return height;
+    }
+
+    private int cropHeight(int height, int currentY, ReceiptStyle style) {
+        int bottomPad = Math.max(12, style.lineHeight / 2 + 4);
+        return Math.min(height, Math.max(1, currentY + bottomPad));
+    }
+
+    /**
+     * Draw header and lines onto the canvas (as wide as the paper).
+     * @param alpha8 true when the canvas is ALPHA_8: colors are drawn as ink coverage (alpha = 255 - gray)
+     * @param startY Y of the first line (or header)
+     * @param codes receives the QR codes / barcodes drawn, with their rows (may be null)
+     * @return Y position after the last line
+     */
+    private int draw(Canvas canvas, List<ReceiptLine> lines, boolean includeHeader, ReceiptStyle style, boolean alpha8,
+                     int startY, List<ReceiptCode> codes) {
+        int width = canvas.getWidth();
+        int lineHeight = style.lineHeight;
+        int padding = style.padding;
+        int numLines = lines != null ? lines.size() : 0;
+
+        int currentY = startY;
+
+        // ============ HEADER WITH LOGO ============
+        if (includeHeader) {
+            currentY = drawLogoHeader(canvas, currentY, width, style);
+        }
+
+        // ============ BODY TEXT (RTL with selected font) ============
+        Typeface cairoFont = selectFont(style.fontFamily); // Keep variable name for compatibility
+
+        // One paint per line weight (the same ones wrapLines measured with)
+        Paint textPaint = linePaint(ReceiptLine.WEIGHT_BOLD, cairoFont, style);
+        Paint textPaintNormal = linePaint(ReceiptLine.WEIGHT_NORMAL, cairoFont, style);
+        Paint headerTextPaint = linePaint(ReceiptLine.WEIGHT_HEADER, cairoFont, style);
+        Paint footerPaint = linePaint(ReceiptLine.WEIGHT_FOOTER, cairoFont, style);
+
+        // Draw lines with smart formatting (classified in ReceiptLine)
+        for (int i = 0; i < numLines; i++) {
+            ReceiptLine line = lines.get(i);
+
+            switch (line.kind) {
+                case ReceiptLine.KIND_BLANK:
+                    currentY += style.emptyGap; // Use emptyGap from style
+                    continue;
+
+                case ReceiptLine.KIND_RULE_THICK: {
+                    // Thick solid line
+                    Paint separatorPaint = new Paint();
+                    separatorPaint.setColor(Color.BLACK);
+                    separatorPaint.setStrokeWidth(2);
+                    canvas.drawLine(padding, currentY + 5, width - padding, currentY + 5, separatorPaint);
+                    currentY += style.sepMargin; // Use sepMargin from style
+                    continue;
+                }
+
+                case ReceiptLine.KIND_RULE_THIN: {
+                    // Thin dashed line - pure separator (black dashes: a gray line would vanish at the print threshold)
+                    Paint separatorPaint = new Paint();
+                    separatorPaint.setColor(Color.BLACK);
+                    separatorPaint.setStrokeWidth(1);
+                    separatorPaint.setPathEffect(new DashPathEffect(new float[] { 4, 3 }, 0));
+                    canvas.drawLine(padding, currentY + 5, width - padding, currentY + 5, separatorPaint);
+                    currentY += style.sepMargin; // Use sepMargin from style
+                    continue;
+                }
+
+                case ReceiptLine.KIND_LOGO:
+                    currentY = drawLogoHeader(canvas, currentY, width, style);
+                    continue;
+
+                case ReceiptLine.KIND_QR:
+                case ReceiptLine.KIND_BARCODE: {
+                    int afterY = drawCode(canvas, line, currentY, width, style, textPaint, codes);
+                    if (afterY >= 0) {
+                        currentY = afterY;
+                        continue;
+                    }
+                    break; // can't be encoded: print the data as a text line
+                }
+
+                case ReceiptLine.KIND_TOTAL: {
+                    // **SPECIAL: Draw border around total amount**
+                    // Draw filled background
+                    Paint bgPaint = new Paint();
+                    bgPaint.setColor(ink(Color.rgb(245, 245, 245), alpha8)); // Light gray background
+                    bgPaint.setStyle(Paint.Style.FILL);
+                    canvas.drawRect(padding, currentY - 32, width - padding, currentY + 18, bgPaint);
+
+                    // Draw border around total
+                    Paint borderPaint = new Paint();
+                    borderPaint.setColor(Color.BLACK);
+                    borderPaint.setStyle(Paint.Style.STROKE);
+                    borderPaint.setStrokeWidth(3);
+                    canvas.drawRect(padding, currentY - 32, width - padding, currentY + 18, borderPaint);
+
+                    // Draw text in center (not right-aligned for total)
+                    Paint totalPaint = new Paint();
+                    totalPaint.setColor(Color.BLACK);
+                    totalPaint.setTextSize(style.totalFont); // Use totalFont from style
+                    totalPaint.setAntiAlias(true);
+                    totalPaint.setTypeface(Typeface.create(cairoFont, Typeface.BOLD));
+                    totalPaint.setFakeBoldText(true);
+                    totalPaint.setTextAlign(Paint.Align.CENTER);
+
+                    canvas.drawText(line.text, width / 2, currentY, totalPaint);
+                    currentY += style.lineHeight + 10; // Use lineHeight from style
+                    continue;
+                }
+
+                default:
+                    break;
+            }
+
+            Paint activePaint;
+            switch (line.weight) {
+                case ReceiptLine.WEIGHT_NORMAL: activePaint = textPaintNormal; break;
+                case ReceiptLine.WEIGHT_HEADER: activePaint = headerTextPaint; break;
+                case ReceiptLine.WEIGHT_FOOTER: activePaint = footerPaint; break;
+                default: activePaint = textPaint; break;
+            }
+
+            if (line.align == ReceiptLine.ALIGN_CENTER) {
+                activePaint.setTextAlign(Paint.Align.CENTER);
+                canvas.drawText(line.text, width / 2, currentY, activePaint);
+            } else {
+                // Draw text from right edge (RTL)
+                activePaint.setTextAlign(Paint.Align.RIGHT);
+                canvas.drawText(line.text, width - padding, currentY, activePaint);
+            }
+            if (line.endText != null) {
+                // Second column (e.g. price) from the left edge
+                activePaint.setTextAlign(Paint.Align.LEFT);
+                canvas.drawText(line.endText, padding, currentY, activePaint);
+            }
+            currentY += lineHeight;
+        }
+
+        return currentY;
+    }
+
+    /**
+     * Draw a QR code / barcode centered with its top at currentY (where the line's text would start
+     * the line height below the previous baseline), modules as whole-dot black rectangles so the
+     * raster holds exactly what the printer's own command would print. A barcode gets its data as
+     * a text line below the bars.
+     * @param codes receives the code and its rows (may be null)
+     * @return Y of the next baseline, or -1 when the data can't be encoded or doesn't fit
+     */
+    private static int drawCode(Canvas canvas, ReceiptLine line, int currentY, int width, ReceiptStyle style,
+                                Paint textPaint, List<ReceiptCode> codes) {
+        int type = line.kind == ReceiptLine.KIND_QR ? ReceiptCode.TYPE_QR : ReceiptCode.TYPE_BARCODE;
+        BitMatrix matrix = ReceiptCode.encode(type, line.text);
+        if (matrix == null) return -1;
+        int module = ReceiptCode.moduleSize(type, matrix.getWidth(), width - 2 * style.padding);
+        if (module == 0) return -1;
+
+        int codeWidth = matrix.getWidth() * module;
+        int codeHeight = type == ReceiptCode.TYPE_QR ? matrix.getHeight() * module : ReceiptCode.BARCODE_HEIGHT;
+        int rowsPerModule = type == ReceiptCode.TYPE_QR ? module : codeHeight;
+        int moduleRows = type == ReceiptCode.TYPE_QR ? matrix.getHeight() : 1;
+        int x0 = (width - codeWidth) / 2;
+        int top = Math.max(0, currentY);
+
+        Paint modulePaint = new Paint();
+        modulePaint.setColor(Color.BLACK);
+        modulePaint.setStyle(Paint.Style.FILL);
+        for (int my = 0; my < moduleRows; my++) {
+            int y = top + my * rowsPerModule;
+            int mx = 0;
+            while (mx < matrix.getWidth()) {
+                if (!matrix.get(mx, my)) {
+                    mx++;
+                    continue;
+                }
+                int runEnd = mx + 1;
+                while (runEnd < matrix.getWidth() && matrix.get(runEnd, my)) runEnd++;
+                canvas.drawRect(x0 + mx * module, y, x0 + runEnd * module, y + rowsPerModule, modulePaint);
+                mx = runEnd;
+            }
+        }
+        if (codes != null) {
+            codes.add(new ReceiptCode(type, line.text, module, top, top + codeHeight, x0, x0 + codeWidth));
+        }
+
+        int nextY = top + codeHeight + CODE_MARGIN + style.lineHeight;
+        if (type == ReceiptCode.TYPE_BARCODE) {
+            textPaint.setTextAlign(Paint.Align.CENTER);
+            canvas.drawText(line.text, width / 2, nextY - CODE_MARGIN, textPaint);
+            nextY += style.lineHeight;
+        }
+        return nextY;
+    }
+
+    /**
+     * Paint for a text line of the given weight (ReceiptLine.WEIGHT_*)
+     */
+    private static Paint linePaint(int weight, Typeface font, ReceiptStyle style) {
+        Paint paint = new Paint();
+        paint.setColor(Color.BLACK);
+        paint.setAntiAlias(true);
+        switch (weight) {
+            case ReceiptLine.WEIGHT_NORMAL:
+                // When titlesBoldOnly: body lines are prefixed with \u200B and drawn with normal weight
+                paint.setTextSize(style.bodyFont);
+                paint.setTypeface(Typeface.create(font, Typeface.NORMAL));
+                paint.setTextAlign(Paint.Align.RIGHT);
+                break;
+            case ReceiptLine.WEIGHT_HEADER:
+                // Section headers - use headerFont from style
+                paint.setTextSize(style.headerFont);
+                paint.setTypeface(Typeface.create(font, Typeface.BOLD));
+                paint.setFakeBoldText(true);
+                paint.setTextAlign(Paint.Align.RIGHT);
+                break;
+            case ReceiptLine.WEIGHT_FOOTER:
+                // Footer lines (HTML .footer) - use footerFont from style
+                paint.setTextSize(style.footerFont);
+                paint.setTypeface(Typeface.create(font, Typeface.BOLD));
+                paint.setTextAlign(Paint.Align.CENTER);
+                break;
+            default:
+                // Regular text - use bodyFont from style
+                paint.setTextSize(style.bodyFont);
+                paint.setTypeface(Typeface.create(font, Typeface.BOLD));
+                paint.setFakeBoldText(true); // Extra bold for darker ink
+                paint.setTextAlign(Paint.Align.RIGHT); // RTL
+                break;
+        }
+        return paint;
+    }
+
+    /** @return JSON with the wrap engine's cache counters */
+    String wrapStatsJson() {
+        return wrapper.toJson();
+    }
+
+    /**
+     * Color for the current target: unchanged on ARGB; on ALPHA_8 the ink coverage of that gray
+     * (black over gray composes the same in both, so the threshold decision is identical)
+     */
+    private static int ink(int color, boolean alpha8) {
+        if (!alpha8) return color;
+        int lum = (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114) / 1000;
+        return Color.argb(255 - lum, 0, 0, 0);
+    }
+
+    /**
+     * Draw the logo (or the brand name when there is no logo drawable) centered at currentY.
+     * @return Y position after the header and its spacing
+     */
+    private int drawLogoHeader(Canvas canvas, int currentY, int width, ReceiptStyle style) {
+        boolean logoDrawn = false;
+
+        // Logo from resources, pre-dithered (cached) so it survives the receipt's threshold pass
+        try {
+            int mode = RasterEncoder.parseMode(style.logoDither, RasterEncoder.MODE_AUTO);
+            Bitmap logo = getDitheredLogo(style.logoMaxWidth, mode);
+            if (logo != null) {
+                // Draw logo centered
+                int logoX = (width - logo.getWidth()) / 2;
+                canvas.drawBitmap(logo, logoX, currentY, null);
+                currentY += logo.getHeight() + style.logoSpacingAfter; // Use logoSpacingAfter from style
+                logoDrawn = true;
+            }
+        } catch (Exception e) {
+            android.util.Log.w("POS", "⚠️ Logo load failed: " + e.getMessage());
+        }
+
+        // If no logo, show brand name
+        if (!logoDrawn) {
+            // Brand name in English (large, centered)
+            Paint headerPaint = new Paint();
+            headerPaint.setColor(Color.BLACK);
+            headerPaint.setTextSize(46); // brand name (English)
+            headerPaint.setAntiAlias(true);
+            headerPaint.setTypeface(Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD));
+            headerPaint.setTextAlign(Paint.Align.CENTER);
+            headerPaint.setFakeBoldText(true);
+
+            String brandName = context.getString(R.string.brand_name).toUpperCase();
+            canvas.drawText(brandName, width / 2, currentY + 30, headerPaint);
+
+            // Brand name in Arabic (centered, below English)
+            Paint arabicHeaderPaint = new Paint();
+            arabicHeaderPaint.setColor(Color.BLACK);
+            arabicHeaderPaint.setTextSize(38); // brand name (Arabic)
+            arabicHeaderPaint.setAntiAlias(true);
+            arabicHeaderPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
+            arabicHeaderPaint.setTextAlign(Paint.Align.CENTER);
+
+            String brandNameAr = context.getString(R.string.brand_name_ar);
+            canvas.drawText(brandNameAr, width / 2, currentY + 60, arabicHeaderPaint);
+
+            currentY += 75;
+        }
+
+        // Spacing after logo / text header (no horizontal rule — order lines follow directly)
+        return currentY + 18;
+    }
+
+    /**
+     * Scaled logo binarized with the given dither mode; cached per (width, mode).
+     */
+    synchronized Bitmap getDitheredLogo(int maxLogoWidth, int mode) {
+        long key = ((long) maxLogoWidth << 32) | (mode & 0xffffffffL);
+        Bitmap cached = logoCache.get(key);
+        if (cached != null) return cached;
+        Bitmap scaledLogo = loadLogo(maxLogoWidth);
+        if (scaledLogo == null) return null;
+
+        long start = System.nanoTime();
+        int w = scaledLogo.getWidth();
+        int h = scaledLogo.getHeight();
+        byte[] gray = RasterEncoder.toGray(scaledLogo);
+        int usedMode = mode == RasterEncoder.MODE_AUTO ? RasterEncoder.selectMode(gray, w, h) : mode;
+        RasterEncoder.Raster raster = RasterEncoder.dither(gray, w, h, usedMode, RasterEncoder.DEFAULT_THRESHOLD);
+        Bitmap dithered = RasterEncoder.toBitmap(raster);
+        scaledLogo.recycle();
+
+        logoCache.put(key, dithered);
+        PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.LOGO_DITHERED, usedMode, w, h);
+        android.util.Log.i("POS", "✅ Logo dithered (" + RasterEncoder.modeName(usedMode) + "): " + w + "x" + h
+                + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+        return dithered;
+    }
+
+    /**
+     * Decode receipt_logo from resources and scale it to fit maxLogoWidth (null when there is no logo)
+     */
+    Bitmap loadLogo(int maxLogoWidth) {
+        int logoResId = context.getResources().getIdentifier("receipt_logo", "drawable", context.getPackageName());
+        if (logoResId == 0) {
+            android.util.Log.i("POS", "ℹ️ No logo found, using text header");
+            return null;
+        }
+        android.util.Log.i("POS", "📷 Loading logo from resources");
+        Bitmap logoBitmap = BitmapFactory.decodeResource(context.getResources(), logoResId);
+        if (logoBitmap == null) return null;
+
+        // Scale logo to fit (use logoMaxWidth from style)
+        float scale = Math.min(1.0f, (float) maxLogoWidth / logoBitmap.getWidth());
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        Bitmap scaledLogo = Bitmap.createBitmap(logoBitmap, 0, 0,
+            logoBitmap.getWidth(), logoBitmap.getHeight(), matrix, true);
+        if (scaledLogo != logoBitmap) logoBitmap.recycle();
+        return scaledLogo;
+    }
+
+    /**
+     * Map CSS font-family to Android Typeface (cached per fontFamily)
+     */
+    private Typeface selectFont(String fontFamily) {
+        String key = fontFamily != null ? fontFamily : "";
+        synchronized (fontCache) {
+            Typeface cached = fontCache.get(key);
+            if (cached != null) return cached;
+            Typeface font = loadFont(fontFamily);
+            fontCache.put(key, font);
+            return font;
+        }
+    }
+
+    private Typeface loadFont(String fontFamily) {
+        Typeface selectedFont = Typeface.SANS_SERIF; // Default fallback
+
+        if (fontFamily != null && !fontFamily.isEmpty()) {
+            // Parse font-family string (may contain multiple fonts like "'Cairo', 'Tahoma', sans-serif")
+            String fontFamilyLower = fontFamily.toLowerCase();
+
+            if (fontFamilyLower.contains("cairo")) {
+                // Try to load Cairo font from assets
+                try {
+                    Typeface customFont = Typeface.createFromAsset(context.getAssets(), "fonts/Cairo-Bold.ttf");
+                    selectedFont = customFont;
+                    PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.FONT_LOADED, PrintEventLog.FONT_CAIRO, 1);
+                } catch (Exception e) {
+                    PrintEventLog.log(PrintEventLog.WARN, PrintEventLog.FONT_LOADED, PrintEventLog.FONT_SANS_SERIF, 0);
+                    selectedFont = Typeface.SANS_SERIF;
+                }
+            } else if (fontFamilyLower.contains("arial")) {
+                selectedFont = Typeface.create("Arial", Typeface.BOLD);
+                PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.FONT_LOADED, PrintEventLog.FONT_ARIAL, 0);
+            } else if (fontFamilyLower.contains("tahoma")) {
+                selectedFont = Typeface.create("Tahoma", Typeface.BOLD);
+                PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.FONT_LOADED, PrintEventLog.FONT_TAHOMA, 0);
+            } else if (fontFamilyLower.contains("system-ui") || fontFamilyLower.contains("system")) {
+                selectedFont = Typeface.DEFAULT;
+                PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.FONT_LOADED, PrintEventLog.FONT_SYSTEM, 0);
+            } else {
+                // Default to sans-serif
+                selectedFont = Typeface.SANS_SERIF;
+                PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.FONT_LOADED, PrintEventLog.FONT_SANS_SERIF, 0);
+            }
+        } else {
+            // No fontFamily specified, try Cairo as default (backward compatibility)
+            try {
+                Typeface customFont = Typeface.createFromAsset(context.getAssets(), "fonts/Cairo-Bold.ttf");
+                selectedFont = customFont;
+                PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.FONT_LOADED, PrintEventLog.FONT_CAIRO, 1);
+            } catch (Exception e) {
+                PrintEventLog.log(PrintEventLog.WARN, PrintEventLog.FONT_LOADED, PrintEventLog.FONT_SANS_SERIF, 0);
+                selectedFont = Typeface.SANS_SERIF;
+            }
+        }
+        return selectedFont;
+    }
+}
@@ -0,0 +1,120 @@
+package com.luqma.pos;
+
+/**
+ * Helper class to hold receipt style values
+ * (parsed from config.receiptStyle, see constants/receiptStyleSchema.js)
+ */
+class ReceiptStyle {
+    int bodyFont = 22;
+    int lineHeight = 32;
+    int padding = 15;
+    int headerFont = 25;
+    int totalFont = 26;
+    int footerFont = 20;
+    int sepMargin = 15;
+    int emptyGap = 12;
+    int logoMaxWidth = 150;
+    int logoSpacingAfter = 25;
+    String fontFamily = null;
+    /** When true, only section headers and item titles are bold; body lines use normal weight (prefix \u200B in text). */
+    boolean titlesBoldOnly = false;
+    /** Logo binarization: "auto" (default), "threshold", "bayer", "floyd-steinberg" or "atkinson" */
+    String logoDither = "auto";
+
+    /**
+     * Parse receiptStyle JSON and extract all style values
+     */
+    static ReceiptStyle parse(String receiptStyleJson) {
+        ReceiptStyle style = new ReceiptStyle();
+
+        if (receiptStyleJson == null || receiptStyleJson.trim().isEmpty() || receiptStyleJson.equals("null")) {
+            return style; // Return defaults
+        }
+
+        try {
+            // Parse numeric values using simple string matching (avoiding JSON library dependency)
+            style.bodyFont = parseIntFromJson(receiptStyleJson, "bodyFont", 22);
+            style.lineHeight = parseIntFromJson(receiptStyleJson, "lineHeight", 32);
+            style.padding = parseIntFromJson(receiptStyleJson, "padding", 15);
+            style.headerFont = parseIntFromJson(receiptStyleJson, "headerFont", 25);
+            style.totalFont = parseIntFromJson(receiptStyleJson, "totalFont", 26);
+            style.footerFont = parseIntFromJson(receiptStyleJson, "footerFont", 20);
+            style.sepMargin = parseIntFromJson(receiptStyleJson, "sepMargin", 15);
+            style.emptyGap = parseIntFromJson(receiptStyleJson, "emptyGap", 12);
+            style.logoMaxWidth = parseIntFromJson(receiptStyleJson, "logoMaxWidth", 150);
+            style.logoSpacingAfter = parseIntFromJson(receiptStyleJson, "logoSpacingAfter", 25);
+
+            // Parse fontFamily string
+            style.fontFamily = parseStringFromJson(receiptStyleJson, "fontFamily", null);
+            style.titlesBoldOnly = parseBooleanFromJson(receiptStyleJson, "titlesBoldOnly", false);
+            style.logoDither = parseStringFromJson(receiptStyleJson, "logoDither", "auto");
+
+            PrintEventLog.log(PrintEventLog.DEBUG, PrintEventLog.STYLE_PARSED, style.bodyFont, style.lineHeight, style.padding);
+        } catch (Exception e) {
+            android.util.Log.w("POS", "⚠️ Failed to parse receiptStyle: " + e.getMessage());
+        }
+
+        return style;
+    }
+
+    /**
+     * Extract integer value from JSON string
+     */
+    static int parseIntFromJson(String json, String key, int defaultValue) {
+        try {
+            String searchKey = "\"" + key + "\"";
+            int keyIndex = json.indexOf(searchKey);
+            if (keyIndex >= 0) {
+                int colonIndex = json.indexOf(":", keyIndex);
+                int valueStart = colonIndex + 1;
+                // Skip whitespace
+                while (valueStart < json.length() && Character.isWhitespace(json.charAt(valueStart))) {
+                    valueStart++;
+                }
+                // Find end of number (comma, }, or whitespace)
+                int valueEnd = valueStart;
+                while (valueEnd < json.length() &&
+                       (Character.isDigit(json.charAt(valueEnd)) || json.charAt(valueEnd) == '-')) {
+                    valueEnd++;
+                }
+                if (valueEnd > valueStart) {
+                    String valueStr = json.substring(valueStart, valueEnd).trim();
+                    return Integer.parseInt(valueStr);
+                }
+            }
+        } catch (Exception e) {
+            // Return default on any error
+        }
+        return defaultValue;
+    }
+
+    static boolean parseBooleanFromJson(String json, String key, boolean defaultValue) {
+        if (json == null) return defaultValue;
+        String searchKey = "\"" + key + "\"";
+        int keyIndex = json.indexOf(searchKey);
+        if (keyIndex >= 0) {
+            int colonIndex = json.indexOf(":", keyIndex);
+            int valueStart = colonIndex + 1;
+            while (valueStart < json.length() && Character.isWhitespace(json.charAt(valueStart))) valueStart++;
+            if (valueStart < json.length()) {
+                if (json.substring(valueStart).startsWith("true")) return true;
+                if (json.substring(valueStart).startsWith("false")) return false;
+            }
+        }
+        return defaultValue;
+    }
+
+    static String parseStringFromJson(String json, String key, String defaultValue) {
+        if (json == null) return defaultValue;
+        int keyIndex = json.indexOf("\"" + key + "\"");
+        if (keyIndex >= 0) {
+            int colonIndex = json.indexOf(":", keyIndex);
+            int startQuote = json.indexOf("\"", colonIndex) + 1;
+            int endQuote = json.indexOf("\"", startQuote);
+            if (startQuote > 0 && endQuote > startQuote) {
+                return json.substring(startQuote, endQuote);
+            }
+        }
+        return defaultValue;
+    }
+}
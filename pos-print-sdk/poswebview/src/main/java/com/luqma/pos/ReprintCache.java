@@ -0,0 +1,352 @@
+package com.luqma.pos;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rasters of recently printed receipts, keyed by order ID, so reprint(orderId) (lost receipt,
+ * driver copy) goes straight to the transport without parsing, rendering or encoding again.
+ *
+ * Rasters are stored PackBits run-length compressed: a receipt is mostly white rows, margins and
+ * line gaps, so a 50-100 KB raster shrinks to a fraction of that. The most recent ones stay in
+ * memory up to MAX_MEMORY_BYTES; older ones are moved to files in the cache dir (up to
+ * MAX_DISK_BYTES, oldest deleted first) and survive an app restart. Everything runs on one background thread: storing
+ * a printed raster never delays the print call, and a reprint right after a print sees it.
+ */
+final class ReprintCache {
+
+    private static final String DIR_NAME = "reprint-cache";
+    static final int MAX_MEMORY_ENTRIES = 32;
+    static final long MAX_MEMORY_BYTES = 512L * 1024;
+    static final long MAX_DISK_BYTES = 8L * 1024 * 1024;
+    /** Receipts older than a day are not worth reprinting from cache */
+    static final long MAX_AGE_MS = 24L * 60 * 60 * 1000;
+    private static final long GET_TIMEOUT_MS = 3000;
+    private static final int FILE_MAGIC = 0x524C4531; // "RLE1"
+
+    /** Compressed raster; data is PackBits of the raster's packed rows */
+    private static final class Entry {
+        final int width;
+        final int height;
+        final int stride;
+        final int rawLength;
+        final byte[] data;
+        final long printedAt;   // wall clock: disk entries outlive the process
+
+        Entry(int width, int height, int stride, int rawLength, byte[] data, long printedAt) {
+            this.width = width;
+            this.height = height;
+            this.stride = stride;
+            this.rawLength = rawLength;
+            this.data = data;
+            this.printedAt = printedAt;
+        }
+    }
+
+    private final File dir;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "reprint-cache");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Confined to the executor thread; access order, eldest = least recently printed or reprinted
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(MAX_MEMORY_ENTRIES, 0.75f, true);
+    private long memoryBytes;
+    private long rawBytes;
+    private long diskBytes;
+    private int diskEntries;
+    private int stored;
+    private int memoryHits;
+    private int diskHits;
+    private int misses;
+    private int spilled;
+
+    ReprintCache(Context context) {
+        dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            android.util.Log.w("POS", "⚠️ Reprint cache dir not created: " + dir);
+        }
+        executor.execute(this::pruneDisk);
+    }
+
+    /** Keep a printed receipt's raster for reprint (compressed in the background) */
+    void put(final String orderId, final RasterEncoder.Raster raster) {
+        if (orderId == null || orderId.isEmpty() || raster == null) return;
+        executor.execute(() -> {
+            byte[] packed = compress(raster.data);
+            deleteFile(orderId);
+            removeFromMemory(orderId);
+            Entry entry = new Entry(raster.width, raster.height, raster.stride, raster.data.length, packed, System.currentTimeMillis());
+            memory.put(orderId, entry);
+            memoryBytes += packed.length;
+            rawBytes += entry.rawLength;
+            stored++;
+            trimMemory();
+        });
+    }
+
+    /** Forget an order's receipt (it was edited, the cached one is out of date) */
+    void remove(final String orderId) {
+        if (orderId == null || orderId.isEmpty()) return;
+        executor.execute(() -> {
+            removeFromMemory(orderId);
+            deleteFile(orderId);
+        });
+    }
+
+    /**
+     * @return the raster last printed for this order, or null (never printed, evicted, expired)
+     */
+    RasterEncoder.Raster get(final String orderId) {
+        if (orderId == null || orderId.isEmpty()) return null;
+        try {
+            return executor.submit(() -> {
+                Entry entry = memory.get(orderId);
+                if (entry != null && System.currentTimeMillis() - entry.printedAt <= MAX_AGE_MS) {
+                    memoryHits++;
+                    return decompress(entry);
+                }
+                if (entry != null) removeFromMemory(orderId);
+                entry = readFile(orderId);
+                if (entry == null) {
+                    misses++;
+                    return null;
+                }
+                // Back to memory: likely reprinted again (driver copy after customer copy)
+                deleteFile(orderId);
+                memory.put(orderId, entry);
+                memoryBytes += entry.data.length;
+                rawBytes += entry.rawLength;
+                trimMemory();
+                diskHits++;
+                return decompress(entry);
+            }).get(GET_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            android.util.Log.w("POS", "⚠️ Reprint cache read failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return JSON: {"memory_entries","memory_bytes","raw_bytes","disk_entries","disk_bytes","stored",
+     *         "memory_hits","disk_hits","misses","spilled"}
+     */
+    String toJson() {
+        try {
+            return executor.submit(() -> "{\"memory_entries\":" + memory.size()
+                    + ",\"memory_bytes\":" + memoryBytes
+                    + ",\"raw_bytes\":" + rawBytes
+                    + ",\"disk_entries\":" + diskEntries
+                    + ",\"disk_bytes\":" + diskBytes
+                    + ",\"stored\":" + stored
+                    + ",\"memory_hits\":" + memoryHits
+                    + ",\"disk_hits\":" + diskHits
+                    + ",\"misses\":" + misses
+                    + ",\"spilled\":" + spilled + "}").get(GET_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
+        }
+    }
+
+    /** Move least recently used entries to disk until memory is within its caps */
+    private void trimMemory() {
+        Iterator<Map.Entry<String, Entry>> it = memory.entrySet().iterator();
+        while ((memory.size() > MAX_MEMORY_ENTRIES || memoryBytes > MAX_MEMORY_BYTES) && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            Entry entry = eldest.getValue();
+            memoryBytes -= entry.data.length;
+            rawBytes -= entry.rawLength;
+            if (System.currentTimeMillis() - entry.printedAt <= MAX_AGE_MS) {
+                writeFile(eldest.getKey(), entry);
+            }
+        }
+        if (diskBytes > MAX_DISK_BYTES) pruneDisk();
+    }
+
+    private void removeFromMemory(String orderId) {
+        Entry old = memory.remove(orderId);
+        if (old != null) {
+            memoryBytes -= old.data.length;
+            rawBytes -= old.rawLength;
+        }
+    }
+
+    private void writeFile(String orderId, Entry entry) {
+        File file = fileFor(orderId);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(entry.width);
+            out.writeInt(entry.height);
+            out.writeInt(entry.stride);
+            out.writeInt(entry.rawLength);
+            out.writeLong(entry.printedAt);
+            out.writeInt(entry.data.length);
+            out.write(entry.data);
+        } catch (IOException e) {
+            android.util.Log.w("POS", "⚠️ Reprint cache write failed: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+        diskBytes += file.length();
+        diskEntries++;
+        spilled++;
+    }
+
+    private Entry readFile(String orderId) {
+        File file = fileFor(orderId);
+        if (!file.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) throw new IOException("bad header");
+            int width = in.readInt();
+            int height = in.readInt();
+            int stride = in.readInt();
+            int rawLength = in.readInt();
+            long printedAt = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            if (System.currentTimeMillis() - printedAt > MAX_AGE_MS) {
+                deleteFile(orderId);
+                return null;
+            }
+            return new Entry(width, height, stride, rawLength, data, printedAt);
+        } catch (IOException e) {
+            android.util.Log.w("POS", "⚠️ Reprint cache file unreadable: " + e.getMessage());
+            deleteFile(orderId);
+            return null;
+        }
+    }
+
+    private void deleteFile(String orderId) {
+        File file = fileFor(orderId);
+        long length = file.length();
+        if (file.isFile() && file.delete()) {
+            diskBytes -= length;
+            diskEntries--;
+        }
+    }
+
+    /** Drop expired files, then the oldest until the disk tier is within MAX_DISK_BYTES */
+    private void pruneDisk() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        long total = 0;
+        for (File file : files) total += file.length();
+        int count = files.length;
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            boolean expired = now - file.lastModified() > MAX_AGE_MS || file.getName().endsWith(".tmp");
+            if (!expired && total <= MAX_DISK_BYTES) break;
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                count--;
+            }
+        }
+        diskBytes = total;
+        diskEntries = count;
+    }
+
+    private File fileFor(String orderId) {
+        return new File(dir, sha1(orderId) + ".rle");
+    }
+
+    /**
+     * PackBits: a header byte n in 0..127 is followed by n + 1 literal bytes, n in -127..-1 by one
+     * byte repeated 1 - n times. Worst case grows the input by 1 byte per 128.
+     */
+    static byte[] compress(byte[] in) {
+        byte[] out = new byte[in.length + (in.length + 127) / 128 + 1];
+        int o = 0;
+        int i = 0;
+        while (i < in.length) {
+            // Run of identical bytes (2+ is worth encoding as a run)
+            int run = 1;
+            while (i + run < in.length && run < 128 && in[i + run] == in[i]) run++;
+            if (run >= 2) {
+                out[o++] = (byte) (1 - run);
+                out[o++] = in[i];
+                i += run;
+                continue;
+            }
+            // Literals until the next run of 3+ (a run of 2 inside literals costs the same either way)
+            int start = i;
+            int count = 0;
+            while (i < in.length && count < 128) {
+                if (i + 2 < in.length && in[i] == in[i + 1] && in[i] == in[i + 2]) break;
+                i++;
+                count++;
+            }
+            out[o++] = (byte) (count - 1);
+            System.arraycopy(in, start, out, o, count);
+            o += count;
+        }
+        return Arrays.copyOf(out, o);
+    }
+
+    static byte[] decompress(byte[] in, int rawLength) {
+        byte[] out = new byte[rawLength];
+        int o = 0;
+        int i = 0;
+        while (i < in.length && o < rawLength) {
+            int n = in[i++];
+            if (n >= 0) {
+                int count = Math.min(n + 1, rawLength - o);
+                System.arraycopy(in, i, out, o, count);
+                i += n + 1;
+                o += count;
+            } else if (n != -128) {
+                int count = Math.min(1 - n, rawLength - o);
+                Arrays.fill(out, o, o + count, in[i++]);
+                o += count;
+            }
+        }
+        return out;
+    }
+
+    private static RasterEncoder.Raster decompress(Entry entry) {
+        return new RasterEncoder.Raster(entry.width, entry.height, entry.stride, decompress(entry.data, entry.rawLength));
+    }
+
+    private static String sha1(String s) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.luqma.pos;
+
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.TransactionTooLargeException;
+
+/**
+ * Prints through the H10's built-in SENRAISE PrinterService binder (no Bluetooth).
+ *
+ * A receipt raster is sent as raw ESC/POS (INIT, GS v 0 bands, feed) in as few binder transactions
+ * as the size limit allows: each transaction carries one band of whole rows, the first one also INIT
+ * and the last one also the feed. A typical 384 x 1500 receipt (72 KB) goes in two transactions
+ * instead of one per command. When the service rejects a transaction as too large, the limit is
+ * halved and the same band is sent again (nothing was delivered), and the smaller limit is kept.
+ *
+ * The vendor AIDL is undocumented: the interface descriptor and the transaction code of its
+ * raw-data call ("printEpson(byte[])") are constructor parameters so they can be set per firmware.
+ * Until they were set by the dashboard or the service reported the expected descriptor at connect
+ * ({@link #interfaceMatches}), the backend is not available and gets no jobs.
+ */
+final class SenraisePrintBackend implements PrintBackend {
+
+    static final String DEFAULT_DESCRIPTOR = "recieptservice.com.recieptservice.PrinterInterface";
+    static final int DEFAULT_RAW_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION;
+
+    /** Well below the 1 MB binder buffer, which is shared by every transaction in flight */
+    static final int DEFAULT_MAX_TRANSACTION_BYTES = 64 * 1024;
+    private static final int MIN_TRANSACTION_BYTES = 4 * 1024;
+
+    private final IBinder binder;
+    private final String descriptor;
+    private final int rawTransaction;
+    private final boolean verified;
+    private volatile int maxTransactionBytes;
+
+    /** @param verified descriptor / transaction code configured or checked against the service */
+    SenraisePrintBackend(IBinder binder, String descriptor, int rawTransaction, int maxTransactionBytes,
+                         boolean verified) {
+        this.binder = binder;
+        this.descriptor = descriptor;
+        this.rawTransaction = rawTransaction;
+        this.verified = verified;
+        this.maxTransactionBytes = Math.max(MIN_TRANSACTION_BYTES, maxTransactionBytes);
+    }
+
+    boolean isAlive() {
+        return binder != null && binder.isBinderAlive();
+    }
+
+    /** The service reports this interface descriptor (standard interface transaction, prints nothing) */
+    static boolean interfaceMatches(IBinder binder, String descriptor) {
+        try {
+            return binder != null && descriptor.equals(binder.getInterfaceDescriptor());
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    boolean isVerified() {
+        return verified;
+    }
+
+    @Override
+    public String name() {
+        return "senraise";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return verified && isAlive();
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean print(RasterEncoder.Raster raster, int feedLines) throws RemoteException, PrintBackend.NotSentException {
+        return printRaster(raster, feedLines);
+    }
+
+    /**
+     * Print a packed raster and feed paper.
+     * @return true when every transaction was accepted by the service
+     * @throws PrintBackend.NotSentException when the first transaction was not delivered
+     */
+    synchronized boolean printRaster(RasterEncoder.Raster raster, int feedLines)
+            throws RemoteException, PrintBackend.NotSentException {
+        byte[] feed = EscPosEncoder.feedLines(feedLines);
+        int transactions = 0;
+        int bytes = 0;
+        byte[] buffer = null;
+
+        int row = 0;
+        while (row < raster.height || transactions == 0) {
+            int limit = maxTransactionBytes;
+            if (buffer == null || buffer.length < limit) buffer = new byte[limit];
+
+            // Payload room for this transaction: INIT on the first, feed reserved in case it's the last
+            int len = 0;
+            if (transactions == 0) {
+                System.arraycopy(EscPosEncoder.INIT, 0, buffer, 0, EscPosEncoder.INIT.length);
+                len = EscPosEncoder.INIT.length;
+            }
+            int room = limit - len - feed.length - EscPosEncoder.RASTER_HEADER_BYTES;
+            int rows = Math.min(raster.height - row, Math.max(1, room / raster.stride));
+            if (rows > 0) {
+                len += EscPosEncoder.writeRasterBand(raster, row, rows, buffer, len);
+            }
+            boolean last = row + rows >= raster.height;
+            if (last) {
+                System.arraycopy(feed, 0, buffer, len, feed.length);
+                len += feed.length;
+            }
+
+            try {
+                send(buffer, len);
+            } catch (TransactionTooLargeException e) {
+                if (limit <= MIN_TRANSACTION_BYTES) {
+                    if (transactions == 0) throw new PrintBackend.NotSentException(String.valueOf(e.getMessage()));
+                    throw e;
+                }
+                maxTransactionBytes = Math.max(MIN_TRANSACTION_BYTES, limit / 2);
+                PrintEventLog.log(PrintEventLog.WARN, PrintEventLog.SENRAISE_SHRINK, len, maxTransactionBytes);
+                continue; // same rows again with the smaller limit
+            } catch (RemoteException e) {
+                if (transactions == 0) throw new PrintBackend.NotSentException(String.valueOf(e.getMessage()));
+                throw e;
+            }
+            transactions++;
+            bytes += len;
+            row += rows;
+            if (last) break;
+        }
+
+        PrintEventLog.log(PrintEventLog.INFO, PrintEventLog.SENRAISE_SENT, bytes, transactions);
+        return true;
+    }
+
+    private void send(byte[] payload, int len) throws RemoteException {
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(descriptor);
+            data.writeByteArray(payload, 0, len);
+            if (!binder.transact(rawTransaction, data, reply, 0)) {
+                throw new RemoteException("SENRAISE transaction " + rawTransaction + " not handled");
+            }
+            reply.readException();
+        } finally {
+            reply.recycle();
+            data.recycle();
+        }
+    }
+
+    int getMaxTransactionBytes() {
+        return maxTransactionBytes;
+    }
+}
@@ -0,0 +1,57 @@
+package com.luqma.pos;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Named timing checkpoints from process start through the first print
+ * (onCreate stages, printer connection, page load, warm-up, first receipt).
+ * Times are elapsedRealtime milliseconds relative to process start; queried via the bridge.
+ */
+final class StartupTimeline {
+
+    private final long processStart = Process.getStartElapsedRealtime();
+    private final List<String> names = new ArrayList<>();
+    private final List<Long> times = new ArrayList<>();
+
+    /** Record a checkpoint (repeated names are recorded again) */
+    synchronized void mark(String name) {
+        long now = SystemClock.elapsedRealtime();
+        long previous = times.isEmpty() ? processStart : times.get(times.size() - 1);
+        names.add(name);
+        times.add(now);
+        android.util.Log.i("POS", "⏱️ " + name + " @" + (now - processStart) + "ms (+" + (now - previous) + "ms)");
+    }
+
+    /** Record a checkpoint only the first time (e.g. first_print_*) */
+    synchronized void markOnce(String name) {
+        if (!names.contains(name)) mark(name);
+    }
+
+    synchronized boolean has(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * @return JSON: {"checkpoints":[{"name","t_ms","delta_ms"}]} – t_ms since process start,
+     * delta_ms since the previous checkpoint
+     */
+    synchronized String toJson() {
+        StringBuilder json = new StringBuilder(64 + names.size() * 64);
+        json.append("{\"checkpoints\":[");
+        long previous = processStart;
+        for (int i = 0; i < names.size(); i++) {
+            long t = times.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"name\":\"").append(names.get(i)).append('"')
+                .append(",\"t_ms\":").append(t - processStart)
+                .append(",\"delta_ms\":").append(t - previous).append('}');
+            previous = t;
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package com.luqma.pos;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer / single-consumer ring (Vyukov's bounded queue).
+ *
+ * Each slot has a sequence number: {@code pos} when free for the producer claiming position pos,
+ * {@code pos + 1} once that producer has stored its element, {@code pos + capacity} after the
+ * consumer took it. Producers claim positions with a CAS on the tail; the consumer owns the head.
+ * offer() never blocks: a full ring returns false.
+ */
+final class SubmissionRing<T> {
+
+    private final int mask;
+    private final Object[] slots;
+    private final AtomicLongArray sequence;
+    private final AtomicLong tail = new AtomicLong();
+    /** Written by the consumer only */
+    private volatile long head;
+
+    /** @param capacity rounded up to a power of two */
+    SubmissionRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        slots = new Object[size];
+        sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequence.set(i, i);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /** Any thread. @return false when the ring is full */
+    boolean offer(T element) {
+        long pos = tail.get();
+        for (;;) {
+            int index = (int) (pos & mask);
+            long diff = sequence.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = element;
+                    sequence.lazySet(index, pos + 1); // publish
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; // slot not yet consumed: full
+            } else {
+                pos = tail.get(); // another producer took it
+            }
+        }
+    }
+
+    /** Consumer thread only. @return next element or null when empty */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long pos = head;
+        int index = (int) (pos & mask);
+        if (sequence.get(index) != pos + 1) return null; // empty, or producer mid-store
+        T element = (T) slots[index];
+        slots[index] = null;
+        sequence.lazySet(index, pos + mask + 1); // free for the next lap
+        head = pos + 1;
+        return element;
+    }
+
+    /** Claimed positions not yet consumed (approximate while producers are racing) */
+    int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+}
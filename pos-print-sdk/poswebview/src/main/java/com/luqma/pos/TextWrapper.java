@@ -0,0 +1,132 @@
+package com.luqma.pos;
+
+import android.graphics.Paint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Breaks receipt lines to the printable width with the paint they are drawn with
+ * (Paint.measureText / Paint.breakText), for Arabic and Latin text alike: breaking is done in
+ * logical order, so the first piece of an RTL line is the one drawn at the right edge.
+ *
+ * Most lines fit, and the same item names, extras and section titles recur on every order, so
+ * measured widths are kept in an LRU per (paint variant, text); a line that fits costs one map
+ * lookup. Lines that had to be broken keep their pieces in a second, smaller LRU.
+ */
+final class TextWrapper {
+
+    static final int MAX_WIDTHS = 2048;
+    static final int MAX_WRAPPED = 256;
+
+    private final LinkedHashMap<String, Float> widths = new LinkedHashMap<String, Float>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Float> eldest) {
+            return size() > MAX_WIDTHS;
+        }
+    };
+    private final LinkedHashMap<String, List<String>> wrapped = new LinkedHashMap<String, List<String>>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > MAX_WRAPPED;
+        }
+    };
+    private long hits;
+    private long misses;
+    private long wrappedLines;
+
+    /**
+     * Width of text drawn with paint (cached)
+     * @param variant identifies the paint's typeface, size and weight (part of the cache key)
+     */
+    float width(Paint paint, String variant, String text) {
+        String key = variant + '\u0000' + text;
+        synchronized (this) {
+            Float cached = widths.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        float width = paint.measureText(text);
+        synchronized (this) {
+            widths.put(key, width);
+        }
+        return width;
+    }
+
+    /**
+     * Pieces of text that each fit maxWidth: broken at the last space that fits, or mid-word when a
+     * single word is wider than the line. Continuation pieces keep the line's leading indent.
+     * @return a one-element list with text itself when it fits
+     */
+    List<String> wrap(Paint paint, String variant, String text, float maxWidth) {
+        if (width(paint, variant, text) <= maxWidth) return Collections.singletonList(text);
+        String key = variant + '\u0000' + (int) maxWidth + '\u0000' + text;
+        synchronized (this) {
+            List<String> cached = wrapped.get(key);
+            if (cached != null) return cached;
+        }
+
+        int indentEnd = 0;
+        while (indentEnd < text.length() && text.charAt(indentEnd) == ' ') indentEnd++;
+        String indent = text.substring(0, indentEnd);
+        float indentWidth = indentEnd > 0 ? width(paint, variant, indent) : 0;
+        if (indentWidth > maxWidth / 2) {
+            indent = "";
+            indentWidth = 0;
+        }
+
+        List<String> pieces = new ArrayList<>(3);
+        int end = text.length();
+        int pos = 0;
+        while (pos < end) {
+            boolean first = pieces.isEmpty();
+            float available = first ? maxWidth : maxWidth - indentWidth;
+            int fit = paint.breakText(text, pos, end, true, available, null);
+            if (pos + fit >= end) {
+                pieces.add(first ? text.substring(pos) : indent + text.substring(pos));
+                break;
+            }
+            int breakAt = text.lastIndexOf(' ', pos + fit);
+            int next;
+            if (breakAt > pos && breakAt > indentEnd) {
+                next = breakAt + 1;
+            } else {
+                // One word wider than the line: break inside it (never between a surrogate pair)
+                breakAt = pos + Math.max(1, fit);
+                if (breakAt < end && Character.isLowSurrogate(text.charAt(breakAt)) && breakAt - 1 > pos) breakAt--;
+                next = breakAt;
+            }
+            String piece = trimEnd(text.substring(pos, breakAt));
+            pieces.add(first ? piece : indent + piece);
+            pos = next;
+            while (pos < end && text.charAt(pos) == ' ') pos++;
+        }
+
+        synchronized (this) {
+            wrapped.put(key, pieces);
+            wrappedLines++;
+        }
+        return pieces;
+    }
+
+    /** @return JSON: {"widths","width_hits","width_misses","wrapped","wrapped_lines"} */
+    synchronized String toJson() {
+        return "{\"widths\":" + widths.size()
+                + ",\"width_hits\":" + hits
+                + ",\"width_misses\":" + misses
+                + ",\"wrapped\":" + wrapped.size()
+                + ",\"wrapped_lines\":" + wrappedLines + "}";
+    }
+
+    private static String trimEnd(String s) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) == ' ') end--;
+        return s.substring(0, end);
+    }
+}